@@ -101,6 +101,26 @@ void loop()
     TIMER4_BASE->CCR3 = servo_r_pulse;
     TIMER4_BASE->CNT = 5000;
 
+    // Remember when the new position was written to the servos (latency probe)
+    if (serial_position_new) {
+        serial_position_new = 0;
+        serial_applied_timestamp = serial_timestamp;
+        serial_applied_time = micros();
+    }
+
+    // Answer the ping before the telemetry, so the pong is not delayed by it
+    telemetry_pong();
+
+    // Send telemetry to the app
+    telemetry();
+
+    // Measure loop time (without waiting) and count overruns
+    loop_time = micros() - loop_timer;
+    if (loop_time > loop_time_max)
+        loop_time_max = loop_time > 0xFFFF ? 0xFFFF : loop_time;
+    if (loop_time > LOOP_PERIOD)
+        loop_overruns++;
+
     // Check loop time
     while (micros() - loop_timer < LOOP_PERIOD);
     loop_timer = micros();
@@ -33,6 +33,35 @@
 const uint32_t LOOP_PERIOD PROGMEM = 4000;
 const uint32_t MAX_ALLOWED_LOOP_PERIOD PROGMEM = 4050;
 
+// Serial packet lengths (position only and position with velocity)
+const uint8_t SERIAL_PACKET_LENGTH PROGMEM = 16;
+const uint8_t SERIAL_PACKET_VELOCITY_LENGTH PROGMEM = 20;
+
+// Serial protocol v2 (COBS frame delimited by 0x00, CRC-16/CCITT-FALSE)
+// Packet: version, type, sequence, timestamp (4 bytes), X, Y, Z, setpoints X, Y, Z,
+// velocity X, Y (2 bytes each), system info, CRC-16 (all multibyte values are big-endian)
+const uint8_t SERIAL_V2_VERSION PROGMEM = 2;
+const uint8_t SERIAL_V2_TYPE_POSITION PROGMEM = 1;
+const uint8_t SERIAL_V2_PACKET_LENGTH PROGMEM = 26;
+const uint8_t SERIAL_V2_FRAME_LENGTH PROGMEM = 27;
+const uint8_t SERIAL_V2_POSITION_OFFSET PROGMEM = 7;
+
+// Telemetry packet (protocol v2, sent every system_info_byte loops, 0 - no telemetry)
+// Packet: version, type, sequence, micros() (4 bytes), servo pulses P, Q, R, PID outputs X, Y, Z,
+// serial watchdog, max loop time, loop overruns, saturated cycles, lost packets (2 bytes each), CRC-16
+const uint8_t SERIAL_V2_TYPE_TELEMETRY PROGMEM = 2;
+const uint8_t TELEMETRY_PACKET_LENGTH PROGMEM = 31;
+const uint8_t TELEMETRY_FRAME_LENGTH PROGMEM = 33;
+
+// Latency probe (protocol v2). Ping: version, type, sequence, app time (4 bytes), CRC-16
+// Pong (answered in the next loop): version, type, ping sequence, ping app time, micros() at the ping
+// receiving, micros() at the pong sending, timestamp of the last applied position,
+// micros() when it was written to the servos (4 bytes each), CRC-16
+const uint8_t SERIAL_V2_TYPE_PING PROGMEM = 3;
+const uint8_t SERIAL_V2_TYPE_PONG PROGMEM = 4;
+const uint8_t SERIAL_V2_PING_LENGTH PROGMEM = 9;
+const uint8_t PONG_PACKET_LENGTH PROGMEM = 25;
+
 // Cartesian to delta conversion
 const uint16_t X_MIN_P PROGMEM = 1500;
 const uint16_t X_MIN_Q PROGMEM = 1933; // 1500 + 250 * sqrt(3)
@@ -30,12 +30,28 @@
 #define DATATYPES_H
 
 // Common variables
-uint32_t loop_timer;
+uint32_t loop_timer, loop_time;
+uint16_t loop_time_max, loop_overruns;
 
 // Serial communication
-uint8_t serial_buffer[16];
+uint8_t serial_buffer[SERIAL_PACKET_VELOCITY_LENGTH];
 uint8_t serial_buffer_position, serial_byte_previous, serial_check_byte, serial_temp_byte;
+uint8_t serial_packet_length;
 uint8_t system_info_byte;
+uint8_t serial_frame[SERIAL_V2_FRAME_LENGTH], serial_packet[SERIAL_V2_PACKET_LENGTH];
+uint8_t serial_frame_position, serial_sequence_last, serial_v2_active;
+uint16_t serial_lost_packets;
+uint32_t serial_timestamp;
+uint8_t serial_position_new;
+uint32_t serial_applied_timestamp, serial_applied_time;
+uint8_t ping_pending, ping_sequence;
+uint32_t ping_time_app, ping_time_received;
+
+// Telemetry
+uint8_t telemetry_packet[TELEMETRY_PACKET_LENGTH], telemetry_frame[TELEMETRY_FRAME_LENGTH];
+uint8_t telemetry_counter, telemetry_sequence, telemetry_index;
+uint16_t telemetry_saturated_cycles;
+uint32_t telemetry_time;
 uint16_t serial_watchdog = WATCHDOG_LOST_CYCLES;
 float serial_x_last, serial_y_last, serial_z_last;
 float delta_x, delta_y, delta_z;
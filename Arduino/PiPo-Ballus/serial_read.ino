@@ -31,56 +31,43 @@ void serial_read(void) {
     if (serial_watchdog <= WATCHDOG_LOST_CYCLES)
         serial_watchdog++;
 
+    // Accept v1 packets again if the connection is lost
+    if (serial_watchdog >= WATCHDOG_LOST_CYCLES)
+        serial_v2_active = 0;
+
     // Continue loop until all bytes are read
     while (COMMUNICATION_SERIAL.available()) {
         // Read current byte
-        serial_buffer[serial_buffer_position] = COMMUNICATION_SERIAL.read();
+        serial_temp_byte = COMMUNICATION_SERIAL.read();
+
+        // Both protocols are parsed, so the app can use any of them.
+        // v1 parser is disabled after the first v2 packet to not accept v2 frames as v1 packets
+        serial_read_v2(serial_temp_byte);
+        if (serial_v2_active)
+            continue;
+        serial_buffer[serial_buffer_position] = serial_temp_byte;
 
         if (serial_byte_previous == SERIAL_SUFFIX_1 && serial_buffer[serial_buffer_position] == SERIAL_SUFFIX_2) {
             // If data suffix appears
+            // Get packet length (16 bytes - position only, 20 bytes - position and velocity)
+            serial_packet_length = serial_buffer_position + 1;
+
             // Reset buffer position
             serial_buffer_position = 0;
 
             // Reset check sum
             serial_check_byte = 0;
 
-            // Calculate check sum
-            for (serial_temp_byte = 0; serial_temp_byte <= 12; serial_temp_byte++)
+            // Calculate check sum (all bytes before the check byte)
+            for (serial_temp_byte = 0; serial_temp_byte < serial_packet_length - 3; serial_temp_byte++)
                 serial_check_byte ^= serial_buffer[serial_temp_byte];
 
-            // Check if the check sums are equal
-            if (serial_check_byte == serial_buffer[13]) {
-                // Parse X data
-                pid_input_x = (uint16_t)serial_buffer[1] | (uint16_t)serial_buffer[0] << 8;
-                delta_x = pid_input_x - serial_x_last;
-                serial_x_last = pid_input_x;
-
-                // Parse Y data
-                pid_input_y = (uint16_t)serial_buffer[3] | (uint16_t)serial_buffer[2] << 8;
-                delta_y = pid_input_y - serial_y_last;
-                serial_y_last = pid_input_y;
-
-                // Parse Z data
-                pid_input_z = (uint16_t)serial_buffer[5] | (uint16_t)serial_buffer[4] << 8;
-                delta_z = pid_input_z - serial_z_last;
-                serial_z_last = pid_input_z;
-
-                // Parse setpoints
-                pid_x_setpoint = (uint16_t)serial_buffer[7] | (uint16_t)serial_buffer[6] << 8;
-                pid_y_setpoint = (uint16_t)serial_buffer[9] | (uint16_t)serial_buffer[8] << 8;
-                pid_z_setpoint = (uint16_t)serial_buffer[11] | (uint16_t)serial_buffer[10] << 8;
-
-                // Currently not used
-                system_info_byte = serial_buffer[12];
-
-                // Calculate the increment in one cycle
-                delta_x /= (float)serial_watchdog;
-                delta_y /= (float)serial_watchdog;
-                delta_z /= (float)serial_watchdog;
-
-                // Reset watchdog
-                serial_watchdog = 0;
-            }
+            // Check if the packet length is correct and the check sums are equal
+            if ((serial_packet_length == SERIAL_PACKET_LENGTH
+                || serial_packet_length == SERIAL_PACKET_VELOCITY_LENGTH)
+                && serial_check_byte == serial_buffer[serial_packet_length - 3])
+                serial_parse_position(serial_buffer, serial_packet_length == SERIAL_PACKET_VELOCITY_LENGTH,
+                    serial_buffer[serial_packet_length - 4]);
         }
         else {
             // Store data bytes
@@ -88,8 +75,177 @@ void serial_read(void) {
             serial_buffer_position++;
 
             // Reset buffer on overflow
-            if (serial_buffer_position >= 16)
+            if (serial_buffer_position >= SERIAL_PACKET_VELOCITY_LENGTH)
                 serial_buffer_position = 0;
         }
     }
 }
+
+/// <summary>
+/// Parses one byte of the protocol v2 stream (COBS frames delimited by 0x00)
+/// </summary>
+/// <param name="data">received byte</param>
+void serial_read_v2(uint8_t data) {
+    if (data != 0) {
+        // Store frame bytes (frame is dropped on overflow)
+        if (serial_frame_position < SERIAL_V2_FRAME_LENGTH)
+            serial_frame[serial_frame_position] = data;
+        if (serial_frame_position < 255)
+            serial_frame_position++;
+        return;
+    }
+
+    // Delimiter found. Check frame length, CRC and version
+    uint8_t length = serial_frame_position <= SERIAL_V2_FRAME_LENGTH
+        ? serial_cobs_decode(serial_frame, serial_frame_position, serial_packet) : 0;
+    serial_frame_position = 0;
+    if (length <= 2 || serial_packet[0] != SERIAL_V2_VERSION
+        || serial_crc16(serial_packet, length - 2)
+        != ((uint16_t)serial_packet[length - 2] << 8 | serial_packet[length - 1]))
+        return;
+
+    // Ping of the latency probe (pong is sent in telemetry_pong())
+    if (serial_packet[1] == SERIAL_V2_TYPE_PING && length == SERIAL_V2_PING_LENGTH) {
+        ping_time_received = micros();
+        ping_sequence = serial_packet[2];
+        ping_time_app = (uint32_t)serial_packet[3] << 24 | (uint32_t)serial_packet[4] << 16
+            | (uint32_t)serial_packet[5] << 8 | serial_packet[6];
+        ping_pending = 1;
+    }
+
+    // Position packet
+    if (serial_packet[1] == SERIAL_V2_TYPE_POSITION && length == SERIAL_V2_PACKET_LENGTH) {
+        // Count lost packets by the sequence number
+        if (serial_watchdog < WATCHDOG_LOST_CYCLES)
+            serial_lost_packets += (uint8_t)(serial_packet[2] - serial_sequence_last - 1);
+        serial_sequence_last = serial_packet[2];
+
+        // Capture timestamp (us, app clock)
+        serial_timestamp = (uint32_t)serial_packet[3] << 24 | (uint32_t)serial_packet[4] << 16
+            | (uint32_t)serial_packet[5] << 8 | serial_packet[6];
+
+        serial_parse_position(serial_packet + SERIAL_V2_POSITION_OFFSET, 1,
+            serial_packet[SERIAL_V2_PACKET_LENGTH - 3]);
+        serial_position_new = 1;
+        serial_v2_active = 1;
+    }
+}
+
+/// <summary>
+/// Sets PID inputs and setpoints from the received packet and resets watchdog
+/// </summary>
+/// <param name="data">X, Y, Z, setpoints X, Y, Z and velocity X, Y (2 bytes each, big-endian)</param>
+/// <param name="velocity">1 if the packet has velocity</param>
+/// <param name="info">system info byte</param>
+void serial_parse_position(uint8_t *data, uint8_t velocity, uint8_t info) {
+    // Parse X data
+    pid_input_x = (uint16_t)data[1] | (uint16_t)data[0] << 8;
+    delta_x = pid_input_x - serial_x_last;
+    serial_x_last = pid_input_x;
+
+    // Parse Y data
+    pid_input_y = (uint16_t)data[3] | (uint16_t)data[2] << 8;
+    delta_y = pid_input_y - serial_y_last;
+    serial_y_last = pid_input_y;
+
+    // Parse Z data
+    pid_input_z = (uint16_t)data[5] | (uint16_t)data[4] << 8;
+    delta_z = pid_input_z - serial_z_last;
+    serial_z_last = pid_input_z;
+
+    // Parse setpoints
+    pid_x_setpoint = (uint16_t)data[7] | (uint16_t)data[6] << 8;
+    pid_y_setpoint = (uint16_t)data[9] | (uint16_t)data[8] << 8;
+    pid_z_setpoint = (uint16_t)data[11] | (uint16_t)data[10] << 8;
+
+    // Telemetry decimation: send telemetry packet every info loops (0 - no telemetry)
+    system_info_byte = info;
+
+    // Calculate the increment in one cycle
+    delta_x /= (float)serial_watchdog;
+    delta_y /= (float)serial_watchdog;
+    delta_z /= (float)serial_watchdog;
+
+    // Use velocity estimated by the tracker instead of the difference between packets
+    if (velocity) {
+        // Velocity in units per second to the increment in one cycle
+        delta_x = (float)(int16_t)((uint16_t)data[13] | (uint16_t)data[12] << 8)
+            * LOOP_PERIOD / 1000000.f;
+        delta_y = (float)(int16_t)((uint16_t)data[15] | (uint16_t)data[14] << 8)
+            * LOOP_PERIOD / 1000000.f;
+    }
+
+    // Reset watchdog
+    serial_watchdog = 0;
+}
+
+/// <summary>
+/// Decodes COBS frame (without the delimiter)
+/// </summary>
+/// <param name="input">encoded bytes</param>
+/// <param name="length">number of encoded bytes</param>
+/// <param name="output">output buffer (SERIAL_V2_PACKET_LENGTH bytes)</param>
+/// <returns>length of the decoded bytes or 0 if the frame is malformed</returns>
+uint8_t serial_cobs_decode(uint8_t *input, uint8_t length, uint8_t *output) {
+    uint8_t input_index = 0, output_index = 0, code, i;
+    while (input_index < length) {
+        code = input[input_index++];
+        if (code == 0 || input_index + code - 1 > length)
+            return 0;
+        for (i = 1; i < code; i++) {
+            if (output_index >= SERIAL_V2_PACKET_LENGTH)
+                return 0;
+            output[output_index++] = input[input_index++];
+        }
+
+        // Zero byte between the blocks
+        if (code < 0xFF && input_index < length) {
+            if (output_index >= SERIAL_V2_PACKET_LENGTH)
+                return 0;
+            output[output_index++] = 0;
+        }
+    }
+    return output_index;
+}
+
+/// <summary>
+/// Encodes bytes with COBS and appends 0x00 delimiter (input is shorter than 254 bytes)
+/// </summary>
+/// <param name="input">bytes to encode</param>
+/// <param name="length">number of bytes to encode</param>
+/// <param name="output">output buffer (length + 2 bytes)</param>
+/// <returns>length of the encoded frame with the delimiter</returns>
+uint8_t serial_cobs_encode(uint8_t *input, uint8_t length, uint8_t *output) {
+    uint8_t code_index = 0, output_index = 1, code = 1, i;
+    for (i = 0; i < length; i++) {
+        if (input[i] == 0) {
+            output[code_index] = code;
+            code_index = output_index++;
+            code = 1;
+        }
+        else {
+            output[output_index++] = input[i];
+            code++;
+        }
+    }
+    output[code_index] = code;
+    output[output_index++] = 0;
+    return output_index;
+}
+
+/// <summary>
+/// Calculates CRC-16/CCITT-FALSE (polynomial 0x1021, initial value 0xFFFF)
+/// </summary>
+/// <param name="data">input bytes</param>
+/// <param name="length">number of bytes</param>
+/// <returns>CRC</returns>
+uint16_t serial_crc16(uint8_t *data, uint8_t length) {
+    uint16_t crc = 0xFFFF;
+    uint8_t i, bit;
+    for (i = 0; i < length; i++) {
+        crc ^= (uint16_t)data[i] << 8;
+        for (bit = 0; bit < 8; bit++)
+            crc = (crc & 0x8000) ? (crc << 1) ^ 0x1021 : crc << 1;
+    }
+    return crc;
+}
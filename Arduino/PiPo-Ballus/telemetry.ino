@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Table controller
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+/// <summary>
+/// Counts saturated cycles and sends telemetry packet every system_info_byte loops
+/// </summary>
+void telemetry(void) {
+    // Count cycles with servo pulses out of the calibrated range or PID outputs at the limit
+    // (outputs are filtered, so 99% of the limit is used)
+    if ((telemetry_saturated(servo_p_pulse, SERVO_P_LOWEST, SERVO_P_HIGHEST)
+        || telemetry_saturated(servo_q_pulse, SERVO_Q_LOWEST, SERVO_Q_HIGHEST)
+        || telemetry_saturated(servo_r_pulse, SERVO_R_LOWEST, SERVO_R_HIGHEST)
+        || abs(pid_output_x) >= PID_XY_MAX * 0.99f || abs(pid_output_y) >= PID_XY_MAX * 0.99f
+        || abs(pid_output_z) >= PID_Z_MAX * 0.99f)
+        && telemetry_saturated_cycles < 0xFFFF)
+        telemetry_saturated_cycles++;
+
+    // Telemetry is requested by the app with the system info byte
+    if (system_info_byte == 0 || ++telemetry_counter < system_info_byte)
+        return;
+    telemetry_counter = 0;
+
+    // Header
+    telemetry_packet[0] = SERIAL_V2_VERSION;
+    telemetry_packet[1] = SERIAL_V2_TYPE_TELEMETRY;
+    telemetry_packet[2] = telemetry_sequence++;
+    telemetry_index = 3;
+    telemetry_time = micros();
+    telemetry_put(telemetry_time >> 16);
+    telemetry_put(telemetry_time);
+
+    // Values
+    telemetry_put(servo_p_pulse);
+    telemetry_put(servo_q_pulse);
+    telemetry_put(servo_r_pulse);
+    telemetry_put((int16_t)pid_output_x);
+    telemetry_put((int16_t)pid_output_y);
+    telemetry_put((int16_t)pid_output_z);
+    telemetry_put(serial_watchdog);
+    telemetry_put(loop_time_max);
+    telemetry_put(loop_overruns);
+    telemetry_put(telemetry_saturated_cycles);
+    telemetry_put(serial_lost_packets);
+    telemetry_put(serial_crc16(telemetry_packet, telemetry_index));
+
+    // COBS framing
+    COMMUNICATION_SERIAL.write(telemetry_frame,
+        serial_cobs_encode(telemetry_packet, TELEMETRY_PACKET_LENGTH, telemetry_frame));
+
+    // Start new window
+    loop_time_max = 0;
+    telemetry_saturated_cycles = 0;
+}
+
+/// <summary>
+/// Answers the last received ping with pong packet (latency probe)
+/// </summary>
+void telemetry_pong(void) {
+    if (!ping_pending)
+        return;
+    ping_pending = 0;
+
+    // Header and times of the ping
+    telemetry_packet[0] = SERIAL_V2_VERSION;
+    telemetry_packet[1] = SERIAL_V2_TYPE_PONG;
+    telemetry_packet[2] = ping_sequence;
+    telemetry_index = 3;
+    telemetry_put(ping_time_app >> 16);
+    telemetry_put(ping_time_app);
+    telemetry_put(ping_time_received >> 16);
+    telemetry_put(ping_time_received);
+
+    // Last applied position (for the photon-to-servo latency), after the pong sending time
+    telemetry_index = 15;
+    telemetry_put(serial_applied_timestamp >> 16);
+    telemetry_put(serial_applied_timestamp);
+    telemetry_put(serial_applied_time >> 16);
+    telemetry_put(serial_applied_time);
+
+    // Pong sending time (as late as possible) and CRC
+    telemetry_time = micros();
+    telemetry_index = 11;
+    telemetry_put(telemetry_time >> 16);
+    telemetry_put(telemetry_time);
+    telemetry_index = PONG_PACKET_LENGTH - 2;
+    telemetry_put(serial_crc16(telemetry_packet, telemetry_index));
+
+    // COBS framing
+    COMMUNICATION_SERIAL.write(telemetry_frame,
+        serial_cobs_encode(telemetry_packet, PONG_PACKET_LENGTH, telemetry_frame));
+}
+
+/// <summary>
+/// Writes 2 bytes (big-endian) to the telemetry packet
+/// </summary>
+/// <param name="value">value to write</param>
+void telemetry_put(uint16_t value) {
+    telemetry_packet[telemetry_index++] = value >> 8;
+    telemetry_packet[telemetry_index++] = value;
+}
+
+/// <summary>
+/// Checks if the servo pulse is out of the calibrated range
+/// </summary>
+/// <param name="pulse">servo pulse</param>
+/// <param name="lowest">pulse at minimum value (1000)</param>
+/// <param name="highest">pulse at maximum value (2000)</param>
+/// <returns>1 if the pulse is out of the range</returns>
+uint8_t telemetry_saturated(uint16_t pulse, uint16_t lowest, uint16_t highest) {
+    return pulse < min(lowest, highest) || pulse > max(lowest, highest);
+}
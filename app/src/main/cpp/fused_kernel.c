@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+/*
+ * Fused table and ball kernel. In one pass over the RGBA (or packed YUV) frame each pixel is
+ * labeled with the color lookup table of LUTSegmenter / YUVSegmenter, ball pixels inside the
+ * table's ellipse are accumulated (count, sum x, sum y, bounding box) and the bounding box
+ * of the table pixels is calculated. Only rows and columns with at least MIN_LINE_PIXELS
+ * table pixels extend the table's bounding box, so stray pixels do not inflate it.
+ * No masks are written
+ */
+
+#include <jni.h>
+#include <math.h>
+#include <stdint.h>
+#include <string.h>
+
+#ifndef M_PI
+#define M_PI 3.14159265358979323846
+#endif
+
+#define LABEL_TABLE 1
+#define LABEL_BALL 2
+
+/* Minimum number of table pixels in a row or column of the table's bounding box */
+#define MIN_LINE_PIXELS 3
+
+/* Maximum frame width (table pixels of each column are counted on the stack) */
+#define MAX_COLS 4096
+
+/* Indexes of the result array (the same as FusedKernel.RESULT_...) */
+enum {
+    RESULT_BALL_COUNT,
+    RESULT_BALL_SUM_X,
+    RESULT_BALL_SUM_Y,
+    RESULT_BALL_MIN_X,
+    RESULT_BALL_MIN_Y,
+    RESULT_BALL_MAX_X,
+    RESULT_BALL_MAX_Y,
+    RESULT_TABLE_COUNT,
+    RESULT_TABLE_MIN_X,
+    RESULT_TABLE_MIN_Y,
+    RESULT_TABLE_MAX_X,
+    RESULT_TABLE_MAX_Y,
+    RESULT_LENGTH
+};
+
+/*
+ * Calculates the range of columns of one row inside the ellipse
+ * (dx^2 * p + dx * q + r <= 0, where dx is the column relative to the ellipse's center)
+ */
+static void ellipse_row(double center_x, double dy, double p, double q_k, double r_k,
+                        int cols, int *x_min, int *x_max) {
+    double q = q_k * dy;
+    double r = r_k * dy * dy - 1.;
+    double discriminant = q * q - 4. * p * r;
+    if (discriminant < 0.) {
+        *x_min = 0;
+        *x_max = -1;
+        return;
+    }
+    double root = sqrt(discriminant);
+    double left = ceil(center_x + (-q - root) / (2. * p));
+    double right = floor(center_x + (-q + root) / (2. * p));
+    *x_min = left < 0. ? 0 : (int) left;
+    *x_max = right > cols - 1 ? cols - 1 : (int) right;
+}
+
+JNIEXPORT void JNICALL
+Java_com_fern_pipo_1ballus_FusedKernel_run(JNIEnv *env, jclass clazz, jlong data_address,
+                                           jint rows, jint cols, jint step, jint channels,
+                                           jobject labels_buffer,
+                                           jdouble center_x, jdouble center_y,
+                                           jdouble semi_axis_x, jdouble semi_axis_y,
+                                           jdouble angle, jlongArray result_array) {
+    (void) clazz;
+    const uint8_t *data = (const uint8_t *) (intptr_t) data_address;
+    const uint8_t *labels = (const uint8_t *) (*env)->GetDirectBufferAddress(env, labels_buffer);
+    if (data == NULL || labels == NULL || rows <= 0 || cols <= 0 || cols > MAX_COLS) {
+        (*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/IllegalArgumentException"),
+                         "Empty frame, frame wider than 4096 pixels or no lookup table");
+        return;
+    }
+
+    /* Ellipse coefficients (ball is accumulated only if the ellipse is set) */
+    int ellipse = semi_axis_x > 0. && semi_axis_y > 0.;
+    double p = 0., q_k = 0., r_k = 0.;
+    if (ellipse) {
+        double c = cos(angle * M_PI / 180.);
+        double s = sin(angle * M_PI / 180.);
+        double a2 = 1. / (semi_axis_x * semi_axis_x);
+        double b2 = 1. / (semi_axis_y * semi_axis_y);
+        p = c * c * a2 + s * s * b2;
+        q_k = 2. * c * s * (a2 - b2);
+        r_k = s * s * a2 + c * c * b2;
+    }
+
+    int64_t ball_count = 0, ball_sum_x = 0, ball_sum_y = 0;
+    int ball_min_x = cols, ball_min_y = rows, ball_max_x = -1, ball_max_y = -1;
+    int64_t table_count = 0;
+    int table_min_x = cols, table_min_y = rows, table_max_x = -1, table_max_y = -1;
+    int table_columns[MAX_COLS];
+    memset(table_columns, 0, sizeof(int) * (size_t) cols);
+
+    for (int y = 0; y < rows; y++) {
+        const uint8_t *pixel = data + (size_t) y * step;
+
+        /* Columns of the row inside the ellipse */
+        int ball_x_min = 0, ball_x_max = -1;
+        if (ellipse)
+            ellipse_row(center_x, y - center_y, p, q_k, r_k, cols, &ball_x_min, &ball_x_max);
+
+        int table_row_count = 0;
+        int ball_first = -1, ball_last = -1, ball_row_count = 0;
+        int64_t ball_row_sum_x = 0;
+        for (int x = 0; x < cols; x++, pixel += channels) {
+            int label = labels[((pixel[0] & 0xFC) << 10)
+                               | ((pixel[1] & 0xFC) << 4)
+                               | (pixel[2] >> 2)];
+            if (label == 0)
+                continue;
+
+            if (label & LABEL_TABLE) {
+                table_columns[x]++;
+                table_row_count++;
+            }
+            if ((label & LABEL_BALL) && x >= ball_x_min && x <= ball_x_max) {
+                if (ball_first < 0)
+                    ball_first = x;
+                ball_last = x;
+                ball_row_count++;
+                ball_row_sum_x += x;
+            }
+        }
+
+        /* Update bounding boxes once per row */
+        table_count += table_row_count;
+        if (table_row_count >= MIN_LINE_PIXELS) {
+            if (table_min_y > y)
+                table_min_y = y;
+            table_max_y = y;
+        }
+        if (ball_row_count > 0) {
+            ball_count += ball_row_count;
+            ball_sum_x += ball_row_sum_x;
+            ball_sum_y += (int64_t) ball_row_count * y;
+            if (ball_first < ball_min_x)
+                ball_min_x = ball_first;
+            if (ball_last > ball_max_x)
+                ball_max_x = ball_last;
+            if (ball_min_y > y)
+                ball_min_y = y;
+            ball_max_y = y;
+        }
+    }
+
+    /* Columns of the table's bounding box */
+    for (int x = 0; x < cols; x++) {
+        if (table_columns[x] >= MIN_LINE_PIXELS) {
+            if (table_min_x > x)
+                table_min_x = x;
+            table_max_x = x;
+        }
+    }
+
+    jlong result[RESULT_LENGTH];
+    result[RESULT_BALL_COUNT] = ball_count;
+    result[RESULT_BALL_SUM_X] = ball_sum_x;
+    result[RESULT_BALL_SUM_Y] = ball_sum_y;
+    result[RESULT_BALL_MIN_X] = ball_min_x;
+    result[RESULT_BALL_MIN_Y] = ball_min_y;
+    result[RESULT_BALL_MAX_X] = ball_max_x;
+    result[RESULT_BALL_MAX_Y] = ball_max_y;
+    result[RESULT_TABLE_COUNT] = table_count;
+    result[RESULT_TABLE_MIN_X] = table_min_x;
+    result[RESULT_TABLE_MIN_Y] = table_min_y;
+    result[RESULT_TABLE_MAX_X] = table_max_x;
+    result[RESULT_TABLE_MAX_Y] = table_max_y;
+    (*env)->SetLongArrayRegion(env, result_array, 0, RESULT_LENGTH, result);
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+package com.fern.pipo_ballus;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * This interface provides ball detection inside the table for OpenCVHandler class.
+ * Implementations can track the ball between frames (see reset())
+ */
+public interface BallDetector {
+    int BALL_FOUND = 0;
+    int BALL_NOT_FOUND = 1;
+    int BALL_WRONG_SIZE = 2;
+
+    /**
+     * Finds the ball inside the table
+     * @param inputRGBA input RGBA frame
+     * @param maskBall full frame ball mask or null if it was not calculated
+     * @param colorSegmenter segmenter for the parts of the frame
+     * @param tableDetector table with the found geometry
+     * @return BALL_FOUND, BALL_NOT_FOUND or BALL_WRONG_SIZE
+     */
+    int find(Mat inputRGBA, Mat maskBall, ColorSegmenter colorSegmenter,
+             TableDetector tableDetector);
+
+    /**
+     * Forgets the last ball position
+     */
+    void reset();
+
+    /**
+     * Sets processing scale of the frame and forgets the last position
+     * @param scale processing scale (1 - full camera frame)
+     */
+    void setScale(double scale);
+
+    /**
+     * @return center of the found ball
+     */
+    Point getCenter();
+
+    /**
+     * @return radius of the found ball
+     */
+    float getRadius();
+
+    /**
+     * @return confidence of the found ball (0 - 1)
+     */
+    double getConfidence();
+
+    /**
+     * @return time spent on the ball on the last frame (ms)
+     */
+    double getTime();
+
+    /**
+     * Releases native memory of the detector (it must not be used after that)
+     */
+    void release();
+}
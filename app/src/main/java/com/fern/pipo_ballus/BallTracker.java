@@ -0,0 +1,713 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class finds the ball inside the table.
+ * The search starts in a small window around the predicted ball position (sized by the ball's
+ * radius and recent velocity) and widens step by step up to the table's bounding rectangle,
+ * so the per-frame cost scales with the ball size instead of the camera resolution.
+ * In pyramid mode the whole table is never searched at full resolution: the rough position
+ * is found on the table downscaled PYRAMID_FACTOR times and refined in a small window around it.
+ * Windows are aligned to WINDOW_ALIGN pixels and their headers are cached, so a new header is
+ * created only when the window moves to the next cell or the table changes.
+ * This is the default BallDetector (HSV / lookup table segmentation and contours or blobs)
+ */
+public class BallTracker implements BallDetector {
+    private final static int MIN_BALL_AREA = 100;
+    private final static int WINDOW_MARGIN = 8;
+    private final static int WINDOW_GROWTH = 2;
+    private final static double VELOCITY_FILTER = 0.5;
+    private final static int PYRAMID_FACTOR = 4;
+    private final static int WINDOW_ALIGN = 8;
+    private final static int HEADER_SETS = 12;
+
+    private final BlobExtractor blobExtractor;
+    private final boolean centroid, pyramid;
+    private final List<MatOfPoint> contours;
+    private final Mat hierarchy;
+    private final MatOfPoint2f contour2f;
+    private final Mat roiTable, roiBall, ballContourMask;
+    private final Scalar singleWhiteColor, singleBlackColor;
+    private final Point ballCenter, windowOffset, contourOffset;
+    private final float[] radius;
+    private final Rect frameRect, tableRect, coarseRect, window, blobRect, ballRect;
+    private final Mat coarseRGBA, coarseTable, coarseBall, coarseTableCircle;
+    private final Point coarseCenter;
+    private final Size coarseSize;
+    private final WindowHeader[] windowHeaders;
+    private long windowHeadersUsed;
+    private double coarseRadius;
+    private int[] pointsBuffer;
+    private byte[] maskBuffer;
+
+    private int minBallArea;
+    private boolean tracking;
+    private double lastX, lastY, velocityX, velocityY;
+    private double confidence, time;
+
+    /**
+     * @param connectedComponents true to find the ball with BlobExtractor instead of findContours
+     * @param centroid true to calculate sub-pixel ball center from the mask moments
+     *                 instead of the enclosing circle
+     * @param pyramid true to find the rough ball position on the downscaled table
+     *                instead of widening the search window
+     */
+    BallTracker(boolean connectedComponents, boolean centroid, boolean pyramid) {
+        this.blobExtractor = connectedComponents ? new BlobExtractor() : null;
+        this.centroid = centroid;
+        this.pyramid = pyramid;
+        this.contours = new ArrayList<>();
+        this.hierarchy = new Mat();
+        this.contour2f = new MatOfPoint2f();
+        this.roiTable = new Mat();
+        this.roiBall = new Mat();
+        this.ballContourMask = new Mat();
+        this.singleWhiteColor = new Scalar(255);
+        this.singleBlackColor = new Scalar(0);
+        this.ballCenter = new Point();
+        this.windowOffset = new Point();
+        this.contourOffset = new Point();
+        this.radius = new float[1];
+        this.frameRect = new Rect();
+        this.tableRect = new Rect();
+        this.coarseRect = new Rect();
+        this.window = new Rect();
+        this.blobRect = new Rect();
+        this.ballRect = new Rect();
+        this.coarseRGBA = new Mat();
+        this.coarseTable = new Mat();
+        this.coarseBall = new Mat();
+        this.coarseTableCircle = new Mat();
+        this.coarseCenter = new Point();
+        this.coarseSize = new Size();
+        this.windowHeaders = new WindowHeader[HEADER_SETS];
+        for (int i = 0; i < HEADER_SETS; i++)
+            this.windowHeaders[i] = new WindowHeader();
+        this.pointsBuffer = new int[0];
+        this.maskBuffer = new byte[0];
+        this.minBallArea = minArea(1);
+    }
+
+    /**
+     * Finds the ball inside the table and measures the search time
+     * @param inputRGBA input RGBA frame
+     * @param maskBall full frame ball mask or null to segment only the search window
+     * @param colorSegmenter segmenter for the search window
+     * @param tableDetector table with locked or detected geometry
+     * @return BALL_FOUND, BALL_NOT_FOUND or BALL_WRONG_SIZE
+     */
+    @Override
+    public int find(Mat inputRGBA, Mat maskBall, ColorSegmenter colorSegmenter,
+                    TableDetector tableDetector) {
+        long timeStart = System.nanoTime();
+        confidence = 0;
+        int status = findBall(inputRGBA, maskBall, colorSegmenter, tableDetector);
+        time = (System.nanoTime() - timeStart) / 1e6;
+        return status;
+    }
+
+    /**
+     * Finds the ball starting from the predicted window
+     * @return BALL_FOUND, BALL_NOT_FOUND or BALL_WRONG_SIZE
+     */
+    private int findBall(Mat inputRGBA, Mat maskBall, ColorSegmenter colorSegmenter,
+                         TableDetector tableDetector) {
+        frameRect.width = inputRGBA.cols();
+        frameRect.height = inputRGBA.rows();
+        intersect(tableDetector.getBoundingRect(), frameRect, tableRect);
+        int maxBallArea = tableDetector.getArea() / 4;
+        int status = BALL_NOT_FOUND;
+
+        // Start from the predicted position or from the whole table
+        int halfSize = tracking ? (int) (radius[0] * 2
+                + Math.abs(velocityX) * 2 + Math.abs(velocityY) * 2) + WINDOW_MARGIN : 0;
+        while (true) {
+            // Find rough position on the downscaled table and refine it in a small window
+            if (pyramid && halfSize == 0) {
+                status = findCoarse(inputRGBA, maskBall, colorSegmenter,
+                        tableDetector.getMask(), maxBallArea);
+                if (status != BALL_FOUND)
+                    break;
+                halfSize = (int) coarseRadius + PYRAMID_FACTOR * 2 + WINDOW_MARGIN;
+                window.x = (int) coarseCenter.x - halfSize;
+                window.y = (int) coarseCenter.y - halfSize;
+                window.width = halfSize * 2;
+                window.height = halfSize * 2;
+                alignWindow(window);
+                intersect(window, tableRect, window);
+                status = findInWindow(inputRGBA, maskBall, colorSegmenter,
+                        tableDetector.getMask(), window, maxBallArea);
+                if (status == BALL_FOUND) {
+                    update();
+                    return BALL_FOUND;
+                }
+                break;
+            }
+
+            if (halfSize > 0) {
+                window.x = (int) (lastX + velocityX) - halfSize;
+                window.y = (int) (lastY + velocityY) - halfSize;
+                window.width = halfSize * 2;
+                window.height = halfSize * 2;
+                alignWindow(window);
+                intersect(window, tableRect, window);
+            } else {
+                window.x = tableRect.x;
+                window.y = tableRect.y;
+                window.width = tableRect.width;
+                window.height = tableRect.height;
+            }
+
+            if (window.width > 0 && window.height > 0) {
+                status = findInWindow(inputRGBA, maskBall, colorSegmenter,
+                        tableDetector.getMask(), window, maxBallArea);
+                if (status == BALL_FOUND) {
+                    update();
+                    return BALL_FOUND;
+                }
+            }
+
+            // Widen the window until it covers the table (or search the downscaled table)
+            if (window.width >= tableRect.width && window.height >= tableRect.height)
+                break;
+            if (pyramid) {
+                halfSize = 0;
+                continue;
+            }
+            halfSize *= WINDOW_GROWTH;
+            if (halfSize * 2 >= Math.max(tableRect.width, tableRect.height))
+                halfSize = 0;
+        }
+
+        tracking = false;
+        return status;
+    }
+
+    /**
+     * Forgets the last ball position
+     */
+    @Override
+    public void reset() {
+        tracking = false;
+    }
+
+    /**
+     * Sets processing scale of the frame (minimum ball area is scaled) and forgets the last position
+     * @param scale processing scale (1 - full camera frame)
+     */
+    @Override
+    public void setScale(double scale) {
+        minBallArea = minArea(scale);
+        reset();
+    }
+
+    /**
+     * @param scale processing scale (1 - full camera frame)
+     * @return minimum ball area (contour area or number of pixels for connected components)
+     */
+    private int minArea(double scale) {
+        int contourArea = (int) (MIN_BALL_AREA * scale * scale);
+        return blobExtractor != null ? BlobExtractor.toPixelArea(contourArea) : contourArea;
+    }
+
+    /**
+     * @return center of the found ball
+     */
+    @Override
+    public Point getCenter() {
+        return ballCenter;
+    }
+
+    /**
+     * @return radius of the found ball
+     */
+    @Override
+    public float getRadius() {
+        return radius[0];
+    }
+
+    /**
+     * @return part of the ball's enclosing circle covered by the ball mask
+     */
+    @Override
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * @return time of find() on the last frame (ms)
+     */
+    @Override
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * Releases masks and contours
+     */
+    @Override
+    public void release() {
+        releaseContours();
+        hierarchy.release();
+        contour2f.release();
+        roiTable.release();
+        roiBall.release();
+        ballContourMask.release();
+        for (WindowHeader windowHeader : windowHeaders)
+            windowHeader.release();
+        coarseRGBA.release();
+        coarseTable.release();
+        coarseBall.release();
+        coarseTableCircle.release();
+        if (blobExtractor != null)
+            blobExtractor.release();
+    }
+
+    /**
+     * Finds the largest contour with the ball size inside the window
+     * @return BALL_FOUND, BALL_NOT_FOUND or BALL_WRONG_SIZE
+     */
+    private int findInWindow(Mat inputRGBA, Mat maskBall, ColorSegmenter colorSegmenter,
+                             Mat maskTableCircle, Rect window, int maxBallArea) {
+        // Calculate ball mask inside the window (the full frame mask is not changed)
+        Mat roiTableCircle = getWindow(maskTableCircle, window);
+        if (maskBall != null)
+            Core.bitwise_and(getWindow(maskBall, window), roiTableCircle, roiBall);
+        else {
+            colorSegmenter.segment(getWindow(inputRGBA, window), roiTable, roiBall);
+            Core.bitwise_and(roiBall, roiTableCircle, roiBall);
+        }
+
+        // Find ball with connected components
+        if (blobExtractor != null)
+            return findBlob(window, maxBallArea);
+
+        // Find ball contours
+        releaseContours();
+        windowOffset.x = window.x;
+        windowOffset.y = window.y;
+        Imgproc.findContours(roiBall, contours, hierarchy, Imgproc.RETR_EXTERNAL,
+                Imgproc.CHAIN_APPROX_SIMPLE, windowOffset);
+
+        // Check if there is at least one contour
+        if (contours.size() == 0)
+            return BALL_NOT_FOUND;
+
+        // Find largest contour (ball)
+        int maxArea = minBallArea;
+        int ballContourIndex = -1;
+        for (int i = 0; i < contours.size(); i++) {
+            int contourArea = (int) Imgproc.contourArea(contours.get(i));
+            if (contourArea > maxArea && contourArea < maxBallArea) {
+                maxArea = contourArea;
+                ballContourIndex = i;
+            }
+        }
+
+        // Check if correct size found
+        if (ballContourIndex < 0)
+            return BALL_WRONG_SIZE;
+
+        // Find ball position from the moments of the ball contour's pixels
+        if (centroid) {
+            boundingRect(contours.get(ballContourIndex), ballRect);
+            ballRect.x -= window.x;
+            ballRect.y -= window.y;
+            calculateCentroid(ballContourIndex, ballRect, window);
+            return BALL_FOUND;
+        }
+
+        // Find ball position
+        contours.get(ballContourIndex).convertTo(contour2f, CvType.CV_32F);
+        Imgproc.minEnclosingCircle(contour2f, ballCenter, radius);
+        calculateConfidence(maxArea, radius[0]);
+        return BALL_FOUND;
+    }
+
+    /**
+     * Finds the rough ball position on the table downscaled PYRAMID_FACTOR times
+     * (nearest pixels are taken, so ball and table colors are not mixed)
+     * @return BALL_FOUND, BALL_NOT_FOUND or BALL_WRONG_SIZE
+     */
+    private int findCoarse(Mat inputRGBA, Mat maskBall, ColorSegmenter colorSegmenter,
+                           Mat maskTableCircle, int maxBallArea) {
+        if (tableRect.width < PYRAMID_FACTOR || tableRect.height < PYRAMID_FACTOR)
+            return BALL_NOT_FOUND;
+
+        // Calculate downscaled ball mask of the table (the table is cropped to a multiple
+        // of PYRAMID_FACTOR, so the scale is exact and only whole pixels are taken)
+        coarseRect.x = tableRect.x;
+        coarseRect.y = tableRect.y;
+        coarseRect.width = tableRect.width - tableRect.width % PYRAMID_FACTOR;
+        coarseRect.height = tableRect.height - tableRect.height % PYRAMID_FACTOR;
+        coarseSize.width = coarseRect.width / PYRAMID_FACTOR;
+        coarseSize.height = coarseRect.height / PYRAMID_FACTOR;
+        if (maskBall != null)
+            Imgproc.resize(getWindow(maskBall, coarseRect), coarseBall, coarseSize, 0, 0,
+                    Imgproc.INTER_NEAREST);
+        else {
+            Imgproc.resize(getWindow(inputRGBA, coarseRect), coarseRGBA, coarseSize, 0, 0,
+                    Imgproc.INTER_NEAREST);
+            colorSegmenter.segment(coarseRGBA, coarseTable, coarseBall);
+        }
+        Imgproc.resize(getWindow(maskTableCircle, coarseRect), coarseTableCircle, coarseSize,
+                0, 0, Imgproc.INTER_NEAREST);
+        Core.bitwise_and(coarseBall, coarseTableCircle, coarseBall);
+
+        // Find largest contour or blob with the ball size (areas are scaled down)
+        int pyramidArea = PYRAMID_FACTOR * PYRAMID_FACTOR;
+        int status = blobExtractor != null
+                ? findCoarseBlob(minBallArea / pyramidArea, maxBallArea / pyramidArea)
+                : findCoarseContour(coarseContourArea(minBallArea),
+                        coarseContourArea(maxBallArea));
+        if (status != BALL_FOUND)
+            return status;
+
+        // Convert rough position and radius to the full frame
+        coarseCenter.x = tableRect.x + (ballRect.x + ballRect.width / 2.) * PYRAMID_FACTOR;
+        coarseCenter.y = tableRect.y + (ballRect.y + ballRect.height / 2.) * PYRAMID_FACTOR;
+        coarseRadius = Math.max(ballRect.width, ballRect.height) / 2. * PYRAMID_FACTOR;
+        return BALL_FOUND;
+    }
+
+    /**
+     * Scales a contour area threshold down to the downscaled mask. The contour goes through
+     * the centers of the border pixels, so it is half a pixel smaller than the blob at both
+     * scales (a ball with the minimum area of 100 has the contour area 3 instead of 6)
+     * @param contourArea area of the contour around a round blob on the full frame
+     * @return area of the contour around the same blob on the downscaled mask
+     */
+    private static int coarseContourArea(int contourArea) {
+        double radius = (Math.sqrt(contourArea / Math.PI) + 0.5) / PYRAMID_FACTOR - 0.5;
+        return radius > 0 ? (int) (Math.PI * radius * radius) : 0;
+    }
+
+    /**
+     * Finds the largest contour with the ball size on the downscaled ball mask
+     * @param minArea minimum contour area on the downscaled mask
+     * @param maxArea maximum contour area on the downscaled mask
+     * @return BALL_FOUND (bounding rectangle in ballRect), BALL_NOT_FOUND or BALL_WRONG_SIZE
+     */
+    private int findCoarseContour(int minArea, int maxArea) {
+        releaseContours();
+        Imgproc.findContours(coarseBall, contours, hierarchy, Imgproc.RETR_EXTERNAL,
+                Imgproc.CHAIN_APPROX_SIMPLE);
+        if (contours.size() == 0)
+            return BALL_NOT_FOUND;
+
+        int largestArea = Math.max(minArea, 1);
+        int ballContourIndex = -1;
+        for (int i = 0; i < contours.size(); i++) {
+            int contourArea = (int) Imgproc.contourArea(contours.get(i));
+            if (contourArea > largestArea && contourArea < maxArea) {
+                largestArea = contourArea;
+                ballContourIndex = i;
+            }
+        }
+        if (ballContourIndex < 0)
+            return BALL_WRONG_SIZE;
+
+        boundingRect(contours.get(ballContourIndex), ballRect);
+        return BALL_FOUND;
+    }
+
+    /**
+     * Finds the largest blob with the ball size on the downscaled ball mask
+     * (areas are numbers of pixels, the same units as minBallArea in this mode)
+     * @param minArea minimum number of pixels on the downscaled mask
+     * @param maxArea maximum number of pixels on the downscaled mask
+     * @return BALL_FOUND (bounding rectangle in ballRect), BALL_NOT_FOUND or BALL_WRONG_SIZE
+     */
+    private int findCoarseBlob(int minArea, int maxArea) {
+        if (blobExtractor.extract(coarseBall) == 0)
+            return BALL_NOT_FOUND;
+
+        int ballLabel = blobExtractor.findLargest(Math.max(minArea, 1), maxArea);
+        if (ballLabel < 0)
+            return BALL_WRONG_SIZE;
+
+        blobExtractor.getBoundingRect(ballLabel, ballRect);
+        return BALL_FOUND;
+    }
+
+    /**
+     * Finds the cached header of the rectangle or creates it instead of the least recently
+     * used one (so the headers used by the current search are not released)
+     * @param input input frame or mask
+     * @param rect rectangle of the input
+     * @return header of the rectangle (without copying)
+     */
+    private Mat getWindow(Mat input, Rect rect) {
+        windowHeadersUsed++;
+        WindowHeader oldestHeader = windowHeaders[0];
+        for (WindowHeader windowHeader : windowHeaders) {
+            if (windowHeader.wraps(input, rect)) {
+                windowHeader.used = windowHeadersUsed;
+                return windowHeader.header;
+            }
+            if (windowHeader.used < oldestHeader.used)
+                oldestHeader = windowHeader;
+        }
+        oldestHeader.wrap(input, rect);
+        oldestHeader.used = windowHeadersUsed;
+        return oldestHeader.header;
+    }
+
+    /**
+     * Expands the window to whole WINDOW_ALIGN cells, so the windows of a slowly moving
+     * ball are the same and their cached headers are reused
+     * @param window window to align
+     */
+    private static void alignWindow(Rect window) {
+        int right = (window.x + window.width + WINDOW_ALIGN - 1) & -WINDOW_ALIGN;
+        int bottom = (window.y + window.height + WINDOW_ALIGN - 1) & -WINDOW_ALIGN;
+        window.x &= -WINDOW_ALIGN;
+        window.y &= -WINDOW_ALIGN;
+        window.width = right - window.x;
+        window.height = bottom - window.y;
+    }
+
+    /**
+     * Calculates bounding rectangle of the contour's points
+     * (Imgproc.boundingRect() creates a new Rect on each call)
+     * @param contour contour
+     * @param rect output bounding rectangle
+     */
+    private void boundingRect(MatOfPoint contour, Rect rect) {
+        int length = contour.rows() * 2;
+        if (pointsBuffer.length < length)
+            pointsBuffer = new int[length];
+        contour.get(0, 0, pointsBuffer);
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < length; i += 2) {
+            minX = Math.min(minX, pointsBuffer[i]);
+            maxX = Math.max(maxX, pointsBuffer[i]);
+            minY = Math.min(minY, pointsBuffer[i + 1]);
+            maxY = Math.max(maxY, pointsBuffer[i + 1]);
+        }
+        rect.x = minX;
+        rect.y = minY;
+        rect.width = maxX - minX + 1;
+        rect.height = maxY - minY + 1;
+    }
+
+    /**
+     * Calculates sub-pixel ball center from the moments of the ball mask.
+     * Only pixels of the selected contour are counted (other blobs inside the bounding
+     * rectangle are masked out), the radius is calculated from the area
+     * @param contourIndex index of the ball contour
+     * @param ballRect ball's bounding rectangle inside the window
+     * @param window search window
+     */
+    private void calculateCentroid(int contourIndex, Rect ballRect, Rect window) {
+        // Keep only the ball mask pixels inside the selected contour
+        ballContourMask.create(roiBall.rows(), roiBall.cols(), CvType.CV_8UC1);
+        ballContourMask.setTo(singleBlackColor);
+        contourOffset.x = -window.x;
+        contourOffset.y = -window.y;
+        Imgproc.drawContours(ballContourMask, contours, contourIndex, singleWhiteColor, -1,
+                Imgproc.LINE_8, hierarchy, 0, contourOffset);
+        Core.bitwise_and(ballContourMask, roiBall, ballContourMask);
+
+        // Count pixels inside the bounding rectangle (rows of the window are read)
+        int cols = ballContourMask.cols();
+        int length = ballRect.height * cols;
+        if (maskBuffer.length < length)
+            maskBuffer = new byte[length];
+        ballContourMask.get(ballRect.y, 0, maskBuffer);
+        long area = 0, sumX = 0, sumY = 0;
+        for (int y = 0; y < ballRect.height; y++) {
+            for (int x = ballRect.x, i = y * cols + ballRect.x; x < ballRect.x + ballRect.width;
+                 x++, i++) {
+                if (maskBuffer[i] != 0) {
+                    area++;
+                    sumX += x;
+                    sumY += y;
+                }
+            }
+        }
+
+        ballCenter.x = window.x + (double) sumX / area;
+        ballCenter.y = window.y + ballRect.y + (double) sumY / area;
+        radius[0] = (float) Math.sqrt(area / Math.PI);
+        calculateConfidence(area, Math.max(ballRect.width, ballRect.height) / 2.);
+    }
+
+    /**
+     * Calculates confidence as the part of the enclosing circle covered by the ball
+     * (1 for a perfect circle)
+     * @param area ball's area (pixels)
+     * @param enclosingRadius radius of the circle around the ball
+     */
+    private void calculateConfidence(double area, double enclosingRadius) {
+        confidence = Math.min(area / (Math.PI * enclosingRadius * enclosingRadius), 1);
+    }
+
+    /**
+     * Finds the largest blob with the ball size on the window mask
+     * @return BALL_FOUND, BALL_NOT_FOUND or BALL_WRONG_SIZE
+     */
+    private int findBlob(Rect window, int maxBallArea) {
+        // Check if there is at least one blob
+        if (blobExtractor.extract(roiBall) == 0)
+            return BALL_NOT_FOUND;
+
+        // Find largest blob (ball)
+        int ballLabel = blobExtractor.findLargest(minBallArea, maxBallArea);
+        if (ballLabel < 0)
+            return BALL_WRONG_SIZE;
+
+        // Calculate confidence from the blob's area and bounding rectangle
+        blobExtractor.getBoundingRect(ballLabel, blobRect);
+        calculateConfidence(blobExtractor.getArea(ballLabel),
+                Math.max(blobRect.width, blobRect.height) / 2.);
+
+        // Find ball position from the blob's centroid (same as moments of the blob's pixels)
+        if (centroid) {
+            blobExtractor.getCentroid(ballLabel, ballCenter);
+            ballCenter.x += window.x;
+            ballCenter.y += window.y;
+            radius[0] = (float) Math.sqrt(blobExtractor.getArea(ballLabel) / Math.PI);
+            return BALL_FOUND;
+        }
+
+        // Find ball position (radius of the circle around the bounding rectangle)
+        ballCenter.x = window.x + blobRect.x + (blobRect.width - 1) / 2.;
+        ballCenter.y = window.y + blobRect.y + (blobRect.height - 1) / 2.;
+        radius[0] = Math.max(blobRect.width, blobRect.height) / 2f;
+        return BALL_FOUND;
+    }
+
+    /**
+     * Updates the last position and filtered velocity (pixels per frame)
+     */
+    private void update() {
+        if (tracking) {
+            velocityX = velocityX * VELOCITY_FILTER + (ballCenter.x - lastX) * (1 - VELOCITY_FILTER);
+            velocityY = velocityY * VELOCITY_FILTER + (ballCenter.y - lastY) * (1 - VELOCITY_FILTER);
+        } else {
+            velocityX = 0;
+            velocityY = 0;
+        }
+        lastX = ballCenter.x;
+        lastY = ballCenter.y;
+        tracking = true;
+    }
+
+    /**
+     * Releases contours of the previous search
+     */
+    private void releaseContours() {
+        for (MatOfPoint contour : contours)
+            contour.release();
+        contours.clear();
+    }
+
+    /**
+     * Calculates intersection of two rectangles without allocations
+     * (also used by CamShiftBallDetector)
+     * @param a first rectangle
+     * @param b second rectangle
+     * @param out output rectangle (can be the same object as a or b)
+     */
+    static void intersect(Rect a, Rect b, Rect out) {
+        int x = Math.max(a.x, b.x);
+        int y = Math.max(a.y, b.y);
+        int width = Math.max(Math.min(a.x + a.width, b.x + b.width) - x, 0);
+        int height = Math.max(Math.min(a.y + a.height, b.y + b.height) - y, 0);
+        out.x = x;
+        out.y = y;
+        out.width = width;
+        out.height = height;
+    }
+
+    /**
+     * This class keeps the header of one rectangle of a frame or mask
+     */
+    private static class WindowHeader {
+        private final Rect rect = new Rect();
+        private Mat header;
+        private long address, step, used;
+        private int rows, cols;
+
+        /**
+         * @return true if the header is the rectangle of exactly this buffer with the same size
+         * (the header keeps the buffer referenced, so its address is not reused)
+         */
+        private boolean wraps(Mat input, Rect rect) {
+            return header != null && input.dataAddr() == address && input.rows() == rows
+                    && input.cols() == cols && input.step1() == step && this.rect.x == rect.x
+                    && this.rect.y == rect.y && this.rect.width == rect.width
+                    && this.rect.height == rect.height;
+        }
+
+        /**
+         * Releases the old header and creates the header of the new rectangle
+         */
+        private void wrap(Mat input, Rect rect) {
+            release();
+            header = input.submat(rect);
+            address = input.dataAddr();
+            step = input.step1();
+            rows = input.rows();
+            cols = input.cols();
+            this.rect.x = rect.x;
+            this.rect.y = rect.y;
+            this.rect.width = rect.width;
+            this.rect.height = rect.height;
+        }
+
+        /**
+         * Releases the header
+         */
+        private void release() {
+            if (header != null) {
+                header.release();
+                header = null;
+            }
+        }
+    }
+}
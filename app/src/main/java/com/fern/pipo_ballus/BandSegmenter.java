@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class splits the frame into horizontal bands and segments them in parallel
+ * on a fork-join pool. Every band has its own segmenter (segmenters are not thread-safe)
+ * and writes directly into its rows of the full frame masks, so no merging is needed.
+ * Bands start at even rows, so the planes of YUV frames are split at the same chroma rows.
+ * Band headers are cached for the last HEADER_SETS frame and mask buffers (FramePipeline
+ * has up to 12 slots), so they are created again only if the frame size or buffers change
+ */
+public class BandSegmenter implements ColorSegmenter, PlaneSegmenter {
+    private final static int MIN_BAND_PIXELS = 16384;
+    private final static int HEADER_SETS = 12;
+
+    private static ForkJoinPool forkJoinPool;
+
+    private final ColorSegmenter[] bandSegmenters;
+    private final BandTask[] bandTasks;
+    private final RecursiveAction rootTask;
+    private final BandHeaders[] bandHeaders;
+    private int bandHeadersNext;
+
+    // Band headers of the frame being segmented
+    private BandHeaders headers;
+    private boolean chromaVU;
+
+    /**
+     * Initializes the segmenter
+     * @param bandSegmenters one segmenter for each band (the number of bands)
+     */
+    BandSegmenter(ColorSegmenter[] bandSegmenters) {
+        this.bandSegmenters = bandSegmenters;
+        this.bandTasks = new BandTask[bandSegmenters.length];
+        for (int i = 0; i < bandTasks.length; i++)
+            bandTasks[i] = new BandTask(i);
+        this.rootTask = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(bandTasks);
+            }
+        };
+        this.bandHeaders = new BandHeaders[HEADER_SETS];
+        for (int i = 0; i < HEADER_SETS; i++)
+            this.bandHeaders[i] = new BandHeaders(bandSegmenters.length);
+        getForkJoinPool();
+    }
+
+    /**
+     * @return shared pool with one thread per CPU core
+     */
+    private static synchronized ForkJoinPool getForkJoinPool() {
+        if (forkJoinPool == null)
+            forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        return forkJoinPool;
+    }
+
+    /**
+     * @return number of bands
+     */
+    public int getBands() {
+        return bandSegmenters.length;
+    }
+
+    @Override
+    public void segment(Mat inputRGBA, Mat maskTable, Mat maskBall) {
+        // Allocate full frame masks (bands are written into them)
+        maskTable.create(inputRGBA.rows(), inputRGBA.cols(), CvType.CV_8UC1);
+        maskBall.create(inputRGBA.rows(), inputRGBA.cols(), CvType.CV_8UC1);
+
+        // Segment bands in parallel (small regions are segmented in one piece)
+        if (bandTasks.length == 1
+                || inputRGBA.rows() * inputRGBA.cols() < bandTasks.length * MIN_BAND_PIXELS)
+            bandSegmenters[0].segment(inputRGBA, maskTable, maskBall);
+        else
+            segmentBands(getHeaders(inputRGBA, null, maskTable, maskBall));
+    }
+
+    /**
+     * Calculates masks from the planes of the YUV frame (band segmenters must be
+     * PlaneSegmenters, e.g. YUVSegmenter)
+     */
+    @Override
+    public void segment(Mat planeY, Mat planeChroma, boolean chromaVU, Mat maskTable,
+                        Mat maskBall) {
+        maskTable.create(planeY.rows(), planeY.cols(), CvType.CV_8UC1);
+        maskBall.create(planeY.rows(), planeY.cols(), CvType.CV_8UC1);
+
+        if (bandTasks.length == 1
+                || planeY.rows() * planeY.cols() < bandTasks.length * MIN_BAND_PIXELS)
+            ((PlaneSegmenter) bandSegmenters[0]).segment(planeY, planeChroma, chromaVU,
+                    maskTable, maskBall);
+        else {
+            this.chromaVU = chromaVU;
+            segmentBands(getHeaders(planeY, planeChroma, maskTable, maskBall));
+        }
+    }
+
+    /**
+     * Segments the bands in parallel
+     * @param bandHeaders band headers of the frame and masks
+     */
+    private void segmentBands(BandHeaders bandHeaders) {
+        headers = bandHeaders;
+        rootTask.reinitialize();
+        for (BandTask bandTask : bandTasks)
+            bandTask.reinitialize();
+        forkJoinPool.invoke(rootTask);
+        headers = null;
+    }
+
+    /**
+     * Finds cached band headers of these buffers or creates them instead of the oldest ones
+     * @param planeChroma chroma plane of the YUV frame or null for RGBA (or packed YUV) frames
+     * @return band headers of the frame and masks
+     */
+    private BandHeaders getHeaders(Mat inputRGBA, Mat planeChroma, Mat maskTable,
+                                   Mat maskBall) {
+        for (BandHeaders cachedHeaders : bandHeaders)
+            if (cachedHeaders.wraps(inputRGBA, planeChroma, maskTable, maskBall))
+                return cachedHeaders;
+        BandHeaders newHeaders = bandHeaders[bandHeadersNext];
+        bandHeadersNext = (bandHeadersNext + 1) % HEADER_SETS;
+        newHeaders.wrap(inputRGBA, planeChroma, maskTable, maskBall);
+        return newHeaders;
+    }
+
+    /**
+     * Segments one horizontal band of the frame
+     */
+    private class BandTask extends RecursiveAction {
+        private final int band;
+
+        BandTask(int band) {
+            this.band = band;
+        }
+
+        @Override
+        protected void compute() {
+            if (headers.chromaBands != null)
+                ((PlaneSegmenter) bandSegmenters[band]).segment(headers.inputBands[band],
+                        headers.chromaBands[band], chromaVU,
+                        headers.maskTableBands[band], headers.maskBallBands[band]);
+            else
+                bandSegmenters[band].segment(headers.inputBands[band],
+                        headers.maskTableBands[band], headers.maskBallBands[band]);
+        }
+    }
+
+    /**
+     * This class keeps band headers of one frame (and its chroma plane) and its masks
+     */
+    private static class BandHeaders {
+        private final Mat[] inputBands, maskTableBands, maskBallBands;
+        private Mat[] chromaBands;
+        private long inputAddress, chromaAddress, maskTableAddress, maskBallAddress, inputStep;
+        private int rows, cols;
+
+        BandHeaders(int bands) {
+            this.inputBands = new Mat[bands];
+            this.maskTableBands = new Mat[bands];
+            this.maskBallBands = new Mat[bands];
+        }
+
+        /**
+         * @return true if the headers are the bands of exactly these buffers with the same size
+         * (the headers keep the buffers referenced, so their addresses are not reused)
+         */
+        private boolean wraps(Mat inputRGBA, Mat planeChroma, Mat maskTable, Mat maskBall) {
+            return inputBands[0] != null && inputRGBA.dataAddr() == inputAddress
+                    && (planeChroma == null) == (chromaBands == null)
+                    && (planeChroma == null || planeChroma.dataAddr() == chromaAddress)
+                    && maskTable.dataAddr() == maskTableAddress
+                    && maskBall.dataAddr() == maskBallAddress
+                    && inputRGBA.rows() == rows && inputRGBA.cols() == cols
+                    && inputRGBA.step1() == inputStep;
+        }
+
+        /**
+         * Releases the old headers and creates the bands of the new buffers
+         */
+        private void wrap(Mat inputRGBA, Mat planeChroma, Mat maskTable, Mat maskBall) {
+            rows = inputRGBA.rows();
+            cols = inputRGBA.cols();
+            if (chromaBands != null)
+                for (Mat chromaBand : chromaBands)
+                    chromaBand.release();
+            chromaBands = planeChroma != null ? new Mat[inputBands.length] : null;
+            for (int band = 0; band < inputBands.length; band++) {
+                if (inputBands[band] != null) {
+                    inputBands[band].release();
+                    maskTableBands[band].release();
+                    maskBallBands[band].release();
+                }
+                int rowStart = band == 0 ? 0 : rows * band / inputBands.length & ~1;
+                int rowEnd = band == inputBands.length - 1
+                        ? rows : rows * (band + 1) / inputBands.length & ~1;
+                inputBands[band] = inputRGBA.rowRange(rowStart, rowEnd);
+                maskTableBands[band] = maskTable.rowRange(rowStart, rowEnd);
+                maskBallBands[band] = maskBall.rowRange(rowStart, rowEnd);
+                if (chromaBands != null)
+                    chromaBands[band] = planeChroma.rowRange(rowStart / 2, (rowEnd + 1) / 2);
+            }
+            inputAddress = inputRGBA.dataAddr();
+            chromaAddress = planeChroma != null ? planeChroma.dataAddr() : 0;
+            maskTableAddress = maskTable.dataAddr();
+            maskBallAddress = maskBall.dataAddr();
+            inputStep = inputRGBA.step1();
+        }
+    }
+}
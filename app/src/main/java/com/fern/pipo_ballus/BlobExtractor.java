@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This class extracts blobs from a mask with a single connected components pass.
+ * Area, bounding box and centroid of every blob are kept in primitive arrays,
+ * so no Java objects are created for each blob (unlike findContours)
+ */
+public class BlobExtractor {
+    private final Mat labels, stats, centroids;
+    private final Rect blobRect;
+
+    private int[] statsBuffer, labelsBuffer;
+    private double[] centroidsBuffer;
+    private int labelsNumber;
+
+    BlobExtractor() {
+        this.labels = new Mat();
+        this.stats = new Mat();
+        this.centroids = new Mat();
+        this.blobRect = new Rect();
+        this.statsBuffer = new int[0];
+        this.labelsBuffer = new int[0];
+        this.centroidsBuffer = new double[0];
+    }
+
+    /**
+     * Converts a contour area threshold to the blob area (number of pixels).
+     * The contour goes through the centers of the border pixels, so for a round blob
+     * of radius r the contour area is about PI * (r - 0.5)^2 while the pixel count is PI * r^2.
+     * The difference is about 6% for the minimum table and 18% for the minimum ball
+     * @param contourArea area of the contour around a round blob
+     * @return number of pixels of the same blob
+     */
+    public static int toPixelArea(int contourArea) {
+        if (contourArea <= 0)
+            return contourArea;
+        double radius = Math.sqrt(contourArea / Math.PI) + 0.5;
+        return (int) (Math.PI * radius * radius);
+    }
+
+    /**
+     * Labels all 8-connected blobs of the mask
+     * @param mask CV_8UC1 mask
+     * @return number of blobs (blob labels are 1..number)
+     */
+    public int extract(Mat mask) {
+        labelsNumber = Imgproc.connectedComponentsWithStats(mask, labels, stats, centroids,
+                8, CvType.CV_32S);
+
+        // Grow buffers if there are more blobs than before
+        if (statsBuffer.length < labelsNumber * 5) {
+            statsBuffer = new int[labelsNumber * 5];
+            centroidsBuffer = new double[labelsNumber * 2];
+        }
+        if (labelsNumber > 0) {
+            stats.get(0, 0, statsBuffer);
+            centroids.get(0, 0, centroidsBuffer);
+        }
+        return labelsNumber - 1;
+    }
+
+    /**
+     * Finds the largest blob with minArea < area < maxArea
+     * @param minArea exclusive lower bound of the area
+     * @param maxArea exclusive upper bound of the area
+     * @return label of the blob or -1 if there is no blob of this size
+     */
+    public int findLargest(int minArea, int maxArea) {
+        int maxBlobArea = minArea;
+        int largestLabel = -1;
+        for (int label = 1; label < labelsNumber; label++) {
+            int area = statsBuffer[label * 5 + Imgproc.CC_STAT_AREA];
+            if (area > maxBlobArea && area < maxArea) {
+                maxBlobArea = area;
+                largestLabel = label;
+            }
+        }
+        return largestLabel;
+    }
+
+    /**
+     * @param label blob label
+     * @return number of pixels of the blob
+     */
+    public int getArea(int label) {
+        return statsBuffer[label * 5 + Imgproc.CC_STAT_AREA];
+    }
+
+    /**
+     * @param label blob label
+     * @param rect output bounding rectangle of the blob
+     */
+    public void getBoundingRect(int label, Rect rect) {
+        rect.x = statsBuffer[label * 5 + Imgproc.CC_STAT_LEFT];
+        rect.y = statsBuffer[label * 5 + Imgproc.CC_STAT_TOP];
+        rect.width = statsBuffer[label * 5 + Imgproc.CC_STAT_WIDTH];
+        rect.height = statsBuffer[label * 5 + Imgproc.CC_STAT_HEIGHT];
+    }
+
+    /**
+     * @param label blob label
+     * @param point output center of mass of the blob
+     */
+    public void getCentroid(int label, Point point) {
+        point.x = centroidsBuffer[label * 2];
+        point.y = centroidsBuffer[label * 2 + 1];
+    }
+
+    /**
+     * Releases label and statistics matrices
+     */
+    public void release() {
+        labels.release();
+        stats.release();
+        centroids.release();
+    }
+
+    /**
+     * Calculates ellipse with the same second order moments as the blob.
+     * The center is taken from the bounding rectangle, so holes inside the blob
+     * (e.g. the ball on the table) do not shift it
+     * @param label blob label
+     * @param rotatedRect output ellipse
+     */
+    public void getEllipse(int label, RotatedRect rotatedRect) {
+        getBoundingRect(label, blobRect);
+
+        // Calculate moments of the blob's pixels inside its bounding rectangle
+        // (rows of the labels are read, so no ROI header and Moments are created)
+        int cols = labels.cols();
+        int length = blobRect.height * cols;
+        if (labelsBuffer.length < length)
+            labelsBuffer = new int[length];
+        labels.get(blobRect.y, 0, labelsBuffer);
+        double area = 0, sumX = 0, sumY = 0, sumXX = 0, sumYY = 0, sumXY = 0;
+        for (int y = 0; y < blobRect.height; y++) {
+            for (int x = 0, i = y * cols + blobRect.x; x < blobRect.width; x++, i++) {
+                if (labelsBuffer[i] == label) {
+                    area++;
+                    sumX += x;
+                    sumY += y;
+                    sumXX += x * x;
+                    sumYY += y * y;
+                    sumXY += x * y;
+                }
+            }
+        }
+        double meanX = sumX / area;
+        double meanY = sumY / area;
+
+        // Eigenvalues of the covariance matrix are variances along the ellipse axes
+        double mu20 = sumXX / area - meanX * meanX;
+        double mu02 = sumYY / area - meanY * meanY;
+        double mu11 = sumXY / area - meanX * meanY;
+        double common = Math.sqrt((mu20 - mu02) * (mu20 - mu02) / 4 + mu11 * mu11);
+        double lambda1 = (mu20 + mu02) / 2 + common;
+        double lambda2 = Math.max((mu20 + mu02) / 2 - common, 0);
+
+        // Variance of a filled ellipse along its axis is (axis / 4)^2
+        rotatedRect.center.x = blobRect.x + (blobRect.width - 1) / 2.;
+        rotatedRect.center.y = blobRect.y + (blobRect.height - 1) / 2.;
+        rotatedRect.size.width = 4 * Math.sqrt(lambda1);
+        rotatedRect.size.height = 4 * Math.sqrt(lambda2);
+        rotatedRect.angle = Math.toDegrees(0.5 * Math.atan2(2 * mu11, mu20 - mu02));
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+package com.fern.pipo_ballus;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class follows the ball with histogram back-projection and CamShift.
+ * The ball is found by the acquisition detector (HSV thresholds) first. After the first
+ * confident detection, a hue-saturation histogram of the ball is calculated and the ball is
+ * followed inside a small search window only, so lighting changes do not require new thresholds.
+ * The histogram slowly adapts to the current ball color while the ball is tracked
+ */
+public class CamShiftBallDetector implements BallDetector {
+    // Minimum confidence of the acquisition detector to learn the ball's histogram
+    private final static double MIN_ACQUISITION_CONFIDENCE = 0.7;
+
+    // Minimum mean back-projection inside the ball's window to keep tracking
+    private final static double MIN_TRACKING_CONFIDENCE = 0.2;
+
+    // Search window margin (in ball radii)
+    private final static double WINDOW_MARGIN = 1.5;
+
+    // Only the inner part of the ball is used for the histogram (no table pixels on the edge)
+    private final static double HISTOGRAM_RADIUS = 0.8;
+    private final static double HISTOGRAM_ADAPTATION = 0.05;
+    private final static int HUE_BINS = 30;
+    private final static int SATURATION_BINS = 32;
+
+    private final BallDetector acquisitionDetector;
+    private final List<Mat> hsvList;
+    private final boolean yuvFrames;
+    private final Mat roiRGB, roiHSV, roiBackProjection, roiMask, histogram, histogramNew;
+    private final MatOfInt channels, histogramSize;
+    private final MatOfFloat ranges;
+    private final TermCriteria termCriteria;
+    private final Scalar singleWhiteColor;
+    private final Size histogramBlurSize;
+    private final Point ballCenter, roiCenter;
+    private final Rect frameRect, tableRect, roiRect, window, searchWindow, ballWindow;
+
+    private boolean tracking;
+    private float radius;
+    private double confidence, time;
+
+    /**
+     * @param acquisitionDetector detector to find the ball before the histogram is learned
+     *                            and after the ball is lost
+     * @param yuvFrames true if input frames are packed YUV (YUV segmentation) instead of RGBA
+     */
+    CamShiftBallDetector(BallDetector acquisitionDetector, boolean yuvFrames) {
+        this.acquisitionDetector = acquisitionDetector;
+        this.yuvFrames = yuvFrames;
+        this.hsvList = new ArrayList<>();
+        this.roiRGB = new Mat();
+        this.roiHSV = new Mat();
+        this.roiBackProjection = new Mat();
+        this.roiMask = new Mat();
+        this.histogram = new Mat();
+        this.histogramNew = new Mat();
+        this.channels = new MatOfInt(0, 1);
+        this.histogramSize = new MatOfInt(HUE_BINS, SATURATION_BINS);
+        this.ranges = new MatOfFloat(0, 180, 0, 256);
+        this.termCriteria = new TermCriteria(TermCriteria.EPS | TermCriteria.COUNT, 10, 1);
+        this.singleWhiteColor = new Scalar(255);
+        this.histogramBlurSize = new Size(3, 3);
+        this.ballCenter = new Point();
+        this.roiCenter = new Point();
+        this.frameRect = new Rect();
+        this.tableRect = new Rect();
+        this.roiRect = new Rect();
+        this.window = new Rect();
+        this.searchWindow = new Rect();
+        this.ballWindow = new Rect();
+
+        this.hsvList.add(roiHSV);
+    }
+
+    /**
+     * Follows the ball with CamShift or finds it with the acquisition detector
+     * and measures the search time
+     * @return BALL_FOUND, BALL_NOT_FOUND or BALL_WRONG_SIZE
+     */
+    @Override
+    public int find(Mat inputRGBA, Mat maskBall, ColorSegmenter colorSegmenter,
+                    TableDetector tableDetector) {
+        long timeStart = System.nanoTime();
+        frameRect.width = inputRGBA.cols();
+        frameRect.height = inputRGBA.rows();
+        BallTracker.intersect(tableDetector.getBoundingRect(), frameRect, tableRect);
+
+        // Follow the ball inside the search window
+        int status = BALL_NOT_FOUND;
+        if (tracking)
+            status = track(inputRGBA, tableDetector.getMask(), tableDetector.getArea() / 4);
+
+        // Find the ball with thresholds and learn its histogram
+        if (status != BALL_FOUND) {
+            status = acquisitionDetector.find(inputRGBA, maskBall, colorSegmenter, tableDetector);
+            confidence = 0;
+            if (status == BALL_FOUND) {
+                Point acquisitionCenter = acquisitionDetector.getCenter();
+                ballCenter.x = acquisitionCenter.x;
+                ballCenter.y = acquisitionCenter.y;
+                radius = acquisitionDetector.getRadius();
+                confidence = acquisitionDetector.getConfidence();
+                if (confidence >= MIN_ACQUISITION_CONFIDENCE)
+                    learnHistogram(inputRGBA);
+            }
+        }
+
+        time = (System.nanoTime() - timeStart) / 1e6;
+        return status;
+    }
+
+    /**
+     * Calculates hue-saturation histogram of the inner part of the found ball
+     * and starts tracking
+     * @param inputRGBA input RGBA frame
+     */
+    private void learnHistogram(Mat inputRGBA) {
+        // Ball's bounding rectangle
+        int halfSize = (int) Math.ceil(radius);
+        window.x = (int) ballCenter.x - halfSize;
+        window.y = (int) ballCenter.y - halfSize;
+        window.width = halfSize * 2 + 1;
+        window.height = halfSize * 2 + 1;
+        BallTracker.intersect(window, tableRect, window);
+        if (window.width <= 0 || window.height <= 0)
+            return;
+
+        // Circle mask of the inner part of the ball
+        convertToHSV(inputRGBA, window);
+        roiMask.create(window.height, window.width, CvType.CV_8UC1);
+        roiMask.setTo(Scalar.all(0));
+        roiCenter.x = ballCenter.x - window.x;
+        roiCenter.y = ballCenter.y - window.y;
+        Imgproc.circle(roiMask, roiCenter, Math.max((int) (radius * HISTOGRAM_RADIUS), 1),
+                singleWhiteColor, -1);
+
+        // Calculate histogram (0 - 255) and spread it to the neighbouring bins,
+        // so small color changes do not move the ball out of the histogram
+        Imgproc.calcHist(hsvList, channels, roiMask, histogramNew, histogramSize, ranges);
+        Imgproc.blur(histogramNew, histogramNew, histogramBlurSize);
+        Core.normalize(histogramNew, histogramNew, 0, 255, Core.NORM_MINMAX);
+
+        // Start with the new histogram or adapt the current one
+        if (tracking)
+            Core.addWeighted(histogram, 1 - HISTOGRAM_ADAPTATION,
+                    histogramNew, HISTOGRAM_ADAPTATION, 0, histogram);
+        else
+            histogramNew.copyTo(histogram);
+
+        ballWindow.x = window.x;
+        ballWindow.y = window.y;
+        ballWindow.width = window.width;
+        ballWindow.height = window.height;
+        tracking = true;
+    }
+
+    /**
+     * Follows the ball with back-projection and CamShift inside the search window
+     * @param inputRGBA input RGBA frame
+     * @param maskTableCircle mask of the table's ellipse
+     * @param maxBallArea maximum area of the ball (pixels)
+     * @return BALL_FOUND or BALL_NOT_FOUND
+     */
+    private int track(Mat inputRGBA, Mat maskTableCircle, int maxBallArea) {
+        // Search window around the last ball's window
+        int margin = (int) (radius * WINDOW_MARGIN) + 1;
+        searchWindow.x = ballWindow.x - margin;
+        searchWindow.y = ballWindow.y - margin;
+        searchWindow.width = ballWindow.width + margin * 2;
+        searchWindow.height = ballWindow.height + margin * 2;
+        BallTracker.intersect(searchWindow, tableRect, searchWindow);
+        if (searchWindow.width <= 0 || searchWindow.height <= 0) {
+            tracking = false;
+            return BALL_NOT_FOUND;
+        }
+
+        // Calculate ball probability inside the table
+        convertToHSV(inputRGBA, searchWindow);
+        Imgproc.calcBackProject(hsvList, channels, histogram, roiBackProjection, ranges, 1);
+        Mat maskTableWindow = maskTableCircle.submat(searchWindow);
+        Core.bitwise_and(roiBackProjection, maskTableWindow, roiBackProjection);
+        maskTableWindow.release();
+
+        // Move ball's window to the center of mass of the probability (window in ROI coordinates)
+        window.x = ballWindow.x - searchWindow.x;
+        window.y = ballWindow.y - searchWindow.y;
+        window.width = ballWindow.width;
+        window.height = ballWindow.height;
+        roiRect.width = searchWindow.width;
+        roiRect.height = searchWindow.height;
+        BallTracker.intersect(window, roiRect, window);
+        if (window.width <= 0 || window.height <= 0) {
+            tracking = false;
+            return BALL_NOT_FOUND;
+        }
+        RotatedRect ballRect = Video.CamShift(roiBackProjection, window, termCriteria);
+
+        // Check window size and mean probability inside it
+        if (window.width <= 0 || window.height <= 0
+                || window.width * window.height > maxBallArea * 4) {
+            tracking = false;
+            return BALL_NOT_FOUND;
+        }
+        Mat windowBackProjection = roiBackProjection.submat(window);
+        confidence = Core.mean(windowBackProjection).val[0] / 255;
+        windowBackProjection.release();
+        if (confidence < MIN_TRACKING_CONFIDENCE) {
+            tracking = false;
+            return BALL_NOT_FOUND;
+        }
+
+        // Ball's center and radius in the frame
+        ballCenter.x = searchWindow.x + ballRect.center.x;
+        ballCenter.y = searchWindow.y + ballRect.center.y;
+        radius = (float) (ballRect.size.width + ballRect.size.height) / 4;
+
+        // Adapt histogram to the current lighting (ball's window is moved to the new position)
+        learnHistogram(inputRGBA);
+        return BALL_FOUND;
+    }
+
+    /**
+     * Converts part of the frame to HSV (roiHSV)
+     * @param inputRGBA input RGBA (or packed YUV) frame
+     * @param rect part of the frame
+     */
+    private void convertToHSV(Mat inputRGBA, Rect rect) {
+        Mat inputRect = inputRGBA.submat(rect);
+        if (yuvFrames) {
+            Imgproc.cvtColor(inputRect, roiRGB, Imgproc.COLOR_YUV2RGB, 3);
+            Imgproc.cvtColor(roiRGB, roiHSV, Imgproc.COLOR_RGB2HSV, 3);
+        } else
+            Imgproc.cvtColor(inputRect, roiHSV, Imgproc.COLOR_RGB2HSV, 3);
+        inputRect.release();
+    }
+
+    /**
+     * Stops tracking (the ball will be found by the acquisition detector)
+     */
+    @Override
+    public void reset() {
+        tracking = false;
+        acquisitionDetector.reset();
+    }
+
+    /**
+     * Sets processing scale of the frame and stops tracking
+     * @param scale processing scale (1 - full camera frame)
+     */
+    @Override
+    public void setScale(double scale) {
+        tracking = false;
+        acquisitionDetector.setScale(scale);
+    }
+
+    /**
+     * @return center of the found ball
+     */
+    @Override
+    public Point getCenter() {
+        return ballCenter;
+    }
+
+    /**
+     * @return radius of the found ball
+     */
+    @Override
+    public float getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return mean back-projection inside the ball's window
+     * or confidence of the acquisition detector
+     */
+    @Override
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * @return time of find() on the last frame (ms)
+     */
+    @Override
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * Releases histograms and masks (and the acquisition detector)
+     */
+    @Override
+    public void release() {
+        acquisitionDetector.release();
+        roiRGB.release();
+        roiHSV.release();
+        roiBackProjection.release();
+        roiMask.release();
+        histogram.release();
+        histogramNew.release();
+        channels.release();
+        histogramSize.release();
+        ranges.release();
+    }
+}
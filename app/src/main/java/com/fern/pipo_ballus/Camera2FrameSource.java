@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+/**
+ * This class provides camera frames from Camera2 API through the ImageReader.
+ * Frames are delivered directly from the ImageReader's buffers on the camera thread
+ * (no extra buffering thread), the reader keeps the minimum number of buffers
+ * and the timestamps are the sensor's capture times
+ */
+public class Camera2FrameSource implements FrameSource, ImageReader.OnImageAvailableListener {
+    private final static String TAG = Camera2FrameSource.class.getName();
+
+    private final static int CHROMA_UNKNOWN = 0;
+    private final static int CHROMA_VU = 1;
+    private final static int CHROMA_UV = 2;
+    private final static int CHROMA_PLANAR = 3;
+
+    // One image is processed while the next one is captured (minimum for acquireLatestImage())
+    private final static int MAX_IMAGES = 2;
+
+    // Sensor timestamps with unknown time base are used only if they are close to System.nanoTime()
+    private final static long MAX_TIMESTAMP_AGE = 1000000000L;
+
+    private final Context context;
+    private final int cameraID;
+    private final SourceFrame sourceFrame;
+
+    private CameraDevice cameraDevice;
+    private CameraCaptureSession captureSession;
+    private ImageReader imageReader;
+    private HandlerThread handlerThread;
+    private Handler handler;
+    private FrameListener frameListener;
+    private Size frameSize;
+    private boolean realtimeTimestamps;
+    private int chromaOrder;
+
+    /**
+     * @param context Context to get CameraManager
+     * @param cameraID CameraBridgeViewBase.CAMERA_ID_ANY, CAMERA_ID_BACK or CAMERA_ID_FRONT
+     */
+    Camera2FrameSource(Context context, int cameraID) {
+        this.context = context;
+        this.cameraID = cameraID;
+        this.sourceFrame = new SourceFrame();
+    }
+
+    /**
+     * Opens the camera and starts capturing to the ImageReader
+     * @return false if the camera can't be opened
+     */
+    @SuppressLint("MissingPermission")
+    @Override
+    public boolean start(int maxWidth, int maxHeight, FrameListener frameListener) {
+        CameraManager cameraManager =
+                (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            // Select camera
+            String cameraName = selectCamera(cameraManager);
+            if (cameraName == null) {
+                Log.e(TAG, "No camera found!");
+                return false;
+            }
+            CameraCharacteristics characteristics =
+                    cameraManager.getCameraCharacteristics(cameraName);
+
+            // Select frame size
+            StreamConfigurationMap configurationMap =
+                    characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            if (configurationMap == null)
+                return false;
+            frameSize = selectSize(configurationMap.getOutputSizes(ImageFormat.YUV_420_888),
+                    maxWidth, maxHeight);
+            if (frameSize == null)
+                return false;
+            Log.i(TAG, "Camera " + cameraName + " frame size: " + frameSize);
+
+            // Check time base of the sensor timestamps
+            Integer timestampSource =
+                    characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            realtimeTimestamps = timestampSource != null && timestampSource
+                    == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+
+            // Start camera thread
+            this.frameListener = frameListener;
+            chromaOrder = CHROMA_UNKNOWN;
+            handlerThread = new HandlerThread("Camera2FrameSource");
+            handlerThread.setPriority(Thread.MAX_PRIORITY);
+            handlerThread.start();
+            handler = new Handler(handlerThread.getLooper());
+
+            // Open camera
+            imageReader = ImageReader.newInstance(frameSize.getWidth(), frameSize.getHeight(),
+                    ImageFormat.YUV_420_888, MAX_IMAGES);
+            imageReader.setOnImageAvailableListener(this, handler);
+            cameraManager.openCamera(cameraName, stateCallback, handler);
+            return true;
+        } catch (CameraAccessException | SecurityException e) {
+            Log.e(TAG, "Error opening camera!", e);
+            stop();
+            return false;
+        }
+    }
+
+    /**
+     * Closes the camera and stops the camera thread
+     */
+    @Override
+    public void stop() {
+        if (captureSession != null) {
+            captureSession.close();
+            captureSession = null;
+        }
+        if (cameraDevice != null) {
+            cameraDevice.close();
+            cameraDevice = null;
+        }
+        if (handlerThread != null) {
+            handlerThread.quitSafely();
+            try {
+                handlerThread.join();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Error stopping camera thread!", e);
+            }
+            handlerThread = null;
+            handler = null;
+        }
+        if (imageReader != null) {
+            imageReader.close();
+            imageReader = null;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return frameSize != null ? frameSize.getWidth() : 0;
+    }
+
+    @Override
+    public int getHeight() {
+        return frameSize != null ? frameSize.getHeight() : 0;
+    }
+
+    /**
+     * Delivers the newest image (older ones are dropped)
+     * @param reader ImageReader
+     */
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null)
+            return;
+
+        try {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            Image.Plane[] planes = image.getPlanes();
+            ByteBuffer bufferY = planes[0].getBuffer();
+            ByteBuffer bufferU = planes[1].getBuffer();
+            ByteBuffer bufferV = planes[2].getBuffer();
+            int rowStride = planes[0].getRowStride();
+            int chromaRowStride = planes[1].getRowStride();
+            int chromaPixelStride = planes[1].getPixelStride();
+            long timestamp = toNanoTime(image.getTimestamp());
+
+            // Check chroma layout on the first frame
+            if (chromaOrder == CHROMA_UNKNOWN)
+                chromaOrder = chromaPixelStride == 2 && chromaRowStride == rowStride
+                        ? checkChromaOrder(bufferU, bufferV) : CHROMA_PLANAR;
+
+            // Semi-planar chroma is wrapped without copying
+            if (chromaOrder == CHROMA_VU)
+                sourceFrame.setPlanes(bufferY, bufferV, rowStride, true,
+                        width, height, timestamp);
+            else if (chromaOrder == CHROMA_UV)
+                sourceFrame.setPlanes(bufferY, bufferU, rowStride, false,
+                        width, height, timestamp);
+            else {
+                // Planar chroma is copied to the interleaved plane
+                sourceFrame.setPlanes(bufferY, sourceFrame.interleaveChroma(bufferU, bufferV,
+                        chromaRowStride, chromaPixelStride, rowStride, width, height),
+                        rowStride, true, width, height, timestamp);
+            }
+
+            frameListener.onFrame(sourceFrame);
+        } catch (Exception e) {
+            Log.e(TAG, "Error delivering frame!", e);
+        } finally {
+            image.close();
+        }
+    }
+
+    /**
+     * Checks if U and V planes are one interleaved plane (the same buffer shifted by one byte)
+     * @param bufferU U plane
+     * @param bufferV V plane
+     * @return CHROMA_VU (NV21), CHROMA_UV (NV12) or CHROMA_PLANAR
+     */
+    private static int checkChromaOrder(ByteBuffer bufferU, ByteBuffer bufferV) {
+        Mat planeU = new Mat(1, 1, CvType.CV_8UC1, bufferU);
+        Mat planeV = new Mat(1, 1, CvType.CV_8UC1, bufferV);
+        long addressU = planeU.dataAddr();
+        long addressV = planeV.dataAddr();
+        planeU.release();
+        planeV.release();
+
+        if (addressU == addressV + 1)
+            return CHROMA_VU;
+        if (addressV == addressU + 1)
+            return CHROMA_UV;
+        return CHROMA_PLANAR;
+    }
+
+    /**
+     * Converts sensor timestamp to System.nanoTime() time base
+     * @param timestamp Image.getTimestamp()
+     * @return capture time (System.nanoTime())
+     */
+    private long toNanoTime(long timestamp) {
+        long timeNow = System.nanoTime();
+
+        // Timestamp is in SystemClock.elapsedRealtimeNanos() time base
+        if (realtimeTimestamps)
+            return timestamp - (SystemClock.elapsedRealtimeNanos() - timeNow);
+
+        // Unknown time base is usually the same as System.nanoTime(),
+        // otherwise the frame arrival time is used
+        if (timestamp <= timeNow && timeNow - timestamp < MAX_TIMESTAMP_AGE)
+            return timestamp;
+        return timeNow;
+    }
+
+    /**
+     * @param cameraManager CameraManager
+     * @return name of the camera with the lens facing selected in the settings
+     * (or the first camera for CAMERA_ID_ANY)
+     * @throws CameraAccessException if the camera list is unavailable
+     */
+    private String selectCamera(CameraManager cameraManager) throws CameraAccessException {
+        String[] cameraNames = cameraManager.getCameraIdList();
+        if (cameraID == CameraBridgeViewBase.CAMERA_ID_ANY)
+            return cameraNames.length > 0 ? cameraNames[0] : null;
+
+        int lensFacing = cameraID == CameraBridgeViewBase.CAMERA_ID_FRONT
+                ? CameraCharacteristics.LENS_FACING_FRONT : CameraCharacteristics.LENS_FACING_BACK;
+        for (String cameraName : cameraNames) {
+            Integer facing = cameraManager.getCameraCharacteristics(cameraName)
+                    .get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == lensFacing)
+                return cameraName;
+        }
+        return null;
+    }
+
+    /**
+     * @param sizes supported frame sizes
+     * @param maxWidth maximum frame width
+     * @param maxHeight maximum frame height
+     * @return the largest size that fits into the maximum size (or the smallest size)
+     */
+    private static Size selectSize(Size[] sizes, int maxWidth, int maxHeight) {
+        Size selectedSize = null, smallestSize = null;
+        for (Size size : sizes) {
+            int area = size.getWidth() * size.getHeight();
+            if (size.getWidth() <= maxWidth && size.getHeight() <= maxHeight
+                    && (selectedSize == null
+                    || area > selectedSize.getWidth() * selectedSize.getHeight()))
+                selectedSize = size;
+            if (smallestSize == null || area < smallestSize.getWidth() * smallestSize.getHeight())
+                smallestSize = size;
+        }
+        return selectedSize != null ? selectedSize : smallestSize;
+    }
+
+    private final CameraDevice.StateCallback stateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            cameraDevice = camera;
+            try {
+                cameraDevice.createCaptureSession(
+                        Collections.singletonList(imageReader.getSurface()),
+                        sessionCallback, handler);
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Error creating capture session!", e);
+            }
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            camera.close();
+            cameraDevice = null;
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            Log.e(TAG, "Camera error: " + error);
+            camera.close();
+            cameraDevice = null;
+        }
+    };
+
+    private final CameraCaptureSession.StateCallback sessionCallback =
+            new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(@NonNull CameraCaptureSession session) {
+            if (cameraDevice == null)
+                return;
+            captureSession = session;
+            try {
+                // Capture frames to the ImageReader only
+                Surface surface = imageReader.getSurface();
+                CaptureRequest.Builder requestBuilder =
+                        cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                requestBuilder.addTarget(surface);
+                captureSession.setRepeatingRequest(requestBuilder.build(), null, handler);
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Error starting capture!", e);
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+            Log.e(TAG, "Error configuring capture session!");
+        }
+    };
+}
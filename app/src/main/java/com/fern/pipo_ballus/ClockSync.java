@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import android.util.Log;
+
+/**
+ * This class synchronizes the app clock (System.nanoTime()) with the controller clock (micros())
+ * using ping / pong round trips (NTP-style) and estimates the one-way latency from the app
+ * to the controller and the photon-to-servo latency (from the frame capture to writing
+ * the servo pulses calculated from this frame).
+ * Queueing delays are not symmetric, so only the round trips with the lowest delay are used
+ * (the known difference of the ping and pong transmission times is compensated).
+ * The round trip with the lowest delay of every BIN_ROUND_TRIPS round trips is stored and offset
+ * and drift are fitted with least squares over the last SAMPLES stored round trips.
+ * Round trips are added by one thread (TelemetryReader), estimates can be read from any thread
+ */
+public class ClockSync {
+    private final static String TAG = ClockSync.class.getName();
+
+    // Number of stored round trips and number of round trips per stored one
+    private final static int SAMPLES = 64;
+    private final static int BIN_ROUND_TRIPS = 8;
+    // Round trips with the delay up to the minimum delay plus this value are fitted (us)
+    private final static long DELAY_TOLERANCE = 500;
+    // Minimum time span of the fitted round trips to estimate the drift (us)
+    private final static long DRIFT_MIN_SPAN = 10_000_000;
+    // Round trips longer than this are dropped (us)
+    private final static long MAX_ROUND_TRIP = 1_000_000;
+    // Stored round trips are dropped if the offset jumps by this value (controller restart, us)
+    private final static long MAX_OFFSET_JUMP = 100_000;
+    // Weight of the new value in the moving averages of the latencies
+    private final static double SMOOTHING = 0.1;
+    // Print estimates to the log every LOG_PONGS round trips
+    private final static int LOG_PONGS = 40;
+
+    private final static long MASK_32 = 0xFFFFFFFFL;
+
+    // Stored round trips: app time of the ping, clock offset (controller - app) and delay (us)
+    private final long[] sampleTimes, sampleOffsets, sampleDelays;
+
+    // Half of the difference between the pong and ping transmission times (us)
+    private final long asymmetry;
+    private int samples, sampleIndex, binRoundTrips, pongs;
+
+    // Last controller time (restored to 64 bits) and capture time of the last applied position
+    private long controllerTimeLast, positionCapturedLast;
+
+    // Fitted clock offset at timeReference (us) and drift (us per us)
+    private double offset, drift;
+    private long timeReference;
+
+    private volatile boolean synced;
+    private volatile double roundTrip, oneWayLatency, photonToServoLatency;
+
+    /**
+     * @param baudRate baud rate of the serial port (10 bits per byte)
+     */
+    ClockSync(int baudRate) {
+        this.asymmetry = (SerialProtocol.PONG_FRAME_LENGTH - SerialProtocol.PING_FRAME_LENGTH)
+                * 10 * 1_000_000L / baudRate / 2;
+        this.sampleTimes = new long[SAMPLES];
+        this.sampleOffsets = new long[SAMPLES];
+        this.sampleDelays = new long[SAMPLES];
+    }
+
+    /**
+     * Adds the round trip (TelemetryReader thread only)
+     * @param pongTimes decoded pong times (see TelemetryDecoder.PONG_ indexes)
+     * @param timeReceived receive time of the pong (System.nanoTime())
+     */
+    public void add(long[] pongTimes, long timeReceived) {
+        // Restore full times: app times are before the receive time,
+        // controller times are close to the time of the previous pong
+        long appReceived = timeReceived / 1000;
+        long appSent = restoreBefore(appReceived, pongTimes[TelemetryDecoder.PONG_PING_SENT]);
+        long controllerReceived = restoreNear(synced ? controllerTimeLast
+                : pongTimes[TelemetryDecoder.PONG_PING_RECEIVED],
+                pongTimes[TelemetryDecoder.PONG_PING_RECEIVED]);
+        long controllerSent = restoreNear(controllerReceived,
+                pongTimes[TelemetryDecoder.PONG_SENT]);
+
+        // Round trip delay without the processing time of the controller
+        // and clock offset (assuming equal delays in both directions except transmission time)
+        long delay = (appReceived - appSent) - (controllerSent - controllerReceived);
+        if (delay < 0 || delay > MAX_ROUND_TRIP || controllerSent < controllerReceived)
+            return;
+        long sampleOffset = ((controllerReceived - appSent) + (controllerSent - appReceived)) / 2
+                + asymmetry;
+
+        // Start again if the controller was restarted
+        if (synced && Math.abs(sampleOffset - getOffset(appSent)) > MAX_OFFSET_JUMP) {
+            Log.w(TAG, "Controller clock jumped, restarting synchronization");
+            samples = 0;
+            sampleIndex = 0;
+            binRoundTrips = 0;
+            synced = false;
+        }
+        controllerTimeLast = controllerSent;
+
+        // Store the round trip if it has the lowest delay in the current bin
+        if (binRoundTrips == 0 || delay < sampleDelays[sampleIndex]) {
+            sampleTimes[sampleIndex] = appSent;
+            sampleOffsets[sampleIndex] = sampleOffset;
+            sampleDelays[sampleIndex] = delay;
+        }
+        if (binRoundTrips == 0)
+            samples = Math.min(samples + 1, SAMPLES);
+        if (++binRoundTrips == BIN_ROUND_TRIPS) {
+            binRoundTrips = 0;
+            sampleIndex = (sampleIndex + 1) % SAMPLES;
+        }
+
+        // Fit offset and drift (including the current bin)
+        fit();
+
+        // One-way latency of the ping (app to controller)
+        double oneWay = controllerReceived - getOffset(appSent) - appSent;
+        oneWayLatency = synced ? oneWayLatency + (oneWay - oneWayLatency) * SMOOTHING : oneWay;
+
+        // Photon-to-servo latency of the last applied position (once per position)
+        long positionCaptured = pongTimes[TelemetryDecoder.PONG_POSITION_CAPTURED];
+        if (positionCaptured != 0 && positionCaptured != positionCapturedLast) {
+            positionCapturedLast = positionCaptured;
+            long positionApplied = restoreNear(controllerReceived,
+                    pongTimes[TelemetryDecoder.PONG_POSITION_APPLIED]);
+            double latency = toAppTime(positionApplied)
+                    - restoreBefore(appReceived, positionCaptured);
+            photonToServoLatency = photonToServoLatency == 0 ? latency
+                    : photonToServoLatency + (latency - photonToServoLatency) * SMOOTHING;
+        }
+        synced = true;
+
+        // Print estimates
+        if (++pongs == LOG_PONGS) {
+            pongs = 0;
+            Log.i(TAG, String.format("Clock sync: offset %.3f s, drift %.1f ppm, "
+                            + "round trip %.2f ms, one-way %.2f ms, photon-to-servo %.1f ms",
+                    getOffset(appReceived) / 1e6, getDrift(), getRoundTrip(),
+                    getOneWayLatency(), getPhotonToServoLatency()));
+        }
+    }
+
+    /**
+     * @return true if at least one round trip was received
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * @return minimum round trip delay of the stored round trips (ms)
+     */
+    public double getRoundTrip() {
+        return roundTrip / 1000.;
+    }
+
+    /**
+     * @return average one-way latency from the app to the controller (ms)
+     */
+    public double getOneWayLatency() {
+        return oneWayLatency / 1000.;
+    }
+
+    /**
+     * @return average latency from the frame capture to the servo update (ms, 0 if unknown)
+     */
+    public double getPhotonToServoLatency() {
+        return photonToServoLatency / 1000.;
+    }
+
+    /**
+     * @return drift of the controller clock relative to the app clock (ppm)
+     */
+    public double getDrift() {
+        return drift * 1e6;
+    }
+
+    /**
+     * Fits the clock offset and drift to the stored round trips with the lowest delays
+     */
+    private void fit() {
+        long delayMin = Long.MAX_VALUE;
+        for (int i = 0; i < samples; i++)
+            delayMin = Math.min(delayMin, sampleDelays[i]);
+
+        // Least squares (relative to the first stored round trip)
+        long timeFirst = sampleTimes[0];
+        long timeMin = Long.MAX_VALUE, timeMax = Long.MIN_VALUE;
+        double sumT = 0, sumO = 0, sumTT = 0, sumTO = 0;
+        int n = 0;
+        for (int i = 0; i < samples; i++) {
+            if (sampleDelays[i] > delayMin + DELAY_TOLERANCE)
+                continue;
+            double t = sampleTimes[i] - timeFirst;
+            double o = sampleOffsets[i] - sampleOffsets[0];
+            sumT += t;
+            sumO += o;
+            sumTT += t * t;
+            sumTO += t * o;
+            timeMin = Math.min(timeMin, sampleTimes[i]);
+            timeMax = Math.max(timeMax, sampleTimes[i]);
+            n++;
+        }
+
+        // Drift is estimated only if the round trips cover enough time
+        double denominator = n * sumTT - sumT * sumT;
+        drift = timeMax - timeMin >= DRIFT_MIN_SPAN && denominator > 0
+                ? (n * sumTO - sumT * sumO) / denominator : 0;
+        timeReference = timeFirst;
+        offset = sampleOffsets[0] + (sumO - drift * sumT) / n;
+        roundTrip = delayMin;
+    }
+
+    /**
+     * @param appTime app time (us)
+     * @return clock offset (controller - app) at this time (us)
+     */
+    private double getOffset(long appTime) {
+        return offset + drift * (appTime - timeReference);
+    }
+
+    /**
+     * Converts controller time to app time
+     * @param controllerTime controller time restored to 64 bits (us)
+     * @return app time (us, System.nanoTime() / 1000)
+     */
+    private double toAppTime(long controllerTime) {
+        // controllerTime = appTime + offset + drift * (appTime - timeReference)
+        return (controllerTime - offset + drift * timeReference) / (1 + drift);
+    }
+
+    /**
+     * Restores the full time from the lower 32 bits
+     * @param reference full time after the restored time (us)
+     * @param time lower 32 bits of the time (us)
+     * @return the latest full time before the reference with these lower bits
+     */
+    private static long restoreBefore(long reference, long time) {
+        return reference - ((reference - time) & MASK_32);
+    }
+
+    /**
+     * Restores the full time from the lower 32 bits
+     * @param reference full time less than 35 minutes away from the restored time (us)
+     * @param time lower 32 bits of the time (us)
+     * @return the closest full time to the reference with these lower bits
+     */
+    private static long restoreNear(long reference, long time) {
+        return reference + (int) (time - reference);
+    }
+}
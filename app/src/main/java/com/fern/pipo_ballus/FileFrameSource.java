@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class provides frames from a file with raw NV21 frames (width * height * 3 / 2 bytes each)
+ * or from a directory of such files (played in name order) at a fixed frame rate.
+ * Frames are played in a loop. The class does not use the Android camera or framework classes,
+ * so the processing can be tested on recorded frames on a desktop JVM without a camera.
+ * Only the OpenCV Java classes are needed (SourceFrame implements CvCameraViewFrame
+ * from the OpenCV Android SDK)
+ */
+public class FileFrameSource implements FrameSource, Runnable {
+    private final File file;
+    private final int width, height;
+    private final long framePeriod;
+    private final SourceFrame sourceFrame;
+
+    private File[] frameFiles;
+    private int frameFileIndex;
+    private FileChannel fileChannel;
+    private ByteBuffer frameBuffer, bufferY, bufferChroma;
+    private FrameListener frameListener;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param file file with raw NV21 frames or directory of such files
+     * @param width frame width
+     * @param height frame height
+     * @param frameRate frames per second
+     */
+    FileFrameSource(File file, int width, int height, int frameRate) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.framePeriod = 1000000000L / frameRate;
+        this.sourceFrame = new SourceFrame();
+    }
+
+    /**
+     * Opens the first file and starts the playback thread (maximum frame size is ignored)
+     * @return false if the file can't be opened or any of the files has no frames
+     */
+    @Override
+    public boolean start(int maxWidth, int maxHeight, FrameListener frameListener) {
+        if (running)
+            return true;
+
+        // List frame files
+        frameFiles = file.isDirectory() ? file.listFiles() : new File[] { file };
+        if (frameFiles == null || frameFiles.length == 0)
+            return false;
+        Arrays.sort(frameFiles);
+        for (File frameFile : frameFiles)
+            if (frameFile.length() < width * height * 3 / 2)
+                return false;
+
+        try {
+            openFrameFile(0);
+        } catch (IOException e) {
+            return false;
+        }
+
+        // Y plane and chroma plane are parts of one frame buffer (as in the camera's NV21 frame)
+        frameBuffer = ByteBuffer.allocateDirect(width * height * 3 / 2);
+        frameBuffer.position(width * height);
+        bufferChroma = frameBuffer.slice();
+        frameBuffer.clear();
+        bufferY = frameBuffer.duplicate();
+
+        this.frameListener = frameListener;
+        running = true;
+        thread = new Thread(this, "FileFrameSource");
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Stops the playback thread and closes the file
+     */
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (thread != null)
+                thread.join();
+            if (fileChannel != null)
+                fileChannel.close();
+        } catch (InterruptedException | IOException ignored) {
+        }
+        thread = null;
+        fileChannel = null;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Closes the current frame file and opens another one
+     * @param index index of the file in frameFiles
+     * @throws IOException if the file can't be opened
+     */
+    private void openFrameFile(int index) throws IOException {
+        if (fileChannel != null)
+            fileChannel.close();
+        fileChannel = new RandomAccessFile(frameFiles[index], "r").getChannel();
+        frameFileIndex = index;
+    }
+
+    /**
+     * Reads and delivers frames with the fixed period
+     */
+    @Override
+    public void run() {
+        long timeNext = System.nanoTime();
+        while (running) {
+            try {
+                // Read next frame (from the next file or from the first file again
+                // if the end of the file is reached)
+                frameBuffer.clear();
+                while (frameBuffer.hasRemaining()) {
+                    if (fileChannel.read(frameBuffer) < 0) {
+                        if (frameFiles.length > 1)
+                            openFrameFile((frameFileIndex + 1) % frameFiles.length);
+                        else
+                            fileChannel.position(0);
+                        frameBuffer.clear();
+                    }
+                }
+            } catch (IOException e) {
+                running = false;
+                break;
+            }
+
+            // Deliver frame
+            sourceFrame.setPlanes(bufferY, bufferChroma, width, true,
+                    width, height, System.nanoTime());
+            frameListener.onFrame(sourceFrame);
+
+            // Wait for the next frame
+            timeNext += framePeriod;
+            long timeLeft = timeNext - System.nanoTime();
+            if (timeLeft > 0)
+                LockSupport.parkNanos(timeLeft);
+            else
+                timeNext = System.nanoTime();
+        }
+    }
+}
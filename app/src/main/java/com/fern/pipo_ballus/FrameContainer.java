@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+
+/**
+ * This class is a container for one camera frame and the results of its processing.
+ * Containers are preallocated and reused by OpenCVHandler and FramePipeline classes
+ */
+public class FrameContainer {
+    // Frame to render (camera frame itself or its copy in frameBuffer)
+    public Mat frameRGBA;
+    // Frame to process (frameRGBA, frameYUV or its downscaled copy in frameScaled)
+    public Mat frameTracking;
+    public final Mat frameBuffer, frameYUV, frameScaled, maskTable, maskBall;
+    // Y and chroma planes of frameTracking in YUV mode (null if the camera frame has no planes):
+    // camera planes, their copies in planeYBuffer and chromaBuffer or downscaled copies
+    public Mat planeY, planeChroma;
+    public final Mat planeYBuffer, chromaBuffer, planeYScaled, chromaScaled;
+    public boolean chromaVU;
+    public double scale;
+
+    public long timeStart;
+    // Capture, segmentation and processing timestamps (System.nanoTime())
+    public long timeCaptured, timeSegmented, timeProcessed;
+    // Time of the segmentation and processing stages without waiting (ns)
+    public long segmentationTime, processingTime;
+    public int rotation;
+    public boolean segmented, dropped;
+
+    // Results (screen orientation)
+    public String statusText;
+    public boolean tableFound, ballFound, ballDetected;
+    public final RotatedRect tableScreenRect;
+    public int tableWidth, tableHeight;
+    public final Point ballScreenCenter;
+    public float ballRadius;
+    public int ballVSTableX, ballVSTableY;
+    public double ballSetpointX, ballSetpointY, ballSetpointZ;
+    public int action;
+
+    FrameContainer() {
+        this.frameBuffer = new Mat();
+        this.frameYUV = new Mat();
+        this.frameScaled = new Mat();
+        this.planeYBuffer = new Mat();
+        this.chromaBuffer = new Mat();
+        this.planeYScaled = new Mat();
+        this.chromaScaled = new Mat();
+        this.maskTable = new Mat();
+        this.maskBall = new Mat();
+        this.tableScreenRect = new RotatedRect();
+        this.ballScreenCenter = new Point();
+    }
+}
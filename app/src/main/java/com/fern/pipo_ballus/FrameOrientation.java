@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import android.view.Surface;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+
+/**
+ * This class maps coordinates from the camera (sensor) orientation to the screen orientation.
+ * Frames are processed as they come from the camera, only the found coordinates
+ * and the debug overlay are rotated / mirrored
+ */
+public class FrameOrientation {
+    // Affine transformation: x' = a * x + b * y + offsetX, y' = c * x + d * y + offsetY
+    private int a, b, c, d;
+    private double offsetX, offsetY;
+
+    // Core.rotate() code to rotate the whole frame or -1 if no rotation is needed
+    private int rotateCode;
+
+    FrameOrientation() {
+        update(Surface.ROTATION_90, CameraBridgeViewBase.CAMERA_ID_BACK, 0, 0);
+    }
+
+    /**
+     * Calculates transformation for the new screen rotation and frame size
+     * (same as transposing and flipping the frame in the previous versions)
+     * @param rotation screen rotation (Surface.ROTATION_...)
+     * @param cameraID CameraBridgeViewBase.CAMERA_ID_FRONT or CameraBridgeViewBase.CAMERA_ID_BACK
+     * @param frameWidth width of the camera frame
+     * @param frameHeight height of the camera frame
+     */
+    public void update(int rotation, int cameraID, int frameWidth, int frameHeight) {
+        boolean frontCamera = cameraID == CameraBridgeViewBase.CAMERA_ID_FRONT;
+        if ((rotation == Surface.ROTATION_0 && !frontCamera)
+                || (rotation == Surface.ROTATION_180 && frontCamera))
+            // 90 deg clockwise
+            set(0, -1, 1, 0, frameHeight - 1, 0, Core.ROTATE_90_CLOCKWISE);
+        else if (rotation == Surface.ROTATION_0 || rotation == Surface.ROTATION_180)
+            // 90 deg counterclockwise
+            set(0, 1, -1, 0, 0, frameWidth - 1, Core.ROTATE_90_COUNTERCLOCKWISE);
+        else if (rotation == Surface.ROTATION_270)
+            // 180 deg
+            set(-1, 0, 0, -1, frameWidth - 1, frameHeight - 1, Core.ROTATE_180);
+        else
+            // No rotation
+            set(1, 0, 0, 1, 0, 0, -1);
+    }
+
+    /**
+     * Sets transformation coefficients
+     */
+    private void set(int a, int b, int c, int d, double offsetX, double offsetY, int rotateCode) {
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.rotateCode = rotateCode;
+    }
+
+    /**
+     * @return true if X and Y axes are swapped
+     */
+    public boolean isTransposed() {
+        return a == 0;
+    }
+
+    /**
+     * Converts point from the camera frame to the screen
+     * @param source point on the camera frame
+     * @param target point on the screen (can be the same object)
+     */
+    public void mapPoint(Point source, Point target) {
+        double x = source.x, y = source.y;
+        target.x = a * x + b * y + offsetX;
+        target.y = c * x + d * y + offsetY;
+    }
+
+    /**
+     * Converts vector (offset) from the camera frame to the screen
+     * @param dx X offset on the camera frame
+     * @param dy Y offset on the camera frame
+     * @return X offset on the screen
+     */
+    public double mapDX(double dx, double dy) {
+        return a * dx + b * dy;
+    }
+
+    /**
+     * Converts vector (offset) from the camera frame to the screen
+     * @param dx X offset on the camera frame
+     * @param dy Y offset on the camera frame
+     * @return Y offset on the screen
+     */
+    public double mapDY(double dx, double dy) {
+        return c * dx + d * dy;
+    }
+
+    /**
+     * Converts rotated rectangle (ellipse) from the camera frame to the screen
+     * @param source rectangle on the camera frame
+     * @param target rectangle on the screen (must be a different object)
+     */
+    public void mapRotatedRect(RotatedRect source, RotatedRect target) {
+        mapPoint(source.center, target.center);
+        target.size.width = source.size.width;
+        target.size.height = source.size.height;
+
+        // Rotate direction of the width axis
+        double angle = Math.toRadians(source.angle);
+        double cos = Math.cos(angle), sin = Math.sin(angle);
+        target.angle = Math.toDegrees(Math.atan2(mapDY(cos, sin), mapDX(cos, sin)));
+    }
+
+    /**
+     * Rotates the whole frame to the screen orientation (used only for the debug overlay)
+     * @param source camera frame
+     * @param target rotated frame
+     */
+    public void rotateFrame(Mat source, Mat target) {
+        if (rotateCode >= 0)
+            Core.rotate(source, target, rotateCode);
+        else
+            source.copyTo(target);
+    }
+}
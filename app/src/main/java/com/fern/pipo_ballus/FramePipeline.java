@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class runs frame processing stages on separate threads so that different frames
+ * are processed on different cores at the same time:
+ * capture (camera thread) -> segmentation -> geometry and control -> render (camera thread).
+ * Stages are connected by SPSCRingBuffer queues of preallocated FrameContainer slots.
+ * If more than maxQueued frames are waiting for a stage, the oldest ones are dropped
+ * (passed to the next stages without processing), so the latency stays bounded
+ */
+public class FramePipeline {
+    private final String TAG = this.getClass().getName();
+
+    private final static long IDLE_WAIT_NS = 500000;
+
+    private final FrameStages frameStages;
+    private final int maxQueued;
+    private final FrameContainer[] frameContainers;
+
+    // Free slots (used only by the camera thread)
+    private final ArrayDeque<FrameContainer> freeContainers;
+
+    // Queues between the stages
+    private final SPSCRingBuffer<FrameContainer> capturedQueue, segmentedQueue, processedQueue;
+
+    private Thread segmentationThread, processingThread;
+    private volatile boolean running;
+
+    /**
+     * @param frameStages segmentation and processing stages
+     * @param maxQueued max number of frames waiting for each stage before dropping the oldest
+     */
+    FramePipeline(FrameStages frameStages, int maxQueued) {
+        this.frameStages = frameStages;
+        this.maxQueued = Math.max(maxQueued, 1);
+
+        // Every stage can hold maxQueued waiting frames plus one frame in work
+        int slots = (this.maxQueued + 1) * 2 + 2;
+        this.frameContainers = new FrameContainer[slots];
+        for (int i = 0; i < slots; i++)
+            frameContainers[i] = new FrameContainer();
+        this.freeContainers = new ArrayDeque<>(slots);
+        this.capturedQueue = new SPSCRingBuffer<>(slots);
+        this.segmentedQueue = new SPSCRingBuffer<>(slots);
+        this.processedQueue = new SPSCRingBuffer<>(slots);
+    }
+
+    /**
+     * Starts segmentation and processing threads
+     */
+    public void start() {
+        if (running)
+            return;
+
+        // Return all slots to the free list
+        capturedQueue.clear();
+        segmentedQueue.clear();
+        processedQueue.clear();
+        freeContainers.clear();
+        for (FrameContainer frameContainer : frameContainers)
+            freeContainers.add(frameContainer);
+
+        running = true;
+        segmentationThread = new Thread(() -> stageLoop(capturedQueue, segmentedQueue, true),
+                "FrameSegmentation");
+        processingThread = new Thread(() -> stageLoop(segmentedQueue, processedQueue, false),
+                "FrameProcessing");
+        segmentationThread.setPriority(Thread.MAX_PRIORITY);
+        processingThread.setPriority(Thread.MAX_PRIORITY);
+        segmentationThread.start();
+        processingThread.start();
+    }
+
+    /**
+     * Stops the threads and waits for them to finish
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (segmentationThread != null)
+                segmentationThread.join();
+            if (processingThread != null)
+                processingThread.join();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Error stopping pipeline threads!", e);
+        }
+        segmentationThread = null;
+        processingThread = null;
+    }
+
+    /**
+     * @return true if the threads are running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Takes a free slot for the new camera frame (camera thread only)
+     * @return free FrameContainer or null if all slots are busy (frame must be skipped)
+     */
+    public FrameContainer obtain() {
+        return freeContainers.poll();
+    }
+
+    /**
+     * Passes captured frame to the segmentation stage (camera thread only)
+     * @param frameContainer slot from obtain()
+     */
+    public void submit(FrameContainer frameContainer) {
+        frameContainer.dropped = false;
+        frameContainer.segmented = false;
+        frameContainer.segmentationTime = 0;
+        capturedQueue.offer(frameContainer);
+        LockSupport.unpark(segmentationThread);
+    }
+
+    /**
+     * Takes the newest processed frame (camera thread only).
+     * Older processed and dropped frames are returned to the free list
+     * @return the newest processed FrameContainer or null.
+     * Must be returned with recycle() after rendering
+     */
+    public FrameContainer pollProcessed() {
+        FrameContainer newest = null;
+        FrameContainer frameContainer;
+        while ((frameContainer = processedQueue.poll()) != null) {
+            if (frameContainer.dropped)
+                recycle(frameContainer);
+            else {
+                if (newest != null)
+                    recycle(newest);
+                newest = frameContainer;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Returns slot to the free list (camera thread only)
+     * @param frameContainer slot from pollProcessed()
+     */
+    public void recycle(FrameContainer frameContainer) {
+        freeContainers.add(frameContainer);
+    }
+
+    /**
+     * Stage thread loop
+     * @param input queue from the previous stage
+     * @param output queue to the next stage
+     * @param segmentation true for the segmentation stage, false for the processing stage
+     */
+    private void stageLoop(SPSCRingBuffer<FrameContainer> input,
+                           SPSCRingBuffer<FrameContainer> output, boolean segmentation) {
+        Thread nextThread = segmentation ? processingThread : null;
+        while (running) {
+            FrameContainer frameContainer = input.poll();
+            if (frameContainer == null) {
+                LockSupport.parkNanos(this, IDLE_WAIT_NS);
+                continue;
+            }
+
+            // Drop the oldest frames if too many frames are waiting
+            if (!frameContainer.dropped && input.size() > maxQueued)
+                frameContainer.dropped = true;
+
+            // Process frame
+            if (!frameContainer.dropped) {
+                try {
+                    if (segmentation)
+                        frameStages.segment(frameContainer);
+                    else
+                        frameStages.process(frameContainer);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error processing frame!", e);
+                    frameContainer.dropped = true;
+                }
+            }
+
+            // Pass frame to the next stage
+            output.offer(frameContainer);
+            if (nextThread != null)
+                LockSupport.unpark(nextThread);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+/**
+ * This interface provides camera frames to the processing without CameraBridgeViewBase's
+ * own buffering. Frames are delivered as YUV planes (SourceFrame) with the capture timestamps
+ */
+public interface FrameSource {
+    /**
+     * This interface is used to receive frames from the FrameSource
+     */
+    interface FrameListener {
+        /**
+         * Called on the source's thread for each new frame.
+         * Frame planes are valid only until the method returns
+         * @param sourceFrame new frame
+         */
+        void onFrame(SourceFrame sourceFrame);
+    }
+
+    /**
+     * Selects the frame size and starts delivering frames
+     * @param maxWidth maximum frame width
+     * @param maxHeight maximum frame height
+     * @param frameListener listener to receive frames
+     * @return false if the source can't be started
+     */
+    boolean start(int maxWidth, int maxHeight, FrameListener frameListener);
+
+    /**
+     * Stops delivering frames and releases the source
+     */
+    void stop();
+
+    /**
+     * @return width of the frames (after start())
+     */
+    int getWidth();
+
+    /**
+     * @return height of the frames (after start())
+     */
+    int getHeight();
+}
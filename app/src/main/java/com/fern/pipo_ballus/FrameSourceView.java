@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.ViewGroup;
+
+import org.opencv.android.CameraBridgeViewBase;
+
+/**
+ * This class shows frames from a FrameSource in place of JavaCameraView.
+ * Frames are processed and drawn directly on the source's thread, so there is no
+ * extra buffering thread between the camera and CvCameraViewListener2.
+ * Camera2FrameSource is used unless another source is set with setFrameSource()
+ */
+public class FrameSourceView extends CameraBridgeViewBase implements FrameSource.FrameListener {
+    private final String TAG = this.getClass().getName();
+
+    private FrameSource frameSource;
+    private volatile boolean connected;
+
+    public FrameSourceView(Context context, int cameraId) {
+        super(context, cameraId);
+    }
+
+    public FrameSourceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    /**
+     * Sets the source of the frames (used on the next enableView())
+     * @param frameSource FrameSource or null to use Camera2FrameSource
+     */
+    public void setFrameSource(FrameSource frameSource) {
+        this.frameSource = frameSource;
+    }
+
+    @Override
+    protected boolean connectCamera(int width, int height) {
+        if (frameSource == null)
+            frameSource = new Camera2FrameSource(getContext(), mCameraIndex);
+
+        // Frame size is selected by the source (within the maximum frame size)
+        int maxWidth = mMaxWidth > 0 ? mMaxWidth : width;
+        int maxHeight = mMaxHeight > 0 ? mMaxHeight : height;
+        if (!frameSource.start(maxWidth, maxHeight, this)) {
+            Log.e(TAG, "Error starting frame source!");
+            return false;
+        }
+        mFrameWidth = frameSource.getWidth();
+        mFrameHeight = frameSource.getHeight();
+
+        // Scale frames to the view (as JavaCameraView does)
+        if (getLayoutParams().width == ViewGroup.LayoutParams.MATCH_PARENT
+                && getLayoutParams().height == ViewGroup.LayoutParams.MATCH_PARENT)
+            mScale = Math.min(((float) height) / mFrameHeight, ((float) width) / mFrameWidth);
+        else
+            mScale = 0;
+
+        if (mFpsMeter != null)
+            mFpsMeter.setResolution(mFrameWidth, mFrameHeight);
+
+        AllocateCache();
+        connected = true;
+        return true;
+    }
+
+    @Override
+    protected void disconnectCamera() {
+        connected = false;
+        if (frameSource != null)
+            frameSource.stop();
+    }
+
+    /**
+     * Processes and draws the frame on the source's thread
+     * @param sourceFrame new frame
+     */
+    @Override
+    public void onFrame(SourceFrame sourceFrame) {
+        // Skip frames that arrive before the frame cache is allocated
+        if (connected)
+            deliverAndDrawFrame(sourceFrame);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import android.util.Log;
+
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class provides the native fused kernel (src/main/cpp/fused_kernel.c).
+ * In one pass over the frame the kernel labels pixels with the color lookup table,
+ * accumulates the ball pixels inside the table's ellipse and finds the bounding box
+ * of the table pixels without writing any masks
+ */
+public class FusedKernel {
+    private final static String TAG = FusedKernel.class.getName();
+
+    // Indexes of the result array
+    public final static int RESULT_BALL_COUNT = 0;
+    public final static int RESULT_BALL_SUM_X = 1;
+    public final static int RESULT_BALL_SUM_Y = 2;
+    public final static int RESULT_BALL_MIN_X = 3;
+    public final static int RESULT_BALL_MIN_Y = 4;
+    public final static int RESULT_BALL_MAX_X = 5;
+    public final static int RESULT_BALL_MAX_Y = 6;
+    public final static int RESULT_TABLE_COUNT = 7;
+    public final static int RESULT_TABLE_MIN_X = 8;
+    public final static int RESULT_TABLE_MIN_Y = 9;
+    public final static int RESULT_TABLE_MAX_X = 10;
+    public final static int RESULT_TABLE_MAX_Y = 11;
+    public final static int RESULT_LENGTH = 12;
+
+    private static boolean loaded, available;
+
+    private final ByteBuffer labels;
+
+    /**
+     * @param lut color lookup table (LUTSegmenter for RGBA frames or YUVSegmenter for YUV frames)
+     */
+    FusedKernel(byte[] lut) {
+        this.labels = ByteBuffer.allocateDirect(lut.length);
+        this.labels.put(lut);
+    }
+
+    /**
+     * Loads the native library on the first call
+     * @return true if the native library is available
+     */
+    public static synchronized boolean isAvailable() {
+        if (!loaded) {
+            loaded = true;
+            try {
+                System.loadLibrary("fused_kernel");
+                available = true;
+            } catch (UnsatisfiedLinkError e) {
+                Log.e(TAG, "Native kernel is not available!", e);
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Runs the kernel on the frame
+     * @param frame RGBA or packed YUV frame (CV_8UC4 or CV_8UC3)
+     * @param centerX X coordinate of the table's ellipse center
+     * @param centerY Y coordinate of the table's ellipse center
+     * @param semiAxisX semi-axis of the ellipse along X before rotation (0 to skip the ball)
+     * @param semiAxisY semi-axis of the ellipse along Y before rotation (0 to skip the ball)
+     * @param angle rotation of the ellipse (degrees, as in RotatedRect)
+     * @param result output array of RESULT_LENGTH elements. Minimum coordinates are larger
+     *               than maximum ones if no pixels were found. Table's bounding box includes
+     *               only rows and columns with at least 3 table pixels
+     * @throws IllegalArgumentException if the frame is empty or wider than 4096 pixels
+     */
+    public void run(Mat frame, double centerX, double centerY,
+                    double semiAxisX, double semiAxisY, double angle, long[] result) {
+        run(frame.dataAddr(), frame.rows(), frame.cols(), (int) frame.step1(), frame.channels(),
+                labels, centerX, centerY, semiAxisX, semiAxisY, angle, result);
+    }
+
+    private static native void run(long dataAddress, int rows, int cols, int step, int channels,
+                                   ByteBuffer labels, double centerX, double centerY,
+                                   double semiAxisX, double semiAxisY, double angle,
+                                   long[] result);
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This class finds the table and the ball with one pass of the native FusedKernel
+ * (fast path without masks and contours for the headless mode).
+ * Table's ellipse is inscribed into the bounding box of the table pixels (rows and columns
+ * with stray pixels are skipped by the kernel, a jump of the locked table's box is ignored
+ * until it persists for JUMP_FRAMES frames), ball's center is the centroid of the ball pixels inside the table's ellipse.
+ * Both are found by process(), detect() and the ball detector's find() only return the results
+ */
+public class FusedTracker implements TableDetector {
+    private final static int MIN_TABLE_AREA = 1000;
+    private final static int MIN_BALL_AREA = 100;
+    private final static double MAX_TABLE_JUMP = 0.1;
+    private final static int JUMP_FRAMES = 5;
+
+    private final FusedKernel fusedKernel;
+    private final long[] result;
+    private final RotatedRect tableRotatedRect;
+    private final Rect tableBoundingRect;
+    private final Point ballCenter;
+    private final Mat maskTableCircle;
+    private final Scalar singleWhiteColor;
+    private final BallDetector ballDetector;
+
+    private int minTableArea, minBallArea;
+    private int tableStatus, ballStatus;
+    private int tableArea, frameRows, frameCols, jumpFrames;
+    private float ballRadius;
+    private double tableConfidence, ballConfidence, time;
+    private boolean maskValid;
+
+    /**
+     * @param fusedKernel kernel with the color lookup table
+     */
+    FusedTracker(FusedKernel fusedKernel) {
+        this.fusedKernel = fusedKernel;
+        this.result = new long[FusedKernel.RESULT_LENGTH];
+        this.tableRotatedRect = new RotatedRect();
+        this.tableBoundingRect = new Rect();
+        this.ballCenter = new Point();
+        this.maskTableCircle = new Mat();
+        this.singleWhiteColor = new Scalar(255);
+        this.minTableArea = MIN_TABLE_AREA;
+        this.minBallArea = MIN_BALL_AREA;
+        this.tableStatus = TABLE_NOT_FOUND;
+        this.ballStatus = BallDetector.BALL_NOT_FOUND;
+        this.ballDetector = new FusedBallDetector();
+    }
+
+    /**
+     * @return BallDetector with the ball found by process()
+     */
+    public BallDetector getBallDetector() {
+        return ballDetector;
+    }
+
+    /**
+     * Finds the table and the ball on the frame.
+     * Ball is searched inside the table's ellipse from the previous frame
+     * (the kernel runs twice only on the frame where the table is found again)
+     * @param inputRGBA input RGBA (or packed YUV) frame
+     * @return TABLE_FOUND, TABLE_NOT_FOUND or TABLE_TOO_SMALL
+     */
+    public int process(Mat inputRGBA) {
+        long timeStart = System.nanoTime();
+        frameRows = inputRGBA.rows();
+        frameCols = inputRGBA.cols();
+        boolean tableLocked = tableStatus == TABLE_FOUND;
+
+        runKernel(inputRGBA, tableLocked);
+        findTable(tableLocked);
+        if (!tableLocked && tableStatus == TABLE_FOUND)
+            runKernel(inputRGBA, true);
+        findBall();
+
+        time = (System.nanoTime() - timeStart) / 1e6;
+        return tableStatus;
+    }
+
+    /**
+     * Runs the kernel
+     * @param inputRGBA input RGBA (or packed YUV) frame
+     * @param withBall true to accumulate the ball inside the current table's ellipse
+     */
+    private void runKernel(Mat inputRGBA, boolean withBall) {
+        if (withBall)
+            fusedKernel.run(inputRGBA, tableRotatedRect.center.x, tableRotatedRect.center.y,
+                    tableRotatedRect.size.width / 2, tableRotatedRect.size.height / 2,
+                    tableRotatedRect.angle, result);
+        else
+            fusedKernel.run(inputRGBA, 0, 0, 0, 0, 0, result);
+    }
+
+    /**
+     * Calculates table's ellipse from the bounding box of the table pixels
+     * @param tableLocked true if the table was found on the previous frame
+     */
+    private void findTable(boolean tableLocked) {
+        tableArea = (int) result[FusedKernel.RESULT_TABLE_COUNT];
+        tableConfidence = 0;
+        if (tableArea == 0) {
+            tableStatus = TABLE_NOT_FOUND;
+            return;
+        }
+        if (tableArea < minTableArea) {
+            tableStatus = TABLE_TOO_SMALL;
+            return;
+        }
+
+        int minX = (int) result[FusedKernel.RESULT_TABLE_MIN_X];
+        int minY = (int) result[FusedKernel.RESULT_TABLE_MIN_Y];
+        int maxX = (int) result[FusedKernel.RESULT_TABLE_MAX_X];
+        int maxY = (int) result[FusedKernel.RESULT_TABLE_MAX_Y];
+
+        // Keep the locked table if its bounding box jumps (e.g. a table colored object appears
+        // outside the table) until the jump persists (the table or the camera has moved)
+        if (tableLocked && isJump(minX, minY, maxX, maxY) && ++jumpFrames < JUMP_FRAMES)
+            return;
+        jumpFrames = 0;
+
+        tableBoundingRect.x = minX;
+        tableBoundingRect.y = minY;
+        tableBoundingRect.width = maxX - minX + 1;
+        tableBoundingRect.height = maxY - minY + 1;
+        tableRotatedRect.center.x = (minX + maxX) / 2.;
+        tableRotatedRect.center.y = (minY + maxY) / 2.;
+        tableRotatedRect.size.width = tableBoundingRect.width;
+        tableRotatedRect.size.height = tableBoundingRect.height;
+        tableRotatedRect.angle = 0;
+        maskValid = false;
+
+        // Part of the ellipse covered by the table
+        tableConfidence = Math.min(tableArea / (Math.PI / 4
+                * tableBoundingRect.width * tableBoundingRect.height), 1);
+        tableStatus = TABLE_FOUND;
+    }
+
+    /**
+     * @return true if any side of the bounding box has moved by more than MAX_TABLE_JUMP
+     * of the locked table's size
+     */
+    private boolean isJump(int minX, int minY, int maxX, int maxY) {
+        double maxJumpX = tableBoundingRect.width * MAX_TABLE_JUMP;
+        double maxJumpY = tableBoundingRect.height * MAX_TABLE_JUMP;
+        return Math.abs(minX - tableBoundingRect.x) > maxJumpX
+                || Math.abs(maxX - (tableBoundingRect.x + tableBoundingRect.width - 1)) > maxJumpX
+                || Math.abs(minY - tableBoundingRect.y) > maxJumpY
+                || Math.abs(maxY - (tableBoundingRect.y + tableBoundingRect.height - 1)) > maxJumpY;
+    }
+
+    /**
+     * Calculates ball's center from the accumulated ball pixels
+     */
+    private void findBall() {
+        long ballArea = result[FusedKernel.RESULT_BALL_COUNT];
+        ballConfidence = 0;
+        if (tableStatus != TABLE_FOUND || ballArea == 0) {
+            ballStatus = BallDetector.BALL_NOT_FOUND;
+            return;
+        }
+        if (ballArea < minBallArea || ballArea >= tableArea / 4) {
+            ballStatus = BallDetector.BALL_WRONG_SIZE;
+            return;
+        }
+
+        ballCenter.x = (double) result[FusedKernel.RESULT_BALL_SUM_X] / ballArea;
+        ballCenter.y = (double) result[FusedKernel.RESULT_BALL_SUM_Y] / ballArea;
+        ballRadius = (float) Math.sqrt(ballArea / Math.PI);
+
+        // Part of the enclosing circle covered by the ball
+        double enclosingRadius = Math.max(
+                result[FusedKernel.RESULT_BALL_MAX_X] - result[FusedKernel.RESULT_BALL_MIN_X] + 1,
+                result[FusedKernel.RESULT_BALL_MAX_Y] - result[FusedKernel.RESULT_BALL_MIN_Y] + 1)
+                / 2.;
+        ballConfidence = Math.min(ballArea / (Math.PI * enclosingRadius * enclosingRadius), 1);
+        ballStatus = BallDetector.BALL_FOUND;
+    }
+
+    /**
+     * @return true if process() has not found the table
+     */
+    @Override
+    public boolean needsDetection(Mat inputRGBA, ColorSegmenter colorSegmenter) {
+        return tableStatus != TABLE_FOUND;
+    }
+
+    /**
+     * @return true if the table was found on the previous frame (masks are never used)
+     */
+    @Override
+    public boolean isLocked() {
+        return tableStatus == TABLE_FOUND;
+    }
+
+    /**
+     * @return status of the table found by process()
+     */
+    @Override
+    public int detect(Mat maskTable) {
+        return tableStatus;
+    }
+
+    /**
+     * Forgets the table (the ball is searched after the table is found again)
+     */
+    @Override
+    public void reset() {
+        tableStatus = TABLE_NOT_FOUND;
+        jumpFrames = 0;
+        ballStatus = BallDetector.BALL_NOT_FOUND;
+    }
+
+    @Override
+    public void setScale(double scale) {
+        minTableArea = (int) (MIN_TABLE_AREA * scale * scale);
+        reset();
+    }
+
+    @Override
+    public RotatedRect getRotatedRect() {
+        return tableRotatedRect;
+    }
+
+    @Override
+    public Rect getBoundingRect() {
+        return tableBoundingRect;
+    }
+
+    @Override
+    public int getArea() {
+        return tableArea;
+    }
+
+    /**
+     * @return mask of the table's ellipse (drawn only if requested)
+     */
+    @Override
+    public Mat getMask() {
+        if (!maskValid) {
+            maskTableCircle.create(frameRows, frameCols, CvType.CV_8UC1);
+            maskTableCircle.setTo(Scalar.all(0));
+            Imgproc.ellipse(maskTableCircle, tableRotatedRect, singleWhiteColor, -1);
+            maskValid = true;
+        }
+        return maskTableCircle;
+    }
+
+    /**
+     * @return part of the table's ellipse covered by the table pixels (0 - 1)
+     */
+    @Override
+    public double getConfidence() {
+        return tableConfidence;
+    }
+
+    /**
+     * @return time of the last process() call (ms)
+     */
+    @Override
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * Releases the table's ellipse mask
+     */
+    @Override
+    public void release() {
+        maskTableCircle.release();
+    }
+
+    /**
+     * This class provides the ball found by process() as a BallDetector
+     */
+    private class FusedBallDetector implements BallDetector {
+        /**
+         * @return status of the ball found by process()
+         */
+        @Override
+        public int find(Mat inputRGBA, Mat maskBall, ColorSegmenter colorSegmenter,
+                        TableDetector tableDetector) {
+            return ballStatus;
+        }
+
+        /**
+         * Forgets the ball found by process()
+         */
+        @Override
+        public void reset() {
+            ballStatus = BALL_NOT_FOUND;
+        }
+
+        @Override
+        public void setScale(double scale) {
+            minBallArea = (int) (MIN_BALL_AREA * scale * scale);
+            reset();
+        }
+
+        @Override
+        public Point getCenter() {
+            return ballCenter;
+        }
+
+        @Override
+        public float getRadius() {
+            return ballRadius;
+        }
+
+        @Override
+        public double getConfidence() {
+            return ballConfidence;
+        }
+
+        /**
+         * @return 0 (the ball is found by process() together with the table)
+         */
+        @Override
+        public double getTime() {
+            return 0;
+        }
+
+        /**
+         * Nothing to release (the ball is stored in FusedTracker)
+         */
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -54,7 +54,7 @@ public class HSVColor {
      */
     HSVColor(int color) {
         float[] hsv = new float[3];
-        Color.colorToHSV(color, hsv);
+        colorToHSV(color, hsv);
         this.hue = hsv[0];
         this.saturation = hsv[1];
         this.value = hsv[2];
@@ -137,7 +137,7 @@ public class HSVColor {
      */
     public void setHSVFromInt(int color) {
         float[] hsv = new float[3];
-        Color.colorToHSV(color, hsv);
+        colorToHSV(color, hsv);
         this.hue = hsv[0];
         this.saturation = hsv[1];
         this.value = hsv[2];
@@ -150,6 +150,41 @@ public class HSVColor {
         return Color.HSVToColor( new float[]{ this.hue, this.saturation, this.value });
     }
 
+    /**
+     * Converts color to HSV the same way as Color.colorToHSV() but without the Android
+     * framework, so the color ranges can be calculated in the local unit tests
+     * @param color color as Integer
+     * @param hsv output color in float[3] format (hue 0-359, saturation 0-1, value 0-1)
+     */
+    public static void colorToHSV(int color, float[] hsv) {
+        int red = (color >> 16) & 0xff;
+        int green = (color >> 8) & 0xff;
+        int blue = color & 0xff;
+        int max = Math.max(red, Math.max(green, blue));
+        int delta = max - Math.min(red, Math.min(green, blue));
+        hsv[2] = max / 255f;
+
+        // Shade of gray
+        if (delta == 0) {
+            hsv[0] = 0;
+            hsv[1] = 0;
+            return;
+        }
+
+        float hue;
+        if (red == max)
+            hue = (float) (green - blue) / delta;
+        else if (green == max)
+            hue = 2 + (float) (blue - red) / delta;
+        else
+            hue = 4 + (float) (red - green) / delta;
+        hue *= 60;
+        if (hue < 0)
+            hue += 360;
+        hsv[0] = hue;
+        hsv[1] = (float) delta / max;
+    }
+
     /**
      * Static method to calculate contrast color (black or white)
      * @param color color as Integer
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import java.util.Objects;
+
+/**
+ * This class converts a color range from the settings to OpenCV HSV bounds
+ * (hue 0-179, saturation 0-255, value 0-255) and calculates the mask of this range.
+ * Hue ranges that wrap around 0 are stored as two hue intervals, so only one HSV image is needed
+ */
+public class HSVRange {
+    private final Scalar lower, upper;
+    private final Scalar lowerWrapped, upperWrapped;
+    private final boolean wrapped;
+
+    /**
+     * Initializes the range with provided colors
+     * @param hsvLower lower color of the range
+     * @param hsvUpper upper color of the range
+     * @param fullHue true to ignore hue and check only saturation and value
+     */
+    HSVRange(HSVColor hsvLower, HSVColor hsvUpper, boolean fullHue) {
+        if (fullHue) {
+            wrapped = false;
+            lower = new Scalar(0, hsvLower.getSaturationInt(), hsvLower.getValueInt());
+            upper = new Scalar(179, hsvUpper.getSaturationInt(), hsvUpper.getValueInt());
+            lowerWrapped = null;
+            upperWrapped = null;
+        } else if (hsvLower.getHue() > hsvUpper.getHue()) {
+            // Hue wraps around 0. Bounds are the same as in the inverted hue image
+            // (hue + 90, clipped to 0-179) shifted back to the original hue
+            wrapped = true;
+            lower = new Scalar(Math.max((int) (hsvLower.getHue() / 2) - 90, 0) + 90,
+                    hsvLower.getSaturationInt(), hsvLower.getValueInt());
+            upper = new Scalar(179,
+                    hsvUpper.getSaturationInt(), hsvUpper.getValueInt());
+            lowerWrapped = new Scalar(0,
+                    hsvLower.getSaturationInt(), hsvLower.getValueInt());
+            upperWrapped = new Scalar(Math.min((int) (hsvUpper.getHue() / 2) + 90, 179) - 90,
+                    hsvUpper.getSaturationInt(), hsvUpper.getValueInt());
+        } else {
+            wrapped = false;
+            lower = new Scalar((int) (hsvLower.getHue() / 2),
+                    hsvLower.getSaturationInt(), hsvLower.getValueInt());
+            upper = new Scalar((int) (hsvUpper.getHue() / 2),
+                    hsvUpper.getSaturationInt(), hsvUpper.getValueInt());
+            lowerWrapped = null;
+            upperWrapped = null;
+        }
+    }
+
+    /**
+     * Calculates mask of the range
+     * @param matHSV HSV image
+     * @param mask output mask (CV_8UC1, 255 inside the range)
+     * @param buffer temporary mask for the second hue interval
+     */
+    public void inRange(Mat matHSV, Mat mask, Mat buffer) {
+        Core.inRange(matHSV, lower, upper, mask);
+        if (wrapped) {
+            Core.inRange(matHSV, lowerWrapped, upperWrapped, buffer);
+            Core.bitwise_or(mask, buffer, mask);
+        }
+    }
+
+    /**
+     * Checks if a single color is inside the range
+     * @param hue hue component of color (0-179)
+     * @param saturation saturation component of color (0-255)
+     * @param value value component of color (0-255)
+     * @return true if color is inside the range
+     */
+    public boolean contains(int hue, int saturation, int value) {
+        return contains(lower, upper, hue, saturation, value)
+                || (wrapped && contains(lowerWrapped, upperWrapped, hue, saturation, value));
+    }
+
+    private static boolean contains(Scalar lower, Scalar upper,
+                                    int hue, int saturation, int value) {
+        return hue >= lower.val[0] && hue <= upper.val[0]
+                && saturation >= lower.val[1] && saturation <= upper.val[1]
+                && value >= lower.val[2] && value <= upper.val[2];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof HSVRange))
+            return false;
+        HSVRange hsvRange = (HSVRange) o;
+        return wrapped == hsvRange.wrapped
+                && lower.equals(hsvRange.lower) && upper.equals(hsvRange.upper)
+                && Objects.equals(lowerWrapped, hsvRange.lowerWrapped)
+                && Objects.equals(upperWrapped, hsvRange.upperWrapped);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(lower, upper, lowerWrapped, upperWrapped, wrapped);
+    }
+}
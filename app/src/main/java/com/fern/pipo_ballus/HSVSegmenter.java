@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This class calculates the table and ball masks using HSV conversion and Core.inRange()
+ */
+public class HSVSegmenter implements ColorSegmenter {
+    private final HSVRange tableRange, ballRange;
+    private final Mat matHSV, maskBuffer;
+
+    /**
+     * Initializes the segmenter with provided color ranges
+     * @param tableRange color range of the table
+     * @param ballRange color range of the ball
+     */
+    HSVSegmenter(HSVRange tableRange, HSVRange ballRange) {
+        this.tableRange = tableRange;
+        this.ballRange = ballRange;
+
+        this.matHSV = new Mat();
+        this.maskBuffer = new Mat();
+    }
+
+    @Override
+    public void segment(Mat inputRGBA, Mat maskTable, Mat maskBall) {
+        // Convert to HSV
+        Imgproc.cvtColor(inputRGBA, matHSV, Imgproc.COLOR_RGB2HSV, 3);
+
+        // Get table mask
+        tableRange.inRange(matHSV, maskTable, maskBuffer);
+
+        // Get ball mask
+        ballRange.inRange(matHSV, maskBall, maskBuffer);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import android.util.Log;
+
+/**
+ * This class measures the intervals between the sent packets of the fixed rate transmitter
+ * and prints their mean, standard deviation (jitter) and maximum deviation from the nominal
+ * period to the log every WINDOW_PACKETS packets
+ */
+public class IntervalStatistics {
+    private final static String TAG = IntervalStatistics.class.getName();
+
+    private final static int WINDOW_PACKETS = 500;
+
+    private final long period;
+    private int intervals;
+    private long timeLast, maxDeviation;
+    private double sumInterval, sumIntervalSquared;
+
+    /**
+     * @param period nominal interval between the packets (ns)
+     */
+    IntervalStatistics(long period) {
+        this.period = period;
+        this.timeLast = 0;
+        reset();
+    }
+
+    /**
+     * Adds time of the sent packet
+     * @param time time of sending (System.nanoTime())
+     */
+    public void add(long time) {
+        if (timeLast != 0) {
+            long interval = time - timeLast;
+            sumInterval += interval;
+            sumIntervalSquared += (double) interval * interval;
+            maxDeviation = Math.max(maxDeviation, Math.abs(interval - period));
+            intervals++;
+        }
+        timeLast = time;
+
+        if (intervals == WINDOW_PACKETS) {
+            double mean = sumInterval / intervals;
+            double jitter = Math.sqrt(Math.max(sumIntervalSquared / intervals - mean * mean, 0));
+            Log.i(TAG, String.format("Send interval (ms): nominal %.2f, mean %.2f, "
+                            + "jitter %.3f, max deviation %.3f",
+                    period / 1e6, mean / 1e6, jitter / 1e6, maxDeviation / 1e6));
+            reset();
+        }
+    }
+
+    /**
+     * Starts a new measurement (e.g. after a pause in sending)
+     */
+    public void restart() {
+        timeLast = 0;
+    }
+
+    /**
+     * Clears collected intervals
+     */
+    public void reset() {
+        intervals = 0;
+        maxDeviation = 0;
+        sumInterval = 0;
+        sumIntervalSquared = 0;
+    }
+}
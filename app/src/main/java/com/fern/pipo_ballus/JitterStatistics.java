@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import android.util.Log;
+
+/**
+ * This class measures the jitter of the ball position while the ball is not moving
+ * and prints it to the log. Positions are collected in windows of WINDOW_FRAMES frames,
+ * windows in which the ball moved more than STATIONARY_RANGE are ignored
+ */
+public class JitterStatistics {
+    private final static String TAG = JitterStatistics.class.getName();
+
+    private final static int WINDOW_FRAMES = 100;
+    private final static double STATIONARY_RANGE = 20;
+
+    private int frames;
+    private double sumX, sumY, sumX2, sumY2, sumDelta2;
+    private double minX, maxX, minY, maxY, lastX, lastY;
+
+    JitterStatistics() {
+        reset();
+    }
+
+    /**
+     * Adds new ball position
+     * @param x ball's X position (1000-2000)
+     * @param y ball's Y position (1000-2000)
+     */
+    public void add(double x, double y) {
+        if (frames > 0) {
+            double deltaX = x - lastX;
+            double deltaY = y - lastY;
+            sumDelta2 += deltaX * deltaX + deltaY * deltaY;
+        }
+        sumX += x;
+        sumY += y;
+        sumX2 += x * x;
+        sumY2 += y * y;
+        minX = Math.min(minX, x);
+        maxX = Math.max(maxX, x);
+        minY = Math.min(minY, y);
+        maxY = Math.max(maxY, y);
+        lastX = x;
+        lastY = y;
+        frames++;
+
+        if (frames == WINDOW_FRAMES) {
+            // Print statistics only if the ball was stationary
+            if (maxX - minX <= STATIONARY_RANGE && maxY - minY <= STATIONARY_RANGE) {
+                double meanX = sumX / frames;
+                double meanY = sumY / frames;
+                Log.i(TAG, String.format("Stationary ball jitter: std X %.2f, std Y %.2f, "
+                                + "peak-to-peak X %.2f, Y %.2f, frame-to-frame RMS %.2f",
+                        Math.sqrt(Math.max(sumX2 / frames - meanX * meanX, 0)),
+                        Math.sqrt(Math.max(sumY2 / frames - meanY * meanY, 0)),
+                        maxX - minX, maxY - minY,
+                        Math.sqrt(sumDelta2 / (frames - 1))));
+            }
+            reset();
+        }
+    }
+
+    /**
+     * Clears collected positions (e.g. if the ball is lost)
+     */
+    public void reset() {
+        frames = 0;
+        sumX = 0;
+        sumY = 0;
+        sumX2 = 0;
+        sumY2 = 0;
+        sumDelta2 = 0;
+        minX = Double.MAX_VALUE;
+        maxX = -Double.MAX_VALUE;
+        minY = Double.MAX_VALUE;
+        maxY = -Double.MAX_VALUE;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+/**
+ * This class filters the ball position with a constant velocity Kalman filter
+ * (independent filters for X and Y axes) and estimates the ball velocity.
+ * Measurements too far from the prediction (innovation gating) are rejected as outliers,
+ * so single-frame mis-detections do not reach the table
+ */
+public class KalmanTracker {
+    // Acceleration noise (table units / s^2) and measurement noise (table units)
+    private final static double ACCELERATION_NOISE = 3000;
+    private final static double MEASUREMENT_NOISE = 3;
+
+    // Chi-square threshold for 2 degrees of freedom (99.9%)
+    private final static double GATE_THRESHOLD = 13.8;
+
+    // Start again from the measurement after this number of rejected measurements in a row
+    private final static int MAX_REJECTED = 3;
+
+    // Reset filter if there were no measurements for too long (ns)
+    private final static long MAX_GAP = 300_000_000L;
+
+    // Minimal time step between the measurements (ns)
+    private final static long MIN_DT = 1_000_000L;
+
+    private final Axis axisX, axisY;
+
+    private boolean initialized;
+    private long lastTime;
+    private int rejectedMeasurements;
+
+    KalmanTracker() {
+        this.axisX = new Axis();
+        this.axisY = new Axis();
+    }
+
+    /**
+     * Adds new measurement
+     * @param x measured X position of the ball (1000-2000)
+     * @param y measured Y position of the ball (1000-2000)
+     * @param time capture time of the frame (System.nanoTime())
+     * @return true if the measurement was accepted or false if it was rejected as an outlier
+     */
+    public boolean update(double x, double y, long time) {
+        // Initialize with the first measurement
+        if (!initialized || time - lastTime > MAX_GAP) {
+            start(x, y, time);
+            return true;
+        }
+
+        // Predict state at the measurement time
+        double dt = Math.max(time - lastTime, MIN_DT) / 1e9;
+        axisX.predict(dt);
+        axisY.predict(dt);
+        lastTime = time;
+
+        // Check normalized innovation
+        if (axisX.getDistance(x) + axisY.getDistance(y) > GATE_THRESHOLD) {
+            rejectedMeasurements++;
+
+            // The ball really moved (e.g. was pushed), start again from the measurement
+            if (rejectedMeasurements > MAX_REJECTED) {
+                start(x, y, time);
+                return true;
+            }
+            return false;
+        }
+
+        // Correct state
+        rejectedMeasurements = 0;
+        axisX.correct(x);
+        axisY.correct(y);
+        return true;
+    }
+
+    /**
+     * Forgets the ball (e.g. if the ball is lost)
+     */
+    public void reset() {
+        initialized = false;
+    }
+
+    /**
+     * @return true if the filter has at least one measurement
+     */
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * @return filtered X position (1000-2000)
+     */
+    public double getX() {
+        return axisX.position;
+    }
+
+    /**
+     * @return filtered Y position (1000-2000)
+     */
+    public double getY() {
+        return axisY.position;
+    }
+
+    /**
+     * @return estimated X velocity (table units per second)
+     */
+    public double getVelocityX() {
+        return axisX.velocity;
+    }
+
+    /**
+     * @return estimated Y velocity (table units per second)
+     */
+    public double getVelocityY() {
+        return axisY.velocity;
+    }
+
+    /**
+     * Starts filter from the measurement with zero velocity
+     */
+    private void start(double x, double y, long time) {
+        axisX.start(x);
+        axisY.start(y);
+        lastTime = time;
+        rejectedMeasurements = 0;
+        initialized = true;
+    }
+
+    /**
+     * Kalman filter for one axis with the state [position, velocity]
+     */
+    private static class Axis {
+        private double position, velocity;
+
+        // Covariance matrix [[p00, p01], [p01, p11]]
+        private double p00, p01, p11;
+
+        void start(double measurement) {
+            position = measurement;
+            velocity = 0;
+            p00 = MEASUREMENT_NOISE * MEASUREMENT_NOISE;
+            p01 = 0;
+            p11 = 500 * 500;
+        }
+
+        void predict(double dt) {
+            // x = F * x
+            position += velocity * dt;
+
+            // P = F * P * F' + Q (white noise acceleration)
+            double q = ACCELERATION_NOISE * ACCELERATION_NOISE;
+            double dt2 = dt * dt;
+            p00 += dt * (2 * p01 + dt * p11) + q * dt2 * dt2 / 4;
+            p01 += dt * p11 + q * dt2 * dt / 2;
+            p11 += q * dt2;
+        }
+
+        /**
+         * @return squared innovation normalized by its variance
+         */
+        double getDistance(double measurement) {
+            double innovation = measurement - position;
+            return innovation * innovation / (p00 + MEASUREMENT_NOISE * MEASUREMENT_NOISE);
+        }
+
+        void correct(double measurement) {
+            double innovation = measurement - position;
+            double s = p00 + MEASUREMENT_NOISE * MEASUREMENT_NOISE;
+            double k0 = p00 / s;
+            double k1 = p01 / s;
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+
+            // P = (I - K * H) * P
+            p11 -= k1 * p01;
+            p01 -= k0 * p01;
+            p00 -= k0 * p00;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * This class calculates the table and ball masks using a precompiled lookup table.
+ * Each quantized RGB color (6 bits per channel) is labeled as background, table and / or ball
+ * once, so the segmentation takes one table lookup per pixel instead of HSV conversion
+ * and Core.inRange()
+ */
+public class LUTSegmenter implements ColorSegmenter {
+    private final static String TAG = LUTSegmenter.class.getName();
+
+    private final static int LABEL_TABLE = 1;
+    private final static int LABEL_BALL = 2;
+
+    // Mask values for each label
+    private final static byte[] TABLE_VALUES = { 0, (byte) 255, 0, (byte) 255 };
+    private final static byte[] BALL_VALUES = { 0, 0, (byte) 255, (byte) 255 };
+
+    // Lookup table is compiled only if color ranges were changed
+    private static HSVRange lutTableRange, lutBallRange;
+    private static byte[] compiledLUT;
+
+    private final byte[] lut;
+    private byte[] rgbaBuffer, tableBuffer, ballBuffer;
+
+    /**
+     * Initializes the segmenter and compiles the lookup table if needed
+     * @param tableRange color range of the table
+     * @param ballRange color range of the ball
+     */
+    LUTSegmenter(HSVRange tableRange, HSVRange ballRange) {
+        this.lut = compile(tableRange, ballRange);
+        this.rgbaBuffer = new byte[0];
+    }
+
+    @Override
+    public void segment(Mat inputRGBA, Mat maskTable, Mat maskBall) {
+        int rows = inputRGBA.rows();
+        int cols = inputRGBA.cols();
+        int pixels = rows * cols;
+
+        // Grow buffers if the frame (or region) is larger than the previous ones
+        if (rgbaBuffer.length < pixels * 4) {
+            rgbaBuffer = new byte[pixels * 4];
+            tableBuffer = new byte[pixels];
+            ballBuffer = new byte[pixels];
+        }
+
+        // Read RGBA frame
+        inputRGBA.get(0, 0, rgbaBuffer);
+
+        // Label each pixel
+        for (int i = 0, j = 0; i < pixels; i++, j += 4) {
+            int label = lut[((rgbaBuffer[j] & 0xFC) << 10)
+                    | ((rgbaBuffer[j + 1] & 0xFC) << 4)
+                    | ((rgbaBuffer[j + 2] & 0xFC) >> 2)];
+            tableBuffer[i] = TABLE_VALUES[label];
+            ballBuffer[i] = BALL_VALUES[label];
+        }
+
+        // Write masks
+        maskTable.create(rows, cols, CvType.CV_8UC1);
+        maskBall.create(rows, cols, CvType.CV_8UC1);
+        maskTable.put(0, 0, tableBuffer);
+        maskBall.put(0, 0, ballBuffer);
+    }
+
+    /**
+     * Compiles the lookup table or returns the previous one if color ranges are the same
+     * @param tableRange color range of the table
+     * @param ballRange color range of the ball
+     * @return lookup table (labels of the RGB colors with 6 bits per channel)
+     */
+    static synchronized byte[] compile(HSVRange tableRange, HSVRange ballRange) {
+        if (compiledLUT != null
+                && tableRange.equals(lutTableRange) && ballRange.equals(lutBallRange))
+            return compiledLUT;
+
+        long timeStart = System.currentTimeMillis();
+        byte[] labels = new byte[64 * 64 * 64];
+        int[] hsv = new int[3];
+        for (int r = 0; r < 64; r++) {
+            for (int g = 0; g < 64; g++) {
+                for (int b = 0; b < 64; b++) {
+                    // Use the center of the quantization step
+                    rgbToHSV((r << 2) + 2, (g << 2) + 2, (b << 2) + 2, hsv);
+
+                    int label = 0;
+                    if (tableRange.contains(hsv[0], hsv[1], hsv[2]))
+                        label |= LABEL_TABLE;
+                    if (ballRange.contains(hsv[0], hsv[1], hsv[2]))
+                        label |= LABEL_BALL;
+                    labels[(r << 12) | (g << 6) | b] = (byte) label;
+                }
+            }
+        }
+        Log.i(TAG, "Lookup table compiled in "
+                + (System.currentTimeMillis() - timeStart) + " ms");
+
+        compiledLUT = labels;
+        lutTableRange = tableRange;
+        lutBallRange = ballRange;
+        return compiledLUT;
+    }
+
+    /**
+     * Converts RGB color to HSV in the same format as Imgproc.COLOR_RGB2HSV
+     * @param r red component (0-255)
+     * @param g green component (0-255)
+     * @param b blue component (0-255)
+     * @param hsv output array (hue 0-179, saturation 0-255, value 0-255)
+     */
+    static void rgbToHSV(int r, int g, int b, int[] hsv) {
+        int max = Math.max(r, Math.max(g, b));
+        int min = Math.min(r, Math.min(g, b));
+        int diff = max - min;
+
+        float hue = 0;
+        if (diff > 0) {
+            if (max == r)
+                hue = 60.f * (g - b) / diff;
+            else if (max == g)
+                hue = 120.f + 60.f * (b - r) / diff;
+            else
+                hue = 240.f + 60.f * (r - g) / diff;
+            if (hue < 0)
+                hue += 360.f;
+        }
+
+        hsv[0] = Math.round(hue / 2.f) % 180;
+        hsv[1] = max > 0 ? Math.round(255.f * diff / max) : 0;
+        hsv[2] = max;
+    }
+}
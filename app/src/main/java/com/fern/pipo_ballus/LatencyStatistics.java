@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+package com.fern.pipo_ballus;
+
+import android.util.Log;
+
+/**
+ * This class measures the time between the frame capture and sending of the ball position
+ * (split into stages) and prints it to the log every WINDOW_PACKETS packets.
+ * Use it to tune the prediction horizon against the physical loop
+ */
+public class LatencyStatistics {
+    private final static String TAG = LatencyStatistics.class.getName();
+
+    private final static int WINDOW_PACKETS = 100;
+
+    private int packets;
+    private long sumSegmentation, sumProcessing, sumQueue, sumTransmit, sumTotal, maxTotal;
+    private double sumHorizon;
+
+    LatencyStatistics() {
+        reset();
+    }
+
+    /**
+     * Adds timestamps of one packet (System.nanoTime())
+     * @param positionContainer sent position with capture and processing timestamps
+     * @param timeSending time before writing the packet to the serial port
+     * @param timeSent time after writing the packet to the serial port
+     * @param horizon prediction horizon used for this packet (ms)
+     */
+    public void add(PositionContainer positionContainer, long timeSending, long timeSent,
+                    double horizon) {
+        long total = timeSent - positionContainer.timeCaptured;
+        sumSegmentation += positionContainer.timeSegmented - positionContainer.timeCaptured;
+        sumProcessing += positionContainer.timeProcessed - positionContainer.timeSegmented;
+        sumQueue += timeSending - positionContainer.timeProcessed;
+        sumTransmit += timeSent - timeSending;
+        sumTotal += total;
+        maxTotal = Math.max(maxTotal, total);
+        sumHorizon += horizon;
+        packets++;
+
+        if (packets == WINDOW_PACKETS) {
+            Log.i(TAG, String.format("Latency (ms): capture to segmented %.1f, processing %.1f, "
+                            + "queue %.1f, transmit %.1f, total %.1f (max %.1f), horizon %.1f",
+                    sumSegmentation / 1e6 / packets, sumProcessing / 1e6 / packets,
+                    sumQueue / 1e6 / packets, sumTransmit / 1e6 / packets,
+                    sumTotal / 1e6 / packets, maxTotal / 1e6, sumHorizon / packets));
+            reset();
+        }
+    }
+
+    /**
+     * Clears collected timestamps
+     */
+    public void reset() {
+        packets = 0;
+        sumSegmentation = 0;
+        sumProcessing = 0;
+        sumQueue = 0;
+        sumTransmit = 0;
+        sumTotal = 0;
+        maxTotal = 0;
+        sumHorizon = 0;
+    }
+}
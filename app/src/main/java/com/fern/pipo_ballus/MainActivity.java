@@ -36,6 +36,8 @@ import android.content.pm.PackageManager;
 import android.hardware.usb.UsbManager;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.View;
+import android.widget.Button;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -45,10 +47,10 @@ import androidx.core.app.ActivityCompat;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 
 import org.opencv.android.BaseLoaderCallback;
+import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
 
-import java.util.concurrent.LinkedBlockingQueue;
 
 public class MainActivity extends AppCompatActivity {
     private final String TAG = this.getClass().getName();
@@ -61,7 +63,8 @@ public class MainActivity extends AppCompatActivity {
     private OpenCVHandler openCVHandler;
     private SerialDevice serialDevice;
     private SerialHandler serialHandler;
-    private LinkedBlockingQueue<PositionContainer> positionContainers;
+    private PositionMailbox positionMailbox;
+    private TelemetryReader telemetryReader;
 
     /**
      * Checks if OpenCV library is loaded and asks for permissions
@@ -154,6 +157,16 @@ public class MainActivity extends AppCompatActivity {
             actionsDialog.show();
         });
 
+        // Add overlay / headless mode button click
+        Button overlayBtn = findViewById(R.id.overlayBtn);
+        overlayBtn.setText(SettingsContainer.headlessMode ? R.string.overlay : R.string.headless);
+        overlayBtn.setOnClickListener(view -> {
+            SettingsContainer.headlessMode = !SettingsContainer.headlessMode;
+            openCVHandler.setHeadless(SettingsContainer.headlessMode);
+            overlayBtn.setText(SettingsContainer.headlessMode ? R.string.overlay : R.string.headless);
+            SettingsHandler.saveSettings(HomeActivity.settingsFile, this);
+        });
+
         // Initialize UsbManager
         UsbManager usbManager = (UsbManager) getSystemService(Context.USB_SERVICE);
 
@@ -163,23 +176,48 @@ public class MainActivity extends AppCompatActivity {
             Toast.makeText(this, R.string.bluetooth_disabled,
                     Toast.LENGTH_SHORT).show();
 
-        // Initialize LinkedBlockingQueue
-        positionContainers = new LinkedBlockingQueue<>(10);
+        // Initialize mailbox for the positions
+        positionMailbox = new PositionMailbox();
+
+        // Select camera view (JavaCameraView or Camera2 frame source)
+        CameraBridgeViewBase cameraBridgeViewBase = findViewById(R.id.javaCameraView);
+        if (SettingsContainer.frameSource == SettingsContainer.FRAME_SOURCE_CAMERA2) {
+            cameraBridgeViewBase.setVisibility(View.GONE);
+            cameraBridgeViewBase = findViewById(R.id.frameSourceView);
+        }
+
+        // Initialize buffer for the controller telemetry
+        TelemetryBuffer telemetryBuffer =
+                SettingsContainer.telemetryRate != SettingsContainer.TELEMETRY_OFF
+                        ? new TelemetryBuffer() : null;
+
+        // Initialize clock synchronization for the latency probe (protocol v2 only)
+        ClockSync clockSync = SettingsContainer.latencyProbe
+                && SettingsContainer.protocol == SettingsContainer.PROTOCOL_V2
+                ? new ClockSync(SettingsContainer.baudRate) : null;
 
         // Initialize OpenCVHandler class
-        openCVHandler = new OpenCVHandler(findViewById(R.id.javaCameraView),
-                this, positionContainers);
+        openCVHandler = new OpenCVHandler(cameraBridgeViewBase, this, positionMailbox,
+                telemetryBuffer, clockSync);
 
         // Initialize SerialHandler class
         serialDevice = new SerialDevice();
-        serialHandler =
-                new SerialHandler(usbManager, bluetoothAdapter, serialDevice, positionContainers);
+        serialHandler = new SerialHandler(usbManager, bluetoothAdapter, serialDevice,
+                positionMailbox, clockSync != null);
 
         // Create and start SerialHandler thread
         Thread serialThread = new Thread(serialHandler);
         serialThread.setPriority(Thread.NORM_PRIORITY);
         serialThread.start();
 
+        // Create and start telemetry reader thread
+        if (telemetryBuffer != null || clockSync != null) {
+            telemetryReader = new TelemetryReader(serialHandler, telemetryBuffer, clockSync);
+            Thread telemetryThread = new Thread(telemetryReader);
+            telemetryThread.setPriority(Thread.NORM_PRIORITY);
+            telemetryThread.start();
+        }
+
         // Create DevicesDialog
         DevicesDialog devicesDialog = new DevicesDialog(this, usbManager, bluetoothAdapter);
         devicesDialog.setDevicesListener(new DevicesListener() {
@@ -193,8 +231,8 @@ public class MainActivity extends AppCompatActivity {
 
                 // Open serial device
                 if (serialHandler.openDevice()) {
-                    // Clear LinkedBlockingQueue
-                    positionContainers.clear();
+                    // Drop the old position
+                    positionMailbox.clear();
 
                     // Start SerialThread
                     if (!serialThread.isAlive())
@@ -273,6 +311,10 @@ public class MainActivity extends AppCompatActivity {
         if (openCVHandler != null && openCVHandler.isInitialized())
             openCVHandler.getCameraBridgeViewBase().disableView();
 
+        // Stop telemetry reader
+        if (telemetryReader != null)
+            telemetryReader.stop();
+
         // Close bluetooth and usb device
         if (serialHandler != null)
             serialHandler.closeDevice();
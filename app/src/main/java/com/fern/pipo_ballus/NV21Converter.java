@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This class converts the camera's NV21 frame to the packed YUV frame (Y, U, V bytes of each pixel)
+ * for the ball windows and the table ring of YUVSegmenter (full frames are segmented from
+ * the planes directly). Chroma is repeated for each 2x2 block of pixels, so the conversion only
+ * copies bytes instead of calculating RGB colors.
+ * Plane headers of the preview buffers are cached (JavaCameraView has 2 buffers),
+ * so they are created again only if the buffers or the frame size change
+ */
+public class NV21Converter {
+    private final static int HEADER_SETS = 4;
+
+    private final Mat channelBuffer, chromaBuffer, rgbaToYUV;
+    private final Size frameSize;
+    private final PlaneHeaders[] planeHeaders;
+    private int planeHeadersNext;
+
+    // Plane headers of the last wrapped preview frame
+    private PlaneHeaders headers;
+
+    NV21Converter() {
+        this.channelBuffer = new Mat();
+        this.chromaBuffer = new Mat();
+        this.frameSize = new Size();
+        this.planeHeaders = new PlaneHeaders[HEADER_SETS];
+        for (int i = 0; i < HEADER_SETS; i++)
+            this.planeHeaders[i] = new PlaneHeaders();
+
+        // Inverse of the NV21 to RGB conversion (BT.601 with 16-235 luma range)
+        // for frames that are not in NV21 format
+        this.rgbaToYUV = new Mat(3, 5, CvType.CV_32FC1);
+        this.rgbaToYUV.put(0, 0,
+                0.257, 0.504, 0.098, 0, 16,
+                -0.148, -0.291, 0.439, 0, 128,
+                0.439, -0.368, -0.071, 0, 128);
+    }
+
+    /**
+     * Finds Y and chroma planes of the NV21 frame (getPlaneY() and getPlaneChroma())
+     * @param frameGray Y plane of the camera frame (CvCameraViewFrame.gray()).
+     *                  Interleaved V and U rows must follow the Y plane in the same buffer
+     *                  (JavaCameraView preview frame)
+     * @return false if the frame is not in NV21 format
+     */
+    public boolean wrap(Mat frameGray) {
+        headers = getHeaders(frameGray);
+        return headers.planeY != null;
+    }
+
+    /**
+     * @return Y plane of the last wrapped frame (without copying)
+     */
+    public Mat getPlaneY() {
+        return headers.planeY;
+    }
+
+    /**
+     * @return interleaved V and U plane of the last wrapped frame (CV_8UC2, without copying)
+     */
+    public Mat getPlaneChroma() {
+        return headers.planeChroma;
+    }
+
+    /**
+     * Finds cached plane headers of this buffer or creates them instead of the oldest ones
+     * @return plane headers of the NV21 buffer (null planes if the frame is not in NV21 format)
+     */
+    private PlaneHeaders getHeaders(Mat frameGray) {
+        for (PlaneHeaders cachedHeaders : planeHeaders)
+            if (cachedHeaders.wraps(frameGray))
+                return cachedHeaders;
+        PlaneHeaders newHeaders = planeHeaders[planeHeadersNext];
+        planeHeadersNext = (planeHeadersNext + 1) % HEADER_SETS;
+        newHeaders.wrap(frameGray);
+        return newHeaders;
+    }
+
+    /**
+     * Converts separate Y and chroma planes (SourceFrame) to the packed YUV frame
+     * @param planeY Y plane
+     * @param planeChroma interleaved chroma plane with half resolution (CV_8UC2)
+     * @param chromaVU true if chroma is in V, U order (NV21) or false if in U, V order (NV12)
+     * @param outputYUV output packed YUV frame (CV_8UC3)
+     */
+    public void convert(Mat planeY, Mat planeChroma, boolean chromaVU, Mat outputYUV) {
+        int rows = planeY.rows();
+        int cols = planeY.cols();
+
+        frameSize.width = cols;
+        frameSize.height = rows;
+
+        // Pack Y, U and V to one frame. Channels are copied one by one, because
+        // Core.mixChannels() converts its lists of planes to new Mats on each call
+        outputYUV.create(rows, cols, CvType.CV_8UC3);
+        Core.insertChannel(planeY, outputYUV, 0);
+        insertChroma(planeChroma, chromaVU ? 1 : 0, outputYUV, 1);
+        insertChroma(planeChroma, chromaVU ? 0 : 1, outputYUV, 2);
+    }
+
+    /**
+     * Copies one channel of the chroma plane in half resolution to the full resolution frame
+     * @param planeChroma interleaved chroma plane with half resolution (CV_8UC2)
+     * @param chromaChannel channel of the chroma plane
+     * @param outputYUV output packed YUV frame (CV_8UC3)
+     * @param channel channel of the output frame
+     */
+    private void insertChroma(Mat planeChroma, int chromaChannel, Mat outputYUV, int channel) {
+        Core.extractChannel(planeChroma, channelBuffer, chromaChannel);
+        Imgproc.resize(channelBuffer, chromaBuffer, frameSize, 0, 0, Imgproc.INTER_NEAREST);
+        Core.insertChannel(chromaBuffer, outputYUV, channel);
+    }
+
+    /**
+     * Converts RGBA frame to the packed YUV frame (if the camera frame is not in NV21 format)
+     * @param inputRGBA input RGBA frame
+     * @param outputYUV output packed YUV frame (CV_8UC3)
+     */
+    public void convertRGBA(Mat inputRGBA, Mat outputYUV) {
+        Core.transform(inputRGBA, outputYUV, rgbaToYUV);
+    }
+
+    /**
+     * This class keeps Y and chroma plane headers of one NV21 buffer
+     */
+    private static class PlaneHeaders {
+        private Mat planeY, planeChroma;
+        private long address, step;
+        private int rows, cols;
+        private boolean wrapped;
+
+        /**
+         * @return true if the headers are the planes of exactly this buffer with the same size
+         * (the headers keep the buffer referenced, so its address is not reused)
+         */
+        private boolean wraps(Mat frameGray) {
+            return wrapped && frameGray.dataAddr() == address && frameGray.rows() == rows
+                    && frameGray.cols() == cols && frameGray.step1() == step;
+        }
+
+        /**
+         * Releases the old headers and creates the planes of the new buffer.
+         * adjustROI() expands the header it is called on (and returns one more header),
+         * so it is called on a copy of the Y plane header instead of the caller's one
+         */
+        private void wrap(Mat frameGray) {
+            if (planeY != null) {
+                planeY.release();
+                planeChroma.release();
+                planeY = null;
+                planeChroma = null;
+            }
+            rows = frameGray.rows();
+            cols = frameGray.cols();
+            address = frameGray.dataAddr();
+            step = frameGray.step1();
+            wrapped = true;
+
+            // Expand Y plane header to the whole NV21 buffer
+            Mat headerY = frameGray.submat(0, rows, 0, cols);
+            Mat frameNV21 = headerY.adjustROI(0, rows / 2, 0, 0);
+            headerY.release();
+            if (frameNV21.rows() == rows + rows / 2 && frameNV21.isContinuous()) {
+                // Interleaved V and U rows follow the Y plane
+                Mat chromaRows = frameNV21.rowRange(rows, rows + rows / 2);
+                planeY = frameNV21.rowRange(0, rows);
+                planeChroma = chromaRows.reshape(2);
+                chromaRows.release();
+            }
+            frameNV21.release();
+        }
+    }
+}
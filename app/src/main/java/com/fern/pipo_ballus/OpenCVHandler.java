@@ -36,17 +36,15 @@ import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint;
-import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.RotatedRect;
 import org.opencv.core.Scalar;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class provides the main algorithm for this application.
@@ -54,41 +52,82 @@ import java.util.concurrent.LinkedBlockingQueue;
  *
  * TODO: Add ball altitude detection (ballVSTableZ, ballSetpointZ)
  */
-public class OpenCVHandler implements CameraBridgeViewBase.CvCameraViewListener2 {
+public class OpenCVHandler implements CameraBridgeViewBase.CvCameraViewListener2, FrameStages {
     private final String TAG = this.getClass().getName();
 
     private final static int ALLOWED_LOST_FRAMES = 5;
+    // Telemetry older than this is not displayed (ns)
+    private final static long TELEMETRY_TIMEOUT = 1_000_000_000L;
+    // Update interval of the latency probe text (ns)
+    private final static long LATENCY_TEXT_INTERVAL = 1_000_000_000L;
 
     private final PositionContainer positionContainer;
     private final ActionContainer actionContainer;
 
     private final CameraBridgeViewBase cameraBridgeViewBase;
     private final Activity activity;
-    private final LinkedBlockingQueue<PositionContainer> positionContainers;
-
-    private Mat inputRGBA, outputRGBA, matRGBAt, matBGR, matBGRInverted, matHSV, matHSVInverted;
-    private Mat matHue, matSaturation, matValue;
-    private List<Mat> channels;
-    private Mat maskTable, maskBall, hierarchy;
-    private Scalar colorTableLower, colorTableUpper;
-    private Scalar colorBallLower, colorBallUpper;
-    private boolean tableRangeInverted, ballRangeInverted;
+    private final PositionMailbox positionMailbox;
+    private final TelemetryBuffer telemetryBuffer;
+    private final ClockSync clockSync;
+
+    private Mat inputRGBA, inputYUV, outputRGBA, statusRGBA;
+    private NV21Converter nv21Converter;
+    private HSVRange tableRange, ballRange;
+    private ColorSegmenter colorSegmenter, trackingSegmenter;
+    // Read by the segmentation stage thread in pipeline mode (see segment())
+    private volatile TableDetector tableDetector;
+    private BallDetector ballDetector;
+    private FusedTracker fusedTracker;
+    private final AtomicReference<TableDetector> nextTableDetector;
+    private final AtomicReference<BallDetector> nextBallDetector;
+    private JitterStatistics jitterStatistics;
+    private KalmanTracker kalmanTracker;
+    private ResolutionGovernor resolutionGovernor;
+    private FrameOrientation frameOrientation, renderOrientation;
+    private FrameContainer frameContainer;
+    private FramePipeline framePipeline;
+    private Mat renderedRGBA;
     private Scalar tableEllipseColor, tableMarksColor, tableTextColor, ballColor, ballSetpointColor;
-    private Scalar redColor, orangeColor, limeColor, singleWhiteColor;
-
-    private int rotationLast;
-    private boolean initialized;
+    private Scalar redColor, orangeColor, limeColor, statusBackgroundColor;
+    private Point pointP, pointQ, pointR, pointTemp, pointSetpoint;
+    private Point pointStatusText, pointPositionYText, pointActionText, pointWarningText;
+    private Point pointTelemetryText, pointLatencyText;
+    private Point ballFrameCenter;
+    private RotatedRect tableFrameRect;
+    private Size frameSize, emptySize, scaledSize, chromaSize;
+    private String[] positionTextX, positionTextY;
+    private final int[] telemetryValues;
+    private String telemetryText;
+    private boolean telemetryWarning;
+    private long telemetryIndex, telemetryTime;
+    private int telemetryOverrunsLast;
+    private String latencyText;
+    private long latencyTextTime;
+
+    private int rotationLast, detectorSettings;
+    private double trackingScale;
+    private boolean initialized, yuvFrames;
+    private volatile boolean headless;
+    private int statusFrameLast;
     private int lostFrames, centeredFrames;
 
     OpenCVHandler(CameraBridgeViewBase cameraBridgeViewBase,
                   Activity activity,
-                  LinkedBlockingQueue<PositionContainer> positionContainers) {
+                  PositionMailbox positionMailbox,
+                  TelemetryBuffer telemetryBuffer,
+                  ClockSync clockSync) {
         this.cameraBridgeViewBase = cameraBridgeViewBase;
         this.activity = activity;
-        this.positionContainers = positionContainers;
+        this.positionMailbox = positionMailbox;
+        this.telemetryBuffer = telemetryBuffer;
+        this.clockSync = clockSync;
+        this.telemetryValues = new int[TelemetryDecoder.VALUES_LENGTH];
+        this.telemetryIndex = -1;
 
         this.positionContainer = new PositionContainer();
         this.actionContainer = new ActionContainer();
+        this.nextTableDetector = new AtomicReference<>();
+        this.nextBallDetector = new AtomicReference<>();
 
         this.initialized = false;
     }
@@ -105,32 +144,40 @@ public class OpenCVHandler implements CameraBridgeViewBase.CvCameraViewListener2
      * NOTE: Make sure the method is called no more than once to prevent memory leaks
      */
     public void initView() {
-        // Initialize CameraBridgeViewBase object
-        cameraBridgeViewBase.setCvCameraViewListener(this);
-        cameraBridgeViewBase.setCameraIndex(SettingsContainer.cameraID);
-        cameraBridgeViewBase.setVisibility(CameraBridgeViewBase.VISIBLE);
-        cameraBridgeViewBase.setMaxFrameSize(640, 480);
+        // Initialize CameraBridgeViewBase object (there is no view if frames are provided
+        // directly to onCameraFrame(), e.g. from FileFrameSource in the tests)
+        if (cameraBridgeViewBase != null) {
+            cameraBridgeViewBase.setCvCameraViewListener(this);
+            cameraBridgeViewBase.setCameraIndex(SettingsContainer.cameraID);
+            cameraBridgeViewBase.setVisibility(CameraBridgeViewBase.VISIBLE);
+            cameraBridgeViewBase.setMaxFrameSize(640, 480);
+        }
 
         // Initialize variables
         rotationLast = -1;
         centeredFrames = 0;
 
         inputRGBA = new Mat();
+        inputYUV = new Mat();
         outputRGBA = new Mat();
-        matRGBAt = new Mat();
-        matBGR = new Mat();
-        matBGRInverted = new Mat();
-        matHSV = new Mat();
-        matHSVInverted = new Mat();
-
-        matHue = new Mat();
-        matSaturation = new Mat();
-        matValue = new Mat();
-        channels = new ArrayList<>();
-
-        maskTable = new Mat();
-        maskBall = new Mat();
-        hierarchy = new Mat();
+        statusRGBA = new Mat();
+        statusFrameLast = -1;
+        headless = SettingsContainer.headlessMode;
+
+        // Segment camera's YUV frames directly (RGBA frame is needed only for the overlay)
+        yuvFrames = SettingsContainer.segmentationMode == SettingsContainer.SEGMENTATION_YUV;
+        nv21Converter = new NV21Converter();
+
+        tableDetector = createTableDetector();
+        ballDetector = createBallDetector();
+        detectorSettings = getDetectorSettings();
+        jitterStatistics = new JitterStatistics();
+        kalmanTracker = new KalmanTracker();
+        resolutionGovernor = new ResolutionGovernor(SettingsContainer.resolutionGovernor);
+        trackingScale = 1;
+        frameOrientation = new FrameOrientation();
+        renderOrientation = new FrameOrientation();
+        frameContainer = new FrameContainer();
 
         // Initialize HSVColor class for color conversion
         HSVColor hsvTableLower = new HSVColor(SettingsContainer.tableColorLower);
@@ -138,47 +185,29 @@ public class OpenCVHandler implements CameraBridgeViewBase.CvCameraViewListener2
         HSVColor hsvBallLower = new HSVColor(SettingsContainer.ballColorLower);
         HSVColor hsvBallUpper = new HSVColor(SettingsContainer.ballColorUpper);
 
-        // Convert table range to Scalar
-        if (hsvTableLower.getHue() == hsvTableUpper.getHue()) {
-            tableRangeInverted = false;
-            colorTableLower = new Scalar(0,
-                    hsvTableLower.getSaturationInt(), hsvTableLower.getValueInt());
-            colorTableUpper = new Scalar(179,
-                    hsvTableUpper.getSaturationInt(), hsvTableUpper.getValueInt());
-        } else if (hsvTableLower.getHue() > hsvTableUpper.getHue()) {
-            tableRangeInverted = true;
-            colorTableLower = new Scalar((int) (hsvTableLower.getHue() / 2) - 90,
-                    hsvTableLower.getSaturationInt(), hsvTableLower.getValueInt());
-            colorTableUpper = new Scalar((int) (hsvTableUpper.getHue() / 2) + 90,
-                    hsvTableUpper.getSaturationInt(), hsvTableUpper.getValueInt());
-        } else {
-            tableRangeInverted = false;
-            colorTableLower = new Scalar((int) (hsvTableLower.getHue() / 2),
-                    hsvTableLower.getSaturationInt(), hsvTableLower.getValueInt());
-            colorTableUpper = new Scalar((int) (hsvTableUpper.getHue() / 2),
-                    hsvTableUpper.getSaturationInt(), hsvTableUpper.getValueInt());
-        }
-
-        // Convert ball range to Scalar
-        if (Math.abs(hsvBallLower.getHue() - hsvBallUpper.getHue()) < 5) {
-            ballRangeInverted = false;
-            colorBallLower = new Scalar(0,
-                    hsvBallLower.getSaturationInt(), hsvBallLower.getValueInt());
-            colorBallUpper = new Scalar(179,
-                    hsvBallUpper.getSaturationInt(), hsvBallUpper.getValueInt());
-        } else if (hsvBallLower.getHue() > hsvBallUpper.getHue()) {
-            ballRangeInverted = true;
-            colorBallLower = new Scalar((int) (hsvBallLower.getHue() / 2) - 90,
-                    hsvBallLower.getSaturationInt(), hsvBallLower.getValueInt());
-            colorBallUpper = new Scalar((int) (hsvBallUpper.getHue() / 2) + 90,
-                    hsvBallUpper.getSaturationInt(), hsvBallUpper.getValueInt());
-        } else {
-            ballRangeInverted = false;
-            colorBallLower = new Scalar((int) (hsvBallLower.getHue() / 2),
-                    hsvBallLower.getSaturationInt(), hsvBallLower.getValueInt());
-            colorBallUpper = new Scalar((int) (hsvBallUpper.getHue() / 2),
-                    hsvBallUpper.getSaturationInt(), hsvBallUpper.getValueInt());
-        }
+        // Convert table and ball ranges to HSV bounds
+        tableRange = new HSVRange(hsvTableLower, hsvTableUpper,
+                hsvTableLower.getHue() == hsvTableUpper.getHue());
+        ballRange = new HSVRange(hsvBallLower, hsvBallUpper,
+                Math.abs(hsvBallLower.getHue() - hsvBallUpper.getHue()) < 5);
+
+        // Initialize color segmentation (lookup table is compiled only if colors were changed)
+        colorSegmenter = createSegmenter();
+
+        // Initialize frame pipeline. In pipeline mode the segmentation stage runs
+        // on its own thread, so the tracking stage needs its own segmenter
+        if (SettingsContainer.processingMode == SettingsContainer.PROCESSING_PIPELINE) {
+            trackingSegmenter = createSegmenter();
+            framePipeline = new FramePipeline(this, SettingsContainer.pipelineMaxQueued);
+        } else
+            trackingSegmenter = colorSegmenter;
+
+        // Initialize native fast path for the headless mode (single thread processing only,
+        // the pipeline segments every frame anyway)
+        if (SettingsContainer.nativeKernel && framePipeline == null && FusedKernel.isAvailable())
+            fusedTracker = new FusedTracker(new FusedKernel(yuvFrames
+                    ? YUVSegmenter.compile(tableRange, ballRange)
+                    : LUTSegmenter.compile(tableRange, ballRange)));
 
         // Initialize basic colors
         tableEllipseColor = new Scalar(0, 255, 255);
@@ -190,12 +219,127 @@ public class OpenCVHandler implements CameraBridgeViewBase.CvCameraViewListener2
         redColor = new Scalar(255, 0, 0);
         orangeColor = new Scalar(255, 127, 0);
         limeColor = new Scalar(0, 255, 0);
-        singleWhiteColor = new Scalar(255);
+        statusBackgroundColor = new Scalar(0, 0, 0, 255);
+
+        // Initialize overlay points and texts to prevent allocations in onCameraFrame()
+        pointP = new Point();
+        pointQ = new Point();
+        pointR = new Point();
+        pointTemp = new Point();
+        pointSetpoint = new Point();
+        pointStatusText = new Point(30, 50);
+        pointPositionYText = new Point(210, 50);
+        pointActionText = new Point(30, 100);
+        pointWarningText = new Point(30, 150);
+        pointTelemetryText = new Point(30, 200);
+        pointLatencyText = new Point(30, 230);
+        frameSize = new Size();
+        emptySize = new Size();
+        scaledSize = new Size();
+        chromaSize = new Size();
+        ballFrameCenter = new Point();
+        tableFrameRect = new RotatedRect();
+        positionTextX = new String[1001];
+        positionTextY = new String[1001];
+        for (int i = 0; i <= 1000; i++) {
+            positionTextX[i] = "X: " + (i - 500);
+            positionTextY[i] = "Y: " + (i - 500);
+        }
 
         // Set initialized flag
         initialized = true;
     }
 
+    /**
+     * @return new TableDetector selected in the settings
+     */
+    private TableDetector createTableDetector() {
+        return new TableTracker(SettingsContainer.blobEngine == SettingsContainer.BLOB_COMPONENTS);
+    }
+
+    /**
+     * @return new BallDetector selected in the settings
+     */
+    private BallDetector createBallDetector() {
+        BallTracker ballTracker = new BallTracker(
+                SettingsContainer.blobEngine == SettingsContainer.BLOB_COMPONENTS,
+                SettingsContainer.ballCenterMode == SettingsContainer.BALL_CENTER_MOMENTS,
+                SettingsContainer.ballDetectorType == SettingsContainer.BALL_DETECTOR_PYRAMID);
+
+        // Find the ball with thresholds only until the histogram is learned
+        if (SettingsContainer.ballDetectorType == SettingsContainer.BALL_DETECTOR_CAMSHIFT)
+            return new CamShiftBallDetector(ballTracker, yuvFrames);
+        return ballTracker;
+    }
+
+    /**
+     * Replaces table and ball detectors while the camera is running.
+     * New detectors are used starting from the next processed frame, replaced detectors
+     * are released (or immediately, if they were set but never used)
+     * @param tableDetector new TableDetector or null to keep the current one
+     * @param ballDetector new BallDetector or null to keep the current one
+     */
+    public void setDetectors(TableDetector tableDetector, BallDetector ballDetector) {
+        if (tableDetector != null) {
+            TableDetector unusedTableDetector = nextTableDetector.getAndSet(tableDetector);
+            if (unusedTableDetector != null)
+                unusedTableDetector.release();
+        }
+        if (ballDetector != null) {
+            BallDetector unusedBallDetector = nextBallDetector.getAndSet(ballDetector);
+            if (unusedBallDetector != null)
+                unusedBallDetector.release();
+        }
+    }
+
+    /**
+     * @return all settings used by createTableDetector() and createBallDetector() in one number
+     */
+    private static int getDetectorSettings() {
+        return SettingsContainer.blobEngine
+                | SettingsContainer.ballCenterMode << 8
+                | SettingsContainer.ballDetectorType << 16;
+    }
+
+    /**
+     * Replaces table and ball detectors with the detectors selected in the settings
+     * while the camera is running
+     */
+    public void reloadDetectors() {
+        setDetectors(createTableDetector(), createBallDetector());
+    }
+
+    /**
+     * @return new ColorSegmenter selected in the settings
+     */
+    private ColorSegmenter createSegmenter() {
+        if (SettingsContainer.segmentationBands > 1)
+            return createBandSegmenter(SettingsContainer.segmentationBands);
+        if (SettingsContainer.segmentationMode == SettingsContainer.SEGMENTATION_LUT)
+            return new LUTSegmenter(tableRange, ballRange);
+        else if (SettingsContainer.segmentationMode == SettingsContainer.SEGMENTATION_YUV)
+            return new YUVSegmenter(tableRange, ballRange);
+        else
+            return new HSVSegmenter(tableRange, ballRange);
+    }
+
+    /**
+     * @param bands number of horizontal bands to segment in parallel
+     * @return new BandSegmenter with the segmentation method selected in the settings
+     */
+    private BandSegmenter createBandSegmenter(int bands) {
+        ColorSegmenter[] bandSegmenters = new ColorSegmenter[bands];
+        for (int i = 0; i < bands; i++) {
+            if (SettingsContainer.segmentationMode == SettingsContainer.SEGMENTATION_LUT)
+                bandSegmenters[i] = new LUTSegmenter(tableRange, ballRange);
+            else if (SettingsContainer.segmentationMode == SettingsContainer.SEGMENTATION_YUV)
+                bandSegmenters[i] = new YUVSegmenter(tableRange, ballRange);
+            else
+                bandSegmenters[i] = new HSVSegmenter(tableRange, ballRange);
+        }
+        return new BandSegmenter(bandSegmenters);
+    }
+
     /**
      * @return true if initView() was called
      */
@@ -205,12 +349,16 @@ public class OpenCVHandler implements CameraBridgeViewBase.CvCameraViewListener2
 
     @Override
     public void onCameraViewStarted(int width, int height) {
-
+        // Start pipeline threads
+        if (framePipeline != null)
+            framePipeline.start();
     }
 
     @Override
     public void onCameraViewStopped() {
-
+        // Stop pipeline threads
+        if (framePipeline != null)
+            framePipeline.stop();
     }
 
     @Override
@@ -218,315 +366,636 @@ public class OpenCVHandler implements CameraBridgeViewBase.CvCameraViewListener2
         try {
             long timeStart = System.currentTimeMillis();
 
-            // Read input RGBA image
-            inputRGBA = inputFrame.rgba();
+            // FrameSource provides the sensor's capture time
+            long timeCaptured = inputFrame instanceof SourceFrame
+                    ? ((SourceFrame) inputFrame).getTimestamp() : System.nanoTime();
+            double scale = resolutionGovernor.getScale();
+
+            // Read input frame. In YUV mode the frame is segmented from the camera's Y and
+            // chroma planes without RGBA conversion, so the RGBA frame is converted
+            // only to draw the overlay
+            Mat inputTracking, planeY = null, planeChroma = null;
+            boolean chromaVU = true;
+            if (yuvFrames) {
+                if (inputFrame instanceof SourceFrame) {
+                    SourceFrame sourceFrame = (SourceFrame) inputFrame;
+                    planeY = sourceFrame.gray();
+                    planeChroma = sourceFrame.chroma();
+                    chromaVU = sourceFrame.isChromaVU();
+                } else if (nv21Converter.wrap(inputFrame.gray())) {
+                    planeY = nv21Converter.getPlaneY();
+                    planeChroma = nv21Converter.getPlaneChroma();
+                } else
+                    nv21Converter.convertRGBA(inputFrame.rgba(), inputYUV);
+                if (planeY != null)
+                    inputRGBA = headless ? planeY : inputFrame.rgba();
+                else
+                    inputRGBA = headless ? inputYUV : inputFrame.rgba();
+                inputTracking = inputYUV;
+            } else {
+                inputRGBA = inputFrame.rgba();
+                inputTracking = inputRGBA;
+            }
 
             // Get current screen rotation angle
-            int rotation = activity.getWindowManager().getDefaultDisplay().getRotation();
-
-            // Rotate frame on different orientations
-            if (rotation == Surface.ROTATION_0) {
-                Core.transpose(inputRGBA, matRGBAt);
-                if (SettingsContainer.cameraID == CameraBridgeViewBase.CAMERA_ID_FRONT)
-                    Core.flip(matRGBAt, inputRGBA, 0);
-                else
-                    Core.flip(matRGBAt, inputRGBA, 1);
-            } else if (rotation == Surface.ROTATION_270) {
-                Core.flip(inputRGBA, inputRGBA, 0);
-                Core.flip(inputRGBA, inputRGBA, 1);
-            } else if (rotation == Surface.ROTATION_180) {
-                Core.transpose(inputRGBA, matRGBAt);
-                if (SettingsContainer.cameraID == CameraBridgeViewBase.CAMERA_ID_FRONT)
-                    Core.flip(matRGBAt, inputRGBA, 1);
+            int rotation = activity != null
+                    ? activity.getWindowManager().getDefaultDisplay().getRotation()
+                    : Surface.ROTATION_0;
+
+            // Process frame on the camera thread
+            if (framePipeline == null) {
+                frameContainer.frameRGBA = inputRGBA;
+                if (planeY != null)
+                    scalePlanes(frameContainer, planeY, planeChroma, chromaVU, scale);
                 else
-                    Core.flip(matRGBAt, inputRGBA, 0);
+                    scaleFrame(frameContainer, inputTracking, scale);
+                frameContainer.timeStart = timeStart;
+                frameContainer.timeCaptured = timeCaptured;
+                frameContainer.rotation = rotation;
+                frameContainer.segmented = false;
+                frameContainer.segmentationTime = 0;
+                process(frameContainer);
+                return render(frameContainer);
             }
 
-            // Clone object for debug frame
-            inputRGBA.copyTo(outputRGBA);
-
-            // Convert to BGR
-            Imgproc.cvtColor(inputRGBA, matBGR, Imgproc.COLOR_RGBA2BGR, 3);
-
-            // Invert BGR
-            Mat invertColorMatrix = new Mat(matBGR.rows(), matBGR.cols(), matBGR.type(),
-                    new Scalar(255, 255, 255));
-            Core.subtract(invertColorMatrix, matBGR, matBGRInverted);
-            invertColorMatrix.release();
-
-            // Convert to HSV
-            Imgproc.cvtColor(matBGR, matHSV, Imgproc.COLOR_BGR2HSV, 3);
-            Imgproc.cvtColor(matBGRInverted, matHSVInverted, Imgproc.COLOR_BGR2HSV, 3);
-
-            // Extract channels with inverted Hue from HSV
-            Core.extractChannel(matHSVInverted, matHue, 0);
-            Core.extractChannel(matHSV, matSaturation, 1);
-            Core.extractChannel(matHSV, matValue, 2);
-
-            // Make inverted HSV mat
-            channels.clear();
-            channels.add(matHue);
-            channels.add(matSaturation);
-            channels.add(matValue);
-            Core.merge(channels, matHSVInverted);
-
-            // Get table mask
-            if (tableRangeInverted)
-                Core.inRange(matHSVInverted, colorTableLower, colorTableUpper, maskTable);
-            else
-                Core.inRange(matHSV, colorTableLower, colorTableUpper, maskTable);
+            // Copy frame to a free slot and pass it to the pipeline
+            // (frame is skipped if all slots are busy)
+            FrameContainer capturedContainer = framePipeline.obtain();
+            if (capturedContainer != null) {
+                inputRGBA.copyTo(capturedContainer.frameBuffer);
+                capturedContainer.frameRGBA = capturedContainer.frameBuffer;
+                if (planeY != null) {
+                    planeY.copyTo(capturedContainer.planeYBuffer);
+                    planeChroma.copyTo(capturedContainer.chromaBuffer);
+                    scalePlanes(capturedContainer, capturedContainer.planeYBuffer,
+                            capturedContainer.chromaBuffer, chromaVU, scale);
+                } else if (inputTracking != inputRGBA) {
+                    inputTracking.copyTo(capturedContainer.frameYUV);
+                    scaleFrame(capturedContainer, capturedContainer.frameYUV, scale);
+                } else
+                    scaleFrame(capturedContainer, capturedContainer.frameBuffer, scale);
+                capturedContainer.timeStart = timeStart;
+                capturedContainer.timeCaptured = timeCaptured;
+                capturedContainer.rotation = rotation;
+                framePipeline.submit(capturedContainer);
+            }
 
-            // Get ball mask
-            if (ballRangeInverted)
-                Core.inRange(matHSVInverted, colorBallLower, colorBallUpper, maskBall);
-            else
-                Core.inRange(matHSV, colorBallLower, colorBallUpper, maskBall);
-
-            // Find table contours
-            List<MatOfPoint> contours = new ArrayList<>();
-            Imgproc.findContours(maskTable, contours, hierarchy, Imgproc.RETR_EXTERNAL,
-                    Imgproc.CHAIN_APPROX_SIMPLE);
-
-            // Check if there is at least one contour
-            if (contours.size() > 0) {
-                // Find largest contour (table)
-                int maxContourArea = 0;
-                int tableContourIndex = 0;
-                for (int i = 0; i < contours.size(); i++) {
-                    int contourArea = (int) Imgproc.contourArea(contours.get(i));
-                    if (contourArea > maxContourArea) {
-                        maxContourArea = contourArea;
-                        tableContourIndex = i;
-                    }
-                }
+            // Render the newest processed frame or show the last rendered one
+            FrameContainer processedContainer = framePipeline.pollProcessed();
+            if (processedContainer != null) {
+                renderedRGBA = render(processedContainer);
+                framePipeline.recycle(processedContainer);
+            }
+            if (renderedRGBA != null)
+                return renderedRGBA;
+        } catch (Exception e) {
+            // Show error message
+            Log.e(TAG, "Error processing frame!", e);
+        }
+
+        // Return raw frame if error occurs
+        return inputFrame.rgba();
+    }
+
+    /**
+     * Sets the frame for the segmentation and processing stages
+     * (camera frame itself or its downscaled copy)
+     * @param frameContainer frame to process
+     * @param frame RGBA or packed YUV camera frame
+     * @param scale processing scale from ResolutionGovernor
+     */
+    private void scaleFrame(FrameContainer frameContainer, Mat frame, double scale) {
+        frameContainer.scale = scale;
+        frameContainer.planeY = null;
+        frameContainer.planeChroma = null;
+        if (scale < 1) {
+            Imgproc.resize(frame, frameContainer.frameScaled, emptySize,
+                    scale, scale, Imgproc.INTER_LINEAR);
+            frameContainer.frameTracking = frameContainer.frameScaled;
+        } else
+            frameContainer.frameTracking = frame;
+    }
+
+    /**
+     * Sets the planes of the YUV camera frame (or their downscaled copies) and the packed frame
+     * for the segmentation and processing stages. Planes are downscaled before packing,
+     * so only the packed frame of the processing resolution is created
+     * @param frameContainer frame to process
+     * @param planeY Y plane of the camera frame
+     * @param planeChroma interleaved chroma plane with half resolution (CV_8UC2)
+     * @param chromaVU true if chroma is in V, U order (NV21) or false if in U, V order (NV12)
+     * @param scale processing scale from ResolutionGovernor
+     */
+    private void scalePlanes(FrameContainer frameContainer, Mat planeY, Mat planeChroma,
+                             boolean chromaVU, double scale) {
+        frameContainer.scale = scale;
+        if (scale < 1) {
+            scaledSize.width = Math.round(planeY.cols() * scale);
+            scaledSize.height = Math.round(planeY.rows() * scale);
+            chromaSize.width = ((int) scaledSize.width + 1) / 2;
+            chromaSize.height = ((int) scaledSize.height + 1) / 2;
+            Imgproc.resize(planeY, frameContainer.planeYScaled, scaledSize,
+                    0, 0, Imgproc.INTER_LINEAR);
+            Imgproc.resize(planeChroma, frameContainer.chromaScaled, chromaSize,
+                    0, 0, Imgproc.INTER_LINEAR);
+            planeY = frameContainer.planeYScaled;
+            planeChroma = frameContainer.chromaScaled;
+        }
+        frameContainer.planeY = planeY;
+        frameContainer.planeChroma = planeChroma;
+        frameContainer.chromaVU = chromaVU;
+        nv21Converter.convert(planeY, planeChroma, chromaVU, frameContainer.frameYUV);
+        frameContainer.frameTracking = frameContainer.frameYUV;
+    }
+
+    /**
+     * Calculates table and ball masks for the whole frame (segmentation stage).
+     * Masks are skipped while the table geometry is locked: the ball is searched in windows
+     * and the processing stage segments the frame itself if full detection is needed
+     * @param frameContainer frame to segment
+     */
+    @Override
+    public void segment(FrameContainer frameContainer) {
+        if (!tableDetector.isLocked())
+            segment(frameContainer, colorSegmenter);
+    }
+
+    /**
+     * Calculates table and ball masks for the whole frame.
+     * YUV frames are segmented from their planes if the segmenter supports them
+     * @param frameContainer frame to segment
+     * @param colorSegmenter segmenter of the current thread
+     */
+    private void segment(FrameContainer frameContainer, ColorSegmenter colorSegmenter) {
+        long timeStart = System.nanoTime();
+        if (frameContainer.planeY != null && colorSegmenter instanceof PlaneSegmenter)
+            ((PlaneSegmenter) colorSegmenter).segment(frameContainer.planeY,
+                    frameContainer.planeChroma, frameContainer.chromaVU,
+                    frameContainer.maskTable, frameContainer.maskBall);
+        else
+            colorSegmenter.segment(frameContainer.frameTracking,
+                    frameContainer.maskTable, frameContainer.maskBall);
+        frameContainer.segmented = true;
+        frameContainer.timeSegmented = System.nanoTime();
+        frameContainer.segmentationTime = frameContainer.timeSegmented - timeStart;
+    }
+
+    /**
+     * Finds table and ball, handles actions and sends new position (geometry and control stage)
+     * @param frameContainer frame to process
+     */
+    @Override
+    public void process(FrameContainer frameContainer) {
+        long timeStart = System.nanoTime();
+        Mat frameRGBA = frameContainer.frameTracking;
+        double scale = frameContainer.scale;
+        TableDetector tableDetector = this.tableDetector;
+        BallDetector ballDetector = this.ballDetector;
+        String statusText = null;
+        frameContainer.tableFound = false;
+        frameContainer.ballFound = false;
+
+        // Create new detectors if their settings were changed
+        int detectorSettings = getDetectorSettings();
+        if (detectorSettings != this.detectorSettings) {
+            this.detectorSettings = detectorSettings;
+            reloadDetectors();
+        }
+
+        // Switch to the new detectors and release the replaced ones
+        TableDetector newTableDetector = nextTableDetector.getAndSet(null);
+        if (newTableDetector != null) {
+            tableDetector.release();
+            tableDetector = this.tableDetector = newTableDetector;
+            tableDetector.setScale(scale);
+        }
+        BallDetector newBallDetector = nextBallDetector.getAndSet(null);
+        if (newBallDetector != null) {
+            ballDetector.release();
+            ballDetector = this.ballDetector = newBallDetector;
+            ballDetector.setScale(scale);
+        }
 
-                // Check table's area
-                if (maxContourArea > 1000) {
-
-                    // Extract table's bounding rectangle and ellipse
-                    Rect tableBoundingRect = Imgproc.boundingRect(contours.get(tableContourIndex));
-                    RotatedRect tableRotatedRect = Imgproc.fitEllipse(
-                            new MatOfPoint2f(contours.get(tableContourIndex).toArray()));
-
-                    // Reduce size of the table's ellipse to remove border
-                    tableRotatedRect.size.width -= 10;
-                    tableRotatedRect.size.height -= 10;
-
-                    // Calculate table's radius
-                    int tableCircleR = (tableBoundingRect.height + tableBoundingRect.width) / 4;
-
-                    // Draw table's ellipse
-                    Imgproc.ellipse(outputRGBA, tableRotatedRect, tableEllipseColor, 2);
-
-                    // Draw table's center
-                    Imgproc.circle(outputRGBA, tableRotatedRect.center, 5,
-                            tableMarksColor, 1);
-
-                    // Calculate frame reference points
-                    int pqXK = (int) (tableBoundingRect.width / 4 * Math.sqrt(3.));
-                    int pqYK = tableBoundingRect.height / 4;
-                    Point p = new Point(tableRotatedRect.center.x,
-                            (int) (tableRotatedRect.center.y - tableBoundingRect.height / 2));
-                    Point q = new Point(tableRotatedRect.center.x + pqXK,
-                            tableRotatedRect.center.y + pqYK);
-                    Point r = new Point(tableRotatedRect.center.x - pqXK,
-                            tableRotatedRect.center.y + pqYK);
-
-                    // Draw reference marks
-                    Imgproc.line(outputRGBA, p,
-                            new Point(p.x, (int) (p.y + tableCircleR / 4)),
-                            tableMarksColor, 1);
-                    Imgproc.circle(outputRGBA, p, 10, tableMarksColor, 1);
-                    Imgproc.putText(outputRGBA, "P", new Point(p.x - 5, p.y + 5),
-                            Core.FONT_HERSHEY_PLAIN, 1, tableTextColor, 1);
-                    Imgproc.circle(outputRGBA, q, 10, tableMarksColor, 1);
-                    Imgproc.putText(outputRGBA, "Q", new Point(q.x - 5, q.y + 5),
-                            Core.FONT_HERSHEY_PLAIN, 1, tableTextColor, 1);
-                    Imgproc.circle(outputRGBA, r, 10, tableMarksColor, 1);
-                    Imgproc.putText(outputRGBA, "R", new Point(r.x - 5, r.y + 5),
-                            Core.FONT_HERSHEY_PLAIN, 1, tableTextColor, 1);
-
-                    // Draw ball's setpoint
-                    Imgproc.circle(outputRGBA,
-                            new Point(map((int) positionContainer.ballSetpointX,
-                                    1000, 2000,
-                                    (int) (tableRotatedRect.center.x -
-                                            tableBoundingRect.width / 2),
-                                    (int) (tableRotatedRect.center.x +
-                                            tableBoundingRect.width / 2)),
-                                    map((int) positionContainer.ballSetpointY,
-                                            1000, 2000,
-                                            (int) (tableRotatedRect.center.y
-                                                    - tableBoundingRect.height / 2),
-                                            (int) (tableRotatedRect.center.y
-                                                    + tableBoundingRect.height / 2))),
-                            map((int) positionContainer.ballSetpointZ, 1000, 2000,
-                                    5, 50), ballSetpointColor, 2);
-
-                    // Initialize maskTableCircle
-                    Mat maskTableCircle =
-                            Mat.zeros(maskTable.rows(), maskTable.cols(), maskTable.type());
-
-                    // Create circle mask of the table
-                    Imgproc.ellipse(maskTableCircle, tableRotatedRect,
-                            singleWhiteColor, -1);
-
-                    // Calculate ball mask
-                    Core.bitwise_and(maskBall, maskTableCircle, maskBall);
-
-                    // Remove maskTableCircle from memory
-                    maskTableCircle.release();
-
-                    // Find ball contour
-                    List<MatOfPoint> ballContours = new ArrayList<>();
-                    Imgproc.findContours(maskBall, ballContours, hierarchy, Imgproc.RETR_EXTERNAL,
-                            Imgproc.CHAIN_APPROX_SIMPLE);
-
-                    // Check if there is at least one contour
-                    if (ballContours.size() > 0) {
-                        // Find largest contour (ball)
-                        int maxBallArea = 100;
-                        int ballContourIndex = -1;
-                        for (int i = 0; i < ballContours.size(); i++) {
-                            int contourArea = (int) Imgproc.contourArea(ballContours.get(i));
-                            if (contourArea > maxBallArea && contourArea < maxContourArea / 4) {
-                                maxBallArea = contourArea;
-                                ballContourIndex = i;
-                            }
-                        }
-
-                        // Check if correct size found
-                        if (ballContourIndex >= 0) {
-                            // Find ball position
-                            MatOfPoint2f ballContour = new MatOfPoint2f();
-                            ballContours.get(ballContourIndex).convertTo(ballContour,
-                                    CvType.CV_32F);
-                            Point ballCenter = new Point();
-                            float[] radius = new float[1];
-                            Imgproc.minEnclosingCircle(ballContour, ballCenter, radius);
-
-                            // Calculate ball position relative to table's center (1000-2000)
-                            int ballVSTableX = map((int) (ballCenter.x - tableRotatedRect.center.x),
-                                    -tableBoundingRect.width / 2,
-                                    tableBoundingRect.width / 2, 1000, 2000);
-                            int ballVSTableY = map((int) (ballCenter.y - tableRotatedRect.center.y),
-                                    -tableBoundingRect.height / 2,
-                                    tableBoundingRect.height / 2, 1000, 2000);
-
-                            // Check ball position
-                            if (ballVSTableX >= 1000 && ballVSTableX <= 2000
-                                    && ballVSTableY >= 1000 && ballVSTableY <= 2000) {
-
-                                // Set new coordinates
-                                positionContainer.ballVSTableX = ballVSTableX;
-                                positionContainer.ballVSTableY = ballVSTableY;
-                                positionContainer.ballVSTableZ = 1500;
-                                positionContainer.ballDetected = true;
-
-                                // Update lost counter
-                                lostFrames = ALLOWED_LOST_FRAMES;
-
-                                // Print ball's position
-                                Imgproc.putText(outputRGBA,
-                                        "X: " + (int) (positionContainer.ballVSTableX - 1500)
-                                                + "  Y: "
-                                                + (int) (positionContainer.ballVSTableY - 1500),
-                                        new Point(30, 50), Core.FONT_HERSHEY_PLAIN,
-                                        2, ballColor, 2);
-
-                                // Draw ball's position
-                                Imgproc.circle(outputRGBA, ballCenter,
-                                        (int) radius[0], ballColor, 2);
-                            } else
-                                Imgproc.putText(outputRGBA, "Wrong ball position!", new Point(30, 50),
-                                        Core.FONT_HERSHEY_PLAIN, 2, redColor, 2);
-                        } else
-                            Imgproc.putText(outputRGBA, "Wrong ball size!", new Point(30, 50),
-                                    Core.FONT_HERSHEY_PLAIN, 2, redColor, 2);
+        // Start tracking again if the processing scale was changed
+        if (scale != trackingScale) {
+            tableDetector.setScale(scale);
+            ballDetector.setScale(scale);
+            if (fusedTracker != null) {
+                fusedTracker.setScale(scale);
+                fusedTracker.getBallDetector().setScale(scale);
+            }
+            trackingScale = scale;
+        }
+
+        // Frame is processed in the camera orientation,
+        // only the coordinates are converted to the screen orientation
+        frameOrientation.update(frameContainer.rotation, SettingsContainer.cameraID,
+                frameContainer.frameRGBA.cols(), frameContainer.frameRGBA.rows());
+
+        // Headless fast path finds table and ball with one native pass without masks.
+        // Otherwise check if full table detection is needed (or the locked geometry is used)
+        int tableStatus = TableDetector.TABLE_FOUND;
+        if (fusedTracker != null && headless) {
+            tableStatus = fusedTracker.process(frameRGBA);
+            tableDetector = fusedTracker;
+            ballDetector = fusedTracker.getBallDetector();
+        } else if (tableDetector.needsDetection(frameRGBA, trackingSegmenter)) {
+            // Get table and ball masks (if they were not calculated by the segmentation stage)
+            if (!frameContainer.segmented)
+                segment(frameContainer, trackingSegmenter);
+
+            // Find table
+            tableStatus = tableDetector.detect(frameContainer.maskTable);
+        }
+
+        if (tableStatus == TableDetector.TABLE_FOUND) {
+            RotatedRect tableRotatedRect = tableDetector.getRotatedRect();
+            Rect tableBoundingRect = tableDetector.getBoundingRect();
+
+            // Table's size and ellipse on the screen (in the full camera frame)
+            boolean transposed = frameOrientation.isTransposed();
+            int tableWidth = transposed ? tableBoundingRect.height : tableBoundingRect.width;
+            int tableHeight = transposed ? tableBoundingRect.width : tableBoundingRect.height;
+            tableFrameRect.center.x = toFrame(tableRotatedRect.center.x, scale);
+            tableFrameRect.center.y = toFrame(tableRotatedRect.center.y, scale);
+            tableFrameRect.size.width = tableRotatedRect.size.width / scale;
+            tableFrameRect.size.height = tableRotatedRect.size.height / scale;
+            tableFrameRect.angle = tableRotatedRect.angle;
+            frameOrientation.mapRotatedRect(tableFrameRect, frameContainer.tableScreenRect);
+            frameContainer.tableWidth = (int) Math.round(tableWidth / scale);
+            frameContainer.tableHeight = (int) Math.round(tableHeight / scale);
+            frameContainer.tableFound = true;
+
+            // Find ball inside the table (full frame mask is reused if it was calculated)
+            int ballStatus = ballDetector.find(frameRGBA,
+                    frameContainer.segmented ? frameContainer.maskBall : null,
+                    trackingSegmenter, tableDetector);
+            if (ballStatus == BallDetector.BALL_FOUND) {
+                Point ballCenter = ballDetector.getCenter();
+
+                // Ball offset from table's center on the screen
+                double ballDX = ballCenter.x - tableRotatedRect.center.x;
+                double ballDY = ballCenter.y - tableRotatedRect.center.y;
+
+                // Calculate ball position relative to table's center (1000-2000)
+                // without rounding to keep sub-pixel precision
+                double ballVSTableX = map(frameOrientation.mapDX(ballDX, ballDY),
+                        -tableWidth / 2., tableWidth / 2., 1000, 2000);
+                double ballVSTableY = map(frameOrientation.mapDY(ballDX, ballDY),
+                        -tableHeight / 2., tableHeight / 2., 1000, 2000);
+
+                // Check ball position
+                if (ballVSTableX >= 1000 && ballVSTableX <= 2000
+                        && ballVSTableY >= 1000 && ballVSTableY <= 2000) {
+
+                    // Measure position jitter of the stationary ball (debug builds only)
+                    if (BuildConfig.DEBUG)
+                        jitterStatistics.add(ballVSTableX, ballVSTableY);
+
+                    // Filter position and reject outliers (on the capture clock, the same
+                    // as the transmit time prediction in SerialHandler)
+                    if (kalmanTracker.update(ballVSTableX, ballVSTableY,
+                            frameContainer.timeCaptured)) {
+                        // Set new coordinates and velocity
+                        positionContainer.ballVSTableX = clip(kalmanTracker.getX());
+                        positionContainer.ballVSTableY = clip(kalmanTracker.getY());
+                        positionContainer.ballVSTableZ = 1500;
+                        positionContainer.ballVelocityX = kalmanTracker.getVelocityX();
+                        positionContainer.ballVelocityY = kalmanTracker.getVelocityY();
+                        positionContainer.ballDetected = true;
+
+                        // Update lost counter
+                        lostFrames = ALLOWED_LOST_FRAMES;
+
+                        // Remember ball's position on the screen
+                        frameContainer.ballVSTableX = (int) positionContainer.ballVSTableX;
+                        frameContainer.ballVSTableY = (int) positionContainer.ballVSTableY;
+                        ballFrameCenter.x = toFrame(ballCenter.x, scale);
+                        ballFrameCenter.y = toFrame(ballCenter.y, scale);
+                        frameOrientation.mapPoint(ballFrameCenter,
+                                frameContainer.ballScreenCenter);
+                        frameContainer.ballRadius = (float) (ballDetector.getRadius() / scale);
+                        frameContainer.ballFound = true;
                     } else
-                        Imgproc.putText(outputRGBA, "Ball not found!", new Point(30, 50),
-                                Core.FONT_HERSHEY_PLAIN, 2, redColor, 2);
+                        statusText = "Ball position rejected!";
                 } else
-                    Imgproc.putText(outputRGBA, "Table too small!", new Point(30, 50),
-                            Core.FONT_HERSHEY_PLAIN, 2, redColor, 2);
-            } else
-                Imgproc.putText(outputRGBA, "Table not found!", new Point(30, 50),
-                        Core.FONT_HERSHEY_PLAIN, 2, redColor, 2);
+                    statusText = "Wrong ball position!";
+            } else if (ballStatus == BallDetector.BALL_WRONG_SIZE)
+                statusText = "Wrong ball size!";
+            else
+                statusText = "Ball not found!";
+        } else {
+            // Forget the last ball position
+            ballDetector.reset();
+
+            if (tableStatus == TableDetector.TABLE_TOO_SMALL)
+                statusText = "Table too small!";
+            else
+                statusText = "Table not found!";
+        }
+
+        // Restart jitter measurement if the ball is lost
+        if (!frameContainer.ballFound)
+            jitterStatistics.reset();
+
+        // Decrement lostFrames counter every frame
+        if (lostFrames > 0)
+            lostFrames--;
+        // Clear ballDetected flag if more frames lost than threshold
+        else
+            positionContainer.ballDetected = false;
+
+        // Clear number of centered frames and action frames if ball not detected
+        if (!positionContainer.ballDetected) {
+            centeredFrames = 0;
+            actionContainer.actionFrame = -1;
+
+            // Forget filtered position and velocity
+            kalmanTracker.reset();
+            positionContainer.ballVelocityX = 0;
+            positionContainer.ballVelocityY = 0;
+        }
 
-            // Decrement lostFrames counter every frame
-            if (lostFrames > 0)
-                lostFrames--;
-            // Clear ballDetected flag if more frames lost than threshold
+        // Proceed actions
+        actionHandler();
+
+        // Remember frame timestamps for latency compensation
+        if (!frameContainer.segmented)
+            frameContainer.timeSegmented = frameContainer.timeCaptured;
+        frameContainer.timeProcessed = System.nanoTime();
+        positionContainer.timeCaptured = frameContainer.timeCaptured;
+        positionContainer.timeSegmented = frameContainer.timeSegmented;
+        positionContainer.timeProcessed = frameContainer.timeProcessed;
+
+        // Select processing scale for the next frames by the time of the slowest stage.
+        // Only the work of the stages is counted: camera latency and the time in the pipeline
+        // queues do not depend on the scale (on a single thread segmentation is a part of
+        // the processing stage)
+        frameContainer.processingTime = frameContainer.timeProcessed - timeStart;
+        resolutionGovernor.add(scale, Math.max(frameContainer.segmentationTime,
+                frameContainer.processingTime) / 1e6);
+
+        // Publish a snapshot of the new ball's position or drop the unsent one
+        if (positionMailbox != null) {
+            if (positionContainer.ballDetected)
+                positionMailbox.put(positionContainer);
             else
-                positionContainer.ballDetected = false;
+                positionMailbox.clear();
+        }
+
+        // Remember status, setpoint and action for the render stage
+        frameContainer.statusText = statusText;
+        frameContainer.ballDetected = positionContainer.ballDetected;
+        frameContainer.ballSetpointX = positionContainer.ballSetpointX;
+        frameContainer.ballSetpointY = positionContainer.ballSetpointY;
+        frameContainer.ballSetpointZ = positionContainer.ballSetpointZ;
+        frameContainer.action = actionContainer.action;
+    }
 
-            // Clear number of centered frames and action frames if ball not detected
-            if (!positionContainer.ballDetected) {
-                centeredFrames = 0;
-                actionContainer.actionFrame = -1;
+    /**
+     * Draws debug frame with the processing results or status frame in headless mode
+     * (render stage, camera thread only)
+     * @param frameContainer processed frame
+     * @return frame to show
+     */
+    private Mat render(FrameContainer frameContainer) {
+        Mat frameRGBA = frameContainer.frameRGBA;
+        int rotation = frameContainer.rotation;
+        frameSize.width = frameRGBA.cols();
+        frameSize.height = frameRGBA.rows();
+
+        // Skip all drawing in headless mode
+        // (or if the frame was captured in headless mode without RGBA conversion)
+        boolean overlay = !headless && frameRGBA.channels() == 4;
+
+        if (overlay) {
+            // Rotate object for debug frame
+            renderOrientation.update(rotation, SettingsContainer.cameraID,
+                    frameRGBA.cols(), frameRGBA.rows());
+            renderOrientation.rotateFrame(frameRGBA, outputRGBA);
+
+            // Draw table's ellipse, reference marks and ball's setpoint
+            if (frameContainer.tableFound)
+                drawTable(frameContainer);
+
+            if (frameContainer.ballFound) {
+                // Print ball's position
+                Imgproc.putText(outputRGBA, positionTextX[frameContainer.ballVSTableX - 1000],
+                        pointStatusText, Core.FONT_HERSHEY_PLAIN, 2, ballColor, 2);
+                Imgproc.putText(outputRGBA, positionTextY[frameContainer.ballVSTableY - 1000],
+                        pointPositionYText, Core.FONT_HERSHEY_PLAIN, 2, ballColor, 2);
+
+                // Draw ball's position
+                Imgproc.circle(outputRGBA, frameContainer.ballScreenCenter,
+                        (int) frameContainer.ballRadius, ballColor, 2);
             }
 
-            // Proceed actions
-            actionHandler();
+            // Print error message
+            if (frameContainer.statusText != null)
+                Imgproc.putText(outputRGBA, frameContainer.statusText, pointStatusText,
+                        Core.FONT_HERSHEY_PLAIN, 2, redColor, 2);
 
             // Print current action
-            if (actionContainer.action == ActionContainer.ACTION_ROTATE_CW)
-                Imgproc.putText(outputRGBA, "Rotate CW", new Point(30, 100),
+            if (frameContainer.action == ActionContainer.ACTION_ROTATE_CW)
+                Imgproc.putText(outputRGBA, "Rotate CW", pointActionText,
                         Core.FONT_HERSHEY_PLAIN, 2, limeColor, 2);
-            else if (actionContainer.action == ActionContainer.ACTION_ROTATE_CCW)
-                Imgproc.putText(outputRGBA, "Rotate CCW", new Point(30, 100),
+            else if (frameContainer.action == ActionContainer.ACTION_ROTATE_CCW)
+                Imgproc.putText(outputRGBA, "Rotate CCW", pointActionText,
                         Core.FONT_HERSHEY_PLAIN, 2, limeColor, 2);
-            else if (actionContainer.action == ActionContainer.ACTION_JUMP)
-                Imgproc.putText(outputRGBA, "Jump", new Point(30, 100),
+            else if (frameContainer.action == ActionContainer.ACTION_JUMP)
+                Imgproc.putText(outputRGBA, "Jump", pointActionText,
                         Core.FONT_HERSHEY_PLAIN, 2, limeColor, 2);
 
-            // Send new ball's position or clear the LinkedBlockingQueue
-            try {
-                if (positionContainers != null) {
-                    if (positionContainer.ballDetected && positionContainers.size() < 10)
-                        positionContainers.put(positionContainer);
-                    else
-                        positionContainers.clear();
-                }
+            // Print controller telemetry
+            if (telemetryBuffer != null)
+                drawTelemetry();
 
-            } catch (Exception e) {
-                Log.e(TAG, "Error putting new position to LinkedBlockingQueue!", e);
-            }
+            // Print latencies measured by the latency probe
+            if (clockSync != null)
+                drawLatency();
 
-            // Display a message about low performance if the frame time is more than 33 ms (30 fps)
-            if (System.currentTimeMillis() - timeStart > 33)
-                Imgproc.putText(outputRGBA, "WARNING! Low performance!",
-                        new Point(30, 150),
+            // Display a message about low performance if the frame time is more than 33 ms
+            if (System.currentTimeMillis() - frameContainer.timeStart > 33)
+                Imgproc.putText(outputRGBA, "WARNING! Low performance!", pointWarningText,
                         Core.FONT_HERSHEY_PLAIN, 2, orangeColor, 2);
 
             // Resize to original size
-            Imgproc.resize(outputRGBA, outputRGBA, inputFrame.rgba().size());
-
-            // On rotation changed
-            if (rotation != rotationLast) {
-                // Set MAX_PRIORITY
-                Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-
-                // Set new scaling factor
-                if (rotation == Surface.ROTATION_0 || rotation == Surface.ROTATION_180)
-                    cameraBridgeViewBase.setScaleY((float)
-                            ((inputRGBA.size().width * inputRGBA.size().width)
-                                    / (inputRGBA.size().height * inputRGBA.size().height)));
-                else
-                    cameraBridgeViewBase.setScaleY(1);
+            Imgproc.resize(outputRGBA, outputRGBA, frameSize);
+        } else
+            // Show only tracking status
+            drawStatusFrame(frameContainer.ballDetected);
+
+        // On rotation changed
+        if (rotation != rotationLast && cameraBridgeViewBase != null) {
+            // Set MAX_PRIORITY
+            Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+
+            // Set new scaling factor (debug frame is transposed and resized back to frame size)
+            if (rotation == Surface.ROTATION_0 || rotation == Surface.ROTATION_180)
+                cameraBridgeViewBase.setScaleY((float)
+                        (((double) frameRGBA.rows() * frameRGBA.rows())
+                                / ((double) frameRGBA.cols() * frameRGBA.cols())));
+            else
+                cameraBridgeViewBase.setScaleY(1);
+        }
+
+        // Remember new rotation
+        rotationLast = rotation;
+
+        return overlay ? outputRGBA : statusRGBA;
+    }
+
+    /**
+     * Draws table's ellipse, center, reference marks and ball's setpoint
+     * @param frameContainer processed frame with the table's ellipse and size on the screen
+     */
+    private void drawTable(FrameContainer frameContainer) {
+        RotatedRect tableRotatedRect = frameContainer.tableScreenRect;
+        int tableWidth = frameContainer.tableWidth;
+        int tableHeight = frameContainer.tableHeight;
+
+        // Calculate table's radius
+        int tableCircleR = (tableHeight + tableWidth) / 4;
+
+        // Draw table's ellipse
+        Imgproc.ellipse(outputRGBA, tableRotatedRect, tableEllipseColor, 2);
+
+        // Draw table's center
+        Imgproc.circle(outputRGBA, tableRotatedRect.center, 5,
+                tableMarksColor, 1);
+
+        // Calculate frame reference points
+        int pqXK = (int) (tableWidth / 4 * Math.sqrt(3.));
+        int pqYK = tableHeight / 4;
+        pointP.x = tableRotatedRect.center.x;
+        pointP.y = (int) (tableRotatedRect.center.y - tableHeight / 2);
+        pointQ.x = tableRotatedRect.center.x + pqXK;
+        pointQ.y = tableRotatedRect.center.y + pqYK;
+        pointR.x = tableRotatedRect.center.x - pqXK;
+        pointR.y = tableRotatedRect.center.y + pqYK;
+
+        // Draw reference marks
+        pointTemp.x = pointP.x;
+        pointTemp.y = (int) (pointP.y + tableCircleR / 4);
+        Imgproc.line(outputRGBA, pointP, pointTemp, tableMarksColor, 1);
+        drawMark(pointP, "P");
+        drawMark(pointQ, "Q");
+        drawMark(pointR, "R");
+
+        // Draw ball's setpoint
+        pointSetpoint.x = map((int) frameContainer.ballSetpointX, 1000, 2000,
+                (int) (tableRotatedRect.center.x - tableWidth / 2),
+                (int) (tableRotatedRect.center.x + tableWidth / 2));
+        pointSetpoint.y = map((int) frameContainer.ballSetpointY, 1000, 2000,
+                (int) (tableRotatedRect.center.y - tableHeight / 2),
+                (int) (tableRotatedRect.center.y + tableHeight / 2));
+        Imgproc.circle(outputRGBA, pointSetpoint,
+                map((int) frameContainer.ballSetpointZ, 1000, 2000,
+                        5, 50), ballSetpointColor, 2);
+    }
+
+    /**
+     * Prints the latest telemetry of the controller (servo pulses, saturated cycles,
+     * max loop time and loop overruns). The text is updated only on new samples
+     * and is highlighted if the servos were saturated or the loop was overrun
+     */
+    private void drawTelemetry() {
+        long index = telemetryBuffer.getWritten() - 1;
+        if (index != telemetryIndex) {
+            telemetryIndex = index;
+            long timeReceived = telemetryBuffer.get(index, telemetryValues);
+            if (timeReceived != 0) {
+                int overruns = telemetryValues[TelemetryDecoder.VALUE_LOOP_OVERRUNS];
+                telemetryWarning = telemetryValues[TelemetryDecoder.VALUE_SATURATED_CYCLES] > 0
+                        || (telemetryText != null && overruns != telemetryOverrunsLast);
+                telemetryOverrunsLast = overruns;
+                telemetryText = String.format(Locale.US,
+                        "Servo %d %d %d, sat %d, loop %.1f ms, overruns %d",
+                        telemetryValues[TelemetryDecoder.VALUE_SERVO_P],
+                        telemetryValues[TelemetryDecoder.VALUE_SERVO_Q],
+                        telemetryValues[TelemetryDecoder.VALUE_SERVO_R],
+                        telemetryValues[TelemetryDecoder.VALUE_SATURATED_CYCLES],
+                        telemetryValues[TelemetryDecoder.VALUE_LOOP_TIME_MAX] / 1000.,
+                        overruns);
+                telemetryTime = timeReceived;
             }
+        }
 
-            // Remember new rotation
-            rotationLast = rotation;
+        if (telemetryText != null && System.nanoTime() - telemetryTime < TELEMETRY_TIMEOUT)
+            Imgproc.putText(outputRGBA, telemetryText, pointTelemetryText,
+                    Core.FONT_HERSHEY_PLAIN, 1.5, telemetryWarning ? orangeColor : limeColor, 2);
+    }
 
-            return outputRGBA;
-        } catch (Exception e) {
-            // Show error message
-            Log.e(TAG, "Error processing frame!", e);
+    /**
+     * Prints the one-way latency from the app to the controller and the photon-to-servo latency
+     * (the text is updated once per LATENCY_TEXT_INTERVAL)
+     */
+    private void drawLatency() {
+        long time = System.nanoTime();
+        if (time - latencyTextTime > LATENCY_TEXT_INTERVAL && clockSync.isSynced()) {
+            latencyTextTime = time;
+            latencyText = String.format(Locale.US,
+                    "One-way %.1f ms, photon-to-servo %.1f ms, drift %.0f ppm",
+                    clockSync.getOneWayLatency(), clockSync.getPhotonToServoLatency(),
+                    clockSync.getDrift());
         }
 
-        // Return raw frame if error occurs
-        return inputFrame.rgba();
+        if (latencyText != null)
+            Imgproc.putText(outputRGBA, latencyText, pointLatencyText,
+                    Core.FONT_HERSHEY_PLAIN, 1.5, limeColor, 2);
+    }
+
+    /**
+     * Draws a frame with the tracking status instead of the camera preview (headless mode).
+     * The frame is redrawn only if the status or the frame size is changed
+     * @param ballDetected true if the ball is tracked
+     */
+    private void drawStatusFrame(boolean ballDetected) {
+        int status = ballDetected ? 1 : 0;
+        if (status == statusFrameLast && statusRGBA.cols() == (int) frameSize.width
+                && statusRGBA.rows() == (int) frameSize.height)
+            return;
+
+        statusRGBA.create((int) frameSize.height, (int) frameSize.width, CvType.CV_8UC4);
+        statusRGBA.setTo(statusBackgroundColor);
+        Imgproc.putText(statusRGBA, "Headless mode", pointStatusText,
+                Core.FONT_HERSHEY_PLAIN, 2, tableTextColor, 2);
+        if (ballDetected)
+            Imgproc.putText(statusRGBA, "Tracking", pointActionText,
+                    Core.FONT_HERSHEY_PLAIN, 2, limeColor, 2);
+        else
+            Imgproc.putText(statusRGBA, "Ball not found!", pointActionText,
+                    Core.FONT_HERSHEY_PLAIN, 2, redColor, 2);
+        statusFrameLast = status;
+    }
+
+    /**
+     * Enables or disables headless mode. In headless mode the overlay is not drawn
+     * and a static status frame is returned instead of the camera preview
+     * @param headless true to enable headless mode
+     */
+    public void setHeadless(boolean headless) {
+        this.headless = headless;
+    }
+
+    /**
+     * @return true if headless mode is enabled
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+
+    /**
+     * Draws table's reference mark
+     * @param point center of the mark
+     * @param label mark's label
+     */
+    private void drawMark(Point point, String label) {
+        Imgproc.circle(outputRGBA, point, 10, tableMarksColor, 1);
+        pointTemp.x = point.x - 5;
+        pointTemp.y = point.y + 5;
+        Imgproc.putText(outputRGBA, label, pointTemp,
+                Core.FONT_HERSHEY_PLAIN, 1, tableTextColor, 1);
     }
 
     /**
@@ -640,4 +1109,37 @@ public class OpenCVHandler implements CameraBridgeViewBase.CvCameraViewListener2
     private int map(int value, int in_min, int in_max, int out_min, int out_max) {
         return (value - in_min) * (out_max - out_min) / (in_max - in_min) + out_min;
     }
+
+    /**
+     * Limits position to the 1000-2000 range
+     * @param value position
+     * @return position between 1000 and 2000
+     */
+    private static double clip(double value) {
+        return Math.max(1000, Math.min(value, 2000));
+    }
+
+    /**
+     * Converts pixel coordinate from the downscaled frame to the full camera frame
+     * @param value coordinate on the downscaled frame
+     * @param scale processing scale of the frame
+     * @return coordinate on the full camera frame
+     */
+    private static double toFrame(double value, double scale) {
+        return (value + 0.5) / scale - 0.5;
+    }
+
+    /**
+     * Re-maps a number from one range to another without rounding (see map(int...))
+     * @param value the number to map
+     * @param in_min the lower bound of the value’s current range
+     * @param in_max the upper bound of the value’s current range
+     * @param out_min the lower bound of the value’s target range
+     * @param out_max the upper bound of the value’s target range
+     * @return the mapped value
+     */
+    private double map(double value, double in_min, double in_max,
+                       double out_min, double out_max) {
+        return (value - in_min) * (out_max - out_min) / (in_max - in_min) + out_min;
+    }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+/**
+ * This class provides a reference decoder of the serial packets with the ball position.
+ * It parses the byte stream the same way as serial_read() of the table controller:
+ * v1 packets end with two suffix bytes and are checked with XOR, v2 packets are COBS frames
+ * checked with CRC-16 (see SerialProtocol)
+ */
+public class PacketDecoder {
+    // Indexes of the decoded values
+    public final static int VALUE_X = 0;
+    public final static int VALUE_Y = 1;
+    public final static int VALUE_Z = 2;
+    public final static int VALUE_SETPOINT_X = 3;
+    public final static int VALUE_SETPOINT_Y = 4;
+    public final static int VALUE_SETPOINT_Z = 5;
+    public final static int VALUE_VELOCITY_X = 6;
+    public final static int VALUE_VELOCITY_Y = 7;
+    public final static int VALUES_LENGTH = 8;
+
+    // Length of the v1 packets (position only and position with velocity)
+    private final static int V1_PACKET_LENGTH = 16;
+    private final static int V1_PACKET_VELOCITY_LENGTH = 20;
+
+    private final int protocol;
+    private final byte suffix1, suffix2;
+    private final byte[] buffer, packet;
+    private final int[] values;
+    private int bufferPosition;
+    private byte bytePrevious;
+    private boolean velocity;
+    private int sequence;
+    private long timestamp;
+
+    /**
+     * @param protocol SettingsContainer.PROTOCOL_V1 or SettingsContainer.PROTOCOL_V2
+     * @param suffix1 first byte of the v1 packet ending
+     * @param suffix2 second byte of the v1 packet ending
+     */
+    PacketDecoder(int protocol, byte suffix1, byte suffix2) {
+        this.protocol = protocol;
+        this.suffix1 = suffix1;
+        this.suffix2 = suffix2;
+        this.buffer = new byte[protocol == SettingsContainer.PROTOCOL_V2
+                ? SerialProtocol.FRAME_LENGTH : V1_PACKET_VELOCITY_LENGTH];
+        this.packet = new byte[SerialProtocol.PACKET_LENGTH];
+        this.values = new int[VALUES_LENGTH];
+    }
+
+    /**
+     * Parses the next received byte
+     * @param data received byte
+     * @return true if a valid packet was received with this byte
+     */
+    public boolean decode(byte data) {
+        return protocol == SettingsContainer.PROTOCOL_V2 ? decodeV2(data) : decodeV1(data);
+    }
+
+    /**
+     * Parses v1 stream (packet ends with suffix1, suffix2)
+     * @param data received byte
+     * @return true if a valid packet was received with this byte
+     */
+    private boolean decodeV1(byte data) {
+        buffer[bufferPosition] = data;
+        if (bytePrevious != suffix1 || data != suffix2) {
+            // Store data bytes
+            bytePrevious = data;
+            bufferPosition++;
+
+            // Reset buffer on overflow
+            if (bufferPosition >= V1_PACKET_VELOCITY_LENGTH)
+                bufferPosition = 0;
+            return false;
+        }
+
+        // Packet ending found
+        int packetLength = bufferPosition + 1;
+        bufferPosition = 0;
+        if (packetLength != V1_PACKET_LENGTH && packetLength != V1_PACKET_VELOCITY_LENGTH)
+            return false;
+
+        // Check byte (XOR of all bytes before the check byte)
+        byte checkByte = 0;
+        for (int i = 0; i < packetLength - 3; i++)
+            checkByte ^= buffer[i];
+        if (checkByte != buffer[packetLength - 3])
+            return false;
+
+        velocity = packetLength == V1_PACKET_VELOCITY_LENGTH;
+        parseValues(buffer, 0);
+        return true;
+    }
+
+    /**
+     * Parses v2 stream (COBS frames delimited by 0x00)
+     * @param data received byte
+     * @return true if a valid packet was received with this byte
+     */
+    private boolean decodeV2(byte data) {
+        if (data != 0) {
+            // Store frame bytes (the frame is dropped on overflow)
+            if (bufferPosition < buffer.length)
+                buffer[bufferPosition] = data;
+            bufferPosition++;
+            return false;
+        }
+
+        // Delimiter found
+        int frameLength = bufferPosition;
+        bufferPosition = 0;
+        if (frameLength > buffer.length
+                || SerialProtocol.cobsDecode(buffer, frameLength, packet)
+                != SerialProtocol.PACKET_LENGTH)
+            return false;
+
+        // Check CRC, version and type
+        int crc = ((packet[SerialProtocol.OFFSET_CRC] & 0xFF) << 8)
+                | (packet[SerialProtocol.OFFSET_CRC + 1] & 0xFF);
+        if (crc != SerialProtocol.crc16(packet, 0, SerialProtocol.OFFSET_CRC)
+                || packet[SerialProtocol.OFFSET_VERSION] != SerialProtocol.VERSION_2
+                || packet[SerialProtocol.OFFSET_TYPE] != SerialProtocol.TYPE_POSITION)
+            return false;
+
+        sequence = packet[SerialProtocol.OFFSET_SEQUENCE] & 0xFF;
+        timestamp = 0;
+        for (int i = 0; i < 4; i++)
+            timestamp = (timestamp << 8) | (packet[SerialProtocol.OFFSET_TIMESTAMP + i] & 0xFF);
+        velocity = true;
+        parseValues(packet, SerialProtocol.OFFSET_POSITION);
+        return true;
+    }
+
+    /**
+     * Reads position, setpoints and velocity (big-endian)
+     * @param source packet bytes
+     * @param offset index of position X
+     */
+    private void parseValues(byte[] source, int offset) {
+        int count = velocity ? VALUES_LENGTH : VALUE_VELOCITY_X;
+        for (int i = 0; i < count; i++) {
+            int index = offset + i * 2;
+            int value = ((source[index] & 0xFF) << 8) | (source[index + 1] & 0xFF);
+
+            // Velocity is signed
+            values[i] = i >= VALUE_VELOCITY_X ? (short) value : value;
+        }
+        for (int i = count; i < VALUES_LENGTH; i++)
+            values[i] = 0;
+    }
+
+    /**
+     * @return values of the last decoded packet (see VALUE_ indexes)
+     */
+    public int[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return true if the last decoded packet has velocity
+     */
+    public boolean hasVelocity() {
+        return velocity;
+    }
+
+    /**
+     * @return sequence number of the last decoded v2 packet (0 - 255)
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return capture timestamp of the last decoded v2 packet (us, lower 32 bits)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+/**
+ * This class builds serial packets with the ball position (protocol v1 or v2)
+ * in a preallocated buffer
+ */
+public class PacketEncoder {
+    private final int protocol;
+    private final boolean sendVelocity;
+    private final byte[] packet, frame, pingPacket, pingFrame;
+    private int sequence, pingSequence;
+    private byte systemInfo;
+
+    /**
+     * @param protocol SettingsContainer.PROTOCOL_V1 or SettingsContainer.PROTOCOL_V2
+     * @param sendVelocity true to send velocity in v1 packets (v2 packets always have velocity)
+     * @param suffix1 first byte of the v1 packet ending
+     * @param suffix2 second byte of the v1 packet ending
+     */
+    PacketEncoder(int protocol, boolean sendVelocity, byte suffix1, byte suffix2) {
+        this.protocol = protocol;
+        this.sendVelocity = sendVelocity;
+        if (protocol == SettingsContainer.PROTOCOL_V2) {
+            this.packet = new byte[SerialProtocol.PACKET_LENGTH];
+            this.frame = new byte[SerialProtocol.FRAME_LENGTH];
+            this.pingPacket = new byte[SerialProtocol.PING_LENGTH];
+            this.pingFrame = new byte[SerialProtocol.PING_FRAME_LENGTH];
+        } else {
+            // 16 bytes packet (position only) or 20 bytes packet (position and velocity)
+            this.packet = new byte[sendVelocity ? 20 : 16];
+            this.packet[packet.length - 2] = suffix1;
+            this.packet[packet.length - 1] = suffix2;
+            this.frame = packet;
+            this.pingPacket = null;
+            this.pingFrame = null;
+        }
+    }
+
+    /**
+     * Builds the packet
+     * @param x ball position X (1000-2000)
+     * @param y ball position Y (1000-2000)
+     * @param z ball position Z (1000-2000)
+     * @param setpointX setpoint X (1000-2000)
+     * @param setpointY setpoint Y (1000-2000)
+     * @param setpointZ setpoint Z (1000-2000)
+     * @param velocityX velocity X (signed, table units per second)
+     * @param velocityY velocity Y (signed, table units per second)
+     * @param timeCaptured capture time of the frame (System.nanoTime())
+     * @return packet ready to send (the same buffer for each call)
+     */
+    public byte[] encode(int x, int y, int z, int setpointX, int setpointY, int setpointZ,
+                         int velocityX, int velocityY, long timeCaptured) {
+        // v1: position and setpoints from the start of the packet
+        int offset = 0;
+        if (protocol == SettingsContainer.PROTOCOL_V2) {
+            // v2: header with the sequence number and capture timestamp (us, lower 32 bits)
+            long timestamp = timeCaptured / 1000;
+            packet[SerialProtocol.OFFSET_VERSION] = (byte) SerialProtocol.VERSION_2;
+            packet[SerialProtocol.OFFSET_TYPE] = (byte) SerialProtocol.TYPE_POSITION;
+            packet[SerialProtocol.OFFSET_SEQUENCE] = (byte) sequence++;
+            packet[SerialProtocol.OFFSET_TIMESTAMP] = (byte) (timestamp >> 24);
+            packet[SerialProtocol.OFFSET_TIMESTAMP + 1] = (byte) (timestamp >> 16);
+            packet[SerialProtocol.OFFSET_TIMESTAMP + 2] = (byte) (timestamp >> 8);
+            packet[SerialProtocol.OFFSET_TIMESTAMP + 3] = (byte) timestamp;
+            offset = SerialProtocol.OFFSET_POSITION;
+        }
+
+        // Position and setpoints
+        offset = putShort(offset, x);
+        offset = putShort(offset, y);
+        offset = putShort(offset, z);
+        offset = putShort(offset, setpointX);
+        offset = putShort(offset, setpointY);
+        offset = putShort(offset, setpointZ);
+
+        // Velocity
+        if (sendVelocity || protocol == SettingsContainer.PROTOCOL_V2) {
+            offset = putShort(offset, velocityX);
+            offset = putShort(offset, velocityY);
+        }
+
+        // System info
+        packet[offset++] = systemInfo;
+
+        if (protocol == SettingsContainer.PROTOCOL_V2) {
+            // CRC and COBS framing
+            int crc = SerialProtocol.crc16(packet, 0, offset);
+            offset = putShort(offset, crc);
+            SerialProtocol.cobsEncode(packet, offset, frame);
+        } else {
+            // Check byte (XOR of all previous bytes)
+            byte checkByte = 0;
+            for (int i = 0; i < offset; i++)
+                checkByte = (byte) (checkByte ^ packet[i]);
+            packet[offset] = checkByte;
+        }
+        return frame;
+    }
+
+    /**
+     * Builds the ping packet of the latency probe (protocol v2 only)
+     * @param timeSending sending time (System.nanoTime())
+     * @return packet ready to send (the same buffer for each call) or null for protocol v1
+     */
+    public byte[] encodePing(long timeSending) {
+        if (protocol != SettingsContainer.PROTOCOL_V2)
+            return null;
+
+        // Header and sending time (us, lower 32 bits)
+        long timestamp = timeSending / 1000;
+        pingPacket[SerialProtocol.OFFSET_VERSION] = (byte) SerialProtocol.VERSION_2;
+        pingPacket[SerialProtocol.OFFSET_TYPE] = (byte) SerialProtocol.TYPE_PING;
+        pingPacket[SerialProtocol.OFFSET_SEQUENCE] = (byte) pingSequence++;
+        for (int i = 0; i < 4; i++)
+            pingPacket[SerialProtocol.OFFSET_TIMESTAMP + i] = (byte) (timestamp >> (24 - i * 8));
+
+        // CRC and COBS framing
+        int crc = SerialProtocol.crc16(pingPacket, 0, SerialProtocol.OFFSET_PING_CRC);
+        pingPacket[SerialProtocol.OFFSET_PING_CRC] = (byte) (crc >> 8);
+        pingPacket[SerialProtocol.OFFSET_PING_CRC + 1] = (byte) crc;
+        SerialProtocol.cobsEncode(pingPacket, SerialProtocol.PING_LENGTH, pingFrame);
+        return pingFrame;
+    }
+
+    /**
+     * Sets the system info byte of the next packets
+     * @param systemInfo telemetry decimation (0 - no telemetry, see SerialProtocol)
+     */
+    public void setSystemInfo(int systemInfo) {
+        this.systemInfo = (byte) systemInfo;
+    }
+
+    /**
+     * Writes 2 bytes (big-endian)
+     * @param offset index of the first byte
+     * @param value value to write
+     * @return index after the written bytes
+     */
+    private int putShort(int offset, int value) {
+        packet[offset] = (byte) ((value >> 8) & 0xFF);
+        packet[offset + 1] = (byte) (value & 0xFF);
+        return offset + 2;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+package com.fern.pipo_ballus;
+
+import org.opencv.core.Mat;
+
+/**
+ * This interface is used to calculate the table and ball masks directly from the planes
+ * of the camera's YUV frame (without packing Y, U and V of each pixel first)
+ */
+public interface PlaneSegmenter {
+    /**
+     * Calculates masks of the table and ball colors
+     * @param planeY Y plane of the frame
+     * @param planeChroma interleaved chroma plane with half resolution (CV_8UC2,
+     *                    at least (rows + 1) / 2 rows and (cols + 1) / 2 columns)
+     * @param chromaVU true if chroma is in V, U order (NV21) or false if in U, V order (NV12)
+     * @param maskTable output table mask (CV_8UC1, 255 inside the table range)
+     * @param maskBall output ball mask (CV_8UC1, 255 inside the ball range)
+     */
+    void segment(Mat planeY, Mat planeChroma, boolean chromaVU, Mat maskTable, Mat maskBall);
+}
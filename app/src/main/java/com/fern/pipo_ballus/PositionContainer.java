@@ -35,7 +35,12 @@ package com.fern.pipo_ballus;
 public class PositionContainer {
     public double ballVSTableX, ballVSTableY, ballVSTableZ;
     public double ballSetpointX, ballSetpointY, ballSetpointZ;
+    public double ballVelocityX, ballVelocityY;
     public boolean ballDetected;
+    // Capture, segmentation and processing timestamps of the frame (System.nanoTime())
+    public long timeCaptured, timeSegmented, timeProcessed;
+    // Number of the position published by PositionMailbox
+    public long sequence;
 
     PositionContainer() {
         ballVSTableX = 1500;
@@ -44,6 +49,32 @@ public class PositionContainer {
         ballSetpointX = 1500;
         ballSetpointY = 1500;
         ballSetpointZ = 1500;
+        ballVelocityX = 0;
+        ballVelocityY = 0;
         ballDetected = false;
+        timeCaptured = 0;
+        timeSegmented = 0;
+        timeProcessed = 0;
+        sequence = 0;
+    }
+
+    /**
+     * Copies all values from another container
+     * @param positionContainer source container
+     */
+    public void copyFrom(PositionContainer positionContainer) {
+        ballVSTableX = positionContainer.ballVSTableX;
+        ballVSTableY = positionContainer.ballVSTableY;
+        ballVSTableZ = positionContainer.ballVSTableZ;
+        ballSetpointX = positionContainer.ballSetpointX;
+        ballSetpointY = positionContainer.ballSetpointY;
+        ballSetpointZ = positionContainer.ballSetpointZ;
+        ballVelocityX = positionContainer.ballVelocityX;
+        ballVelocityY = positionContainer.ballVelocityY;
+        ballDetected = positionContainer.ballDetected;
+        timeCaptured = positionContainer.timeCaptured;
+        timeSegmented = positionContainer.timeSegmented;
+        timeProcessed = positionContainer.timeProcessed;
+        sequence = positionContainer.sequence;
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class provides a lock-free single-slot mailbox with the latest ball position
+ * for exactly one producer thread (vision) and exactly one consumer thread (serial).
+ * Positions are copied into three preallocated snapshots (triple buffering):
+ * the producer writes the back snapshot and swaps it with the middle one,
+ * the consumer swaps the middle snapshot with its front one. So the consumer always gets
+ * the newest complete position and never a backlog or a half-written one
+ */
+public class PositionMailbox {
+    // Bit of the middle index that is set if the middle snapshot was not taken yet
+    private final static int FRESH = 4;
+    private final static int INDEX_MASK = 3;
+
+    private final PositionContainer[] snapshots;
+
+    // Index of the middle snapshot with the FRESH bit (shared by both threads)
+    private final AtomicInteger middle;
+
+    // Index of the snapshot written by the producer and its sequence number (producer only)
+    private int back;
+    private long sequence;
+
+    // Index of the snapshot read by the consumer (consumer only)
+    private int front;
+
+    // Consumer thread waiting in take()
+    private volatile Thread waiter;
+
+    PositionMailbox() {
+        this.snapshots = new PositionContainer[] {
+                new PositionContainer(), new PositionContainer(), new PositionContainer() };
+        this.back = 0;
+        this.middle = new AtomicInteger(1);
+        this.front = 2;
+    }
+
+    /**
+     * Publishes a copy of the position (producer thread only). Replaces the previous position
+     * if it was not taken yet
+     * @param positionContainer position to copy
+     */
+    public void put(PositionContainer positionContainer) {
+        PositionContainer snapshot = snapshots[back];
+        snapshot.copyFrom(positionContainer);
+        snapshot.sequence = ++sequence;
+
+        // Publish the snapshot and take the old middle one for the next write
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+
+        // Wake up the consumer
+        Thread thread = waiter;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    /**
+     * Takes the newest position (consumer thread only). The returned snapshot is not modified
+     * until the next poll() or take() call
+     * @return the newest position or null if there is no new position since the last call
+     */
+    public PositionContainer poll() {
+        // Swap only the middle index that is still fresh. If clear() drops it between
+        // the check and the swap, the swap fails and nothing is returned
+        int index;
+        do {
+            index = middle.get();
+            if ((index & FRESH) == 0)
+                return null;
+        } while (!middle.compareAndSet(index, front));
+        front = index & INDEX_MASK;
+        return snapshots[front];
+    }
+
+    /**
+     * Waits for the new position and takes it (consumer thread only)
+     * @return the newest position
+     * @throws InterruptedException if the consumer thread was interrupted
+     */
+    public PositionContainer take() throws InterruptedException {
+        PositionContainer positionContainer = poll();
+        if (positionContainer != null)
+            return positionContainer;
+
+        waiter = Thread.currentThread();
+        try {
+            // Check again after the registration to not miss the wake up
+            while ((positionContainer = poll()) == null) {
+                LockSupport.park(this);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+            }
+        } finally {
+            waiter = null;
+        }
+        return positionContainer;
+    }
+
+    /**
+     * Drops the position that was not taken yet (can be called from any thread)
+     */
+    public void clear() {
+        int index = middle.get();
+        if ((index & FRESH) != 0)
+            middle.compareAndSet(index, index & INDEX_MASK);
+    }
+}
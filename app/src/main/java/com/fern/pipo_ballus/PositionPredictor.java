@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+/**
+ * This class predicts the ball position at the transmit time by the velocity
+ * estimated by KalmanTracker. All timestamps are in System.nanoTime() time base,
+ * the same as the capture time the filter state belongs to
+ */
+final class PositionPredictor {
+    // Maximal prediction horizon (ns). SerialHandler also stops sending the extrapolated
+    // position if there are no new positions for this time
+    final static long MAX_EXTRAPOLATION_TIME = 100_000_000L;
+
+    private PositionPredictor() {
+    }
+
+    /**
+     * Calculates the prediction horizon. With latency compensation it is the time since
+     * the frame capture plus the extra horizon for the link and the controller,
+     * otherwise the time since the fixed rate transmitter received the position
+     * @param timeSending time of sending the packet (System.nanoTime())
+     * @param timeCaptured capture time of the frame or 0 if unknown (System.nanoTime())
+     * @param timeReceived time when the fixed rate transmitter received the position
+     *                     or 0 if the position is sent once (System.nanoTime())
+     * @param latencyCompensation true to predict the position from the capture time
+     * @param extraHorizon extra horizon for the link and the controller (ms)
+     * @return horizon between 0 and MAX_EXTRAPOLATION_TIME (ms)
+     */
+    static double getHorizon(long timeSending, long timeCaptured, long timeReceived,
+                             boolean latencyCompensation, double extraHorizon) {
+        double horizon = 0;
+        if (latencyCompensation && timeCaptured != 0)
+            horizon = (timeSending - timeCaptured) / 1e6 + extraHorizon;
+        else if (timeReceived != 0)
+            horizon = (timeSending - timeReceived) / 1e6;
+        return Math.max(0, Math.min(horizon, MAX_EXTRAPOLATION_TIME / 1e6));
+    }
+
+    /**
+     * Extrapolates position by the velocity
+     * @param position position in table units (1000-2000)
+     * @param velocity velocity in table units per second
+     * @param horizon prediction horizon (ms)
+     * @return predicted position limited to the table (1000-2000)
+     */
+    static double predict(double position, double velocity, double horizon) {
+        return Math.max(1000, Math.min(position + velocity * horizon / 1000., 2000));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+package com.fern.pipo_ballus;
+
+import android.util.Log;
+
+/**
+ * This class selects the processing scale (internal downscale of the camera frame)
+ * from the measured frame processing time. At start, every scale is measured for
+ * CALIBRATION_FRAMES frames and the largest one that fits the budget is selected.
+ * After that the scale is decreased if the budget is exceeded and increased again
+ * if the larger scale is expected to fit with a margin (hysteresis)
+ */
+public class ResolutionGovernor {
+    private final static String TAG = ResolutionGovernor.class.getName();
+
+    // Processing scales from the full frame to the smallest one
+    private final static double[] SCALES = { 1., 0.75, 0.5 };
+
+    // Frame processing budget (ms)
+    public final static double FRAME_BUDGET_MS = 33;
+
+    // Step up only if the larger scale is expected to take less than this part of the budget
+    private final static double STEP_UP_HEADROOM = 0.7;
+
+    // Number of frames (in a row) to confirm the step down / step up
+    private final static int STEP_DOWN_FRAMES = 10;
+    private final static int STEP_UP_FRAMES = 60;
+
+    // Number of frames to measure each scale at start (the first WARMUP_FRAMES are skipped)
+    private final static int CALIBRATION_FRAMES = 15;
+    private final static int WARMUP_FRAMES = 3;
+
+    // Frame time filter
+    private final static double FILTER_FACTOR = 0.2;
+
+    private final boolean enabled;
+    private final double[] calibrationTimes;
+
+    private volatile int scaleIndex;
+    private boolean calibrating;
+    private int frames, overBudgetFrames, underBudgetFrames;
+    private double frameTime;
+
+    /**
+     * @param enabled false to always process the full frame
+     */
+    ResolutionGovernor(boolean enabled) {
+        this.enabled = enabled;
+        this.calibrationTimes = new double[SCALES.length];
+        this.calibrating = enabled;
+        this.scaleIndex = 0;
+    }
+
+    /**
+     * @return scale for the next frame (1 - full frame)
+     */
+    public double getScale() {
+        return SCALES[scaleIndex];
+    }
+
+    /**
+     * Adds processing time of the frame
+     * @param scale scale that the frame was processed with
+     * @param time processing time (ms)
+     */
+    public void add(double scale, double time) {
+        // Ignore frames captured before the scale was changed
+        if (!enabled || scale != SCALES[scaleIndex])
+            return;
+
+        frames++;
+        if (calibrating)
+            calibrate(time);
+        else
+            govern(time);
+    }
+
+    /**
+     * Measures average time of every scale and selects the largest scale that fits the budget
+     * @param time processing time (ms)
+     */
+    private void calibrate(double time) {
+        if (frames > WARMUP_FRAMES)
+            calibrationTimes[scaleIndex] += time / (CALIBRATION_FRAMES - WARMUP_FRAMES);
+        if (frames < CALIBRATION_FRAMES)
+            return;
+
+        // Measure next scale
+        if (scaleIndex < SCALES.length - 1) {
+            setScaleIndex(scaleIndex + 1);
+            return;
+        }
+
+        // Select the largest scale within the budget (or the smallest one)
+        int selectedIndex = SCALES.length - 1;
+        for (int i = 0; i < SCALES.length; i++) {
+            if (calibrationTimes[i] <= FRAME_BUDGET_MS) {
+                selectedIndex = i;
+                break;
+            }
+        }
+        setScaleIndex(selectedIndex);
+        calibrating = false;
+        Log.i(TAG, String.format("Calibration: %.1f ms at full frame, %.1f ms at the smallest "
+                        + "scale, selected scale %.2f", calibrationTimes[0],
+                calibrationTimes[SCALES.length - 1], SCALES[selectedIndex]));
+    }
+
+    /**
+     * Changes the scale if the filtered frame time is out of the budget
+     * @param time processing time (ms)
+     */
+    private void govern(double time) {
+        frameTime = frames == 1 ? time : frameTime + (time - frameTime) * FILTER_FACTOR;
+
+        // Step down if the budget is exceeded
+        if (frameTime > FRAME_BUDGET_MS && scaleIndex < SCALES.length - 1) {
+            underBudgetFrames = 0;
+            if (++overBudgetFrames >= STEP_DOWN_FRAMES)
+                setScaleIndex(scaleIndex + 1);
+            return;
+        }
+        overBudgetFrames = 0;
+
+        // Step up if the larger scale (time grows with the number of pixels) fits the budget
+        if (scaleIndex > 0) {
+            double ratio = SCALES[scaleIndex - 1] / SCALES[scaleIndex];
+            if (frameTime * ratio * ratio < FRAME_BUDGET_MS * STEP_UP_HEADROOM) {
+                if (++underBudgetFrames >= STEP_UP_FRAMES)
+                    setScaleIndex(scaleIndex - 1);
+            } else
+                underBudgetFrames = 0;
+        }
+    }
+
+    /**
+     * Sets new scale and restarts measurement
+     * @param scaleIndex index of the new scale in SCALES
+     */
+    private void setScaleIndex(int scaleIndex) {
+        if (!calibrating && scaleIndex != this.scaleIndex)
+            Log.i(TAG, String.format("Processing scale changed to %.2f (frame time %.1f ms)",
+                    SCALES[scaleIndex], frameTime));
+        this.scaleIndex = scaleIndex;
+        frames = 0;
+        overBudgetFrames = 0;
+        underBudgetFrames = 0;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class provides a bounded lock-free ring buffer for exactly one producer thread
+ * and exactly one consumer thread. Elements are stored in a preallocated array,
+ * so offer() and poll() do not allocate
+ * @param <T> type of the elements
+ */
+public class SPSCRingBuffer<T> {
+    private final Object[] elements;
+    private final int mask;
+
+    // Index of the next element to read (written only by the consumer)
+    private final AtomicLong head;
+
+    // Index of the next element to write (written only by the producer)
+    private final AtomicLong tail;
+
+    /**
+     * @param capacity minimal capacity of the buffer (rounded up to a power of two)
+     */
+    SPSCRingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        this.elements = new Object[size];
+        this.mask = size - 1;
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+    }
+
+    /**
+     * Adds element to the buffer (producer thread only)
+     * @param element element to add
+     * @return true if added or false if the buffer is full
+     */
+    public boolean offer(T element) {
+        long tailIndex = tail.get();
+        if (tailIndex - head.get() >= elements.length)
+            return false;
+        elements[(int) tailIndex & mask] = element;
+
+        // Publish the element to the consumer
+        tail.lazySet(tailIndex + 1);
+        return true;
+    }
+
+    /**
+     * Takes the oldest element from the buffer (consumer thread only)
+     * @return the oldest element or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long headIndex = head.get();
+        if (headIndex >= tail.get())
+            return null;
+        int index = (int) headIndex & mask;
+        T element = (T) elements[index];
+        elements[index] = null;
+
+        // Give the place back to the producer
+        head.lazySet(headIndex + 1);
+        return element;
+    }
+
+    /**
+     * @return number of elements in the buffer (approximate if called from a third thread)
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Removes all elements (only if both threads are stopped)
+     */
+    public void clear() {
+        while (poll() != null) ;
+    }
+}
@@ -39,7 +39,7 @@ import androidx.annotation.NonNull;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
 
 import java.util.UUID;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This class provides communication over a serial port (Bluetooth or USB)
@@ -48,20 +48,34 @@ public class SerialHandler implements Runnable {
     private final String TAG = this.getClass().getName();
     private static final UUID BT_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
     private static final int maxLostPackets = 5;
+    // Stop sending the extrapolated position if there are no new positions for this time (ns)
+    private static final long maxExtrapolationTime = PositionPredictor.MAX_EXTRAPOLATION_TIME;
+    // Interval between the ping packets of the latency probe (ns)
+    private static final long pingInterval = 250_000_000L;
 
     private final UsbManager usbManager;
     private final BluetoothAdapter bluetoothAdapter;
     private final SerialDevice serialDevice;
-    private final LinkedBlockingQueue<PositionContainer> positionContainers;
+    private final PositionMailbox positionMailbox;
 
     private DeviceLostListener deviceLostListener;
 
     private UsbSerialPort usbSerialPort;
     private BluetoothSocket bluetoothSocket;
 
-    private final byte[] serialBuffer = new byte[16];
+    private final PacketEncoder packetEncoder;
+    private final LatencyStatistics latencyStatistics;
+    private final IntervalStatistics intervalStatistics;
+
+    // Packet interval of the fixed rate transmitter (0 - one packet per processed frame)
+    private final long transmitPeriod;
+
+    // Send ping packets after the positions to measure the latency (see ClockSync)
+    private final boolean latencyProbe;
+    private long timePingSent;
 
     private int dataLossCounter = 0;
+    private long sentSequence = 0;
 
     private volatile boolean handleRunning = false;
 
@@ -76,14 +90,29 @@ public class SerialHandler implements Runnable {
     SerialHandler(UsbManager usbManager,
                   BluetoothAdapter bluetoothAdapter,
                   @NonNull SerialDevice serialDevice,
-                  LinkedBlockingQueue<PositionContainer> positionContainers) {
+                  PositionMailbox positionMailbox,
+                  boolean latencyProbe) {
         this.usbManager = usbManager;
         this.bluetoothAdapter = bluetoothAdapter;
         this.serialDevice = serialDevice;
-        this.positionContainers = positionContainers;
+        this.positionMailbox = positionMailbox;
+        this.latencyProbe = latencyProbe;
+
+        // v1 packet (position only or position and velocity, with suffix)
+        // or v2 packet (COBS frame with CRC, sequence number and capture timestamp)
+        this.packetEncoder = new PacketEncoder(SettingsContainer.protocol,
+                SettingsContainer.packetFormat == SettingsContainer.PACKET_VELOCITY,
+                SettingsContainer.suffix1, SettingsContainer.suffix2);
+
+        // Request telemetry from the controller
+        this.packetEncoder.setSystemInfo(
+                SettingsContainer.TELEMETRY_DECIMATIONS[SettingsContainer.telemetryRate]);
 
-        this.serialBuffer[14] = SettingsContainer.suffix1;
-        this.serialBuffer[15] = SettingsContainer.suffix2;
+        int transmitRate = SettingsContainer.TRANSMIT_RATES[SettingsContainer.transmitMode];
+        this.transmitPeriod = transmitRate > 0 ? 1_000_000_000L / transmitRate : 0;
+
+        this.latencyStatistics = new LatencyStatistics();
+        this.intervalStatistics = new IntervalStatistics(transmitPeriod);
     }
 
     /**
@@ -146,63 +175,168 @@ public class SerialHandler implements Runnable {
     }
 
     /**
-     * Sends positionContainer from LinkedBlockingQueue to sendPosition() void in a loop
+     * Reads received bytes from the opened device
+     * @param buffer output buffer
+     * @param timeout read timeout in ms (USB only, Bluetooth waits for the data)
+     * @return number of bytes read or -1 if the device is not opened
+     */
+    public int read(byte[] buffer, int timeout) {
+        try {
+            if (serialDevice.isUsb() && usbSerialPort != null && usbSerialPort.isOpen())
+                return usbSerialPort.read(buffer, timeout);
+            if (serialDevice.isBluetooth()
+                    && bluetoothSocket != null && bluetoothSocket.isConnected())
+                return bluetoothSocket.getInputStream().read(buffer);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading data from serial!", e);
+        }
+        return -1;
+    }
+
+    /**
+     * Sends the newest position from PositionMailbox to sendPosition() void in a loop
+     * (on every processed frame or at the fixed rate)
      */
     @Override
     public void run() {
         // Set handleRunning flag
         handleRunning = true;
 
+        // Fixed rate transmitter
+        if (transmitPeriod > 0) {
+            runFixedRate();
+            return;
+        }
+
         // Main loop
         while (handleRunning) {
             try {
-                sendPosition(positionContainers.take());
+                sendPosition(positionMailbox.take(), 0);
             } catch (InterruptedException e) {
-                Log.e(TAG, "Error getting data from LinkedBlockingQueue!", e);
+                Log.e(TAG, "Error getting data from PositionMailbox!", e);
             }
         }
     }
 
     /**
-     * Sends data packet over serial port (bluetooth or USB)
-     * @param positionContainer PositionContainer class
+     * Sends the latest position every transmitPeriod regardless of the camera frame rate.
+     * Between the camera frames the position is extrapolated by the ball's velocity
      */
-    private void sendPosition(@NonNull PositionContainer positionContainer) {
-        // Build serial packet
+    private void runFixedRate() {
+        Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
 
-        // ballVSTableX
-        serialBuffer[0] = (byte) (((int) positionContainer.ballVSTableX >> 8) & 0xFF);
-        serialBuffer[1] = (byte) ((int) positionContainer.ballVSTableX & 0xFF);
+        PositionContainer positionContainer = null;
+        long timeReceived = 0;
+        long timeNext = System.nanoTime();
+        while (handleRunning) {
+            // Wait for the next tick (absolute deadlines, so the errors do not accumulate)
+            long timeLeft;
+            while ((timeLeft = timeNext - System.nanoTime()) > 0)
+                LockSupport.parkNanos(this, timeLeft);
+            long timeTick = System.nanoTime();
+
+            // Skip the missed ticks instead of sending a burst of packets
+            timeNext += transmitPeriod;
+            if (timeNext <= timeTick) {
+                timeNext = timeTick + transmitPeriod;
+                intervalStatistics.restart();
+            }
 
-        // ballVSTableY
-        serialBuffer[2] = (byte) (((int) positionContainer.ballVSTableY >> 8) & 0xFF);
-        serialBuffer[3] = (byte) ((int) positionContainer.ballVSTableY & 0xFF);
+            // Take the newest position
+            PositionContainer newPositionContainer = positionMailbox.poll();
+            if (newPositionContainer != null) {
+                positionContainer = newPositionContainer;
+                timeReceived = timeTick;
+            }
 
-        // ballVSTableZ (Currently always 1500 (see OpenCVHandler))
-        serialBuffer[4] = (byte) (((int) positionContainer.ballVSTableZ >> 8) & 0xFF);
-        serialBuffer[5] = (byte) ((int) positionContainer.ballVSTableZ & 0xFF);
+            // Stop sending if the ball is lost (so the controller's watchdog can react)
+            if (positionContainer == null || timeTick - timeReceived > maxExtrapolationTime) {
+                positionContainer = null;
+                intervalStatistics.restart();
+                continue;
+            }
 
-        // ballSetpointX
-        serialBuffer[6] = (byte) (((int) positionContainer.ballSetpointX >> 8) & 0xFF);
-        serialBuffer[7] = (byte) ((int) positionContainer.ballSetpointX & 0xFF);
+            // Measure send interval jitter (debug builds only)
+            if (BuildConfig.DEBUG)
+                intervalStatistics.add(timeTick);
 
-        // ballSetpointY
-        serialBuffer[8] = (byte) (((int) positionContainer.ballSetpointY >> 8) & 0xFF);
-        serialBuffer[9] = (byte) ((int) positionContainer.ballSetpointY & 0xFF);
+            sendPosition(positionContainer, timeReceived);
+        }
+    }
 
-        // ballSetpointZ
-        serialBuffer[10] = (byte) (((int) positionContainer.ballSetpointZ >> 8) & 0xFF);
-        serialBuffer[11] = (byte) ((int) positionContainer.ballSetpointZ & 0xFF);
+    /**
+     * Sends data packet over serial port (bluetooth or USB)
+     * @param positionContainer PositionContainer class
+     * @param timeReceived time when the fixed rate transmitter received this position
+     *                     or 0 if the position is sent once
+     */
+    private void sendPosition(@NonNull PositionContainer positionContainer, long timeReceived) {
+        long timeSending = System.nanoTime();
+
+        // Predict position at the time the packet arrives (time since the frame capture
+        // plus the extra horizon for the link and the controller). Without latency compensation
+        // the fixed rate transmitter still extrapolates the position between the frames.
+        // The velocity is filtered on the same capture clock (see OpenCVHandler)
+        double horizon = PositionPredictor.getHorizon(timeSending, positionContainer.timeCaptured,
+                timeReceived, SettingsContainer.latencyCompensation,
+                SettingsContainer.predictionHorizon);
+        double ballVSTableX = positionContainer.ballVSTableX;
+        double ballVSTableY = positionContainer.ballVSTableY;
+        if (horizon != 0) {
+            ballVSTableX = PositionPredictor.predict(ballVSTableX,
+                    positionContainer.ballVelocityX, horizon);
+            ballVSTableY = PositionPredictor.predict(ballVSTableY,
+                    positionContainer.ballVelocityY, horizon);
+        }
 
-        // System info
-        serialBuffer[12] = (byte) 0;
+        // Build serial packet (ballVSTableZ is currently always 1500 (see OpenCVHandler)).
+        // The predicted position is rounded, so the extrapolation is not biased towards zero
+        byte[] serialBuffer = packetEncoder.encode((int) Math.round(ballVSTableX),
+                (int) Math.round(ballVSTableY),
+                (int) positionContainer.ballVSTableZ, (int) positionContainer.ballSetpointX,
+                (int) positionContainer.ballSetpointY, (int) positionContainer.ballSetpointZ,
+                clipVelocity(positionContainer.ballVelocityX),
+                clipVelocity(positionContainer.ballVelocityY), positionContainer.timeCaptured);
 
-        // Calculate check byte
-        byte checkByte = 0;
-        for (int i = 0; i <= 12; i++)
-            checkByte = (byte) (checkByte ^ serialBuffer[i]);
-        serialBuffer[13] = checkByte;
+        // Send data over serial
+        boolean isDataSent = write(serialBuffer);
+
+        // Measure latency of the sent packets (debug builds only, first packet of each position)
+        if (BuildConfig.DEBUG && isDataSent && positionContainer.timeCaptured != 0
+                && positionContainer.sequence != sentSequence)
+            latencyStatistics.add(positionContainer, timeSending, System.nanoTime(), horizon);
+        sentSequence = positionContainer.sequence;
+
+        // Send ping packet after the position (the controller answers with pong)
+        if (latencyProbe && isDataSent) {
+            long timePing = System.nanoTime();
+            if (timePing - timePingSent >= pingInterval) {
+                timePingSent = timePing;
+                write(packetEncoder.encodePing(timePing));
+            }
+        }
 
+        if (!isDataSent && dataLossCounter < maxLostPackets)
+            dataLossCounter++;
+        else if (dataLossCounter > 0)
+            dataLossCounter--;
+
+        if (dataLossCounter >= maxLostPackets) {
+            // Drop the unsent position
+            positionMailbox.clear();
+
+            // Send deviceLost signal
+            if (deviceLostListener != null)
+                deviceLostListener.deviceLost();
+        }
+    }
+
+    /**
+     * Writes the packet to the serial port (bluetooth or USB)
+     * @param serialBuffer packet to send
+     * @return true if the packet was sent
+     */
+    private boolean write(byte[] serialBuffer) {
         // Create checking flag
         boolean isDataSent = false;
 
@@ -231,19 +365,15 @@ public class SerialHandler implements Runnable {
                 isDataSent = false;
             }
         }
+        return isDataSent;
+    }
 
-        if (!isDataSent && dataLossCounter < maxLostPackets)
-            dataLossCounter++;
-        else if (dataLossCounter > 0)
-            dataLossCounter--;
-
-        if (dataLossCounter >= maxLostPackets) {
-            // Clear LinkedBlockingQueue
-            positionContainers.clear();
-
-            // Send deviceLost signal
-            if (deviceLostListener != null)
-                deviceLostListener.deviceLost();
-        }
+    /**
+     * Rounds velocity and limits it to the signed 16-bit range
+     * @param velocity velocity in table units per second
+     * @return velocity between -32768 and 32767
+     */
+    private static int clipVelocity(double velocity) {
+        return (int) Math.max(Short.MIN_VALUE, Math.min(Math.round(velocity), Short.MAX_VALUE));
     }
 }
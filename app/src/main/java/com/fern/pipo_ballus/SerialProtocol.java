@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+/**
+ * This class provides constants and helper functions of the serial protocol v2.
+ * Each v2 packet is protected by CRC-16 and framed with COBS (Consistent Overhead Byte Stuffing),
+ * so 0x00 appears only as the packet delimiter and the receiver resynchronizes on the next packet
+ * after any error.
+ * Packet before COBS encoding (multibyte values are big-endian):
+ * version (2), type, sequence, capture timestamp (4 bytes, us), X, Y, Z, setpoint X, Y, Z,
+ * velocity X, Y (2 bytes each), system info, CRC-16/CCITT-FALSE of all previous bytes (2 bytes).
+ * System info byte is the telemetry decimation (0 - no telemetry).
+ * Telemetry packet from the controller:
+ * version (2), type, sequence, controller time (4 bytes, us), servo pulses P, Q, R,
+ * PID outputs X, Y, Z (signed), serial watchdog, max loop time in the window (us),
+ * loop overruns, saturated cycles in the window, lost packets (2 bytes each), CRC-16.
+ * Ping packet from the app (latency probe):
+ * version (2), type, sequence, app time (4 bytes, us), CRC-16.
+ * Pong packet from the controller (sent in the next controller loop):
+ * version (2), type, sequence of the ping, app time of the ping, controller time at the ping
+ * receiving, controller time at the pong sending, capture timestamp of the last applied position,
+ * controller time when it was applied to the servos (4 bytes each, us), CRC-16
+ */
+public class SerialProtocol {
+    public final static int VERSION_2 = 2;
+    public final static int TYPE_POSITION = 1;
+    public final static int TYPE_TELEMETRY = 2;
+    public final static int TYPE_PING = 3;
+    public final static int TYPE_PONG = 4;
+
+    // Offsets of the fields in the decoded v2 packet
+    public final static int OFFSET_VERSION = 0;
+    public final static int OFFSET_TYPE = 1;
+    public final static int OFFSET_SEQUENCE = 2;
+    public final static int OFFSET_TIMESTAMP = 3;
+    public final static int OFFSET_POSITION = 7;
+    public final static int OFFSET_VELOCITY = 19;
+    public final static int OFFSET_INFO = 23;
+    public final static int OFFSET_CRC = 24;
+    public final static int OFFSET_TELEMETRY = 7;
+    public final static int OFFSET_TELEMETRY_CRC = 29;
+    public final static int OFFSET_PING_CRC = 7;
+    public final static int OFFSET_PONG_CRC = 23;
+
+    // Length of the decoded v2 position packet (with CRC)
+    public final static int PACKET_LENGTH = 26;
+
+    // Length of the COBS encoded packet with the delimiter (one overhead byte per 254 bytes)
+    public final static int FRAME_LENGTH = PACKET_LENGTH + 2;
+
+    // Length of the decoded v2 telemetry packet (with CRC) and its COBS frame
+    public final static int TELEMETRY_LENGTH = 31;
+    public final static int TELEMETRY_FRAME_LENGTH = TELEMETRY_LENGTH + 2;
+
+    // Length of the decoded v2 ping and pong packets (with CRC) and their COBS frames
+    public final static int PING_LENGTH = 9;
+    public final static int PING_FRAME_LENGTH = PING_LENGTH + 2;
+    public final static int PONG_LENGTH = 25;
+    public final static int PONG_FRAME_LENGTH = PONG_LENGTH + 2;
+
+    /**
+     * Calculates CRC-16/CCITT-FALSE (polynomial 0x1021, initial value 0xFFFF)
+     * @param data input bytes
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @return CRC (0 - 0xFFFF)
+     */
+    public static int crc16(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++)
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+        }
+        return crc & 0xFFFF;
+    }
+
+    /**
+     * Encodes bytes with COBS and appends 0x00 delimiter
+     * @param input bytes to encode
+     * @param length number of bytes to encode
+     * @param output output buffer (at least length + length / 254 + 2 bytes)
+     * @return length of the encoded frame with the delimiter
+     */
+    public static int cobsEncode(byte[] input, int length, byte[] output) {
+        int codeIndex = 0, outputIndex = 1, code = 1;
+        for (int i = 0; i < length; i++) {
+            if (input[i] != 0) {
+                output[outputIndex++] = input[i];
+                code++;
+            }
+
+            // Close the block on zero byte or on the maximum block length
+            if (input[i] == 0 || code == 0xFF) {
+                output[codeIndex] = (byte) code;
+                codeIndex = outputIndex++;
+                code = 1;
+            }
+        }
+        output[codeIndex] = (byte) code;
+        output[outputIndex++] = 0;
+        return outputIndex;
+    }
+
+    /**
+     * Decodes COBS frame (without the delimiter)
+     * @param input encoded bytes
+     * @param length number of encoded bytes
+     * @param output output buffer
+     * @return length of the decoded bytes or -1 if the frame is malformed or too long
+     */
+    public static int cobsDecode(byte[] input, int length, byte[] output) {
+        int inputIndex = 0, outputIndex = 0;
+        while (inputIndex < length) {
+            int code = input[inputIndex++] & 0xFF;
+            if (code == 0 || inputIndex + code - 1 > length)
+                return -1;
+            for (int i = 1; i < code; i++) {
+                if (input[inputIndex] == 0 || outputIndex >= output.length)
+                    return -1;
+                output[outputIndex++] = input[inputIndex++];
+            }
+
+            // Zero byte between the blocks (except the last and the maximum length blocks)
+            if (code < 0xFF && inputIndex < length) {
+                if (outputIndex >= output.length)
+                    return -1;
+                output[outputIndex++] = 0;
+            }
+        }
+        return outputIndex;
+    }
+}
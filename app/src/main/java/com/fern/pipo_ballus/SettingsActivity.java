@@ -44,6 +44,7 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SwitchCompat;
 
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.google.android.material.slider.Slider;
@@ -53,25 +54,45 @@ import org.opencv.android.CameraBridgeViewBase;
 public class SettingsActivity extends AppCompatActivity {
     private final String TAG = this.getClass().getName();
 
-    private String[] cameraOptions;
+    private String[] cameraOptions, frameSourceOptions;
+    private String[] segmentationOptions, processingOptions, blobEngineOptions;
+    private String[] ballCenterOptions, ballDetectorOptions, packetFormatOptions;
+    private String[] protocolOptions, transmitModeOptions, telemetryRateOptions;
 
     private ArgbEvaluator argbEvaluator;
 
     // Local settings
-    private int cameraID;
+    private int cameraID, frameSource;
     private int tableColorLower, tableColorUpper;
     private int ballColorLower, ballColorUpper;
+    private int segmentationMode, segmentationBands;
+    private int blobEngine, ballCenterMode, ballDetectorType;
+    private int processingMode, pipelineMaxQueued;
+    private boolean resolutionGovernor, nativeKernel;
     private int rotationSpeed, rotationRadius, jumpSpeed;
     private int baudRate;
     private byte suffix1, suffix2;
+    private int protocol, packetFormat, transmitMode, telemetryRate;
+    private boolean latencyProbe, latencyCompensation;
+    private int predictionHorizon;
 
     // Elements
-    private Spinner cameraIDSpinner;
+    private Spinner cameraIDSpinner, frameSourceSpinner;
     private Button settingsTableColor;
     private Button settingsBallColor;
+    private Spinner segmentationModeSpinner;
+    private Slider settingsSegmentationBands;
+    private Spinner blobEngineSpinner, ballCenterSpinner, ballDetectorSpinner;
+    private Spinner processingModeSpinner;
+    private Slider settingsPipelineMaxQueued;
+    private SwitchCompat resolutionGovernorSwitch, nativeKernelSwitch;
     private Slider settingsRotationSpeed, settingsRotationRadius, settingsJumpSpeed;
     private EditText settingsSuffix1, settingsSuffix2;
     private EditText settingsBaudRate;
+    private Spinner protocolSpinner, packetFormatSpinner, transmitModeSpinner;
+    private Spinner telemetryRateSpinner;
+    private SwitchCompat latencyProbeSwitch, latencyCompensationSwitch;
+    private Slider settingsPredictionHorizon;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -80,17 +101,44 @@ public class SettingsActivity extends AppCompatActivity {
 
         // Initialize elements
         cameraOptions = getResources().getStringArray(R.array.camera_options);
+        frameSourceOptions = getResources().getStringArray(R.array.frame_source_options);
+        segmentationOptions = getResources().getStringArray(R.array.segmentation_options);
+        processingOptions = getResources().getStringArray(R.array.processing_options);
+        blobEngineOptions = getResources().getStringArray(R.array.blob_engine_options);
+        ballCenterOptions = getResources().getStringArray(R.array.ball_center_options);
+        ballDetectorOptions = getResources().getStringArray(R.array.ball_detector_options);
+        protocolOptions = getResources().getStringArray(R.array.protocol_options);
+        packetFormatOptions = getResources().getStringArray(R.array.packet_format_options);
+        transmitModeOptions = getResources().getStringArray(R.array.transmit_mode_options);
+        telemetryRateOptions = getResources().getStringArray(R.array.telemetry_rate_options);
         argbEvaluator = new ArgbEvaluator();
         BottomNavigationView bottomNavigationView = findViewById(R.id.navigationView);
         cameraIDSpinner = findViewById(R.id.cameraIDSpinner);
+        frameSourceSpinner = findViewById(R.id.frameSourceSpinner);
         settingsTableColor = findViewById(R.id.settingsTableColor);
         settingsBallColor = findViewById(R.id.settingsBallColor);
+        segmentationModeSpinner = findViewById(R.id.segmentationModeSpinner);
+        settingsSegmentationBands = findViewById(R.id.settingsSegmentationBands);
+        blobEngineSpinner = findViewById(R.id.blobEngineSpinner);
+        ballCenterSpinner = findViewById(R.id.ballCenterSpinner);
+        ballDetectorSpinner = findViewById(R.id.ballDetectorSpinner);
+        processingModeSpinner = findViewById(R.id.processingModeSpinner);
+        settingsPipelineMaxQueued = findViewById(R.id.settingsPipelineMaxQueued);
+        resolutionGovernorSwitch = findViewById(R.id.resolutionGovernorSwitch);
+        nativeKernelSwitch = findViewById(R.id.nativeKernelSwitch);
         settingsRotationSpeed = findViewById(R.id.settingsRotationSpeed);
         settingsRotationRadius = findViewById(R.id.settingsRotationRadius);
         settingsJumpSpeed = findViewById(R.id.settingsJumpSpeed);
         settingsSuffix1 = findViewById(R.id.settingsSuffix1);
         settingsSuffix2 = findViewById(R.id.settingsSuffix2);
+        protocolSpinner = findViewById(R.id.protocolSpinner);
+        packetFormatSpinner = findViewById(R.id.packetFormatSpinner);
+        transmitModeSpinner = findViewById(R.id.transmitModeSpinner);
+        telemetryRateSpinner = findViewById(R.id.telemetryRateSpinner);
         settingsBaudRate = findViewById(R.id.settingsBaudRate);
+        latencyProbeSwitch = findViewById(R.id.latencyProbeSwitch);
+        latencyCompensationSwitch = findViewById(R.id.latencyCompensationSwitch);
+        settingsPredictionHorizon = findViewById(R.id.settingsPredictionHorizon);
 
         // Select home item
         bottomNavigationView.setSelectedItemId(R.id.menuSettings);
@@ -114,16 +162,33 @@ public class SettingsActivity extends AppCompatActivity {
         findViewById(R.id.settingsResetBtn).setOnClickListener(view -> {
             // Reset settings to default
             cameraID = CameraBridgeViewBase.CAMERA_ID_ANY;
+            frameSource = SettingsContainer.FRAME_SOURCE_CAMERA_VIEW;
             tableColorLower = 0xff1e3319;
             tableColorUpper = 0xff00ffd5;
             ballColorLower = 0xff7f7f7f;
             ballColorUpper = 0xffffb2b2;
+            segmentationMode = SettingsContainer.SEGMENTATION_HSV;
+            segmentationBands = 1;
+            blobEngine = SettingsContainer.BLOB_COMPONENTS;
+            ballCenterMode = SettingsContainer.BALL_CENTER_MOMENTS;
+            ballDetectorType = SettingsContainer.BALL_DETECTOR_WINDOW;
+            processingMode = SettingsContainer.PROCESSING_SINGLE_THREAD;
+            pipelineMaxQueued = 1;
+            resolutionGovernor = true;
+            nativeKernel = true;
             rotationSpeed = 4;
             rotationRadius = 150;
             jumpSpeed = 80;
             baudRate = 57600;
             suffix1 = (byte) 0xEE;
             suffix2 = (byte) 0xEF;
+            protocol = SettingsContainer.PROTOCOL_V1;
+            packetFormat = SettingsContainer.PACKET_VELOCITY;
+            transmitMode = SettingsContainer.TRANSMIT_ON_FRAME;
+            telemetryRate = SettingsContainer.TELEMETRY_OFF;
+            latencyProbe = false;
+            latencyCompensation = true;
+            predictionHorizon = 10;
 
             // Update view
             updateView();
@@ -151,6 +216,147 @@ public class SettingsActivity extends AppCompatActivity {
 
                 });
 
+        // Connect frame source spinner
+        frameSourceSpinner.setOnItemSelectedListener(
+                new AdapterView.OnItemSelectedListener() {
+                    @Override
+                    public void onItemSelected(AdapterView<?> parentView, View selectedItemView
+                            , int position, long id) {
+                        frameSource = position;
+                    }
+
+                    @Override
+                    public void onNothingSelected(AdapterView<?> parentView) {
+                    }
+
+                });
+
+        // Connect segmentation mode spinner
+        segmentationModeSpinner.setOnItemSelectedListener(
+                new AdapterView.OnItemSelectedListener() {
+                    @Override
+                    public void onItemSelected(AdapterView<?> parentView, View selectedItemView
+                            , int position, long id) {
+                        segmentationMode = position;
+                    }
+
+                    @Override
+                    public void onNothingSelected(AdapterView<?> parentView) {
+                    }
+
+                });
+
+        // Connect segmentation bands slider
+        settingsSegmentationBands.addOnSliderTouchListener(new Slider.OnSliderTouchListener() {
+            @Override
+            public void onStartTrackingTouch(@NonNull Slider slider) {
+                segmentationBands = (int) slider.getValue();
+            }
+
+            @Override
+            public void onStopTrackingTouch(@NonNull Slider slider) {
+                segmentationBands = (int) slider.getValue();
+            }
+        });
+
+        // Connect blob detection spinner
+        blobEngineSpinner.setOnItemSelectedListener(
+                new AdapterView.OnItemSelectedListener() {
+                    @Override
+                    public void onItemSelected(AdapterView<?> parentView, View selectedItemView
+                            , int position, long id) {
+                        blobEngine = position;
+                    }
+
+                    @Override
+                    public void onNothingSelected(AdapterView<?> parentView) {
+                    }
+
+                });
+
+        // Connect ball center spinner
+        ballCenterSpinner.setOnItemSelectedListener(
+                new AdapterView.OnItemSelectedListener() {
+                    @Override
+                    public void onItemSelected(AdapterView<?> parentView, View selectedItemView
+                            , int position, long id) {
+                        ballCenterMode = position;
+                    }
+
+                    @Override
+                    public void onNothingSelected(AdapterView<?> parentView) {
+                    }
+
+                });
+
+        // Connect ball detector spinner
+        ballDetectorSpinner.setOnItemSelectedListener(
+                new AdapterView.OnItemSelectedListener() {
+                    @Override
+                    public void onItemSelected(AdapterView<?> parentView, View selectedItemView
+                            , int position, long id) {
+                        ballDetectorType = position;
+                    }
+
+                    @Override
+                    public void onNothingSelected(AdapterView<?> parentView) {
+                    }
+
+                });
+
+        // Connect processing mode spinner
+        processingModeSpinner.setOnItemSelectedListener(
+                new AdapterView.OnItemSelectedListener() {
+                    @Override
+                    public void onItemSelected(AdapterView<?> parentView, View selectedItemView
+                            , int position, long id) {
+                        processingMode = position;
+                    }
+
+                    @Override
+                    public void onNothingSelected(AdapterView<?> parentView) {
+                    }
+
+                });
+
+        // Connect max queued frames slider
+        settingsPipelineMaxQueued.addOnSliderTouchListener(new Slider.OnSliderTouchListener() {
+            @Override
+            public void onStartTrackingTouch(@NonNull Slider slider) {
+                pipelineMaxQueued = (int) slider.getValue();
+            }
+
+            @Override
+            public void onStopTrackingTouch(@NonNull Slider slider) {
+                pipelineMaxQueued = (int) slider.getValue();
+            }
+        });
+
+        // Connect latency compensation switch
+        latencyCompensationSwitch.setOnCheckedChangeListener((compoundButton, checked) ->
+                latencyCompensation = checked);
+
+        // Connect prediction horizon slider
+        settingsPredictionHorizon.addOnSliderTouchListener(new Slider.OnSliderTouchListener() {
+            @Override
+            public void onStartTrackingTouch(@NonNull Slider slider) {
+                predictionHorizon = (int) slider.getValue();
+            }
+
+            @Override
+            public void onStopTrackingTouch(@NonNull Slider slider) {
+                predictionHorizon = (int) slider.getValue();
+            }
+        });
+
+        // Connect resolution governor switch
+        resolutionGovernorSwitch.setOnCheckedChangeListener((compoundButton, checked) ->
+                resolutionGovernor = checked);
+
+        // Connect native kernel switch
+        nativeKernelSwitch.setOnCheckedChangeListener((compoundButton, checked) ->
+                nativeKernel = checked);
+
         // Connect table color button
         settingsTableColor.setOnClickListener(view -> {
             ColorPickerDialog colorPickerDialog = new ColorPickerDialog(this,
@@ -241,6 +447,70 @@ public class SettingsActivity extends AppCompatActivity {
             }
         });
 
+        // Connect protocol spinner
+        protocolSpinner.setOnItemSelectedListener(
+                new AdapterView.OnItemSelectedListener() {
+                    @Override
+                    public void onItemSelected(AdapterView<?> parentView, View selectedItemView
+                            , int position, long id) {
+                        protocol = position;
+                    }
+
+                    @Override
+                    public void onNothingSelected(AdapterView<?> parentView) {
+                    }
+
+                });
+
+        // Connect packet format spinner
+        packetFormatSpinner.setOnItemSelectedListener(
+                new AdapterView.OnItemSelectedListener() {
+                    @Override
+                    public void onItemSelected(AdapterView<?> parentView, View selectedItemView
+                            , int position, long id) {
+                        packetFormat = position;
+                    }
+
+                    @Override
+                    public void onNothingSelected(AdapterView<?> parentView) {
+                    }
+
+                });
+
+        // Connect transmit mode spinner
+        transmitModeSpinner.setOnItemSelectedListener(
+                new AdapterView.OnItemSelectedListener() {
+                    @Override
+                    public void onItemSelected(AdapterView<?> parentView, View selectedItemView
+                            , int position, long id) {
+                        transmitMode = position;
+                    }
+
+                    @Override
+                    public void onNothingSelected(AdapterView<?> parentView) {
+                    }
+
+                });
+
+        // Connect telemetry rate spinner
+        telemetryRateSpinner.setOnItemSelectedListener(
+                new AdapterView.OnItemSelectedListener() {
+                    @Override
+                    public void onItemSelected(AdapterView<?> parentView, View selectedItemView
+                            , int position, long id) {
+                        telemetryRate = position;
+                    }
+
+                    @Override
+                    public void onNothingSelected(AdapterView<?> parentView) {
+                    }
+
+                });
+
+        // Connect latency probe switch
+        latencyProbeSwitch.setOnCheckedChangeListener((compoundButton, checked) ->
+                latencyProbe = checked);
+
         // Connect suffix1
         settingsSuffix1.addTextChangedListener(new TextWatcher() {
             @Override
@@ -285,16 +555,33 @@ public class SettingsActivity extends AppCompatActivity {
 
         // Copy settings to local variables
         this.cameraID = SettingsContainer.cameraID;
+        this.frameSource = SettingsContainer.frameSource;
         this.tableColorLower = SettingsContainer.tableColorLower;
         this.tableColorUpper = SettingsContainer.tableColorUpper;
         this.ballColorLower = SettingsContainer.ballColorLower;
         this.ballColorUpper = SettingsContainer.ballColorUpper;
+        this.segmentationMode = SettingsContainer.segmentationMode;
+        this.segmentationBands = SettingsContainer.segmentationBands;
+        this.blobEngine = SettingsContainer.blobEngine;
+        this.ballCenterMode = SettingsContainer.ballCenterMode;
+        this.ballDetectorType = SettingsContainer.ballDetectorType;
+        this.processingMode = SettingsContainer.processingMode;
+        this.pipelineMaxQueued = SettingsContainer.pipelineMaxQueued;
+        this.resolutionGovernor = SettingsContainer.resolutionGovernor;
+        this.nativeKernel = SettingsContainer.nativeKernel;
         this.rotationSpeed = SettingsContainer.rotationSpeed;
         this.rotationRadius = SettingsContainer.rotationRadius;
         this.jumpSpeed = SettingsContainer.jumpSpeed;
         this.baudRate = SettingsContainer.baudRate;
         this.suffix1 = SettingsContainer.suffix1;
         this.suffix2 = SettingsContainer.suffix2;
+        this.protocol = SettingsContainer.protocol;
+        this.packetFormat = SettingsContainer.packetFormat;
+        this.transmitMode = SettingsContainer.transmitMode;
+        this.telemetryRate = SettingsContainer.telemetryRate;
+        this.latencyProbe = SettingsContainer.latencyProbe;
+        this.latencyCompensation = SettingsContainer.latencyCompensation;
+        this.predictionHorizon = SettingsContainer.predictionHorizon;
 
         // Load view
         updateView();
@@ -314,6 +601,11 @@ public class SettingsActivity extends AppCompatActivity {
         else
             cameraIDSpinner.setSelection(0);
 
+        // Frame source
+        frameSourceSpinner.setAdapter(new ArrayAdapter<>(this,
+                R.layout.spinner_layout, R.id.textViewSpinner, frameSourceOptions));
+        frameSourceSpinner.setSelection(frameSource);
+
         // Table color
         int tableMidColor = (int) argbEvaluator.evaluate(0.5f, tableColorLower,
                 tableColorUpper);
@@ -332,6 +624,35 @@ public class SettingsActivity extends AppCompatActivity {
                 + " - " + String.format("#%06X", (0xFFFFFF & ballColorUpper));
         settingsBallColor.setText(ballColorRange);
 
+        // Segmentation mode
+        segmentationModeSpinner.setAdapter(new ArrayAdapter<>(this,
+                R.layout.spinner_layout, R.id.textViewSpinner, segmentationOptions));
+        segmentationModeSpinner.setSelection(segmentationMode);
+        settingsSegmentationBands.setValue((float) segmentationBands);
+
+        // Blob detection
+        blobEngineSpinner.setAdapter(new ArrayAdapter<>(this,
+                R.layout.spinner_layout, R.id.textViewSpinner, blobEngineOptions));
+        blobEngineSpinner.setSelection(blobEngine);
+
+        // Ball center
+        ballCenterSpinner.setAdapter(new ArrayAdapter<>(this,
+                R.layout.spinner_layout, R.id.textViewSpinner, ballCenterOptions));
+        ballCenterSpinner.setSelection(ballCenterMode);
+
+        // Ball detector
+        ballDetectorSpinner.setAdapter(new ArrayAdapter<>(this,
+                R.layout.spinner_layout, R.id.textViewSpinner, ballDetectorOptions));
+        ballDetectorSpinner.setSelection(ballDetectorType);
+
+        // Processing mode
+        processingModeSpinner.setAdapter(new ArrayAdapter<>(this,
+                R.layout.spinner_layout, R.id.textViewSpinner, processingOptions));
+        processingModeSpinner.setSelection(processingMode);
+        settingsPipelineMaxQueued.setValue((float) pipelineMaxQueued);
+        resolutionGovernorSwitch.setChecked(resolutionGovernor);
+        nativeKernelSwitch.setChecked(nativeKernel);
+
         // Motion settings
         settingsRotationSpeed.setValue((float) rotationSpeed);
         settingsRotationRadius.setValue((float) rotationRadius);
@@ -343,6 +664,33 @@ public class SettingsActivity extends AppCompatActivity {
         // Serial packet suffixes
         settingsSuffix1.setText(String.format("%02X", suffix1 & 0xFF));
         settingsSuffix2.setText(String.format("%02X", suffix2 & 0xFF));
+
+        // Serial protocol
+        protocolSpinner.setAdapter(new ArrayAdapter<>(this,
+                R.layout.spinner_layout, R.id.textViewSpinner, protocolOptions));
+        protocolSpinner.setSelection(protocol);
+
+        // Serial packet format
+        packetFormatSpinner.setAdapter(new ArrayAdapter<>(this,
+                R.layout.spinner_layout, R.id.textViewSpinner, packetFormatOptions));
+        packetFormatSpinner.setSelection(packetFormat);
+
+        // Serial packet rate
+        transmitModeSpinner.setAdapter(new ArrayAdapter<>(this,
+                R.layout.spinner_layout, R.id.textViewSpinner, transmitModeOptions));
+        transmitModeSpinner.setSelection(transmitMode);
+
+        // Controller telemetry rate
+        telemetryRateSpinner.setAdapter(new ArrayAdapter<>(this,
+                R.layout.spinner_layout, R.id.textViewSpinner, telemetryRateOptions));
+        telemetryRateSpinner.setSelection(telemetryRate);
+
+        // Latency probe
+        latencyProbeSwitch.setChecked(latencyProbe);
+
+        // Latency compensation
+        latencyCompensationSwitch.setChecked(latencyCompensation);
+        settingsPredictionHorizon.setValue((float) predictionHorizon);
     }
 
     /**
@@ -353,16 +701,33 @@ public class SettingsActivity extends AppCompatActivity {
         try {
             // Copy settings from local variables
             SettingsContainer.cameraID = this.cameraID;
+            SettingsContainer.frameSource = this.frameSource;
             SettingsContainer.tableColorLower = this.tableColorLower;
             SettingsContainer.tableColorUpper = this.tableColorUpper;
             SettingsContainer.ballColorLower = this.ballColorLower;
             SettingsContainer.ballColorUpper = this.ballColorUpper;
+            SettingsContainer.segmentationMode = this.segmentationMode;
+            SettingsContainer.segmentationBands = this.segmentationBands;
+            SettingsContainer.blobEngine = this.blobEngine;
+            SettingsContainer.ballCenterMode = this.ballCenterMode;
+            SettingsContainer.ballDetectorType = this.ballDetectorType;
+            SettingsContainer.processingMode = this.processingMode;
+            SettingsContainer.pipelineMaxQueued = this.pipelineMaxQueued;
+            SettingsContainer.resolutionGovernor = this.resolutionGovernor;
+            SettingsContainer.nativeKernel = this.nativeKernel;
             SettingsContainer.rotationSpeed = this.rotationSpeed;
             SettingsContainer.rotationRadius = this.rotationRadius;
             SettingsContainer.jumpSpeed = this.jumpSpeed;
             SettingsContainer.baudRate = this.baudRate;
             SettingsContainer.suffix1 = this.suffix1;
             SettingsContainer.suffix2 = this.suffix2;
+            SettingsContainer.protocol = this.protocol;
+            SettingsContainer.packetFormat = this.packetFormat;
+            SettingsContainer.transmitMode = this.transmitMode;
+            SettingsContainer.telemetryRate = this.telemetryRate;
+            SettingsContainer.latencyProbe = this.latencyProbe;
+            SettingsContainer.latencyCompensation = this.latencyCompensation;
+            SettingsContainer.predictionHorizon = this.predictionHorizon;
 
             // Save settings to file
             SettingsHandler.saveSettings(HomeActivity.settingsFile, this);
@@ -34,16 +34,66 @@ import org.opencv.android.CameraBridgeViewBase;
  * This class stores application settings
  */
 public class SettingsContainer {
+    public final static int FRAME_SOURCE_CAMERA_VIEW = 0;
+    public final static int FRAME_SOURCE_CAMERA2 = 1;
+    public final static int SEGMENTATION_HSV = 0;
+    public final static int SEGMENTATION_LUT = 1;
+    public final static int SEGMENTATION_YUV = 2;
+    public final static int PROCESSING_SINGLE_THREAD = 0;
+    public final static int PROCESSING_PIPELINE = 1;
+    public final static int BLOB_CONTOURS = 0;
+    public final static int BLOB_COMPONENTS = 1;
+    public final static int BALL_CENTER_CIRCLE = 0;
+    public final static int BALL_CENTER_MOMENTS = 1;
+    public final static int BALL_DETECTOR_WINDOW = 0;
+    public final static int BALL_DETECTOR_PYRAMID = 1;
+    public final static int BALL_DETECTOR_CAMSHIFT = 2;
+    public final static int PACKET_POSITION = 0;
+    public final static int PACKET_VELOCITY = 1;
+    public final static int PROTOCOL_V1 = 0;
+    public final static int PROTOCOL_V2 = 1;
+    public final static int TRANSMIT_ON_FRAME = 0;
+    public final static int TRANSMIT_50_HZ = 1;
+    public final static int TRANSMIT_100_HZ = 2;
+    // Packet rate (Hz) of each transmit mode (0 - one packet per processed frame)
+    public final static int[] TRANSMIT_RATES = { 0, 50, 100 };
+    public final static int TELEMETRY_OFF = 0;
+    public final static int TELEMETRY_10_HZ = 1;
+    public final static int TELEMETRY_25_HZ = 2;
+    public final static int TELEMETRY_50_HZ = 3;
+    // Controller loop cycles (250 Hz) per telemetry packet of each telemetry rate (0 - off)
+    public final static int[] TELEMETRY_DECIMATIONS = { 0, 25, 10, 5 };
+
     public static boolean settingsLoaded = false;
     public static int cameraID = CameraBridgeViewBase.CAMERA_ID_ANY;
+    public static int frameSource = FRAME_SOURCE_CAMERA_VIEW;
     public static int tableColorLower = 0xff1e3319;
     public static int tableColorUpper = 0xff00ffd5;
     public static int ballColorLower = 0xff7f7f7f;
     public static int ballColorUpper = 0xffffb2b2;
+    public static int segmentationMode = SEGMENTATION_HSV;
+    public static int segmentationBands = 1;
+    public static int blobEngine = BLOB_COMPONENTS;
+    public static int ballCenterMode = BALL_CENTER_MOMENTS;
+    public static int ballDetectorType = BALL_DETECTOR_WINDOW;
+    public static boolean headlessMode = false;
+    public static int processingMode = PROCESSING_SINGLE_THREAD;
+    public static int pipelineMaxQueued = 1;
+    public static boolean resolutionGovernor = true;
+    public static boolean nativeKernel = true;
     public static int rotationSpeed = 4;
     public static int rotationRadius = 150;
     public static int jumpSpeed = 80;
     public static int baudRate = 57600;
     public static byte suffix1 = (byte) 0xEE;
     public static byte suffix2 = (byte) 0xEF;
+    // v1 by default: the app can't detect the firmware version, and boards with
+    // the old firmware only parse v1 packets
+    public static int protocol = PROTOCOL_V1;
+    public static int packetFormat = PACKET_VELOCITY;
+    public static int transmitMode = TRANSMIT_ON_FRAME;
+    public static int telemetryRate = TELEMETRY_OFF;
+    public static boolean latencyProbe = false;
+    public static boolean latencyCompensation = true;
+    public static int predictionHorizon = 10;
 }
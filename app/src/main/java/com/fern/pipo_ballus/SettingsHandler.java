@@ -86,16 +86,52 @@ public class SettingsHandler {
 
             // Parse json object to SettingsContainer variables
             SettingsContainer.cameraID = jsonObject.getInt("camera_id");
+            SettingsContainer.frameSource = jsonObject.optInt("frame_source",
+                    SettingsContainer.frameSource);
             SettingsContainer.tableColorLower = jsonObject.getInt("table_color_lower");
             SettingsContainer.tableColorUpper = jsonObject.getInt("table_color_upper");
             SettingsContainer.ballColorLower = jsonObject.getInt("ball_color_lower");
             SettingsContainer.ballColorUpper = jsonObject.getInt("ball_color_upper");
+            SettingsContainer.segmentationMode = jsonObject.optInt("segmentation_mode",
+                    SettingsContainer.segmentationMode);
+            SettingsContainer.segmentationBands = jsonObject.optInt("segmentation_bands",
+                    SettingsContainer.segmentationBands);
+            SettingsContainer.blobEngine = jsonObject.optInt("blob_engine",
+                    SettingsContainer.blobEngine);
+            SettingsContainer.ballCenterMode = jsonObject.optInt("ball_center_mode",
+                    SettingsContainer.ballCenterMode);
+            SettingsContainer.ballDetectorType = jsonObject.optInt("ball_search_mode",
+                    SettingsContainer.ballDetectorType);
+            SettingsContainer.headlessMode = jsonObject.optBoolean("headless_mode",
+                    SettingsContainer.headlessMode);
+            SettingsContainer.processingMode = jsonObject.optInt("processing_mode",
+                    SettingsContainer.processingMode);
+            SettingsContainer.pipelineMaxQueued = jsonObject.optInt("pipeline_max_queued",
+                    SettingsContainer.pipelineMaxQueued);
+            SettingsContainer.resolutionGovernor = jsonObject.optBoolean("resolution_governor",
+                    SettingsContainer.resolutionGovernor);
+            SettingsContainer.nativeKernel = jsonObject.optBoolean("native_kernel",
+                    SettingsContainer.nativeKernel);
             SettingsContainer.rotationSpeed = jsonObject.getInt("rotation_speed");
             SettingsContainer.rotationRadius = jsonObject.getInt("rotation_radius");
             SettingsContainer.jumpSpeed = jsonObject.getInt("jump_speed");
             SettingsContainer.baudRate = jsonObject.getInt("baud_rate");
             SettingsContainer.suffix1 = (byte)(jsonObject.getInt("suffix_1"));
             SettingsContainer.suffix2 = (byte)(jsonObject.getInt("suffix_2"));
+            SettingsContainer.protocol = jsonObject.optInt("protocol",
+                    SettingsContainer.protocol);
+            SettingsContainer.packetFormat = jsonObject.optInt("packet_format",
+                    SettingsContainer.packetFormat);
+            SettingsContainer.transmitMode = jsonObject.optInt("transmit_mode",
+                    SettingsContainer.transmitMode);
+            SettingsContainer.telemetryRate = jsonObject.optInt("telemetry_rate",
+                    SettingsContainer.telemetryRate);
+            SettingsContainer.latencyProbe = jsonObject.optBoolean("latency_probe",
+                    SettingsContainer.latencyProbe);
+            SettingsContainer.latencyCompensation = jsonObject.optBoolean(
+                    "latency_compensation", SettingsContainer.latencyCompensation);
+            SettingsContainer.predictionHorizon = jsonObject.optInt("prediction_horizon",
+                    SettingsContainer.predictionHorizon);
 
         } catch (Exception e) {
             // Show error message
@@ -129,16 +165,34 @@ public class SettingsHandler {
             // Create new JSONObject
             JSONObject jsonObject = new JSONObject();
             jsonObject.put("camera_id", SettingsContainer.cameraID);
+            jsonObject.put("frame_source", SettingsContainer.frameSource);
             jsonObject.put("table_color_lower", SettingsContainer.tableColorLower);
             jsonObject.put("table_color_upper", SettingsContainer.tableColorUpper);
             jsonObject.put("ball_color_lower", SettingsContainer.ballColorLower);
             jsonObject.put("ball_color_upper", SettingsContainer.ballColorUpper);
+            jsonObject.put("segmentation_mode", SettingsContainer.segmentationMode);
+            jsonObject.put("segmentation_bands", SettingsContainer.segmentationBands);
+            jsonObject.put("blob_engine", SettingsContainer.blobEngine);
+            jsonObject.put("ball_center_mode", SettingsContainer.ballCenterMode);
+            jsonObject.put("ball_search_mode", SettingsContainer.ballDetectorType);
+            jsonObject.put("headless_mode", SettingsContainer.headlessMode);
+            jsonObject.put("processing_mode", SettingsContainer.processingMode);
+            jsonObject.put("pipeline_max_queued", SettingsContainer.pipelineMaxQueued);
+            jsonObject.put("resolution_governor", SettingsContainer.resolutionGovernor);
+            jsonObject.put("native_kernel", SettingsContainer.nativeKernel);
             jsonObject.put("rotation_speed", SettingsContainer.rotationSpeed);
             jsonObject.put("rotation_radius", SettingsContainer.rotationRadius);
             jsonObject.put("jump_speed", SettingsContainer.jumpSpeed);
             jsonObject.put("baud_rate", SettingsContainer.baudRate);
             jsonObject.put("suffix_1", SettingsContainer.suffix1 & 0xFF);
             jsonObject.put("suffix_2", SettingsContainer.suffix2 & 0xFF);
+            jsonObject.put("protocol", SettingsContainer.protocol);
+            jsonObject.put("packet_format", SettingsContainer.packetFormat);
+            jsonObject.put("transmit_mode", SettingsContainer.transmitMode);
+            jsonObject.put("telemetry_rate", SettingsContainer.telemetryRate);
+            jsonObject.put("latency_probe", SettingsContainer.latencyProbe);
+            jsonObject.put("latency_compensation", SettingsContainer.latencyCompensation);
+            jsonObject.put("prediction_horizon", SettingsContainer.predictionHorizon);
 
             // Write JSONObject to file
             FileWriter fileWriter = new FileWriter(settingsFile);
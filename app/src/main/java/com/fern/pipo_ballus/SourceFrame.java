@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class is a camera frame from the FrameSource. Y and chroma planes are wrapped
+ * without copying (the chroma is copied only if the planes are not semi-planar),
+ * RGBA frame is converted only if rgba() is called.
+ * Plane headers are cached for the last HEADER_SETS buffers, so a source that reuses
+ * its buffers (FileFrameSource) does not create Mat objects for each frame.
+ * Camera2 provides new ByteBuffer objects for each image, so its headers are still created
+ */
+public class SourceFrame implements CameraBridgeViewBase.CvCameraViewFrame {
+    private final static int HEADER_SETS = 4;
+
+    private final Mat frameRGBA;
+    private final PlaneHeaders[] planeHeaders;
+    private int planeHeadersNext;
+    private Mat gray, chroma;
+    private ByteBuffer chromaBuffer;
+    private int width, height;
+    private boolean chromaVU, converted;
+    private long timestamp;
+
+    SourceFrame() {
+        this.frameRGBA = new Mat();
+        this.planeHeaders = new PlaneHeaders[HEADER_SETS];
+        for (int i = 0; i < HEADER_SETS; i++)
+            this.planeHeaders[i] = new PlaneHeaders();
+        this.chromaBuffer = ByteBuffer.allocateDirect(0);
+    }
+
+    /**
+     * Sets the planes of the new frame
+     * @param bufferY Y plane
+     * @param bufferChroma interleaved chroma plane with half resolution
+     * @param rowStride row stride of both planes (in bytes)
+     * @param chromaVU true if chroma is in V, U order (NV21) or false if in U, V order (NV12)
+     * @param width frame width
+     * @param height frame height
+     * @param timestamp capture time (System.nanoTime())
+     */
+    public void setPlanes(ByteBuffer bufferY, ByteBuffer bufferChroma, int rowStride,
+                          boolean chromaVU, int width, int height, long timestamp) {
+        // Reuse headers of the same buffers or wrap the new ones instead of the oldest headers
+        PlaneHeaders headers = null;
+        for (PlaneHeaders cachedHeaders : planeHeaders) {
+            if (cachedHeaders.wraps(bufferY, bufferChroma, rowStride, width, height)) {
+                headers = cachedHeaders;
+                break;
+            }
+        }
+        if (headers == null) {
+            headers = planeHeaders[planeHeadersNext];
+            planeHeadersNext = (planeHeadersNext + 1) % HEADER_SETS;
+            headers.wrap(bufferY, bufferChroma, rowStride, width, height);
+        }
+        gray = headers.gray;
+        chroma = headers.chroma;
+
+        this.chromaVU = chromaVU;
+        this.width = width;
+        this.height = height;
+        this.timestamp = timestamp;
+        this.converted = false;
+    }
+
+    /**
+     * Copies planar (or differently strided) U and V planes to the interleaved
+     * chroma buffer in V, U order, so the frame can be set by setPlanes()
+     * @param bufferU U plane
+     * @param bufferV V plane
+     * @param chromaRowStride row stride of the U and V planes
+     * @param chromaPixelStride pixel stride of the U and V planes
+     * @param rowStride row stride of the output buffer (the same as Y plane)
+     * @param width frame width
+     * @param height frame height
+     * @return interleaved chroma buffer (valid until the next call)
+     */
+    public ByteBuffer interleaveChroma(ByteBuffer bufferU, ByteBuffer bufferV,
+                                       int chromaRowStride, int chromaPixelStride,
+                                       int rowStride, int width, int height) {
+        int size = rowStride * height / 2;
+        if (chromaBuffer.capacity() < size)
+            chromaBuffer = ByteBuffer.allocateDirect(size);
+
+        for (int row = 0; row < height / 2; row++) {
+            int input = row * chromaRowStride;
+            int output = row * rowStride;
+            for (int col = 0; col < width / 2; col++) {
+                chromaBuffer.put(output++, bufferV.get(input));
+                chromaBuffer.put(output++, bufferU.get(input));
+                input += chromaPixelStride;
+            }
+        }
+        return chromaBuffer;
+    }
+
+    /**
+     * @return RGBA frame (converted on the first call)
+     */
+    @Override
+    public Mat rgba() {
+        if (!converted) {
+            Imgproc.cvtColorTwoPlane(gray, chroma, frameRGBA, chromaVU
+                    ? Imgproc.COLOR_YUV2RGBA_NV21 : Imgproc.COLOR_YUV2RGBA_NV12);
+            converted = true;
+        }
+        return frameRGBA;
+    }
+
+    /**
+     * @return Y plane (without copying)
+     */
+    @Override
+    public Mat gray() {
+        return gray;
+    }
+
+    /**
+     * @return interleaved chroma plane with half resolution (CV_8UC2, without copying)
+     */
+    public Mat chroma() {
+        return chroma;
+    }
+
+    /**
+     * @return true if chroma is in V, U order (NV21) or false if in U, V order (NV12)
+     */
+    public boolean isChromaVU() {
+        return chromaVU;
+    }
+
+    /**
+     * @return frame width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return frame height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return capture time (System.nanoTime())
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * This class keeps Y and chroma plane headers of one pair of buffers
+     */
+    private static class PlaneHeaders {
+        private ByteBuffer bufferY, bufferChroma;
+        private int rowStride, width, height;
+        private Mat planeY, planeChroma, gray, chroma;
+
+        /**
+         * @return true if the headers wrap exactly these buffers with the same geometry
+         */
+        private boolean wraps(ByteBuffer bufferY, ByteBuffer bufferChroma, int rowStride,
+                              int width, int height) {
+            return this.bufferY == bufferY && this.bufferChroma == bufferChroma
+                    && this.rowStride == rowStride && this.width == width && this.height == height;
+        }
+
+        /**
+         * Releases the old headers and wraps the new buffers (with padding at the end of the rows)
+         */
+        private void wrap(ByteBuffer bufferY, ByteBuffer bufferChroma, int rowStride,
+                          int width, int height) {
+            if (planeY != null) {
+                gray.release();
+                chroma.release();
+                planeY.release();
+                planeChroma.release();
+            }
+            planeY = new Mat(height, rowStride, CvType.CV_8UC1, bufferY);
+            planeChroma = new Mat(height / 2, rowStride / 2, CvType.CV_8UC2, bufferChroma);
+            gray = planeY.colRange(0, width);
+            chroma = planeChroma.colRange(0, width / 2);
+
+            this.bufferY = bufferY;
+            this.bufferChroma = bufferChroma;
+            this.rowStride = rowStride;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+package com.fern.pipo_ballus;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+
+/**
+ * This interface provides table detection for OpenCVHandler class.
+ * Implementations can keep the found geometry between frames (see needsDetection())
+ */
+public interface TableDetector {
+    int TABLE_FOUND = 0;
+    int TABLE_NOT_FOUND = 1;
+    int TABLE_TOO_SMALL = 2;
+
+    /**
+     * Checks if the geometry found on the previous frames can be reused for the current frame
+     * @param inputRGBA input RGBA frame
+     * @param colorSegmenter segmenter for the check
+     * @return true if detect() must be called with the full frame table mask
+     */
+    boolean needsDetection(Mat inputRGBA, ColorSegmenter colorSegmenter);
+
+    /**
+     * Checks if the next frames will probably reuse the geometry (without side effects,
+     * can be called from the segmentation stage thread)
+     * @return true if full frame masks are probably not needed
+     */
+    boolean isLocked();
+
+    /**
+     * Finds the table on the full frame table mask
+     * @param maskTable mask of the table color
+     * @return TABLE_FOUND, TABLE_NOT_FOUND or TABLE_TOO_SMALL
+     */
+    int detect(Mat maskTable);
+
+    /**
+     * Forces full detection on the next frame
+     */
+    void reset();
+
+    /**
+     * Sets processing scale of the frame and forces full detection
+     * @param scale processing scale (1 - full camera frame)
+     */
+    void setScale(double scale);
+
+    /**
+     * @return table's ellipse
+     */
+    RotatedRect getRotatedRect();
+
+    /**
+     * @return table's bounding rectangle
+     */
+    Rect getBoundingRect();
+
+    /**
+     * @return table's area (pixels)
+     */
+    int getArea();
+
+    /**
+     * @return mask of the table's ellipse (full frame)
+     */
+    Mat getMask();
+
+    /**
+     * @return confidence of the found table (0 - 1)
+     */
+    double getConfidence();
+
+    /**
+     * @return time spent on the table on the last frame (ms)
+     */
+    double getTime();
+
+    /**
+     * Releases native memory of the detector (it must not be used after that)
+     */
+    void release();
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class finds the table on the table mask and caches its geometry.
+ * The table does not move relative to the camera, so once the detected ellipse is stable,
+ * it is locked and reused. Full detection runs again only every REVALIDATE_FRAMES frames
+ * or if the drift check (classifying the pixels on a ring inside the table's ellipse) fails.
+ * This is the default TableDetector (HSV / lookup table segmentation and contours or blobs)
+ */
+public class TableTracker implements TableDetector {
+    private final static int MIN_TABLE_AREA = 1000;
+    private final static int STABLE_FRAMES = 5;
+    private final static int REVALIDATE_FRAMES = 30;
+    private final static double MAX_CENTER_SHIFT = 3;
+    private final static double MAX_SIZE_CHANGE = 4;
+    private final static double MAX_ANGLE_CHANGE = 3;
+    private final static int RING_POINTS = 32;
+    private final static double RING_SCALE = 0.9;
+    private final static double RING_MIN_TABLE_PART = 0.75;
+
+    private final BlobExtractor blobExtractor;
+    private final List<MatOfPoint> contours;
+    private final Mat hierarchy;
+    private final MatOfPoint2f contour2f;
+    private final Mat maskTableCircle;
+    private final Scalar singleWhiteColor;
+    private final int[] ringX, ringY;
+    private final Mat ringPixels, ringTable, ringBall;
+    private final byte[] ringBuffer;
+    private byte[] pixelBuffer;
+
+    private final RotatedRect tableRotatedRect, blobRotatedRect;
+    private final Rect tableBoundingRect, blobBoundingRect;
+    private int tableArea, minTableArea;
+    private boolean tableFound;
+    // Read by the segmentation stage thread in pipeline mode
+    private volatile boolean locked;
+    private int stableFrames, lockedFrames;
+    private double confidence, time;
+
+    /**
+     * @param connectedComponents true to find the table with BlobExtractor instead of findContours
+     */
+    TableTracker(boolean connectedComponents) {
+        this.blobExtractor = connectedComponents ? new BlobExtractor() : null;
+        this.contours = new ArrayList<>();
+        this.hierarchy = new Mat();
+        this.contour2f = new MatOfPoint2f();
+        this.maskTableCircle = new Mat();
+        this.singleWhiteColor = new Scalar(255);
+        this.ringX = new int[RING_POINTS];
+        this.ringY = new int[RING_POINTS];
+        this.ringPixels = new Mat();
+        this.ringTable = new Mat();
+        this.ringBall = new Mat();
+        this.pixelBuffer = new byte[4];
+        this.tableRotatedRect = new RotatedRect();
+        this.blobRotatedRect = new RotatedRect();
+        this.tableBoundingRect = new Rect();
+        this.blobBoundingRect = new Rect();
+        this.minTableArea = minArea(1);
+        this.ringBuffer = new byte[RING_POINTS];
+    }
+
+    /**
+     * Checks if the locked geometry can be reused for the current frame
+     * @param inputRGBA input RGBA frame
+     * @param colorSegmenter segmenter for the drift check
+     * @return true if full detection (on the full frame table mask) is needed
+     */
+    @Override
+    public boolean needsDetection(Mat inputRGBA, ColorSegmenter colorSegmenter) {
+        long timeStart = System.nanoTime();
+
+        // Reuse locked geometry
+        if (locked && inputRGBA.rows() == maskTableCircle.rows()
+                && inputRGBA.cols() == maskTableCircle.cols()
+                && lockedFrames < REVALIDATE_FRAMES && checkDrift(inputRGBA, colorSegmenter)) {
+            lockedFrames++;
+            time = (System.nanoTime() - timeStart) / 1e6;
+            return false;
+        }
+
+        // Unlock
+        locked = false;
+        lockedFrames = 0;
+        time = (System.nanoTime() - timeStart) / 1e6;
+        return true;
+    }
+
+    /**
+     * Forces full detection on the next frame
+     */
+    @Override
+    public void reset() {
+        locked = false;
+        tableFound = false;
+        stableFrames = 0;
+    }
+
+    /**
+     * Sets processing scale of the frame (minimum table area is scaled) and forces full detection
+     * @param scale processing scale (1 - full camera frame)
+     */
+    @Override
+    public void setScale(double scale) {
+        minTableArea = minArea(scale);
+        reset();
+    }
+
+    /**
+     * MIN_TABLE_AREA is a contour area. Blob area is a pixel count that is larger
+     * for the same table, so the threshold is converted for connected components
+     * @param scale processing scale (1 - full camera frame)
+     * @return minimum table area in the units of the current detection mode
+     */
+    private int minArea(double scale) {
+        int contourArea = (int) (MIN_TABLE_AREA * scale * scale);
+        return blobExtractor != null ? BlobExtractor.toPixelArea(contourArea) : contourArea;
+    }
+
+    /**
+     * @return true if the table geometry is locked (frames that revalidate it
+     * still need full detection)
+     */
+    @Override
+    public boolean isLocked() {
+        return locked;
+    }
+
+    /**
+     * @return table's ellipse (reduced to remove border)
+     */
+    @Override
+    public RotatedRect getRotatedRect() {
+        return tableRotatedRect;
+    }
+
+    /**
+     * @return table's bounding rectangle
+     */
+    @Override
+    public Rect getBoundingRect() {
+        return tableBoundingRect;
+    }
+
+    /**
+     * @return table's contour area (number of pixels in connected components mode)
+     */
+    @Override
+    public int getArea() {
+        return tableArea;
+    }
+
+    /**
+     * @return filled ellipse mask of the table (CV_8UC1)
+     */
+    @Override
+    public Mat getMask() {
+        return maskTableCircle;
+    }
+
+    /**
+     * @return part of the detected ellipse covered by the table
+     * or part of the drift check points with the table color (if geometry is locked)
+     */
+    @Override
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * @return time of needsDetection() and detect() on the last frame (ms)
+     */
+    @Override
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * Releases masks and contours
+     */
+    @Override
+    public void release() {
+        releaseContours();
+        hierarchy.release();
+        contour2f.release();
+        maskTableCircle.release();
+        ringPixels.release();
+        ringTable.release();
+        ringBall.release();
+        if (blobExtractor != null)
+            blobExtractor.release();
+    }
+
+    /**
+     * Finds the table on the table mask and measures the detection time
+     * @param maskTable mask of the table color
+     * @return TABLE_FOUND, TABLE_NOT_FOUND or TABLE_TOO_SMALL
+     */
+    @Override
+    public int detect(Mat maskTable) {
+        long timeStart = System.nanoTime();
+        confidence = 0;
+        int status = detectTable(maskTable);
+        time += (System.nanoTime() - timeStart) / 1e6;
+        return status;
+    }
+
+    /**
+     * Finds the largest contour on the table mask and fits an ellipse into it
+     * @param maskTable mask of the table color
+     * @return TABLE_FOUND, TABLE_NOT_FOUND or TABLE_TOO_SMALL
+     */
+    private int detectTable(Mat maskTable) {
+        // Find table with connected components
+        if (blobExtractor != null)
+            return detectBlob(maskTable);
+
+        // Find table contours
+        releaseContours();
+        Imgproc.findContours(maskTable, contours, hierarchy, Imgproc.RETR_EXTERNAL,
+                Imgproc.CHAIN_APPROX_SIMPLE);
+
+        // Check if there is at least one contour
+        if (contours.size() == 0) {
+            reset();
+            return TABLE_NOT_FOUND;
+        }
+
+        // Find largest contour (table)
+        int maxContourArea = 0;
+        int tableContourIndex = 0;
+        for (int i = 0; i < contours.size(); i++) {
+            int contourArea = (int) Imgproc.contourArea(contours.get(i));
+            if (contourArea > maxContourArea) {
+                maxContourArea = contourArea;
+                tableContourIndex = i;
+            }
+        }
+
+        // Check table's area
+        if (maxContourArea <= minTableArea) {
+            reset();
+            return TABLE_TOO_SMALL;
+        }
+
+        // Extract table's bounding rectangle and ellipse
+        Rect boundingRect = Imgproc.boundingRect(contours.get(tableContourIndex));
+        contours.get(tableContourIndex).convertTo(contour2f, CvType.CV_32F);
+        RotatedRect rotatedRect = Imgproc.fitEllipse(contour2f);
+
+        return update(maskTable, rotatedRect, boundingRect, maxContourArea);
+    }
+
+    /**
+     * Finds the largest blob on the table mask and calculates an ellipse with the same moments
+     * @param maskTable mask of the table color
+     * @return TABLE_FOUND, TABLE_NOT_FOUND or TABLE_TOO_SMALL
+     */
+    private int detectBlob(Mat maskTable) {
+        // Find largest blob (table)
+        if (blobExtractor.extract(maskTable) == 0) {
+            reset();
+            return TABLE_NOT_FOUND;
+        }
+        int tableLabel = blobExtractor.findLargest(0, Integer.MAX_VALUE);
+
+        // Check table's area
+        int area = blobExtractor.getArea(tableLabel);
+        if (area <= minTableArea) {
+            reset();
+            return TABLE_TOO_SMALL;
+        }
+
+        // Extract table's bounding rectangle and ellipse
+        blobExtractor.getBoundingRect(tableLabel, blobBoundingRect);
+        blobExtractor.getEllipse(tableLabel, blobRotatedRect);
+
+        return update(maskTable, blobRotatedRect, blobBoundingRect, area);
+    }
+
+    /**
+     * Updates table geometry with the new detection result.
+     * Geometry is copied, so the detected rectangles can be reused on the next frame
+     * @param maskTable mask of the table color
+     * @param rotatedRect detected ellipse
+     * @param boundingRect detected bounding rectangle
+     * @param area detected area
+     * @return TABLE_FOUND
+     */
+    private int update(Mat maskTable, RotatedRect rotatedRect, Rect boundingRect, int area) {
+        // Calculate part of the ellipse covered by the table
+        confidence = Math.min(area / (Math.PI / 4
+                * rotatedRect.size.width * rotatedRect.size.height), 1);
+
+        // Reduce size of the table's ellipse to remove border
+        rotatedRect.size.width -= 10;
+        rotatedRect.size.height -= 10;
+
+        // Keep previous geometry if the table has not moved
+        if (tableFound && maskTable.rows() == maskTableCircle.rows()
+                && maskTable.cols() == maskTableCircle.cols()
+                && isSameEllipse(rotatedRect, tableRotatedRect)) {
+            if (stableFrames < STABLE_FRAMES)
+                stableFrames++;
+            else
+                locked = true;
+        } else {
+            stableFrames = 0;
+            copy(rotatedRect, tableRotatedRect);
+            copy(boundingRect, tableBoundingRect);
+
+            // Create circle mask of the table
+            maskTableCircle.create(maskTable.rows(), maskTable.cols(), CvType.CV_8UC1);
+            maskTableCircle.setTo(Scalar.all(0));
+            Imgproc.ellipse(maskTableCircle, tableRotatedRect, singleWhiteColor, -1);
+
+            // Calculate drift check points
+            calculateRing();
+        }
+        tableArea = area;
+        tableFound = true;
+
+        return TABLE_FOUND;
+    }
+
+    /**
+     * Checks if the table is still under the locked ellipse
+     * @param inputRGBA input RGBA frame (packed YUV frame in YUV segmentation mode)
+     * @param colorSegmenter segmenter to classify ring pixels
+     * @return true if enough ring pixels have the table color
+     */
+    private boolean checkDrift(Mat inputRGBA, ColorSegmenter colorSegmenter) {
+        // Collect ring pixels (RGBA or packed YUV, the same format as the frame)
+        if (pixelBuffer.length != inputRGBA.channels())
+            pixelBuffer = new byte[inputRGBA.channels()];
+        ringPixels.create(1, RING_POINTS, inputRGBA.type());
+        for (int i = 0; i < RING_POINTS; i++) {
+            inputRGBA.get(ringY[i], ringX[i], pixelBuffer);
+            ringPixels.put(0, i, pixelBuffer);
+        }
+
+        // Classify them
+        colorSegmenter.segment(ringPixels, ringTable, ringBall);
+        ringTable.get(0, 0, ringBuffer);
+
+        int tablePoints = 0;
+        for (int i = 0; i < RING_POINTS; i++)
+            if (ringBuffer[i] != 0)
+                tablePoints++;
+        confidence = (double) tablePoints / RING_POINTS;
+        return tablePoints >= RING_POINTS * RING_MIN_TABLE_PART;
+    }
+
+    /**
+     * Calculates drift check points on a ring inside the table's ellipse
+     */
+    private void calculateRing() {
+        double angle = Math.toRadians(tableRotatedRect.angle);
+        double a = tableRotatedRect.size.width / 2 * RING_SCALE;
+        double b = tableRotatedRect.size.height / 2 * RING_SCALE;
+        for (int i = 0; i < RING_POINTS; i++) {
+            double t = 2 * Math.PI * i / RING_POINTS;
+            double x = a * Math.cos(t);
+            double y = b * Math.sin(t);
+            ringX[i] = clip((int) (tableRotatedRect.center.x
+                    + x * Math.cos(angle) - y * Math.sin(angle)), maskTableCircle.cols() - 1);
+            ringY[i] = clip((int) (tableRotatedRect.center.y
+                    + x * Math.sin(angle) + y * Math.cos(angle)), maskTableCircle.rows() - 1);
+        }
+    }
+
+    /**
+     * Releases contours of the previous detection
+     */
+    private void releaseContours() {
+        for (MatOfPoint contour : contours)
+            contour.release();
+        contours.clear();
+    }
+
+    /**
+     * Compares two ellipses. The angle is compared modulo 180 degrees and only
+     * if the ellipse is not a circle (the angle of a circle is not defined)
+     * @param a new ellipse
+     * @param b previous ellipse
+     * @return true if the center, size and angle have not changed
+     */
+    private static boolean isSameEllipse(RotatedRect a, RotatedRect b) {
+        double angleChange = Math.abs(a.angle - b.angle) % 180;
+        return Math.abs(a.center.x - b.center.x) <= MAX_CENTER_SHIFT
+                && Math.abs(a.center.y - b.center.y) <= MAX_CENTER_SHIFT
+                && Math.abs(a.size.width - b.size.width) <= MAX_SIZE_CHANGE
+                && Math.abs(a.size.height - b.size.height) <= MAX_SIZE_CHANGE
+                && (Math.abs(b.size.width - b.size.height) <= MAX_SIZE_CHANGE
+                || Math.min(angleChange, 180 - angleChange) <= MAX_ANGLE_CHANGE);
+    }
+
+    private static void copy(RotatedRect source, RotatedRect destination) {
+        destination.center.x = source.center.x;
+        destination.center.y = source.center.y;
+        destination.size.width = source.size.width;
+        destination.size.height = source.size.height;
+        destination.angle = source.angle;
+    }
+
+    private static void copy(Rect source, Rect destination) {
+        destination.x = source.x;
+        destination.y = source.y;
+        destination.width = source.width;
+        destination.height = source.height;
+    }
+
+    private static int clip(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
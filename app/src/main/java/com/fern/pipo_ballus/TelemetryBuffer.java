@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class stores the latest telemetry samples of the table controller in preallocated
+ * primitive arrays (ring buffer). Samples are added by one thread (TelemetryReader)
+ * and can be read from any thread without locks: readers check that the sample
+ * was not overwritten while it was copied
+ */
+public class TelemetryBuffer {
+    // Number of stored samples (power of two)
+    public final static int CAPACITY = 1024;
+
+    private final static int MASK = CAPACITY - 1;
+
+    private final int[] values;
+    private final long[] timesReceived, timesController;
+
+    // Number of added samples (written only by the writer thread)
+    private final AtomicLong written;
+
+    // Counters of the lost telemetry packets (writer thread only)
+    private int sequenceLast = -1;
+    private long lostPackets;
+
+    TelemetryBuffer() {
+        this.values = new int[CAPACITY * TelemetryDecoder.VALUES_LENGTH];
+        this.timesReceived = new long[CAPACITY];
+        this.timesController = new long[CAPACITY];
+        this.written = new AtomicLong();
+    }
+
+    /**
+     * Adds the decoded sample (writer thread only)
+     * @param telemetryDecoder decoder with the new sample
+     * @param timeReceived receive time (System.nanoTime())
+     */
+    public void add(TelemetryDecoder telemetryDecoder, long timeReceived) {
+        // Count lost packets by the sequence number
+        int sequence = telemetryDecoder.getSequence();
+        if (sequenceLast >= 0)
+            lostPackets += (sequence - sequenceLast - 1) & 0xFF;
+        sequenceLast = sequence;
+
+        long index = written.get();
+        int slot = (int) index & MASK;
+        System.arraycopy(telemetryDecoder.getValues(), 0, values,
+                slot * TelemetryDecoder.VALUES_LENGTH, TelemetryDecoder.VALUES_LENGTH);
+        timesReceived[slot] = timeReceived;
+        timesController[slot] = telemetryDecoder.getTimestamp();
+
+        // Publish the sample to the readers
+        written.lazySet(index + 1);
+    }
+
+    /**
+     * @return number of added samples (index of the next sample)
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Copies the sample
+     * @param index index of the sample (getWritten() - 1 for the latest one)
+     * @param output output array (TelemetryDecoder.VALUES_LENGTH values)
+     * @return receive time of the sample (System.nanoTime())
+     * or 0 if the sample is not written yet or was overwritten
+     */
+    public long get(long index, int[] output) {
+        if (index < 0 || index >= written.get())
+            return 0;
+        int slot = (int) index & MASK;
+        System.arraycopy(values, slot * TelemetryDecoder.VALUES_LENGTH, output, 0,
+                TelemetryDecoder.VALUES_LENGTH);
+        long timeReceived = timesReceived[slot];
+
+        // Check that the writer has not reused the slot while copying
+        if (written.get() - index > CAPACITY - 1)
+            return 0;
+        return timeReceived;
+    }
+
+    /**
+     * @param index index of the sample
+     * @return controller time of the sample (us, lower 32 bits) or -1 if it was overwritten
+     */
+    public long getControllerTime(long index) {
+        long time = timesController[(int) index & MASK];
+        return written.get() - index > CAPACITY - 1 ? -1 : time;
+    }
+
+    /**
+     * @return number of the lost telemetry packets (approximate if called from another thread)
+     */
+    public long getLostPackets() {
+        return lostPackets;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+/**
+ * This class decodes the telemetry and pong packets of the table controller
+ * (protocol v2 COBS frames, see SerialProtocol)
+ */
+public class TelemetryDecoder {
+    // Indexes of the decoded values
+    public final static int VALUE_SERVO_P = 0;
+    public final static int VALUE_SERVO_Q = 1;
+    public final static int VALUE_SERVO_R = 2;
+    public final static int VALUE_PID_OUTPUT_X = 3;
+    public final static int VALUE_PID_OUTPUT_Y = 4;
+    public final static int VALUE_PID_OUTPUT_Z = 5;
+    public final static int VALUE_WATCHDOG = 6;
+    public final static int VALUE_LOOP_TIME_MAX = 7;
+    public final static int VALUE_LOOP_OVERRUNS = 8;
+    public final static int VALUE_SATURATED_CYCLES = 9;
+    public final static int VALUE_LOST_PACKETS = 10;
+    public final static int VALUES_LENGTH = 11;
+
+    // Indexes of the decoded pong times (us, lower 32 bits)
+    public final static int PONG_PING_SENT = 0;
+    public final static int PONG_PING_RECEIVED = 1;
+    public final static int PONG_SENT = 2;
+    public final static int PONG_POSITION_CAPTURED = 3;
+    public final static int PONG_POSITION_APPLIED = 4;
+    public final static int PONG_LENGTH = 5;
+
+    private final byte[] buffer, packet;
+    private final int[] values;
+    private final long[] pongTimes;
+    private int bufferPosition;
+    private int sequence;
+    private long timestamp;
+
+    TelemetryDecoder() {
+        // Telemetry packet is the longest one
+        this.buffer = new byte[SerialProtocol.TELEMETRY_FRAME_LENGTH];
+        this.packet = new byte[SerialProtocol.TELEMETRY_LENGTH];
+        this.values = new int[VALUES_LENGTH];
+        this.pongTimes = new long[PONG_LENGTH];
+    }
+
+    /**
+     * Parses the next received byte
+     * @param data received byte
+     * @return SerialProtocol.TYPE_TELEMETRY or SerialProtocol.TYPE_PONG if a valid packet
+     * was received with this byte, otherwise 0
+     */
+    public int decode(byte data) {
+        if (data != 0) {
+            // Store frame bytes (the frame is dropped on overflow)
+            if (bufferPosition < buffer.length)
+                buffer[bufferPosition] = data;
+            bufferPosition++;
+            return 0;
+        }
+
+        // Delimiter found
+        int frameLength = bufferPosition;
+        bufferPosition = 0;
+        if (frameLength > buffer.length)
+            return 0;
+        int packetLength = SerialProtocol.cobsDecode(buffer, frameLength, packet);
+
+        // Check length, CRC, version and type
+        int type;
+        if (packetLength == SerialProtocol.TELEMETRY_LENGTH)
+            type = SerialProtocol.TYPE_TELEMETRY;
+        else if (packetLength == SerialProtocol.PONG_LENGTH)
+            type = SerialProtocol.TYPE_PONG;
+        else
+            return 0;
+        int crc = ((packet[packetLength - 2] & 0xFF) << 8) | (packet[packetLength - 1] & 0xFF);
+        if (crc != SerialProtocol.crc16(packet, 0, packetLength - 2)
+                || packet[SerialProtocol.OFFSET_VERSION] != SerialProtocol.VERSION_2
+                || packet[SerialProtocol.OFFSET_TYPE] != type)
+            return 0;
+
+        sequence = packet[SerialProtocol.OFFSET_SEQUENCE] & 0xFF;
+
+        // Pong: 4-byte times starting from the timestamp of the ping
+        if (type == SerialProtocol.TYPE_PONG) {
+            for (int i = 0; i < PONG_LENGTH; i++)
+                pongTimes[i] = getInt(SerialProtocol.OFFSET_TIMESTAMP + i * 4);
+            return type;
+        }
+
+        timestamp = getInt(SerialProtocol.OFFSET_TIMESTAMP);
+        for (int i = 0; i < VALUES_LENGTH; i++) {
+            int index = SerialProtocol.OFFSET_TELEMETRY + i * 2;
+            int value = ((packet[index] & 0xFF) << 8) | (packet[index + 1] & 0xFF);
+
+            // PID outputs are signed
+            values[i] = i >= VALUE_PID_OUTPUT_X && i <= VALUE_PID_OUTPUT_Z ? (short) value : value;
+        }
+        return type;
+    }
+
+    /**
+     * @return values of the last decoded packet (see VALUE_ indexes)
+     */
+    public int[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return sequence number of the last decoded packet (0 - 255, of the ping for pongs)
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return controller time of the last decoded telemetry packet (us, lower 32 bits)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return times of the last decoded pong packet (see PONG_ indexes)
+     */
+    public long[] getPongTimes() {
+        return pongTimes;
+    }
+
+    /**
+     * Reads 4 bytes (big-endian, unsigned) from the decoded packet
+     * @param offset index of the first byte
+     * @return value (0 - 0xFFFFFFFF)
+     */
+    private long getInt(int offset) {
+        long value = 0;
+        for (int i = 0; i < 4; i++)
+            value = (value << 8) | (packet[offset + i] & 0xFF);
+        return value;
+    }
+}
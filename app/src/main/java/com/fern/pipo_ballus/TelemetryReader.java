@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import android.util.Log;
+
+/**
+ * This class reads the serial port in a loop and adds the decoded telemetry packets
+ * of the table controller to TelemetryBuffer and the pong packets to ClockSync
+ */
+public class TelemetryReader implements Runnable {
+    private final static String TAG = TelemetryReader.class.getName();
+
+    // Read timeout (USB only) and waiting time if the device is not opened (ms)
+    private final static int READ_TIMEOUT = 100;
+    private final static int IDLE_WAIT = 100;
+
+    private final SerialHandler serialHandler;
+    private final TelemetryBuffer telemetryBuffer;
+    private final ClockSync clockSync;
+    private final TelemetryDecoder telemetryDecoder;
+    private final byte[] readBuffer;
+
+    private volatile boolean running;
+
+    /**
+     * @param serialHandler SerialHandler with the opened device
+     * @param telemetryBuffer buffer for the decoded telemetry packets or null
+     * @param clockSync clock synchronization for the decoded pong packets or null
+     */
+    TelemetryReader(SerialHandler serialHandler, TelemetryBuffer telemetryBuffer,
+                    ClockSync clockSync) {
+        this.serialHandler = serialHandler;
+        this.telemetryBuffer = telemetryBuffer;
+        this.clockSync = clockSync;
+        this.telemetryDecoder = new TelemetryDecoder();
+        this.readBuffer = new byte[256];
+
+        // Set before the thread starts, so stop() is not lost if it is called first
+        this.running = true;
+    }
+
+    /**
+     * Reads and decodes received bytes until stop() is called
+     * (the reader is not restarted, a new one is created for each thread)
+     */
+    @Override
+    public void run() {
+        while (running) {
+            int length = serialHandler.read(readBuffer, READ_TIMEOUT);
+
+            // Wait for the device
+            if (length < 0) {
+                try {
+                    Thread.sleep(IDLE_WAIT);
+                } catch (InterruptedException e) {
+                    Log.e(TAG, "TelemetryReader interrupted!", e);
+                    running = false;
+                }
+                continue;
+            }
+
+            long timeReceived = System.nanoTime();
+            for (int i = 0; i < length; i++) {
+                int type = telemetryDecoder.decode(readBuffer[i]);
+                if (type == SerialProtocol.TYPE_TELEMETRY && telemetryBuffer != null)
+                    telemetryBuffer.add(telemetryDecoder, timeReceived);
+                else if (type == SerialProtocol.TYPE_PONG && clockSync != null)
+                    clockSync.add(telemetryDecoder.getPongTimes(), timeReceived);
+            }
+        }
+    }
+
+    /**
+     * Stops the reading loop
+     */
+    public void stop() {
+        running = false;
+    }
+}
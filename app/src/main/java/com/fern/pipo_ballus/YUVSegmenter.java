@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * This class calculates the table and ball masks from the camera's YUV frame
+ * using a precompiled lookup table. Each quantized YUV color (6 bits per channel) is converted
+ * to RGB in the same way as the camera's NV21 preview and labeled with the HSV ranges once,
+ * so the frame is segmented without RGBA and HSV conversions.
+ * Full frames are segmented from the camera's Y and half resolution chroma planes directly
+ * (the chroma part of the index is calculated once for each 2x2 block of pixels),
+ * regions are packed YUV (Y, U, V bytes of each pixel) prepared by NV21Converter
+ */
+public class YUVSegmenter implements ColorSegmenter, PlaneSegmenter {
+    private final static String TAG = YUVSegmenter.class.getName();
+
+    private final static int LABEL_TABLE = 1;
+    private final static int LABEL_BALL = 2;
+
+    // Mask values for each label
+    private final static byte[] TABLE_VALUES = { 0, (byte) 255, 0, (byte) 255 };
+    private final static byte[] BALL_VALUES = { 0, 0, (byte) 255, (byte) 255 };
+
+    // Lookup table is compiled only if color ranges were changed
+    private static HSVRange lutTableRange, lutBallRange;
+    private static byte[] compiledLUT;
+
+    private final byte[] lut;
+    private byte[] yuvBuffer, tableBuffer, ballBuffer, chromaBuffer;
+    private int[] chromaIndexes;
+
+    /**
+     * Initializes the segmenter and compiles the lookup table if needed
+     * @param tableRange color range of the table
+     * @param ballRange color range of the ball
+     */
+    YUVSegmenter(HSVRange tableRange, HSVRange ballRange) {
+        this.lut = compile(tableRange, ballRange);
+        this.yuvBuffer = new byte[0];
+        this.tableBuffer = new byte[0];
+        this.ballBuffer = new byte[0];
+        this.chromaBuffer = new byte[0];
+        this.chromaIndexes = new int[0];
+    }
+
+    /**
+     * Calculates masks of the table and ball colors
+     * @param inputYUV packed YUV frame (or its region). Frames with 4 channels are also accepted,
+     *                 the fourth channel is ignored
+     * @param maskTable output table mask (CV_8UC1, 255 inside the table range)
+     * @param maskBall output ball mask (CV_8UC1, 255 inside the ball range)
+     */
+    @Override
+    public void segment(Mat inputYUV, Mat maskTable, Mat maskBall) {
+        int rows = inputYUV.rows();
+        int cols = inputYUV.cols();
+        int channels = inputYUV.channels();
+        int pixels = rows * cols;
+
+        // Grow buffers if the frame (or region) is larger than the previous ones
+        if (yuvBuffer.length < pixels * channels)
+            yuvBuffer = new byte[pixels * channels];
+        growMaskBuffers(pixels);
+
+        // Read YUV frame
+        inputYUV.get(0, 0, yuvBuffer);
+
+        // Label each pixel
+        for (int i = 0, j = 0; i < pixels; i++, j += channels) {
+            int label = lut[((yuvBuffer[j] & 0xFC) << 10)
+                    | ((yuvBuffer[j + 1] & 0xFC) << 4)
+                    | ((yuvBuffer[j + 2] & 0xFC) >> 2)];
+            tableBuffer[i] = TABLE_VALUES[label];
+            ballBuffer[i] = BALL_VALUES[label];
+        }
+
+        // Write masks
+        maskTable.create(rows, cols, CvType.CV_8UC1);
+        maskBall.create(rows, cols, CvType.CV_8UC1);
+        maskTable.put(0, 0, tableBuffer);
+        maskBall.put(0, 0, ballBuffer);
+    }
+
+    /**
+     * Calculates masks of the table and ball colors from the Y and chroma planes
+     * (the same masks as segment() of the packed frame)
+     * @param planeY Y plane of the frame
+     * @param planeChroma interleaved chroma plane with half resolution (CV_8UC2)
+     * @param chromaVU true if chroma is in V, U order (NV21) or false if in U, V order (NV12)
+     * @param maskTable output table mask (CV_8UC1, 255 inside the table range)
+     * @param maskBall output ball mask (CV_8UC1, 255 inside the ball range)
+     */
+    @Override
+    public void segment(Mat planeY, Mat planeChroma, boolean chromaVU, Mat maskTable,
+                        Mat maskBall) {
+        int rows = planeY.rows();
+        int cols = planeY.cols();
+        int pixels = rows * cols;
+        int chromaCols = (cols + 1) / 2;
+        int chromaStride = planeChroma.cols() * 2;
+        int chromaLength = (rows + 1) / 2 * chromaStride;
+
+        // Grow buffers if the frame is larger than the previous ones
+        if (yuvBuffer.length < pixels)
+            yuvBuffer = new byte[pixels];
+        if (chromaBuffer.length < chromaLength)
+            chromaBuffer = new byte[chromaLength];
+        if (chromaIndexes.length < chromaCols)
+            chromaIndexes = new int[chromaCols];
+        growMaskBuffers(pixels);
+
+        // Read Y plane and the chroma rows of the frame
+        planeY.get(0, 0, yuvBuffer);
+        planeChroma.get(0, 0, chromaBuffer);
+        int offsetU = chromaVU ? 1 : 0;
+        int offsetV = chromaVU ? 0 : 1;
+
+        for (int y = 0, i = 0; y < rows; y++) {
+            // U and V part of the index for each 2x2 block of the row pair
+            if ((y & 1) == 0) {
+                for (int x = 0, j = (y >> 1) * chromaStride; x < chromaCols; x++, j += 2)
+                    chromaIndexes[x] = ((chromaBuffer[j + offsetU] & 0xFC) << 4)
+                            | ((chromaBuffer[j + offsetV] & 0xFC) >> 2);
+            }
+
+            // Label each pixel of the row
+            for (int x = 0; x < cols; x++, i++) {
+                int label = lut[((yuvBuffer[i] & 0xFC) << 10) | chromaIndexes[x >> 1]];
+                tableBuffer[i] = TABLE_VALUES[label];
+                ballBuffer[i] = BALL_VALUES[label];
+            }
+        }
+
+        // Write masks
+        maskTable.create(rows, cols, CvType.CV_8UC1);
+        maskBall.create(rows, cols, CvType.CV_8UC1);
+        maskTable.put(0, 0, tableBuffer);
+        maskBall.put(0, 0, ballBuffer);
+    }
+
+    /**
+     * Grows mask buffers if the frame (or region) is larger than the previous ones
+     * @param pixels number of pixels
+     */
+    private void growMaskBuffers(int pixels) {
+        if (tableBuffer.length < pixels) {
+            tableBuffer = new byte[pixels];
+            ballBuffer = new byte[pixels];
+        }
+    }
+
+    /**
+     * Compiles the lookup table or returns the previous one if color ranges are the same
+     * @param tableRange color range of the table
+     * @param ballRange color range of the ball
+     * @return lookup table (labels of the YUV colors with 6 bits per channel)
+     */
+    static synchronized byte[] compile(HSVRange tableRange, HSVRange ballRange) {
+        if (compiledLUT != null
+                && tableRange.equals(lutTableRange) && ballRange.equals(lutBallRange))
+            return compiledLUT;
+
+        long timeStart = System.currentTimeMillis();
+        byte[] labels = new byte[64 * 64 * 64];
+        int[] rgb = new int[3];
+        int[] hsv = new int[3];
+        for (int y = 0; y < 64; y++) {
+            for (int u = 0; u < 64; u++) {
+                for (int v = 0; v < 64; v++) {
+                    // Use the center of the quantization step
+                    yuvToRGB((y << 2) + 2, (u << 2) + 2, (v << 2) + 2, rgb);
+                    LUTSegmenter.rgbToHSV(rgb[0], rgb[1], rgb[2], hsv);
+
+                    int label = 0;
+                    if (tableRange.contains(hsv[0], hsv[1], hsv[2]))
+                        label |= LABEL_TABLE;
+                    if (ballRange.contains(hsv[0], hsv[1], hsv[2]))
+                        label |= LABEL_BALL;
+                    labels[(y << 12) | (u << 6) | v] = (byte) label;
+                }
+            }
+        }
+        Log.i(TAG, "YUV lookup table compiled in "
+                + (System.currentTimeMillis() - timeStart) + " ms");
+
+        compiledLUT = labels;
+        lutTableRange = tableRange;
+        lutBallRange = ballRange;
+        return compiledLUT;
+    }
+
+    /**
+     * Converts YUV color to RGB in the same way as Imgproc.COLOR_YUV2RGB_NV21
+     * (BT.601 with 16-235 luma range)
+     * @param y luma component (0-255)
+     * @param u blue-difference component (0-255)
+     * @param v red-difference component (0-255)
+     * @param rgb output array (red, green, blue 0-255)
+     */
+    private static void yuvToRGB(int y, int u, int v, int[] rgb) {
+        double luma = 1.164 * Math.max(y - 16, 0);
+        rgb[0] = clip(luma + 1.596 * (v - 128));
+        rgb[1] = clip(luma - 0.813 * (v - 128) - 0.391 * (u - 128));
+        rgb[2] = clip(luma + 2.018 * (u - 128));
+    }
+
+    /**
+     * @param value color component
+     * @return rounded color component between 0 and 255
+     */
+    private static int clip(double value) {
+        return (int) Math.max(0, Math.min(Math.round(value), 255));
+    }
+}
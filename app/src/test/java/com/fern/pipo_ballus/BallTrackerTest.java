@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the expanding window and the coarse-to-fine ball search with both blob engines
+ * on the test frames. The ball is searched on the whole table on every frame (without tracking),
+ * the found position is compared with the drawn one
+ */
+public class BallTrackerTest {
+    private final static int FRAMES = 20;
+    private final static double MAX_MEAN_ERROR = 0.5;
+    private final static double MAX_ERROR = 1.5;
+
+    private Mat[] frames;
+    private Mat maskTable, maskBall;
+    private ColorSegmenter colorSegmenter;
+
+    @Before
+    public void setUp() {
+        NativeLibraries.assumeOpenCV();
+        frames = TestFrames.draw(FRAMES);
+        maskTable = new Mat();
+        maskBall = new Mat();
+        colorSegmenter = new HSVSegmenter(TestFrames.tableRange(), TestFrames.ballRange());
+    }
+
+    @After
+    public void tearDown() {
+        if (frames == null)
+            return;
+        TestFrames.release(frames);
+        maskTable.release();
+        maskBall.release();
+    }
+
+    @Test
+    public void expandingWindowWithContours() {
+        run(false, false);
+    }
+
+    @Test
+    public void coarseToFineWithContours() {
+        run(false, true);
+    }
+
+    @Test
+    public void expandingWindowWithBlobs() {
+        run(true, false);
+    }
+
+    @Test
+    public void coarseToFineWithBlobs() {
+        run(true, true);
+    }
+
+    /**
+     * Finds the table and the ball on every frame and checks the ball position
+     * @param connectedComponents true to use BlobExtractor instead of findContours
+     * @param pyramid true for the coarse-to-fine search
+     */
+    private void run(boolean connectedComponents, boolean pyramid) {
+        TableTracker tableTracker = new TableTracker(connectedComponents);
+        BallTracker ballTracker = new BallTracker(connectedComponents, true, pyramid);
+        Point ballCenter = new Point();
+        double time = 0, errorSum = 0, maxError = 0;
+
+        for (int i = 0; i < frames.length; i++) {
+            // Find table on the full frame
+            tableTracker.reset();
+            colorSegmenter.segment(frames[i], maskTable, maskBall);
+            tableTracker.needsDetection(frames[i], colorSegmenter);
+            assertEquals(TableDetector.TABLE_FOUND, tableTracker.detect(maskTable));
+
+            // Find ball without tracking
+            ballTracker.reset();
+            assertEquals(BallDetector.BALL_FOUND,
+                    ballTracker.find(frames[i], null, colorSegmenter, tableTracker));
+            time += ballTracker.getTime();
+
+            TestFrames.ballCenter(i, ballCenter);
+            double error = Math.hypot(ballTracker.getCenter().x - ballCenter.x,
+                    ballTracker.getCenter().y - ballCenter.y);
+            errorSum += error;
+            maxError = Math.max(maxError, error);
+        }
+        ballTracker.release();
+        tableTracker.release();
+
+        System.out.printf("%s, %s: %.2f ms, error %.2f px (max %.2f px)%n",
+                pyramid ? "Coarse-to-fine" : "Expanding window",
+                connectedComponents ? "blobs" : "contours",
+                time / frames.length, errorSum / frames.length, maxError);
+        assertTrue("Mean error " + errorSum / frames.length,
+                errorSum / frames.length < MAX_MEAN_ERROR);
+        assertTrue("Max error " + maxError, maxError < MAX_ERROR);
+    }
+}
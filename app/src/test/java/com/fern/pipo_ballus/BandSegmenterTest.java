@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares parallel band segmentation with the single segmenter on the test frames
+ * scaled to different resolutions and prints the speedup of each number of bands
+ */
+public class BandSegmenterTest {
+    private final static int FRAMES = 10;
+    private final static int[] BANDS = { 1, 2, 4, 8 };
+    private final static double[] SCALES = { 0.5, 1, 2 };
+
+    private Mat[] frames;
+    private Mat scaledRGBA, referenceTable, referenceBall, maskTable, maskBall, maskDiff;
+
+    @Before
+    public void setUp() {
+        NativeLibraries.assumeOpenCV();
+        frames = TestFrames.draw(FRAMES);
+        scaledRGBA = new Mat();
+        referenceTable = new Mat();
+        referenceBall = new Mat();
+        maskTable = new Mat();
+        maskBall = new Mat();
+        maskDiff = new Mat();
+    }
+
+    @After
+    public void tearDown() {
+        if (frames == null)
+            return;
+        TestFrames.release(frames);
+        scaledRGBA.release();
+        referenceTable.release();
+        referenceBall.release();
+        maskTable.release();
+        maskBall.release();
+        maskDiff.release();
+    }
+
+    @Test
+    public void hsvBandsMatchSingleSegmenter() {
+        run(false);
+    }
+
+    @Test
+    public void lookupTableBandsMatchSingleSegmenter() {
+        run(true);
+    }
+
+    /**
+     * Segments every scaled frame with each number of bands and compares the masks
+     * with the masks of the single segmenter
+     * @param lookupTable true to segment with LUTSegmenter instead of HSVSegmenter
+     */
+    private void run(boolean lookupTable) {
+        HSVRange tableRange = TestFrames.tableRange();
+        HSVRange ballRange = TestFrames.ballRange();
+        ColorSegmenter referenceSegmenter = lookupTable
+                ? new LUTSegmenter(tableRange, ballRange) : new HSVSegmenter(tableRange, ballRange);
+        Size size = new Size();
+
+        for (double scale : SCALES) {
+            size.width = (int) (TestFrames.WIDTH * scale);
+            size.height = (int) (TestFrames.HEIGHT * scale);
+            double referenceTime = 0;
+            for (int bands : BANDS) {
+                ColorSegmenter[] bandSegmenters = new ColorSegmenter[bands];
+                for (int i = 0; i < bands; i++)
+                    bandSegmenters[i] = lookupTable ? new LUTSegmenter(tableRange, ballRange)
+                            : new HSVSegmenter(tableRange, ballRange);
+                BandSegmenter bandSegmenter = new BandSegmenter(bandSegmenters);
+
+                long time = 0;
+                for (Mat frame : frames) {
+                    Imgproc.resize(frame, scaledRGBA, size);
+                    referenceSegmenter.segment(scaledRGBA, referenceTable, referenceBall);
+
+                    long timeStart = System.nanoTime();
+                    bandSegmenter.segment(scaledRGBA, maskTable, maskBall);
+                    time += System.nanoTime() - timeStart;
+
+                    Core.compare(maskTable, referenceTable, maskDiff, Core.CMP_NE);
+                    assertEquals(0, Core.countNonZero(maskDiff));
+                    Core.compare(maskBall, referenceBall, maskDiff, Core.CMP_NE);
+                    assertEquals(0, Core.countNonZero(maskDiff));
+                }
+
+                double frameTime = time / 1e6 / frames.length;
+                if (bands == 1)
+                    referenceTime = frameTime;
+                System.out.printf("%s %dx%d, %d bands: %.2f ms, speedup %.2fx%n",
+                        lookupTable ? "Lookup table" : "HSV", (int) size.width,
+                        (int) size.height, bands, frameTime, referenceTime / frameTime);
+            }
+        }
+    }
+}
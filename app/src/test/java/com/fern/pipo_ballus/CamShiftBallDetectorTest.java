@@ -0,0 +1,107 @@
+package com.fern.pipo_ballus;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+/**
+ * Synthetic evaluation of CamShiftBallDetector: the ball moves around the table
+ * and loses saturation until it leaves the configured HSV range
+ */
+public class CamShiftBallDetectorTest {
+    private final static int FRAMES = 400;
+    private final static int FADE_START = 100;
+    private final static int FADE_FRAMES = 200;
+
+    private Mat frame, maskTable, maskBall;
+    private ColorSegmenter colorSegmenter;
+    private Scalar backgroundColor, tableColor, ballColor;
+    private Point ballPosition;
+    private RotatedRect tableEllipse;
+
+    private int found, firstLost;
+    private double errorSum;
+
+    @Before
+    public void setUp() {
+        NativeLibraries.assumeOpenCV();
+        frame = new Mat(480, 640, CvType.CV_8UC4);
+        maskTable = new Mat();
+        maskBall = new Mat();
+        colorSegmenter = new HSVSegmenter(
+                new HSVRange(new HSVColor(90, .4f, .3f), new HSVColor(150, 1f, 1f), false),
+                new HSVRange(new HSVColor(340, .5f, .3f), new HSVColor(20, 1f, 1f), false));
+        backgroundColor = new Scalar(40, 40, 40, 255);
+        tableColor = new Scalar(30, 200, 60, 255);
+        ballColor = new Scalar(0, 0, 0, 255);
+        ballPosition = new Point();
+        tableEllipse = new RotatedRect(new Point(320, 240), new Size(400, 380), 0);
+    }
+
+    @Test
+    public void thresholdsLoseFadedBall() {
+        run(new BallTracker(false, true, false));
+        assertTrue(firstLost > FADE_START);
+        assertTrue(found < FRAMES);
+    }
+
+    @Test
+    public void camShiftFollowsFadedBall() {
+        run(new CamShiftBallDetector(new BallTracker(false, true, false), false));
+        assertEquals(-1, firstLost);
+        assertEquals(FRAMES, found);
+        assertTrue("Mean error " + errorSum / found, errorSum / found < 1.5);
+    }
+
+    /**
+     * Runs the ball detector on all frames and counts found frames and position errors
+     */
+    private void run(BallDetector ballDetector) {
+        TableTracker tableTracker = new TableTracker(false);
+        found = 0;
+        firstLost = -1;
+        errorSum = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            drawFrame(i);
+            boolean detection = tableTracker.needsDetection(frame, colorSegmenter);
+            int tableStatus = TableDetector.TABLE_FOUND;
+            if (detection) {
+                colorSegmenter.segment(frame, maskTable, maskBall);
+                tableStatus = tableTracker.detect(maskTable);
+            }
+            if (tableStatus == TableDetector.TABLE_FOUND
+                    && ballDetector.find(frame, detection ? maskBall : null, colorSegmenter,
+                    tableTracker) == BallDetector.BALL_FOUND) {
+                found++;
+                errorSum += Math.hypot(ballDetector.getCenter().x - ballPosition.x,
+                        ballDetector.getCenter().y - ballPosition.y);
+            } else if (firstLost < 0)
+                firstLost = i;
+        }
+        ballDetector.release();
+        tableTracker.release();
+    }
+
+    /**
+     * Draws the table and the ball moving on an ellipse (the ball fades after FADE_START)
+     */
+    private void drawFrame(int index) {
+        frame.setTo(backgroundColor);
+        Imgproc.ellipse(frame, tableEllipse, tableColor, -1);
+        ballPosition.x = 320 + 120 * Math.cos(index / 15.);
+        ballPosition.y = 240 + 100 * Math.sin(index / 15.);
+        double fade = Math.min(Math.max((index - FADE_START) / (double) FADE_FRAMES, 0), 1);
+        ballColor.val[0] = 220 - 20 * fade;
+        ballColor.val[1] = 30 + 100 * fade;
+        ballColor.val[2] = 30 + 90 * fade;
+        Imgproc.circle(frame, ballPosition, 14, ballColor, -1);
+    }
+}
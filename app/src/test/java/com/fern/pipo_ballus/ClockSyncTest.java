@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs ClockSync on simulated ping / pong round trips with the known controller clock offset
+ * and drift, queueing delays and photon-to-servo latency, including 32-bit wraps of both clocks
+ * and a controller restart
+ */
+public class ClockSyncTest {
+    private final static int BAUD_RATE = 57600;
+    private final static long PING_INTERVAL = 50_000;
+    private final static long PHOTON_TO_SERVO = 30_000;
+    private final static double DRIFT_PPM = 50;
+    private final static long WRAP = 1L << 32;
+
+    private final static double MAX_LATENCY_ERROR = 0.3;
+    private final static double MAX_DRIFT_ERROR = 5;
+
+    @Test
+    public void offsetAndDrift() {
+        Link link = new Link(1_000_000_000L, 123_456_789L);
+        link.run(60_000_000, 1000, 1000);
+        link.print("Offset and drift");
+
+        assertTrue(link.clockSync.isSynced());
+        assertEquals(DRIFT_PPM, link.clockSync.getDrift(), MAX_DRIFT_ERROR);
+        assertEquals(PHOTON_TO_SERVO / 1000., link.clockSync.getPhotonToServoLatency(),
+                MAX_LATENCY_ERROR);
+        assertEquals((Link.PING_TX + 500) / 1000., link.clockSync.getOneWayLatency(),
+                MAX_LATENCY_ERROR);
+        assertEquals((Link.PING_TX + Link.PONG_TX) / 1000., link.clockSync.getRoundTrip(),
+                MAX_LATENCY_ERROR);
+    }
+
+    @Test
+    public void asymmetricDelays() {
+        // Mean offset of all round trips would be (5 ms - 0.5 ms) / 2 off,
+        // round trips with the lowest delays are almost symmetric
+        Link link = new Link(1_000_000_000L, -987_654_321L);
+        link.run(60_000_000, 10_000, 1000);
+        link.print("Asymmetric delays");
+
+        assertEquals(DRIFT_PPM, link.clockSync.getDrift(), MAX_DRIFT_ERROR);
+        assertEquals(PHOTON_TO_SERVO / 1000., link.clockSync.getPhotonToServoLatency(),
+                MAX_LATENCY_ERROR);
+        // The lowest round trip still has a part of the back queueing delay (up to 1 ms)
+        double roundTrip = link.clockSync.getRoundTrip() - (Link.PING_TX + Link.PONG_TX) / 1000.;
+        assertTrue("Round trip " + roundTrip, roundTrip >= 0 && roundTrip < 1);
+    }
+
+    @Test
+    public void clocksWrapAround() {
+        // Both clocks pass a multiple of 2^32 us (micros() and the lower bits of the app time)
+        long appStart = 3 * WRAP - 20_000_000;
+        Link link = new Link(appStart, 2 * WRAP - 10_000_000 - appStart);
+        link.run(60_000_000, 1000, 1000);
+        link.print("Clock wrap");
+
+        assertTrue(link.clockSync.isSynced());
+        assertEquals(DRIFT_PPM, link.clockSync.getDrift(), MAX_DRIFT_ERROR);
+        assertEquals(PHOTON_TO_SERVO / 1000., link.clockSync.getPhotonToServoLatency(),
+                MAX_LATENCY_ERROR);
+        assertEquals((Link.PING_TX + Link.PONG_TX) / 1000., link.clockSync.getRoundTrip(),
+                MAX_LATENCY_ERROR);
+    }
+
+    @Test
+    public void controllerRestart() {
+        Link link = new Link(1_000_000_000L, 500_000_000L);
+        link.run(30_000_000, 1000, 1000);
+        assertEquals(PHOTON_TO_SERVO / 1000., link.clockSync.getPhotonToServoLatency(),
+                MAX_LATENCY_ERROR);
+
+        // micros() starts from 0 again, old round trips must be dropped
+        // (they would stay in the fit for SAMPLES * BIN_ROUND_TRIPS round trips)
+        link.restart();
+        link.run(5_000_000, 1000, 1000);
+        link.print("Controller restart");
+        assertTrue(link.clockSync.isSynced());
+        assertEquals(PHOTON_TO_SERVO / 1000., link.clockSync.getPhotonToServoLatency(),
+                MAX_LATENCY_ERROR);
+
+        // Drift is estimated again after DRIFT_MIN_SPAN
+        link.run(30_000_000, 1000, 1000);
+        assertEquals(DRIFT_PPM, link.clockSync.getDrift(), MAX_DRIFT_ERROR);
+        assertEquals(PHOTON_TO_SERVO / 1000., link.clockSync.getPhotonToServoLatency(),
+                MAX_LATENCY_ERROR);
+    }
+
+    /**
+     * This class simulates the serial link: the controller clock runs with DRIFT_PPM drift
+     * relative to the app clock, only the lower 32 bits of the times are sent
+     */
+    private static class Link {
+        // Transmission time of the ping and pong frames (us)
+        private final static double PING_TX =
+                SerialProtocol.PING_FRAME_LENGTH * 10 * 1e6 / BAUD_RATE;
+        private final static double PONG_TX =
+                SerialProtocol.PONG_FRAME_LENGTH * 10 * 1e6 / BAUD_RATE;
+        // Time between receiving the ping and sending the pong (controller, us)
+        private final static long PROCESSING = 300;
+
+        private final ClockSync clockSync;
+        private final Random random;
+        private final long[] pongTimes;
+        private long appTime, appStart;
+        private double offset;
+
+        /**
+         * @param appStart app time of the first ping (us)
+         * @param offset controller time minus app time at appStart (us)
+         */
+        private Link(long appStart, double offset) {
+            this.clockSync = new ClockSync(BAUD_RATE);
+            this.random = new Random(1);
+            this.pongTimes = new long[TelemetryDecoder.PONG_LENGTH];
+            this.appTime = appStart;
+            this.appStart = appStart;
+            this.offset = offset;
+        }
+
+        /**
+         * @param appTime app time (us)
+         * @return controller time (us)
+         */
+        private long toController(double appTime) {
+            return Math.round(appTime + offset + (appTime - appStart) * DRIFT_PPM * 1e-6);
+        }
+
+        /**
+         * Restarts the controller: its clock starts from 0 at the current app time
+         */
+        private void restart() {
+            appStart = appTime;
+            offset = -appTime;
+        }
+
+        /**
+         * Prints the estimates
+         * @param name name of the simulated case
+         */
+        private void print(String name) {
+            System.out.printf("%s: drift %.2f ppm, round trip %.3f ms, one-way %.3f ms, "
+                            + "photon-to-servo %.3f ms%n", name, clockSync.getDrift(),
+                    clockSync.getRoundTrip(), clockSync.getOneWayLatency(),
+                    clockSync.getPhotonToServoLatency());
+        }
+
+        /**
+         * Sends pings every PING_INTERVAL and passes the pongs to ClockSync
+         * @param duration simulated time (us)
+         * @param forwardQueue maximum queueing delay from the app to the controller (us)
+         * @param backQueue maximum queueing delay from the controller to the app (us)
+         */
+        private void run(long duration, double forwardQueue, double backQueue) {
+            for (long timeEnd = appTime + duration; appTime < timeEnd; appTime += PING_INTERVAL) {
+                double controllerReceived = appTime + PING_TX + random.nextDouble() * forwardQueue;
+                double appReceived = controllerReceived + PROCESSING + PONG_TX
+                        + random.nextDouble() * backQueue;
+
+                // The last position was captured one interval ago
+                long positionCaptured = appTime - PING_INTERVAL;
+                pongTimes[TelemetryDecoder.PONG_PING_SENT] = appTime & 0xFFFFFFFFL;
+                pongTimes[TelemetryDecoder.PONG_PING_RECEIVED] =
+                        toController(controllerReceived) & 0xFFFFFFFFL;
+                pongTimes[TelemetryDecoder.PONG_SENT] =
+                        toController(controllerReceived) + PROCESSING & 0xFFFFFFFFL;
+                pongTimes[TelemetryDecoder.PONG_POSITION_CAPTURED] =
+                        positionCaptured & 0xFFFFFFFFL;
+                pongTimes[TelemetryDecoder.PONG_POSITION_APPLIED] =
+                        toController(positionCaptured + PHOTON_TO_SERVO) & 0xFFFFFFFFL;
+                clockSync.add(pongTimes, Math.round(appReceived) * 1000);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.fern.pipo_ballus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the frame processing (OpenCVHandler without a view) on recorded NV21 frames
+ * played by FileFrameSource from a directory
+ */
+public class FileFrameSourceTest {
+    private final static int WIDTH = 320;
+    private final static int HEIGHT = 240;
+    private final static int FRAME_FILES = 4;
+    private final static int FRAMES = 40;
+
+    // Table's size and ball offset from the table's center (pixels)
+    private final static int TABLE_WIDTH = 200;
+    private final static int TABLE_HEIGHT = 180;
+    private final static int BALL_DX = 40;
+    private final static int BALL_DY = -20;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private int tableColorLower, tableColorUpper, ballColorLower, ballColorUpper;
+    private int segmentationMode, processingMode;
+    private boolean headlessMode, nativeKernel;
+
+    @Before
+    public void setUp() {
+        NativeLibraries.assumeOpenCV();
+
+        // Colors of the recorded frames, single thread processing with the overlay
+        tableColorLower = SettingsContainer.tableColorLower;
+        tableColorUpper = SettingsContainer.tableColorUpper;
+        ballColorLower = SettingsContainer.ballColorLower;
+        ballColorUpper = SettingsContainer.ballColorUpper;
+        segmentationMode = SettingsContainer.segmentationMode;
+        processingMode = SettingsContainer.processingMode;
+        headlessMode = SettingsContainer.headlessMode;
+        nativeKernel = SettingsContainer.nativeKernel;
+        SettingsContainer.tableColorLower = 0xff3d4d2e;
+        SettingsContainer.tableColorUpper = 0xff00ff7f;
+        SettingsContainer.ballColorLower = 0xff4d2633;
+        SettingsContainer.ballColorUpper = 0xffff5500;
+        SettingsContainer.segmentationMode = SettingsContainer.SEGMENTATION_HSV;
+        SettingsContainer.processingMode = SettingsContainer.PROCESSING_SINGLE_THREAD;
+        SettingsContainer.headlessMode = false;
+        SettingsContainer.nativeKernel = false;
+    }
+
+    @After
+    public void tearDown() {
+        SettingsContainer.tableColorLower = tableColorLower;
+        SettingsContainer.tableColorUpper = tableColorUpper;
+        SettingsContainer.ballColorLower = ballColorLower;
+        SettingsContainer.ballColorUpper = ballColorUpper;
+        SettingsContainer.segmentationMode = segmentationMode;
+        SettingsContainer.processingMode = processingMode;
+        SettingsContainer.headlessMode = headlessMode;
+        SettingsContainer.nativeKernel = nativeKernel;
+    }
+
+    @Test
+    public void pipelineFindsBallInRecordedFrames() throws Exception {
+        File directory = temporaryFolder.newFolder("frames");
+        for (int i = 0; i < FRAME_FILES; i++)
+            writeFrame(new File(directory, String.format("frame_%03d.nv21", i)));
+
+        PositionMailbox positionMailbox = new PositionMailbox();
+        OpenCVHandler openCVHandler = new OpenCVHandler(null, null, positionMailbox,
+                null, null);
+        openCVHandler.initView();
+
+        CountDownLatch framesLatch = new CountDownLatch(FRAMES);
+        final int[] found = new int[1];
+        final Mat[] firstGray = new Mat[1];
+        final boolean[] sameHeaders = { true };
+        final PositionContainer lastPosition = new PositionContainer();
+        FileFrameSource fileFrameSource = new FileFrameSource(directory, WIDTH, HEIGHT, 1000);
+        assertTrue(fileFrameSource.start(WIDTH, HEIGHT, sourceFrame -> {
+            if (framesLatch.getCount() == 0)
+                return;
+
+            // Frame buffer of the file source is reused, so the plane headers must be reused too
+            if (firstGray[0] == null)
+                firstGray[0] = sourceFrame.gray();
+            sameHeaders[0] &= sourceFrame.gray() == firstGray[0];
+
+            openCVHandler.onCameraFrame(sourceFrame);
+            PositionContainer positionContainer = positionMailbox.poll();
+            if (positionContainer != null) {
+                found[0]++;
+                lastPosition.copyFrom(positionContainer);
+            }
+            framesLatch.countDown();
+        }));
+        boolean done = framesLatch.await(60, TimeUnit.SECONDS);
+        fileFrameSource.stop();
+        assertTrue(done);
+        assertTrue(sameHeaders[0]);
+
+        // Ball is found on every frame. The frame is rotated to the portrait screen:
+        // table's X axis is the frame's -Y axis and table's Y axis is the frame's X axis
+        assertEquals(FRAMES, found[0]);
+        assertTrue(lastPosition.ballDetected);
+        assertEquals(1500 - BALL_DY * 1000. / TABLE_HEIGHT, lastPosition.ballVSTableX, 5);
+        assertEquals(1500 + BALL_DX * 1000. / TABLE_WIDTH, lastPosition.ballVSTableY, 5);
+    }
+
+    /**
+     * Draws the table and the ball and writes the frame in NV21 format
+     */
+    private static void writeFrame(File file) throws IOException {
+        Mat frameRGBA = new Mat(HEIGHT, WIDTH, CvType.CV_8UC4, new Scalar(40, 40, 40, 255));
+        Imgproc.ellipse(frameRGBA, new RotatedRect(new Point(WIDTH / 2., HEIGHT / 2.),
+                new Size(TABLE_WIDTH, TABLE_HEIGHT), 0), new Scalar(30, 200, 60, 255), -1);
+        Imgproc.circle(frameRGBA, new Point(WIDTH / 2. + BALL_DX, HEIGHT / 2. + BALL_DY), 8,
+                new Scalar(220, 30, 30, 255), -1);
+
+        // I420 (Y, U, V planes) to NV21 (Y plane and interleaved V, U plane)
+        Mat frameI420 = new Mat();
+        Imgproc.cvtColor(frameRGBA, frameI420, Imgproc.COLOR_RGBA2YUV_I420);
+        byte[] i420 = new byte[WIDTH * HEIGHT * 3 / 2];
+        frameI420.get(0, 0, i420);
+        byte[] nv21 = new byte[i420.length];
+        int sizeY = WIDTH * HEIGHT;
+        int sizeChroma = sizeY / 4;
+        System.arraycopy(i420, 0, nv21, 0, sizeY);
+        for (int i = 0; i < sizeChroma; i++) {
+            nv21[sizeY + i * 2] = i420[sizeY + sizeChroma + i];
+            nv21[sizeY + i * 2 + 1] = i420[sizeY + i];
+        }
+        frameRGBA.release();
+        frameI420.release();
+
+        try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            fileOutputStream.write(nv21);
+        }
+    }
+}
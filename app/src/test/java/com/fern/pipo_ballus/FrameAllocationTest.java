@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures Java heap allocations of the frame processing (OpenCVHandler without a view)
+ * on the processing thread after the warm-up.
+ * The median frame is measured, so periodic work (table revalidation every 30 frames,
+ * jitter statistics log of debug builds every 100 frames) is not counted. The ball does not
+ * move, so the cached headers of the search windows are reused; a moving ball creates
+ * new headers when its window moves to the next WINDOW_ALIGN cell.
+ * Both camera paths are measured: SourceFrame (separate planes from FrameSource) and
+ * the JavaCameraView preview frame (NV21 buffer behind the Y plane header)
+ */
+public class FrameAllocationTest {
+    private final static int WIDTH = 320;
+    private final static int HEIGHT = 240;
+    private final static int WARM_UP_FRAMES = 200;
+    private final static int FRAMES = 200;
+
+    // OpenCV Java wrappers of findContours() and drawContours() convert contours
+    // between Java lists and native vectors on each call (a new MatOfPoint for each contour),
+    // about 500 bytes for the single contour of the ball window
+    private final static long CONTOURS_MAX_BYTES = 1024;
+
+    private final static int[] SEGMENTATION_MODES = { SettingsContainer.SEGMENTATION_HSV,
+            SettingsContainer.SEGMENTATION_LUT, SettingsContainer.SEGMENTATION_YUV };
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+    private int tableColorLower, tableColorUpper, ballColorLower, ballColorUpper;
+    private int segmentationMode, processingMode, blobEngine;
+    private boolean headlessMode, nativeKernel, resolutionGovernor;
+
+    @Before
+    public void setUp() {
+        NativeLibraries.assumeOpenCV();
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        tableColorLower = SettingsContainer.tableColorLower;
+        tableColorUpper = SettingsContainer.tableColorUpper;
+        ballColorLower = SettingsContainer.ballColorLower;
+        ballColorUpper = SettingsContainer.ballColorUpper;
+        segmentationMode = SettingsContainer.segmentationMode;
+        processingMode = SettingsContainer.processingMode;
+        blobEngine = SettingsContainer.blobEngine;
+        headlessMode = SettingsContainer.headlessMode;
+        nativeKernel = SettingsContainer.nativeKernel;
+        resolutionGovernor = SettingsContainer.resolutionGovernor;
+        SettingsContainer.tableColorLower = 0xff3d4d2e;
+        SettingsContainer.tableColorUpper = 0xff00ff7f;
+        SettingsContainer.ballColorLower = 0xff4d2633;
+        SettingsContainer.ballColorUpper = 0xffff5500;
+        SettingsContainer.processingMode = SettingsContainer.PROCESSING_SINGLE_THREAD;
+        SettingsContainer.nativeKernel = false;
+        SettingsContainer.resolutionGovernor = false;
+    }
+
+    @After
+    public void tearDown() {
+        SettingsContainer.tableColorLower = tableColorLower;
+        SettingsContainer.tableColorUpper = tableColorUpper;
+        SettingsContainer.ballColorLower = ballColorLower;
+        SettingsContainer.ballColorUpper = ballColorUpper;
+        SettingsContainer.segmentationMode = segmentationMode;
+        SettingsContainer.processingMode = processingMode;
+        SettingsContainer.blobEngine = blobEngine;
+        SettingsContainer.headlessMode = headlessMode;
+        SettingsContainer.nativeKernel = nativeKernel;
+        SettingsContainer.resolutionGovernor = resolutionGovernor;
+    }
+
+    @Test
+    public void blobsDoNotAllocate() {
+        for (boolean preview : new boolean[] { false, true }) {
+            for (int segmentationMode : SEGMENTATION_MODES) {
+                for (boolean headless : new boolean[] { false, true }) {
+                    long bytes = measure(segmentationMode, SettingsContainer.BLOB_COMPONENTS,
+                            headless, preview);
+                    assertEquals(describe(segmentationMode, headless, preview), 0, bytes);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void contoursAllocateOnlyContours() {
+        for (boolean preview : new boolean[] { false, true }) {
+            for (int segmentationMode : SEGMENTATION_MODES) {
+                for (boolean headless : new boolean[] { false, true }) {
+                    long bytes = measure(segmentationMode, SettingsContainer.BLOB_CONTOURS,
+                            headless, preview);
+                    assertTrue(describe(segmentationMode, headless, preview) + ": " + bytes
+                            + " bytes", bytes <= CONTOURS_MAX_BYTES);
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes frames with the selected settings and checks that the ball is found
+     * @param preview true for the JavaCameraView preview frame instead of SourceFrame
+     * @return bytes allocated by the median frame
+     */
+    private long measure(int segmentationMode, int blobEngine, boolean headless,
+                         boolean preview) {
+        SettingsContainer.segmentationMode = segmentationMode;
+        SettingsContainer.blobEngine = blobEngine;
+        SettingsContainer.headlessMode = headless;
+        PositionMailbox positionMailbox = new PositionMailbox();
+        OpenCVHandler openCVHandler = new OpenCVHandler(null, null, positionMailbox,
+                null, null);
+        openCVHandler.initView();
+        byte[] frameNV21 = createFrame();
+        CameraBridgeViewBase.CvCameraViewFrame inputFrame = preview
+                ? new PreviewFrame(frameNV21) : createSourceFrame(frameNV21);
+        for (int i = 0; i < WARM_UP_FRAMES; i++)
+            openCVHandler.onCameraFrame(inputFrame);
+
+        // Allocations of the measurement itself
+        long threadId = Thread.currentThread().getId();
+        long[] frameBytes = new long[FRAMES];
+        long allocatedStart = threadMXBean.getThreadAllocatedBytes(threadId);
+        long measurementBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedStart;
+
+        for (int i = 0; i < FRAMES; i++) {
+            allocatedStart = threadMXBean.getThreadAllocatedBytes(threadId);
+            openCVHandler.onCameraFrame(inputFrame);
+            frameBytes[i] = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedStart
+                    - measurementBytes;
+        }
+
+        PositionContainer positionContainer = positionMailbox.poll();
+        assertNotNull(positionContainer);
+        assertTrue(describe(segmentationMode, headless, preview) + ": ball is not found",
+                positionContainer.ballDetected);
+
+        // The caller's Y plane header is not expanded to the NV21 buffer
+        assertEquals(HEIGHT, inputFrame.gray().rows());
+        if (preview)
+            ((PreviewFrame) inputFrame).release();
+
+        Arrays.sort(frameBytes);
+        return frameBytes[FRAMES / 2];
+    }
+
+    private static String describe(int segmentationMode, boolean headless, boolean preview) {
+        return "Segmentation mode " + segmentationMode + (headless ? ", headless" : "")
+                + (preview ? ", preview frame" : "");
+    }
+
+    /**
+     * @return NV21 frame with the table and the ball (Y plane and interleaved V, U plane)
+     */
+    private static byte[] createFrame() {
+        Mat frameRGBA = new Mat(HEIGHT, WIDTH, CvType.CV_8UC4, new Scalar(40, 40, 40, 255));
+        Imgproc.ellipse(frameRGBA, new RotatedRect(new Point(WIDTH / 2., HEIGHT / 2.),
+                new Size(200, 180), 0), new Scalar(30, 200, 60, 255), -1);
+        Imgproc.circle(frameRGBA, new Point(WIDTH / 2. + 40, HEIGHT / 2. - 20), 8,
+                new Scalar(220, 30, 30, 255), -1);
+
+        // I420 (Y, U, V planes) to NV21 (Y plane and interleaved V, U plane)
+        Mat frameI420 = new Mat();
+        Imgproc.cvtColor(frameRGBA, frameI420, Imgproc.COLOR_RGBA2YUV_I420);
+        byte[] i420 = new byte[WIDTH * HEIGHT * 3 / 2];
+        frameI420.get(0, 0, i420);
+        frameRGBA.release();
+        frameI420.release();
+        int sizeY = WIDTH * HEIGHT;
+        int sizeChroma = sizeY / 4;
+        byte[] nv21 = new byte[sizeY + sizeChroma * 2];
+        System.arraycopy(i420, 0, nv21, 0, sizeY);
+        for (int i = 0; i < sizeChroma; i++) {
+            nv21[sizeY + i * 2] = i420[sizeY + sizeChroma + i];
+            nv21[sizeY + i * 2 + 1] = i420[sizeY + i];
+        }
+        return nv21;
+    }
+
+    /**
+     * @return SourceFrame wrapping the planes of the NV21 frame
+     */
+    private static SourceFrame createSourceFrame(byte[] nv21) {
+        int sizeY = WIDTH * HEIGHT;
+        ByteBuffer bufferY = ByteBuffer.allocateDirect(sizeY);
+        ByteBuffer bufferChroma = ByteBuffer.allocateDirect(nv21.length - sizeY);
+        bufferY.put(nv21, 0, sizeY);
+        bufferChroma.put(nv21, sizeY, nv21.length - sizeY);
+
+        SourceFrame sourceFrame = new SourceFrame();
+        sourceFrame.setPlanes(bufferY, bufferChroma, WIDTH, true, WIDTH, HEIGHT, System.nanoTime());
+        return sourceFrame;
+    }
+
+    /**
+     * This class is a JavaCameraView preview frame: the NV21 buffer in one Mat
+     * and the Y plane header returned by gray()
+     */
+    private static class PreviewFrame implements CameraBridgeViewBase.CvCameraViewFrame {
+        private final Mat frameNV21, frameGray, frameRGBA;
+
+        PreviewFrame(byte[] nv21) {
+            frameNV21 = new Mat(HEIGHT + HEIGHT / 2, WIDTH, CvType.CV_8UC1);
+            frameNV21.put(0, 0, nv21);
+            frameGray = frameNV21.submat(0, HEIGHT, 0, WIDTH);
+            frameRGBA = new Mat();
+            Imgproc.cvtColor(frameNV21, frameRGBA, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+        }
+
+        @Override
+        public Mat rgba() {
+            return frameRGBA;
+        }
+
+        @Override
+        public Mat gray() {
+            return frameGray;
+        }
+
+        void release() {
+            frameGray.release();
+            frameNV21.release();
+            frameRGBA.release();
+        }
+    }
+}
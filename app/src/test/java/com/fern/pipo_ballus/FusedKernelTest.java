@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the native FusedKernel with LUTSegmenter / YUVSegmenter masks, TableTracker
+ * and BallTracker on synthetic RGBA and packed YUV frames. One ball is inside the table,
+ * another one is outside the table's ellipse and must not be counted.
+ * The kernel is built with cmake -S app/src/main/cpp, the tests are skipped if it is not
+ * in java.library.path
+ */
+public class FusedKernelTest {
+    private final static int WIDTH = 320;
+    private final static int HEIGHT = 240;
+    private final static int BALL_RADIUS = 9;
+    private final static int MIN_LINE_PIXELS = 3;
+
+    private HSVRange tableRange, ballRange;
+    private Mat frameRGBA, frameYUV, maskTable, maskBall, maskEllipse, maskInside, lineCounts;
+    private Scalar backgroundColor, tableColor, ballColor;
+    private long[] result;
+
+    @Before
+    public void setUp() {
+        NativeLibraries.assumeOpenCV();
+        NativeLibraries.assumeFusedKernel();
+        tableRange = new HSVRange(new HSVColor(90, .4f, .3f), new HSVColor(150, 1f, 1f), false);
+        ballRange = new HSVRange(new HSVColor(340, .5f, .3f), new HSVColor(20, 1f, 1f), false);
+        frameRGBA = new Mat(HEIGHT, WIDTH, CvType.CV_8UC4);
+        frameYUV = new Mat();
+        maskTable = new Mat();
+        maskBall = new Mat();
+        maskEllipse = new Mat();
+        maskInside = new Mat();
+        lineCounts = new Mat();
+        backgroundColor = new Scalar(40, 40, 40, 255);
+        tableColor = new Scalar(30, 200, 60, 255);
+        ballColor = new Scalar(220, 30, 30, 255);
+        result = new long[FusedKernel.RESULT_LENGTH];
+    }
+
+    @After
+    public void tearDown() {
+        if (frameRGBA == null)
+            return;
+        frameRGBA.release();
+        frameYUV.release();
+        maskTable.release();
+        maskBall.release();
+        maskEllipse.release();
+        maskInside.release();
+        lineCounts.release();
+    }
+
+    @Test
+    public void rgbaFrame() {
+        drawFrame(new RotatedRect(new Point(160, 120), new Size(220, 180), 0),
+                new Point(190, 105), new Point(20, 20));
+        compareWithTrackers(frameRGBA, new LUTSegmenter(tableRange, ballRange),
+                new FusedKernel(LUTSegmenter.compile(tableRange, ballRange)));
+    }
+
+    @Test
+    public void yuvFrame() {
+        drawFrame(new RotatedRect(new Point(160, 120), new Size(220, 180), 0),
+                new Point(130, 140), new Point(300, 220));
+        new NV21Converter().convertRGBA(frameRGBA, frameYUV);
+        compareWithTrackers(frameYUV, new YUVSegmenter(tableRange, ballRange),
+                new FusedKernel(YUVSegmenter.compile(tableRange, ballRange)));
+    }
+
+    @Test
+    public void rotatedEllipse() {
+        // First ball on the major axis, second one on the minor axis outside the ellipse
+        // (but inside the ellipse's bounding box)
+        RotatedRect ellipse = new RotatedRect(new Point(160, 120), new Size(220, 80), 35);
+        double angle = Math.toRadians(ellipse.angle);
+        Point ballInside = new Point(160 + 70 * Math.cos(angle), 120 + 70 * Math.sin(angle));
+        Point ballOutside = new Point(160 - 60 * Math.sin(angle), 120 + 60 * Math.cos(angle));
+        drawFrame(ellipse, ballInside, ballOutside);
+        ColorSegmenter colorSegmenter = new LUTSegmenter(tableRange, ballRange);
+        colorSegmenter.segment(frameRGBA, maskTable, maskBall);
+        FusedKernel fusedKernel = new FusedKernel(LUTSegmenter.compile(tableRange, ballRange));
+
+        run(fusedKernel, frameRGBA, ellipse);
+        compareTable();
+        compareBall(ellipse);
+
+        // Circle with the major axis diameter counts both balls
+        RotatedRect circle = new RotatedRect(ellipse.center,
+                new Size(ellipse.size.width, ellipse.size.width), 0);
+        long ballCount = result[FusedKernel.RESULT_BALL_COUNT];
+        run(fusedKernel, frameRGBA, circle);
+        compareBall(circle);
+        assertEquals(Core.countNonZero(maskBall), result[FusedKernel.RESULT_BALL_COUNT]);
+        assertTrue(result[FusedKernel.RESULT_BALL_COUNT] > ballCount);
+    }
+
+    @Test
+    public void emptyEllipse() {
+        drawFrame(new RotatedRect(new Point(160, 120), new Size(220, 180), 0),
+                new Point(190, 105), new Point(20, 20));
+        new LUTSegmenter(tableRange, ballRange).segment(frameRGBA, maskTable, maskBall);
+        FusedKernel fusedKernel = new FusedKernel(LUTSegmenter.compile(tableRange, ballRange));
+
+        // Semi-axis 0 skips the ball, the table is still found
+        for (int i = 0; i < 2; i++) {
+            fusedKernel.run(frameRGBA, 160, 120, i == 0 ? 0 : 100, i == 0 ? 90 : 0, 0, result);
+            assertEquals(0, result[FusedKernel.RESULT_BALL_COUNT]);
+            assertEquals(0, result[FusedKernel.RESULT_BALL_SUM_X]);
+            assertEquals(0, result[FusedKernel.RESULT_BALL_SUM_Y]);
+            assertTrue(result[FusedKernel.RESULT_BALL_MIN_X]
+                    > result[FusedKernel.RESULT_BALL_MAX_X]);
+            assertTrue(result[FusedKernel.RESULT_BALL_MIN_Y]
+                    > result[FusedKernel.RESULT_BALL_MAX_Y]);
+            compareTable();
+        }
+    }
+
+    @Test
+    public void strayTablePixels() {
+        RotatedRect ellipse = new RotatedRect(new Point(160, 120), new Size(220, 180), 0);
+        drawFrame(ellipse, new Point(190, 105), new Point(20, 20));
+        FusedKernel fusedKernel = new FusedKernel(LUTSegmenter.compile(tableRange, ballRange));
+        fusedKernel.run(frameRGBA, 0, 0, 0, 0, 0, result);
+        long[] expected = result.clone();
+
+        // Single pixels and small specks are counted but do not extend the box
+        // (larger objects are handled by FusedTracker)
+        frameRGBA.put(2, 2, 30, 200, 60, 255);
+        frameRGBA.put(HEIGHT - 3, WIDTH - 3, 30, 200, 60, 255);
+        frameRGBA.put(120, 5, 30, 200, 60, 255);
+        Imgproc.rectangle(frameRGBA, new Point(300, 20), new Point(301, 21), tableColor, -1);
+        new LUTSegmenter(tableRange, ballRange).segment(frameRGBA, maskTable, maskBall);
+        fusedKernel.run(frameRGBA, 0, 0, 0, 0, 0, result);
+        assertEquals(Core.countNonZero(maskTable), result[FusedKernel.RESULT_TABLE_COUNT]);
+        for (int i = FusedKernel.RESULT_TABLE_MIN_X; i <= FusedKernel.RESULT_TABLE_MAX_Y; i++)
+            assertEquals(expected[i], result[i]);
+        compareTable();
+    }
+
+    @Test
+    public void trackerIgnoresTableJump() {
+        RotatedRect ellipse = new RotatedRect(new Point(160, 120), new Size(220, 180), 0);
+        drawFrame(ellipse, new Point(190, 105), new Point(20, 20));
+        FusedTracker fusedTracker = new FusedTracker(
+                new FusedKernel(LUTSegmenter.compile(tableRange, ballRange)));
+        assertEquals(TableDetector.TABLE_FOUND, fusedTracker.process(frameRGBA));
+        RotatedRect locked = fusedTracker.getRotatedRect().clone();
+
+        // Table colored object outside the table for a few frames
+        Mat frameJump = frameRGBA.clone();
+        Imgproc.rectangle(frameJump, new Point(290, 200), new Point(310, 230), tableColor, -1);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(TableDetector.TABLE_FOUND, fusedTracker.process(frameJump));
+            assertEquals(locked.center.x, fusedTracker.getRotatedRect().center.x, 0);
+            assertEquals(locked.size.width, fusedTracker.getRotatedRect().size.width, 0);
+            assertEquals(BallDetector.BALL_FOUND,
+                    fusedTracker.getBallDetector().find(frameJump, null, null, fusedTracker));
+        }
+
+        // The jump persists (the table has moved)
+        assertEquals(TableDetector.TABLE_FOUND, fusedTracker.process(frameJump));
+        assertTrue(fusedTracker.getRotatedRect().size.width > locked.size.width);
+        frameJump.release();
+        fusedTracker.release();
+    }
+
+    /**
+     * Detects the table with TableTracker and the ball with BallTracker and compares them
+     * with the kernel restricted to the detected table's ellipse
+     */
+    private void compareWithTrackers(Mat frame, ColorSegmenter colorSegmenter,
+                                     FusedKernel fusedKernel) {
+        colorSegmenter.segment(frame, maskTable, maskBall);
+        TableTracker tableTracker = new TableTracker(false);
+        BallTracker ballTracker = new BallTracker(false, true, false);
+        try {
+            assertEquals(TableDetector.TABLE_FOUND, tableTracker.detect(maskTable));
+            assertEquals(BallDetector.BALL_FOUND,
+                    ballTracker.find(frame, maskBall, colorSegmenter, tableTracker));
+            RotatedRect ellipse = tableTracker.getRotatedRect();
+
+            run(fusedKernel, frame, ellipse);
+            compareTable();
+            compareBall(ellipse);
+
+            // Ball outside the table is not counted
+            long ballCount = result[FusedKernel.RESULT_BALL_COUNT];
+            assertTrue(ballCount > 0);
+            assertTrue(ballCount < Core.countNonZero(maskBall));
+
+            // Same centroid as the ball tracker's sub-pixel center
+            assertEquals(ballTracker.getCenter().x,
+                    (double) result[FusedKernel.RESULT_BALL_SUM_X] / ballCount, 1e-6);
+            assertEquals(ballTracker.getCenter().y,
+                    (double) result[FusedKernel.RESULT_BALL_SUM_Y] / ballCount, 1e-6);
+        } finally {
+            ballTracker.release();
+            tableTracker.release();
+        }
+    }
+
+    /**
+     * Compares table pixels count and bounding box with the table mask
+     * (rows and columns with less than MIN_LINE_PIXELS table pixels are skipped)
+     */
+    private void compareTable() {
+        assertEquals(Core.countNonZero(maskTable), result[FusedKernel.RESULT_TABLE_COUNT]);
+        int[] columns = countLines(0, WIDTH);
+        int[] rows = countLines(1, HEIGHT);
+        assertTrue(columns[0] <= columns[1]);
+        assertTrue(rows[0] <= rows[1]);
+        assertEquals(columns[0], result[FusedKernel.RESULT_TABLE_MIN_X]);
+        assertEquals(rows[0], result[FusedKernel.RESULT_TABLE_MIN_Y]);
+        assertEquals(columns[1], result[FusedKernel.RESULT_TABLE_MAX_X]);
+        assertEquals(rows[1], result[FusedKernel.RESULT_TABLE_MAX_Y]);
+    }
+
+    /**
+     * @param dimension 0 to count the table pixels of each column or 1 of each row
+     * @return first and last line with at least MIN_LINE_PIXELS table pixels
+     */
+    private int[] countLines(int dimension, int length) {
+        Core.reduce(maskTable, lineCounts, dimension, Core.REDUCE_SUM, CvType.CV_32S);
+        int[] counts = new int[length];
+        lineCounts.get(0, 0, counts);
+        int first = length, last = -1;
+        for (int i = 0; i < length; i++) {
+            if (counts[i] / 255 >= MIN_LINE_PIXELS) {
+                first = Math.min(first, i);
+                last = i;
+            }
+        }
+        return new int[] { first, last };
+    }
+
+    /**
+     * Compares ball pixels count, sums and bounding box with the ball mask inside the ellipse.
+     * Balls are far from the ellipse's border, so the rasterization of the ellipse does not matter
+     */
+    private void compareBall(RotatedRect ellipse) {
+        maskEllipse.create(HEIGHT, WIDTH, CvType.CV_8UC1);
+        maskEllipse.setTo(Scalar.all(0));
+        Imgproc.ellipse(maskEllipse, ellipse, Scalar.all(255), -1);
+        Core.bitwise_and(maskBall, maskEllipse, maskInside);
+
+        Moments moments = Imgproc.moments(maskInside, true);
+        assertEquals(moments.m00, result[FusedKernel.RESULT_BALL_COUNT], 0);
+        assertEquals(moments.m10, result[FusedKernel.RESULT_BALL_SUM_X], 0);
+        assertEquals(moments.m01, result[FusedKernel.RESULT_BALL_SUM_Y], 0);
+
+        MatOfPoint points = new MatOfPoint();
+        Core.findNonZero(maskInside, points);
+        Rect boundingRect = Imgproc.boundingRect(points);
+        points.release();
+        assertEquals(boundingRect.x, result[FusedKernel.RESULT_BALL_MIN_X]);
+        assertEquals(boundingRect.y, result[FusedKernel.RESULT_BALL_MIN_Y]);
+        assertEquals(boundingRect.x + boundingRect.width - 1,
+                result[FusedKernel.RESULT_BALL_MAX_X]);
+        assertEquals(boundingRect.y + boundingRect.height - 1,
+                result[FusedKernel.RESULT_BALL_MAX_Y]);
+    }
+
+    private void run(FusedKernel fusedKernel, Mat frame, RotatedRect ellipse) {
+        fusedKernel.run(frame, ellipse.center.x, ellipse.center.y,
+                ellipse.size.width / 2, ellipse.size.height / 2, ellipse.angle, result);
+    }
+
+    /**
+     * Draws the table's ellipse, the ball inside and the ball outside the table
+     */
+    private void drawFrame(RotatedRect ellipse, Point ballInside, Point ballOutside) {
+        frameRGBA.setTo(backgroundColor);
+        Imgproc.ellipse(frameRGBA, ellipse, tableColor, -1);
+        Imgproc.circle(frameRGBA, ballInside, BALL_RADIUS, ballColor, -1);
+        Imgproc.circle(frameRGBA, ballOutside, BALL_RADIUS, ballColor, -1);
+    }
+}
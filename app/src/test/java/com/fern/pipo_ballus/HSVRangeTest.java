@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the single pass HSVRange masks with the old inverted color path (hue of the inverted
+ * BGR frame, bounds hue / 2 - 90 and hue / 2 + 90) on the test frames and on a frame
+ * with all hues and saturations. Masks may only differ where the hue of the inverted pixel
+ * is not rounded to exactly hue + 90
+ */
+public class HSVRangeTest {
+    private final static int FRAMES = 20;
+    private final static double MAX_MISMATCH = 0.005;
+
+    private Mat[] frames;
+    private Mat matBGR, matBGRInverted, matHSV, matHSVInverted, matHSVOld, matHue;
+    private Mat maskNew, maskOld, maskBuffer;
+
+    @Before
+    public void setUp() {
+        NativeLibraries.assumeOpenCV();
+        Mat[] testFrames = TestFrames.draw(FRAMES);
+        frames = new Mat[FRAMES + 1];
+        System.arraycopy(testFrames, 0, frames, 0, FRAMES);
+        frames[FRAMES] = drawHues();
+        matBGR = new Mat();
+        matBGRInverted = new Mat();
+        matHSV = new Mat();
+        matHSVInverted = new Mat();
+        matHSVOld = new Mat();
+        matHue = new Mat();
+        maskNew = new Mat();
+        maskOld = new Mat();
+        maskBuffer = new Mat();
+    }
+
+    @After
+    public void tearDown() {
+        if (frames == null)
+            return;
+        TestFrames.release(frames);
+        matBGR.release();
+        matBGRInverted.release();
+        matHSV.release();
+        matHSVInverted.release();
+        matHSVOld.release();
+        matHue.release();
+        maskNew.release();
+        maskOld.release();
+        maskBuffer.release();
+    }
+
+    @Test
+    public void wrappedRangesMatchInvertedPath() {
+        compare(new HSVColor(340, .5f, .3f), new HSVColor(20, 1f, 1f));
+        compare(new HSVColor(300, .2f, .2f), new HSVColor(60, 1f, 1f));
+        compare(new HSVColor(359, .3f, .1f), new HSVColor(1, 1f, 1f));
+        compare(new HSVColor(200, .4f, .4f), new HSVColor(10, .9f, .9f));
+    }
+
+    @Test
+    public void unwrappedRangesMatchInvertedPath() {
+        compare(new HSVColor(90, .4f, .3f), new HSVColor(150, 1f, 1f));
+        compare(new HSVColor(0, .3f, .3f), new HSVColor(40, 1f, 1f));
+        compare(new HSVColor(180, .1f, .1f), new HSVColor(359, .8f, .8f));
+    }
+
+    /**
+     * Calculates the masks of the range with HSVRange and with the old path on every frame
+     * @param colorLower lower color of the range
+     * @param colorUpper upper color of the range
+     */
+    private void compare(HSVColor colorLower, HSVColor colorUpper) {
+        HSVRange hsvRange = new HSVRange(colorLower, colorUpper, false);
+        boolean inverted = colorLower.getHue() > colorUpper.getHue();
+        int hueLower = (int) (colorLower.getHue() / 2);
+        int hueUpper = (int) (colorUpper.getHue() / 2);
+        Scalar lower = new Scalar(inverted ? hueLower - 90 : hueLower,
+                colorLower.getSaturationInt(), colorLower.getValueInt());
+        Scalar upper = new Scalar(inverted ? hueUpper + 90 : hueUpper,
+                colorUpper.getSaturationInt(), colorUpper.getValueInt());
+
+        long pixels = 0, mismatches = 0, selected = 0;
+        for (Mat frame : frames) {
+            // Single pass
+            Imgproc.cvtColor(frame, matHSV, Imgproc.COLOR_RGB2HSV, 3);
+            hsvRange.inRange(matHSV, maskNew, maskBuffer);
+
+            // Old path: hue of the inverted BGR frame with saturation and value of the frame
+            Imgproc.cvtColor(frame, matBGR, Imgproc.COLOR_RGBA2BGR, 3);
+            Core.bitwise_not(matBGR, matBGRInverted);
+            Imgproc.cvtColor(matBGR, matHSV, Imgproc.COLOR_BGR2HSV, 3);
+            Imgproc.cvtColor(matBGRInverted, matHSVInverted, Imgproc.COLOR_BGR2HSV, 3);
+            if (inverted) {
+                Core.extractChannel(matHSVInverted, matHue, 0);
+                matHSV.copyTo(matHSVOld);
+                Core.insertChannel(matHue, matHSVOld, 0);
+                Core.inRange(matHSVOld, lower, upper, maskOld);
+            } else
+                Core.inRange(matHSV, lower, upper, maskOld);
+
+            // Masks may only differ where the inverted hue is not exactly hue + 90
+            byte[] hsv = new byte[(int) matHSV.total() * 3];
+            byte[] hsvInverted = new byte[hsv.length];
+            byte[] maskNewData = new byte[(int) matHSV.total()];
+            byte[] maskOldData = new byte[maskNewData.length];
+            matHSV.get(0, 0, hsv);
+            matHSVInverted.get(0, 0, hsvInverted);
+            maskNew.get(0, 0, maskNewData);
+            maskOld.get(0, 0, maskOldData);
+            for (int i = 0; i < maskNewData.length; i++) {
+                if (maskNewData[i] != 0)
+                    selected++;
+                if (maskNewData[i] == maskOldData[i])
+                    continue;
+                mismatches++;
+                int hue = hsv[i * 3] & 0xFF;
+                int hueInverted = hsvInverted[i * 3] & 0xFF;
+                assertTrue("Mismatch at hue " + hue + " (inverted " + hueInverted + ")",
+                        inverted && hueInverted != (hue + 90) % 180);
+            }
+            pixels += maskNewData.length;
+        }
+
+        System.out.printf("Hue %.0f-%.0f: %d pixels in range, mismatch %.3f%%%n",
+                colorLower.getHue(), colorUpper.getHue(), selected, 100. * mismatches / pixels);
+        assertTrue("No pixels in range", selected > 0);
+        assertTrue("Mismatch " + mismatches, (double) mismatches / pixels < MAX_MISMATCH);
+    }
+
+    /**
+     * Draws a frame with every hue (columns) and saturation (rows) at several values
+     * @return RGBA frame (CV_8UC4)
+     */
+    private static Mat drawHues() {
+        Mat matHSV = new Mat(256 * 3, 180, CvType.CV_8UC3);
+        byte[] row = new byte[180 * 3];
+        for (int y = 0; y < matHSV.rows(); y++) {
+            for (int hue = 0; hue < 180; hue++) {
+                row[hue * 3] = (byte) hue;
+                row[hue * 3 + 1] = (byte) (y % 256);
+                row[hue * 3 + 2] = (byte) (80 + 80 * (y / 256));
+            }
+            matHSV.put(y, 0, row);
+        }
+        Mat frameRGBA = new Mat();
+        Imgproc.cvtColor(matHSV, frameRGBA, Imgproc.COLOR_HSV2RGB, 4);
+        matHSV.release();
+        return frameRGBA;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the lookup table segmentation with the HSV segmentation it replaces
+ * on the test frames and prints the time of both
+ */
+public class LUTSegmenterTest {
+    private final static int FRAMES = 20;
+
+    // Colors are quantized to 6 bits per channel, so pixels near the range bounds can differ
+    private final static double MAX_MISMATCH = 0.005;
+
+    private Mat[] frames;
+    private Mat referenceTable, referenceBall, maskTable, maskBall, maskDiff;
+
+    @Before
+    public void setUp() {
+        NativeLibraries.assumeOpenCV();
+        frames = TestFrames.draw(FRAMES);
+        referenceTable = new Mat();
+        referenceBall = new Mat();
+        maskTable = new Mat();
+        maskBall = new Mat();
+        maskDiff = new Mat();
+    }
+
+    @After
+    public void tearDown() {
+        if (frames == null)
+            return;
+        TestFrames.release(frames);
+        referenceTable.release();
+        referenceBall.release();
+        maskTable.release();
+        maskBall.release();
+        maskDiff.release();
+    }
+
+    @Test
+    public void lookupTableMatchesHSV() {
+        HSVSegmenter hsvSegmenter = new HSVSegmenter(TestFrames.tableRange(),
+                TestFrames.ballRange());
+        LUTSegmenter lutSegmenter = new LUTSegmenter(TestFrames.tableRange(),
+                TestFrames.ballRange());
+        int pixels = TestFrames.WIDTH * TestFrames.HEIGHT;
+        long hsvTime = 0, lutTime = 0;
+        int tableDiff = 0, ballDiff = 0;
+
+        // Warm up
+        hsvSegmenter.segment(frames[0], referenceTable, referenceBall);
+        lutSegmenter.segment(frames[0], maskTable, maskBall);
+
+        for (Mat frame : frames) {
+            long timeStart = System.nanoTime();
+            hsvSegmenter.segment(frame, referenceTable, referenceBall);
+            hsvTime += System.nanoTime() - timeStart;
+
+            timeStart = System.nanoTime();
+            lutSegmenter.segment(frame, maskTable, maskBall);
+            lutTime += System.nanoTime() - timeStart;
+
+            // Both masks are not empty and almost the same
+            assertTrue(Core.countNonZero(referenceTable) > 0);
+            assertTrue(Core.countNonZero(referenceBall) > 0);
+            Core.compare(maskTable, referenceTable, maskDiff, Core.CMP_NE);
+            tableDiff += Core.countNonZero(maskDiff);
+            Core.compare(maskBall, referenceBall, maskDiff, Core.CMP_NE);
+            ballDiff += Core.countNonZero(maskDiff);
+        }
+
+        double tableMismatch = (double) tableDiff / pixels / frames.length;
+        double ballMismatch = (double) ballDiff / pixels / frames.length;
+        System.out.printf("HSV: %.2f ms, lookup table: %.2f ms, "
+                        + "table mismatch %.3f%%, ball mismatch %.3f%%%n",
+                hsvTime / 1e6 / frames.length, lutTime / 1e6 / frames.length,
+                100 * tableMismatch, 100 * ballMismatch);
+        assertTrue("Table mismatch " + tableMismatch, tableMismatch < MAX_MISMATCH);
+        assertTrue("Ball mismatch " + ballMismatch, ballMismatch < MAX_MISMATCH);
+    }
+}
@@ -0,0 +1,40 @@
+package com.fern.pipo_ballus;
+
+import org.junit.Assume;
+import org.opencv.core.Core;
+
+/**
+ * Loads host builds of the native libraries for the local unit tests.
+ * Libraries are searched in java.library.path (gradle test -PhostLibraryPath=...),
+ * tests that need them are skipped if they are not found
+ */
+final class NativeLibraries {
+    private static Boolean openCVLoaded;
+
+    private NativeLibraries() {
+    }
+
+    /**
+     * Loads OpenCV Java library or skips the current test
+     */
+    static synchronized void assumeOpenCV() {
+        if (openCVLoaded == null) {
+            try {
+                System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+                openCVLoaded = true;
+            } catch (UnsatisfiedLinkError e) {
+                openCVLoaded = false;
+            }
+        }
+        Assume.assumeTrue(Core.NATIVE_LIBRARY_NAME + " is not in java.library.path",
+                openCVLoaded);
+    }
+
+    /**
+     * Loads the fused kernel library (cmake -S app/src/main/cpp) or skips the current test
+     */
+    static void assumeFusedKernel() {
+        Assume.assumeTrue("fused_kernel is not in java.library.path",
+                FusedKernel.isAvailable());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks PacketEncoder -> PacketDecoder round-trips of the v1 and v2 packets
+ */
+public class PacketCodecTest {
+    private final static byte SUFFIX_1 = (byte) 0xEE;
+    private final static byte SUFFIX_2 = (byte) 0xEF;
+
+    private final static int[] VALUES = { 1000, 2000, 1500, 1234, 1777, 1001, -1500, 32767 };
+
+    @Test
+    public void v1PositionOnly() {
+        PacketEncoder packetEncoder = new PacketEncoder(SettingsContainer.PROTOCOL_V1, false,
+                SUFFIX_1, SUFFIX_2);
+        byte[] packet = encode(packetEncoder, VALUES, 0);
+        assertEquals(16, packet.length);
+        assertEquals(SUFFIX_1, packet[14]);
+        assertEquals(SUFFIX_2, packet[15]);
+
+        PacketDecoder packetDecoder = decode(SettingsContainer.PROTOCOL_V1, packet);
+        assertFalse(packetDecoder.hasVelocity());
+        for (int i = 0; i < PacketDecoder.VALUE_VELOCITY_X; i++)
+            assertEquals(VALUES[i], packetDecoder.getValues()[i]);
+        assertEquals(0, packetDecoder.getValues()[PacketDecoder.VALUE_VELOCITY_X]);
+        assertEquals(0, packetDecoder.getValues()[PacketDecoder.VALUE_VELOCITY_Y]);
+    }
+
+    @Test
+    public void v1WithVelocity() {
+        PacketEncoder packetEncoder = new PacketEncoder(SettingsContainer.PROTOCOL_V1, true,
+                SUFFIX_1, SUFFIX_2);
+        byte[] packet = encode(packetEncoder, VALUES, 0);
+        assertEquals(20, packet.length);
+
+        PacketDecoder packetDecoder = decode(SettingsContainer.PROTOCOL_V1, packet);
+        assertTrue(packetDecoder.hasVelocity());
+        assertArrayEquals(VALUES, packetDecoder.getValues());
+    }
+
+    @Test
+    public void v1RejectsWrongCheckByte() {
+        PacketEncoder packetEncoder = new PacketEncoder(SettingsContainer.PROTOCOL_V1, true,
+                SUFFIX_1, SUFFIX_2);
+        byte[] packet = encode(packetEncoder, VALUES, 0).clone();
+        packet[3] ^= 0x10;
+        assertNull(decodeOrNull(SettingsContainer.PROTOCOL_V1, packet));
+    }
+
+    @Test
+    public void v2RoundTrip() {
+        PacketEncoder packetEncoder = new PacketEncoder(SettingsContainer.PROTOCOL_V2, false,
+                SUFFIX_1, SUFFIX_2);
+        PacketDecoder packetDecoder = new PacketDecoder(SettingsContainer.PROTOCOL_V2,
+                SUFFIX_1, SUFFIX_2);
+        for (int i = 0; i < 300; i++) {
+            long timeCaptured = 123_456_789_000L + i * 33_000_000L;
+            byte[] frame = encode(packetEncoder, VALUES, timeCaptured);
+            assertEquals(SerialProtocol.FRAME_LENGTH, frame.length);
+
+            // The only zero byte is the delimiter
+            for (int j = 0; j < frame.length - 1; j++)
+                assertNotEquals(0, frame[j]);
+            assertEquals(0, frame[frame.length - 1]);
+
+            assertTrue(decodeAll(packetDecoder, frame));
+            assertTrue(packetDecoder.hasVelocity());
+            assertArrayEquals(VALUES, packetDecoder.getValues());
+            assertEquals(i & 0xFF, packetDecoder.getSequence());
+            assertEquals((timeCaptured / 1000) & 0xFFFFFFFFL, packetDecoder.getTimestamp());
+        }
+    }
+
+    @Test
+    public void v2RejectsCorruptedFrame() {
+        PacketEncoder packetEncoder = new PacketEncoder(SettingsContainer.PROTOCOL_V2, false,
+                SUFFIX_1, SUFFIX_2);
+        byte[] frame = encode(packetEncoder, VALUES, 1_000_000L);
+
+        // Every single bit error except the ones that break the delimiter is detected
+        for (int i = 0; i < frame.length - 1; i++)
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] corrupted = frame.clone();
+                corrupted[i] ^= 1 << bit;
+                assertNull("Byte " + i + " bit " + bit,
+                        decodeOrNull(SettingsContainer.PROTOCOL_V2, corrupted));
+            }
+    }
+
+    @Test
+    public void v2ResyncAfterGarbage() {
+        PacketEncoder packetEncoder = new PacketEncoder(SettingsContainer.PROTOCOL_V2, false,
+                SUFFIX_1, SUFFIX_2);
+        PacketDecoder packetDecoder = new PacketDecoder(SettingsContainer.PROTOCOL_V2,
+                SUFFIX_1, SUFFIX_2);
+
+        // Half of the frame without the delimiter is dropped with the next frame's delimiter
+        byte[] frame = encode(packetEncoder, VALUES, 0).clone();
+        for (int i = 0; i < frame.length / 2; i++)
+            assertFalse(packetDecoder.decode(frame[i]));
+        assertFalse(decodeAll(packetDecoder, encode(packetEncoder, VALUES, 0)));
+
+        // Next frame is received
+        assertTrue(decodeAll(packetDecoder, encode(packetEncoder, VALUES, 0)));
+        assertArrayEquals(VALUES, packetDecoder.getValues());
+    }
+
+    @Test
+    public void v2PingIsNotPosition() {
+        PacketEncoder packetEncoder = new PacketEncoder(SettingsContainer.PROTOCOL_V2, false,
+                SUFFIX_1, SUFFIX_2);
+        byte[] pingFrame = packetEncoder.encodePing(5_000_000L);
+        assertEquals(SerialProtocol.PING_FRAME_LENGTH, pingFrame.length);
+        assertNull(decodeOrNull(SettingsContainer.PROTOCOL_V2, pingFrame));
+        assertNull(new PacketEncoder(SettingsContainer.PROTOCOL_V1, false,
+                SUFFIX_1, SUFFIX_2).encodePing(5_000_000L));
+
+        // Decode ping packet
+        byte[] pingPacket = new byte[SerialProtocol.PING_LENGTH];
+        assertEquals(SerialProtocol.PING_LENGTH, SerialProtocol.cobsDecode(pingFrame,
+                pingFrame.length - 1, pingPacket));
+        assertEquals(SerialProtocol.TYPE_PING, pingPacket[SerialProtocol.OFFSET_TYPE]);
+        int crc = ((pingPacket[SerialProtocol.OFFSET_PING_CRC] & 0xFF) << 8)
+                | (pingPacket[SerialProtocol.OFFSET_PING_CRC + 1] & 0xFF);
+        assertEquals(SerialProtocol.crc16(pingPacket, 0, SerialProtocol.OFFSET_PING_CRC), crc);
+    }
+
+    private static byte[] encode(PacketEncoder packetEncoder, int[] values, long timeCaptured) {
+        return packetEncoder.encode(values[0], values[1], values[2], values[3], values[4],
+                values[5], values[6], values[7], timeCaptured);
+    }
+
+    /**
+     * @return true if the last byte completed a valid packet
+     */
+    private static boolean decodeAll(PacketDecoder packetDecoder, byte[] data) {
+        boolean decoded = false;
+        for (byte b : data)
+            decoded = packetDecoder.decode(b);
+        return decoded;
+    }
+
+    /**
+     * @return decoder with the decoded packet or null if no packet was decoded
+     */
+    private static PacketDecoder decodeOrNull(int protocol, byte[] data) {
+        PacketDecoder packetDecoder = new PacketDecoder(protocol, SUFFIX_1, SUFFIX_2);
+        for (byte b : data)
+            if (packetDecoder.decode(b))
+                return packetDecoder;
+        return null;
+    }
+
+    private static PacketDecoder decode(int protocol, byte[] data) {
+        PacketDecoder packetDecoder = decodeOrNull(protocol, data);
+        assertNotNull(packetDecoder);
+        return packetDecoder;
+    }
+}
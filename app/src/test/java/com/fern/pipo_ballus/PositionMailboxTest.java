@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Single-threaded checks of PositionMailbox: put, poll, clear and newest-wins
+ */
+public class PositionMailboxTest {
+    private PositionMailbox positionMailbox;
+    private PositionContainer positionContainer;
+
+    @Before
+    public void setUp() {
+        positionMailbox = new PositionMailbox();
+        positionContainer = new PositionContainer();
+    }
+
+    @Test
+    public void pollWithoutPut() {
+        assertNull(positionMailbox.poll());
+    }
+
+    @Test
+    public void putAndPoll() {
+        positionContainer.ballVSTableX = 1234;
+        positionContainer.ballDetected = true;
+        positionMailbox.put(positionContainer);
+
+        PositionContainer snapshot = positionMailbox.poll();
+        assertNotNull(snapshot);
+        assertNotSame(positionContainer, snapshot);
+        assertEquals(1234, snapshot.ballVSTableX, 0);
+        assertTrue(snapshot.ballDetected);
+        assertEquals(1, snapshot.sequence);
+
+        // Each position is taken only once
+        assertNull(positionMailbox.poll());
+    }
+
+    @Test
+    public void newestWins() {
+        for (int i = 1; i <= 5; i++) {
+            positionContainer.ballVSTableX = i;
+            positionMailbox.put(positionContainer);
+        }
+
+        PositionContainer snapshot = positionMailbox.poll();
+        assertNotNull(snapshot);
+        assertEquals(5, snapshot.ballVSTableX, 0);
+        assertEquals(5, snapshot.sequence);
+        assertNull(positionMailbox.poll());
+    }
+
+    @Test
+    public void snapshotIsNotOverwrittenByPut() {
+        positionContainer.ballVSTableX = 1;
+        positionMailbox.put(positionContainer);
+        PositionContainer snapshot = positionMailbox.poll();
+
+        // The producer cycles through the other two snapshots
+        for (int i = 2; i <= 10; i++) {
+            positionContainer.ballVSTableX = i;
+            positionMailbox.put(positionContainer);
+        }
+        assertEquals(1, snapshot.ballVSTableX, 0);
+        assertEquals(10, positionMailbox.poll().ballVSTableX, 0);
+    }
+
+    @Test
+    public void clearDropsPosition() {
+        positionContainer.ballVSTableX = 1;
+        positionMailbox.put(positionContainer);
+        positionMailbox.clear();
+        assertNull(positionMailbox.poll());
+
+        // Clearing an empty mailbox does nothing
+        positionMailbox.clear();
+        assertNull(positionMailbox.poll());
+
+        // New positions are delivered after clear()
+        positionContainer.ballVSTableX = 2;
+        positionMailbox.put(positionContainer);
+        PositionContainer snapshot = positionMailbox.poll();
+        assertNotNull(snapshot);
+        assertEquals(2, snapshot.ballVSTableX, 0);
+        assertEquals(2, snapshot.sequence);
+    }
+
+    @Test
+    public void takeReturnsPosition() throws InterruptedException {
+        positionContainer.ballVSTableX = 3;
+        positionMailbox.put(positionContainer);
+        assertEquals(3, positionMailbox.take().ballVSTableX, 0);
+    }
+}
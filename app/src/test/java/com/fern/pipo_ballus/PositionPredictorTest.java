@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the transmit time prediction of PositionPredictor with the known velocity and horizon
+ */
+public class PositionPredictorTest {
+    private final static long TIME_CAPTURED = 5_000_000_000L;
+
+    @Test
+    public void horizonFromCaptureTime() {
+        // 30 ms since the capture plus 10 ms extra horizon
+        assertEquals(40, PositionPredictor.getHorizon(TIME_CAPTURED + 30_000_000L,
+                TIME_CAPTURED, TIME_CAPTURED + 25_000_000L, true, 10), 1e-9);
+    }
+
+    @Test
+    public void horizonFromReceiveTimeWithoutCompensation() {
+        assertEquals(5, PositionPredictor.getHorizon(TIME_CAPTURED + 30_000_000L,
+                TIME_CAPTURED, TIME_CAPTURED + 25_000_000L, false, 10), 1e-9);
+
+        // Unknown capture time
+        assertEquals(5, PositionPredictor.getHorizon(TIME_CAPTURED + 30_000_000L,
+                0, TIME_CAPTURED + 25_000_000L, true, 10), 1e-9);
+
+        // Position sent once
+        assertEquals(0, PositionPredictor.getHorizon(TIME_CAPTURED + 30_000_000L,
+                TIME_CAPTURED, 0, false, 10), 0);
+    }
+
+    @Test
+    public void horizonIsClamped() {
+        double maxHorizon = PositionPredictor.MAX_EXTRAPOLATION_TIME / 1e6;
+        assertEquals(maxHorizon, PositionPredictor.getHorizon(TIME_CAPTURED + 250_000_000L,
+                TIME_CAPTURED, 0, true, 10), 1e-9);
+        assertEquals(maxHorizon, PositionPredictor.getHorizon(
+                TIME_CAPTURED + PositionPredictor.MAX_EXTRAPOLATION_TIME - 5_000_000L,
+                TIME_CAPTURED, 0, true, 10), 1e-9);
+        assertEquals(0, PositionPredictor.getHorizon(TIME_CAPTURED - 1_000_000L,
+                TIME_CAPTURED, 0, true, 0), 0);
+    }
+
+    @Test
+    public void predictByVelocity() {
+        // 500 units/s for 40 ms
+        assertEquals(1520, PositionPredictor.predict(1500, 500, 40), 1e-9);
+        assertEquals(1480, PositionPredictor.predict(1500, -500, 40), 1e-9);
+        assertEquals(1500, PositionPredictor.predict(1500, 500, 0), 0);
+    }
+
+    @Test
+    public void predictionIsLimitedToTable() {
+        assertEquals(2000, PositionPredictor.predict(1990, 1000, 50), 0);
+        assertEquals(1000, PositionPredictor.predict(1010, -1000, 50), 0);
+    }
+
+    @Test
+    public void predictionAtClampedHorizon() {
+        // Old frame: the position moves at most by velocity * MAX_EXTRAPOLATION_TIME
+        double horizon = PositionPredictor.getHorizon(TIME_CAPTURED + 1_000_000_000L,
+                TIME_CAPTURED, 0, true, 10);
+        assertEquals(1500 + 200 * PositionPredictor.MAX_EXTRAPOLATION_TIME / 1e9,
+                PositionPredictor.predict(1500, 200, horizon), 1e-9);
+    }
+}
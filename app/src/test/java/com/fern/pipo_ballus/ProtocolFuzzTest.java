@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fuzz test of the serial protocols: the same random positions are encoded with v1 and v2,
+ * corrupted with random bit errors and bursts of random bytes and decoded by PacketDecoder.
+ * v2 must not accept any corrupted packet and must resynchronize on the next frame after a burst.
+ * v1 has no such guarantees, its numbers are only printed for comparison
+ */
+public class ProtocolFuzzTest {
+    private final static int PACKETS = 10000;
+    private final static long SEED = 42;
+
+    private final static byte SUFFIX_1 = (byte) 0xEE;
+    private final static byte SUFFIX_2 = (byte) 0xEF;
+    private final static int BAUD_RATE = 57600;
+
+    // Probability of a bit error
+    private final static double BIT_ERROR_RATE = 1e-3;
+
+    // One burst of random bytes (1 - BURST_MAX_LENGTH bytes) every BURST_INTERVAL packets
+    private final static int BURST_INTERVAL = 20;
+    private final static int BURST_MAX_LENGTH = 8;
+
+    // v2 resynchronizes after the rest of the broken frame and one complete frame
+    private final static int V2_MAX_RESYNC_BYTES = 2 * SerialProtocol.FRAME_LENGTH;
+
+    // Indexes of the decode() results
+    private final static int RECEIVED = 0;
+    private final static int UNDETECTED = 1;
+    private final static int RESYNC_SUM = 2;
+    private final static int RESYNC_MAX = 3;
+
+    @Test
+    public void cleanStream() {
+        for (int protocol : new int[] { SettingsContainer.PROTOCOL_V1,
+                SettingsContainer.PROTOCOL_V2 }) {
+            HashSet<Long> sent = new HashSet<>();
+            byte[] stream = buildStream(protocol, new Random(SEED), sent);
+            int[] result = decode(protocol, stream, null, sent);
+            report(protocol, String.format("%d bytes per packet, clean stream received %.3f%%",
+                    stream.length / PACKETS, 100. * result[RECEIVED] / PACKETS));
+            assertEquals(PACKETS, result[RECEIVED]);
+            assertEquals(0, result[UNDETECTED]);
+        }
+    }
+
+    @Test
+    public void bitErrors() {
+        runBitErrors(SettingsContainer.PROTOCOL_V1);
+        int[] result = runBitErrors(SettingsContainer.PROTOCOL_V2);
+        assertEquals("v2 accepted corrupted packets", 0, result[UNDETECTED]);
+
+        // About 20% of the 28 bytes frames have at least one bit error
+        assertTrue(result[RECEIVED] > PACKETS / 2);
+    }
+
+    @Test
+    public void bursts() {
+        runBursts(SettingsContainer.PROTOCOL_V1);
+        int[] result = runBursts(SettingsContainer.PROTOCOL_V2);
+        assertEquals("v2 accepted corrupted packets", 0, result[UNDETECTED]);
+        assertTrue("v2 resync took " + result[RESYNC_MAX] + " bytes",
+                result[RESYNC_MAX] <= V2_MAX_RESYNC_BYTES);
+    }
+
+    /**
+     * Decodes stream with random bit errors (BIT_ERROR_RATE)
+     * @return decode() results
+     */
+    private static int[] runBitErrors(int protocol) {
+        Random random = new Random(SEED);
+        HashSet<Long> sent = new HashSet<>();
+        byte[] stream = buildStream(protocol, random, sent);
+        for (int i = 0; i < stream.length; i++)
+            if (random.nextDouble() < BIT_ERROR_RATE * 8)
+                stream[i] ^= 1 << random.nextInt(8);
+        int[] result = decode(protocol, stream, null, sent);
+        report(protocol, String.format("bit errors (BER %.0e) received %.2f%%, undetected %d",
+                BIT_ERROR_RATE, 100. * result[RECEIVED] / PACKETS, result[UNDETECTED]));
+        return result;
+    }
+
+    /**
+     * Decodes stream with a burst of random bytes every BURST_INTERVAL packets
+     * @return decode() results
+     */
+    private static int[] runBursts(int protocol) {
+        Random random = new Random(SEED);
+        HashSet<Long> sent = new HashSet<>();
+        byte[] stream = buildStream(protocol, random, sent);
+        int packetLength = stream.length / PACKETS;
+        int bursts = PACKETS / BURST_INTERVAL - 1;
+        int[] burstEnds = new int[bursts];
+        for (int i = 0; i < bursts; i++) {
+            int start = (i + 1) * BURST_INTERVAL * packetLength + random.nextInt(packetLength);
+            int length = 1 + random.nextInt(BURST_MAX_LENGTH);
+            for (int j = start; j < start + length; j++)
+                stream[j] = (byte) random.nextInt(256);
+            burstEnds[i] = start + length;
+        }
+        int[] result = decode(protocol, stream, burstEnds, sent);
+        double resyncBytes = (double) result[RESYNC_SUM] / bursts;
+        report(protocol, String.format("bursts lost %.2f packets per burst, "
+                        + "resync %.1f bytes (%.2f ms, max %d bytes), undetected %d",
+                (double) (PACKETS - result[RECEIVED]) / bursts, resyncBytes,
+                resyncBytes * 10 * 1000 / BAUD_RATE, result[RESYNC_MAX], result[UNDETECTED]));
+        return result;
+    }
+
+    /**
+     * Encodes PACKETS random positions
+     * @param protocol SettingsContainer.PROTOCOL_V1 or SettingsContainer.PROTOCOL_V2
+     * @param random random generator
+     * @param sent output set of the hashes of the sent values
+     * @return encoded stream
+     */
+    private static byte[] buildStream(int protocol, Random random, HashSet<Long> sent) {
+        PacketEncoder packetEncoder = new PacketEncoder(protocol, true, SUFFIX_1, SUFFIX_2);
+        int[] values = new int[PacketDecoder.VALUES_LENGTH];
+        byte[] stream = null;
+        for (int i = 0; i < PACKETS; i++) {
+            for (int j = 0; j < PacketDecoder.VALUE_VELOCITY_X; j++)
+                values[j] = 1000 + random.nextInt(1001);
+
+            // Velocity of the fast moving ball (table units per second)
+            values[PacketDecoder.VALUE_VELOCITY_X] = (int) (random.nextGaussian() * 2000);
+            values[PacketDecoder.VALUE_VELOCITY_Y] = (int) (random.nextGaussian() * 2000);
+            sent.add(hash(values));
+
+            byte[] packet = packetEncoder.encode(values[0], values[1], values[2],
+                    values[3], values[4], values[5], values[6], values[7], i * 10_000_000L);
+            if (stream == null)
+                stream = new byte[packet.length * PACKETS];
+            System.arraycopy(packet, 0, stream, i * packet.length, packet.length);
+        }
+        return stream;
+    }
+
+    /**
+     * Decodes the stream
+     * @param protocol SettingsContainer.PROTOCOL_V1 or SettingsContainer.PROTOCOL_V2
+     * @param stream encoded (and possibly corrupted) stream
+     * @param burstEnds indexes of the first bytes after the bursts or null
+     * @param sent set of the hashes of the sent values
+     * @return number of the correct packets, number of the accepted corrupted packets,
+     * sum and maximum of the bytes from the burst ends to the ends of the next correct packets
+     */
+    private static int[] decode(int protocol, byte[] stream, int[] burstEnds, HashSet<Long> sent) {
+        PacketDecoder packetDecoder = new PacketDecoder(protocol, SUFFIX_1, SUFFIX_2);
+        int[] result = new int[4];
+        int burst = 0;
+        boolean waiting = false;
+        for (int i = 0; i < stream.length; i++) {
+            // Start waiting for the next correct packet after the burst
+            if (burstEnds != null && burst < burstEnds.length && i == burstEnds[burst]) {
+                waiting = true;
+                burst++;
+            }
+            if (!packetDecoder.decode(stream[i]))
+                continue;
+
+            if (sent.contains(hash(packetDecoder.getValues()))) {
+                result[RECEIVED]++;
+                if (waiting) {
+                    int resync = i + 1 - burstEnds[burst - 1];
+                    result[RESYNC_SUM] += resync;
+                    result[RESYNC_MAX] = Math.max(result[RESYNC_MAX], resync);
+                    waiting = false;
+                }
+            } else
+                result[UNDETECTED]++;
+        }
+        return result;
+    }
+
+    /**
+     * @param values position, setpoints and velocity
+     * @return 64-bit hash of the values
+     */
+    private static long hash(int[] values) {
+        long hash = 0;
+        for (int value : values) {
+            hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 32;
+        }
+        return hash;
+    }
+
+    private static void report(int protocol, String message) {
+        System.out.println((protocol == SettingsContainer.PROTOCOL_V2 ? "v2: " : "v1: ")
+                + message);
+    }
+}
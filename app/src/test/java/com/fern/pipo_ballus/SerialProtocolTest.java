@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks CRC-16 and COBS round-trips of SerialProtocol
+ */
+public class SerialProtocolTest {
+    @Test
+    public void crc16CheckValue() {
+        // Check value of CRC-16/CCITT-FALSE
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, SerialProtocol.crc16(data, 0, data.length));
+        assertEquals(0xFFFF, SerialProtocol.crc16(data, 0, 0));
+    }
+
+    @Test
+    public void crc16Offset() {
+        byte[] data = "xx123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, SerialProtocol.crc16(data, 2, 9));
+    }
+
+    @Test
+    public void cobsRoundTripEdgeCases() {
+        roundTrip(new byte[0]);
+        roundTrip(new byte[] { 0 });
+        roundTrip(new byte[] { 0, 0, 0 });
+        roundTrip(new byte[] { 1, 0, 2, 0 });
+        roundTrip(filled(253, (byte) 1));
+        roundTrip(filled(254, (byte) 1));
+        roundTrip(filled(255, (byte) 1));
+        roundTrip(filled(600, (byte) 0x7F));
+    }
+
+    @Test
+    public void cobsRoundTripRandom() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            byte[] data = new byte[random.nextInt(SerialProtocol.TELEMETRY_LENGTH * 2)];
+            random.nextBytes(data);
+
+            // More zeros than in uniform random bytes
+            for (int j = 0; j < data.length; j++)
+                if (random.nextInt(8) == 0)
+                    data[j] = 0;
+            roundTrip(data);
+        }
+    }
+
+    @Test
+    public void cobsRejectsMalformedFrames() {
+        byte[] output = new byte[16];
+
+        // Zero code, block longer than the frame and zero inside the block
+        assertEquals(-1, SerialProtocol.cobsDecode(new byte[] { 0 }, 1, output));
+        assertEquals(-1, SerialProtocol.cobsDecode(new byte[] { 5, 1, 2 }, 3, output));
+        assertEquals(-1, SerialProtocol.cobsDecode(new byte[] { 3, 1, 0 }, 3, output));
+
+        // Frame longer than the output buffer
+        byte[] data = filled(20, (byte) 1);
+        byte[] frame = new byte[data.length + 2];
+        int frameLength = SerialProtocol.cobsEncode(data, data.length, frame);
+        assertEquals(-1, SerialProtocol.cobsDecode(frame, frameLength - 1, output));
+    }
+
+    /**
+     * Encodes and decodes the bytes and checks that the frame has the only 0x00 at the end
+     */
+    private static void roundTrip(byte[] data) {
+        byte[] frame = new byte[data.length + data.length / 254 + 2];
+        int frameLength = SerialProtocol.cobsEncode(data, data.length, frame);
+        assertTrue(frameLength <= frame.length);
+        assertEquals(0, frame[frameLength - 1]);
+        for (int i = 0; i < frameLength - 1; i++)
+            assertNotEquals(0, frame[i]);
+
+        byte[] output = new byte[data.length];
+        int length = SerialProtocol.cobsDecode(frame, frameLength - 1, output);
+        assertEquals(data.length, length);
+        assertArrayEquals(data, output);
+    }
+
+    private static byte[] filled(int length, byte value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, value);
+        return data;
+    }
+}
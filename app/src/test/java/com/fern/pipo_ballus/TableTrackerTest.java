@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Mat;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that TableTracker locks the geometry of the still table and reports the lock
+ * to the segmentation stage (isLocked()) without changing the tracking state
+ */
+public class TableTrackerTest {
+    private final static int FRAMES = 20;
+
+    private Mat[] frames;
+    private Mat maskTable, maskBall;
+    private ColorSegmenter colorSegmenter;
+
+    @Before
+    public void setUp() {
+        NativeLibraries.assumeOpenCV();
+        frames = TestFrames.draw(FRAMES);
+        maskTable = new Mat();
+        maskBall = new Mat();
+        colorSegmenter = new HSVSegmenter(TestFrames.tableRange(), TestFrames.ballRange());
+    }
+
+    @After
+    public void tearDown() {
+        if (frames == null)
+            return;
+        TestFrames.release(frames);
+        maskTable.release();
+        maskBall.release();
+    }
+
+    @Test
+    public void lockedTableSkipsMasks() {
+        TableTracker tableTracker = new TableTracker(true);
+        int detections = 0, skipped = 0;
+        for (Mat frame : frames) {
+            // Segmentation stage: masks only if the table is not locked
+            boolean locked = tableTracker.isLocked();
+            assertEquals(locked, tableTracker.isLocked());
+
+            // Processing stage (revalidation frames of the locked table also need masks)
+            if (tableTracker.needsDetection(frame, colorSegmenter)) {
+                colorSegmenter.segment(frame, maskTable, maskBall);
+                assertEquals(TableDetector.TABLE_FOUND, tableTracker.detect(maskTable));
+                detections++;
+            } else {
+                assertTrue(locked);
+                skipped++;
+            }
+        }
+        tableTracker.release();
+
+        System.out.printf("Table: %d detections, %d frames without masks%n",
+                detections, skipped);
+        assertTrue("Table was not locked", skipped > 0);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Synthetic camera frames for the segmentation and detection tests: the ball moves around
+ * the table and every frame has sensor noise, so the masks have pixels near the range bounds
+ */
+final class TestFrames {
+    final static int WIDTH = 320;
+    final static int HEIGHT = 240;
+    final static int BALL_RADIUS = 8;
+    private final static double NOISE = 8;
+
+    private TestFrames() {
+    }
+
+    /**
+     * @return table range (green, saturation and value above the background)
+     */
+    static HSVRange tableRange() {
+        return new HSVRange(new HSVColor(90, .4f, .3f), new HSVColor(150, 1f, 1f), false);
+    }
+
+    /**
+     * @return ball range (red, hue wraps around 0)
+     */
+    static HSVRange ballRange() {
+        return new HSVRange(new HSVColor(340, .5f, .3f), new HSVColor(20, 1f, 1f), false);
+    }
+
+    /**
+     * @param index frame index
+     * @param center output ball center on the frame (whole pixels, as the circle is drawn)
+     */
+    static void ballCenter(int index, Point center) {
+        center.x = Math.round(WIDTH / 2. + 60 * Math.cos(index / 5.));
+        center.y = Math.round(HEIGHT / 2. + 50 * Math.sin(index / 5.));
+    }
+
+    /**
+     * Draws the frames with the same noise on every run
+     * @param count number of frames
+     * @return RGBA frames (CV_8UC4)
+     */
+    static Mat[] draw(int count) {
+        Core.setRNGSeed(1);
+        Mat[] frames = new Mat[count];
+        Mat frame = new Mat(), noise = new Mat(HEIGHT, WIDTH, CvType.CV_16SC4);
+        RotatedRect tableEllipse = new RotatedRect(new Point(WIDTH / 2., HEIGHT / 2.),
+                new Size(200, 180), 10);
+        Point ballCenter = new Point();
+        for (int i = 0; i < count; i++) {
+            frame.create(HEIGHT, WIDTH, CvType.CV_16SC4);
+            frame.setTo(new Scalar(40, 40, 40, 255));
+            Imgproc.ellipse(frame, tableEllipse, new Scalar(30, 200, 60, 255), -1);
+            ballCenter(i, ballCenter);
+            Imgproc.circle(frame, ballCenter, BALL_RADIUS, new Scalar(220, 30, 30, 255), -1);
+            Core.randn(noise, 0, NOISE);
+            Core.add(frame, noise, frame);
+            frames[i] = new Mat();
+            frame.convertTo(frames[i], CvType.CV_8UC4);
+        }
+        frame.release();
+        noise.release();
+        return frames;
+    }
+
+    static void release(Mat[] frames) {
+        for (Mat frame : frames)
+            frame.release();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2021 Fern H. (aka Pavel Neshumov), PiPo-Ballus Android application
+ *
+ * Licensed under the GNU Affero General Public License, Version 3.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.en.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR MILITARY PURPOSES. ALSO, IT IS STRICTLY PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE)
+ * FOR ANY PURPOSE THAT MAY LEAD TO INJURY, HUMAN, ANIMAL OR ENVIRONMENTAL DAMAGE.
+ * ALSO, IT IS PROHIBITED TO USE THE PROJECT (OR PARTS OF THE PROJECT / CODE) FOR ANY PURPOSE THAT
+ * VIOLATES INTERNATIONAL HUMAN RIGHTS OR HUMAN FREEDOM.
+ * BY USING THE PROJECT (OR PART OF THE PROJECT / CODE) YOU AGREE TO ALL OF THE ABOVE RULES.
+ */
+
+package com.fern.pipo_ballus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares YUVSegmenter masks of the Y and chroma planes with the masks of the packed YUV frame
+ * on the test frames converted to NV21 and prints the time of the planes, the packed frame
+ * (conversion and segmentation) and the RGBA to HSV path
+ */
+public class YUVSegmenterTest {
+    private final static int FRAMES = 10;
+    private final static int BANDS = 4;
+    private final static double[] SCALES = { 1, 2 };
+
+    private Mat[] frames;
+    private Mat scaledRGBA, frameI420, frameNV21, chromaUV, frameYUV, frameRGBA;
+    private Mat referenceTable, referenceBall, maskTable, maskBall, maskDiff;
+    private MatOfInt swapChannels;
+
+    @Before
+    public void setUp() {
+        NativeLibraries.assumeOpenCV();
+        frames = TestFrames.draw(FRAMES);
+        scaledRGBA = new Mat();
+        frameI420 = new Mat();
+        frameNV21 = new Mat();
+        chromaUV = new Mat();
+        frameYUV = new Mat();
+        frameRGBA = new Mat();
+        referenceTable = new Mat();
+        referenceBall = new Mat();
+        maskTable = new Mat();
+        maskBall = new Mat();
+        maskDiff = new Mat();
+        swapChannels = new MatOfInt(0, 1, 1, 0);
+    }
+
+    @After
+    public void tearDown() {
+        if (frames == null)
+            return;
+        TestFrames.release(frames);
+        scaledRGBA.release();
+        frameI420.release();
+        frameNV21.release();
+        chromaUV.release();
+        frameYUV.release();
+        frameRGBA.release();
+        referenceTable.release();
+        referenceBall.release();
+        maskTable.release();
+        maskBall.release();
+        maskDiff.release();
+        swapChannels.release();
+    }
+
+    @Test
+    public void planesMatchPackedFrame() {
+        HSVRange tableRange = TestFrames.tableRange();
+        HSVRange ballRange = TestFrames.ballRange();
+        YUVSegmenter yuvSegmenter = new YUVSegmenter(tableRange, ballRange);
+        ColorSegmenter[] bandSegmenters = new ColorSegmenter[BANDS];
+        for (int i = 0; i < BANDS; i++)
+            bandSegmenters[i] = new YUVSegmenter(tableRange, ballRange);
+        BandSegmenter bandSegmenter = new BandSegmenter(bandSegmenters);
+        HSVSegmenter hsvSegmenter = new HSVSegmenter(tableRange, ballRange);
+        NV21Converter nv21Converter = new NV21Converter();
+        Size size = new Size();
+
+        for (double scale : SCALES) {
+            size.width = (int) (TestFrames.WIDTH * scale);
+            size.height = (int) (TestFrames.HEIGHT * scale);
+            int rows = (int) size.height;
+            long planesTime = 0, packedTime = 0, hsvTime = 0;
+            for (Mat frame : frames) {
+                Imgproc.resize(frame, scaledRGBA, size);
+                toNV21(scaledRGBA);
+                Mat planeY = frameNV21.rowRange(0, rows);
+                Mat chromaRows = frameNV21.rowRange(rows, rows + rows / 2);
+                Mat chromaVU = chromaRows.reshape(2);
+
+                // Packed frame (reference)
+                long timeStart = System.nanoTime();
+                nv21Converter.convert(planeY, chromaVU, true, frameYUV);
+                yuvSegmenter.segment(frameYUV, referenceTable, referenceBall);
+                packedTime += System.nanoTime() - timeStart;
+
+                // Planes
+                timeStart = System.nanoTime();
+                yuvSegmenter.segment(planeY, chromaVU, true, maskTable, maskBall);
+                planesTime += System.nanoTime() - timeStart;
+                assertMasksEqual();
+
+                // Planes in U, V order (NV12) and in parallel bands
+                chromaUV.create(chromaVU.size(), CvType.CV_8UC2);
+                Core.mixChannels(Collections.singletonList(chromaVU),
+                        Collections.singletonList(chromaUV), swapChannels);
+                yuvSegmenter.segment(planeY, chromaUV, false, maskTable, maskBall);
+                assertMasksEqual();
+                bandSegmenter.segment(planeY, chromaVU, true, maskTable, maskBall);
+                assertMasksEqual();
+
+                // RGBA to HSV
+                timeStart = System.nanoTime();
+                Imgproc.cvtColor(frameNV21, frameRGBA, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                hsvSegmenter.segment(frameRGBA, maskTable, maskBall);
+                hsvTime += System.nanoTime() - timeStart;
+
+                planeY.release();
+                chromaRows.release();
+                chromaVU.release();
+            }
+
+            System.out.printf("YUV %dx%d: planes %.2f ms, packed %.2f ms, RGBA to HSV %.2f ms%n",
+                    (int) size.width, rows, planesTime / 1e6 / frames.length,
+                    packedTime / 1e6 / frames.length, hsvTime / 1e6 / frames.length);
+        }
+    }
+
+    /**
+     * Converts RGBA frame to the NV21 frame (Y plane and interleaved V, U plane) in frameNV21
+     */
+    private void toNV21(Mat inputRGBA) {
+        int rows = inputRGBA.rows();
+        int cols = inputRGBA.cols();
+        Imgproc.cvtColor(inputRGBA, frameI420, Imgproc.COLOR_RGBA2YUV_I420);
+        byte[] i420 = new byte[rows * cols * 3 / 2];
+        frameI420.get(0, 0, i420);
+        int sizeY = rows * cols;
+        int sizeChroma = sizeY / 4;
+        byte[] nv21 = new byte[i420.length];
+        System.arraycopy(i420, 0, nv21, 0, sizeY);
+        for (int i = 0; i < sizeChroma; i++) {
+            nv21[sizeY + i * 2] = i420[sizeY + sizeChroma + i];
+            nv21[sizeY + i * 2 + 1] = i420[sizeY + i];
+        }
+        frameNV21.create(rows + rows / 2, cols, CvType.CV_8UC1);
+        frameNV21.put(0, 0, nv21);
+    }
+
+    /**
+     * Checks that the masks are the same as the masks of the packed frame
+     */
+    private void assertMasksEqual() {
+        Core.compare(maskTable, referenceTable, maskDiff, Core.CMP_NE);
+        assertEquals(0, Core.countNonZero(maskDiff));
+        Core.compare(maskBall, referenceBall, maskDiff, Core.CMP_NE);
+        assertEquals(0, Core.countNonZero(maskDiff));
+    }
+}